@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import weka.classifiers.bayes.NaiveBayes;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+import edu.teco.context.configuration.FrameworkContext;
+import edu.teco.context.log.ArffFeatureReader;
+import edu.teco.context.log.ArffFeatureWriter;
+import edu.teco.context.recognition.FeatureStore;
+import edu.teco.context.recognition.FeatureStoreNaiveBayes;
+
+/**
+ * Compares loading and training a large ARFF file with the WEKA ArffLoader
+ * and NaiveBayes to the single pass ArffFeatureReader with the feature store
+ * (like WekaManager.configureWithArffFile). Unlike the feature benchmarks this
+ * benchmark needs the WEKA jar at runtime.
+ *
+ * If no file is given a file with random features and the number format of
+ * the ArffFeatureWriter is created in the temporary directory.
+ *
+ * Usage: ArffLoadBenchmark [-r rows] [-f features] [-i iterations] [file]
+ */
+public class ArffLoadBenchmark {
+
+	private static final String[] CLASS_VALUES = new String[] { "Walking", "Sitting", "Standing", "Cycling" };
+
+	private int mRows = 1000000;
+	private int mFeatures = 30;
+	private int mIterations = 3;
+	private File mFile = null;
+
+	public static void main(String[] args) throws Exception {
+		// android.util.Log is not available on the desktop
+		FrameworkContext.INFO = false;
+		FrameworkContext.WARN = false;
+		FrameworkContext.ERROR = false;
+
+		ArffLoadBenchmark benchmark = new ArffLoadBenchmark();
+		for (int i = 0; i < args.length; i++) {
+			if ("-r".equals(args[i])) {
+				benchmark.mRows = Integer.parseInt(args[++i]);
+			} else if ("-f".equals(args[i])) {
+				benchmark.mFeatures = Integer.parseInt(args[++i]);
+			} else if ("-i".equals(args[i])) {
+				benchmark.mIterations = Integer.parseInt(args[++i]);
+			} else {
+				benchmark.mFile = new File(args[i]);
+			}
+		}
+		benchmark.run();
+	}
+
+	public void run() throws Exception {
+		boolean isGenerated = mFile == null;
+		if (isGenerated) {
+			mFile = File.createTempFile("ArffLoadBenchmark", ".arff");
+			mFile.deleteOnExit();
+			createFile();
+		}
+		File storeFile = new File(mFile.getPath().replace(".arff", "") + ".features");
+		storeFile.deleteOnExit();
+
+		System.out.println("File: " + mFile.getPath() + " (" + mFile.length() / (1024 * 1024) + " MB)");
+		System.out.println(String.format("%-40s %10s %10s %10s", "Benchmark", "load ms", "train ms", "heap MB"));
+
+		for (int i = 0; i < mIterations; i++) {
+			runArffLoader();
+			runArffFeatureReader(storeFile);
+		}
+	}
+
+	private void runArffLoader() throws Exception {
+		long heapBefore = usedHeap();
+		long startTime = System.nanoTime();
+
+		ArffLoader loader = new ArffLoader();
+		loader.setSource(mFile);
+		Instances data = loader.getDataSet();
+		data.setClassIndex(data.numAttributes() - 1);
+		long loadTime = System.nanoTime();
+
+		NaiveBayes classifier = new NaiveBayes();
+		classifier.buildClassifier(data);
+		long trainTime = System.nanoTime();
+
+		print("ArffLoader + NaiveBayes", startTime, loadTime, trainTime, usedHeap() - heapBefore);
+	}
+
+	private void runArffFeatureReader(File storeFile) throws Exception {
+		long heapBefore = usedHeap();
+		long startTime = System.nanoTime();
+
+		ArffFeatureReader reader = new ArffFeatureReader(new FileReader(mFile));
+		reader.readHeader(null);
+		FeatureStore store = FeatureStore.create(storeFile, reader.getFeatureNames(), reader.getClassValues());
+		while (reader.next()) {
+			if (reader.getClassIndex() >= 0) {
+				store.append(reader.getValues(), reader.getClassIndex());
+			}
+		}
+		reader.close();
+		long loadTime = System.nanoTime();
+
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		for (String featureName : store.getFeatureNames()) {
+			attributes.add(new Attribute(featureName));
+		}
+		attributes.add(new Attribute("Class", new ArrayList<String>(store.getClassValues())));
+		Instances header = new Instances(reader.getRelationName(), attributes, 0);
+		header.setClassIndex(header.numAttributes() - 1);
+		FeatureStoreNaiveBayes classifier = new FeatureStoreNaiveBayes();
+		classifier.buildClassifier(store, header);
+		long trainTime = System.nanoTime();
+
+		print("ArffFeatureReader + FeatureStore", startTime, loadTime, trainTime, usedHeap() - heapBefore);
+		store.close();
+	}
+
+	private void createFile() throws IOException {
+		List<String> featureNames = new ArrayList<String>();
+		for (int i = 0; i < mFeatures; i++) {
+			featureNames.add("feature" + i);
+		}
+		List<String> classValues = new ArrayList<String>();
+		for (String classValue : CLASS_VALUES) {
+			classValues.add(classValue);
+		}
+
+		ArffFeatureWriter writer = new ArffFeatureWriter(new BufferedWriter(new FileWriter(mFile), 64 * 1024));
+		writer.writeHeader(new ArrayList<String>(), "ArffLoadBenchmark", featureNames, classValues);
+
+		Random random = new Random(42);
+		double[] features = new double[mFeatures];
+		for (int row = 0; row < mRows; row++) {
+			int classIndex = row % CLASS_VALUES.length;
+			for (int i = 0; i < mFeatures; i++) {
+				// features in the ranges of sensor features (means, variances, energies)
+				features[i] = (classIndex + 1) * Math.pow(10, i % 5 - 2) * (1.0 + 0.3 * random.nextGaussian());
+			}
+			writer.writeFeatures(features, CLASS_VALUES[classIndex]);
+		}
+		writer.close();
+	}
+
+	private static void print(String name, long startTime, long loadTime, long trainTime, long heap) {
+		System.out.println(String.format("%-40s %10d %10d %10d", name, (loadTime - startTime) / 1000000,
+				(trainTime - loadTime) / 1000000, heap / (1024 * 1024)));
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
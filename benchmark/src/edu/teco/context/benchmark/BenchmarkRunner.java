@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.teco.context.configuration.FrameworkContext;
+
+/**
+ * Runs the feature extraction benchmarks on a desktop JVM and prints the
+ * throughput and the allocated bytes per operation for every window size and
+ * number of axes.
+ *
+ * Every configuration is measured in its own iterations after a warmup, so the
+ * JIT compiler has compiled the hot path before the measurement starts. The
+ * results of the operations are summed up and printed, which keeps the JIT
+ * compiler from removing the calculations (dead code elimination). The
+ * allocations are read from the HotSpot thread MXBean.
+ *
+ * Usage: BenchmarkRunner [-w warmupMillis] [-m measurementMillis] [-i iterations] [name filter ...]
+ *
+ * see references:
+ * http://openjdk.java.net/projects/code-tools/jmh/
+ */
+public class BenchmarkRunner {
+
+	/** window sizes in values per axis, from slow sensors to 1000 Hz in 2 s */
+	private static final int[] WINDOW_SIZES = new int[] { 50, 100, 200, 500, 1000, 2000 };
+	private static final int[] AXES = new int[] { 1, 3 };
+
+	private long mWarmupMillis = 500;
+	private long mMeasurementMillis = 500;
+	private int mIterations = 5;
+	private final List<String> mFilters = new ArrayList<String>();
+
+	private final com.sun.management.ThreadMXBean mThreadBean;
+	private final long mThreadId;
+
+	/** sum of all results, printed at the end */
+	private double mSink = 0.0;
+
+	public BenchmarkRunner() {
+		mThreadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		mThreadId = Thread.currentThread().getId();
+		if (mThreadBean.isThreadAllocatedMemorySupported()) {
+			mThreadBean.setThreadAllocatedMemoryEnabled(true);
+		}
+	}
+
+	public static void main(String[] args) {
+		// android.util.Log is not available on the desktop
+		FrameworkContext.INFO = false;
+		FrameworkContext.ERROR = false;
+
+		BenchmarkRunner runner = new BenchmarkRunner();
+		for (int i = 0; i < args.length; i++) {
+			if ("-w".equals(args[i])) {
+				runner.mWarmupMillis = Long.parseLong(args[++i]);
+			} else if ("-m".equals(args[i])) {
+				runner.mMeasurementMillis = Long.parseLong(args[++i]);
+			} else if ("-i".equals(args[i])) {
+				runner.mIterations = Integer.parseInt(args[++i]);
+			} else {
+				runner.mFilters.add(args[i]);
+			}
+		}
+
+		List<FeatureBenchmark> benchmarks = new ArrayList<FeatureBenchmark>();
+		benchmarks.addAll(FeatureBenchmarks.createAll());
+		benchmarks.add(new SensorHandlerBenchmark("SensorHandler.calculateFeatures", 0.0, 0.0));
+		benchmarks.add(new SensorHandlerBenchmark("SensorHandler.calculateFeatures(overlap 0.5)", 0.5, 0.0));
+		benchmarks.add(new SensorHandlerBenchmark("SensorHandler.calculateFeatures(overlap 0.9, sliding DFT 5 Hz)", 0.9, 5.0));
+		benchmarks.add(new LogFormatBenchmark("LogFormat.StringBuilder.append", true));
+		benchmarks.add(new LogFormatBenchmark("LogFormat.DataParser.appendSensorMessage", false));
+
+		runner.run(benchmarks);
+	}
+
+	public void run(List<FeatureBenchmark> benchmarks) {
+		System.out.println(String.format("%-66s %4s %6s %14s %12s %12s %12s",
+				"Benchmark", "Axes", "Window", "ops/s", "error", "us/op", "B/op"));
+
+		for (FeatureBenchmark benchmark : benchmarks) {
+			if (!isSelected(benchmark.getName())) {
+				continue;
+			}
+			for (int a = 0; a < AXES.length; a++) {
+				for (int w = 0; w < WINDOW_SIZES.length; w++) {
+					run(benchmark, WINDOW_SIZES[w], AXES[a]);
+				}
+			}
+		}
+
+		System.out.println("Result sum (ignore): " + mSink);
+	}
+
+	private boolean isSelected(String name) {
+		if (mFilters.isEmpty()) {
+			return true;
+		}
+		for (String filter : mFilters) {
+			if (name.contains(filter)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void run(FeatureBenchmark benchmark, int windowSize, int axes) {
+		benchmark.setUp(windowSize, axes);
+
+		runIteration(benchmark, mWarmupMillis);
+
+		double[] throughputs = new double[mIterations];
+		long operations = 0;
+		long nanos = 0;
+		long allocatedBefore = getAllocatedBytes();
+		for (int i = 0; i < mIterations; i++) {
+			long start = System.nanoTime();
+			long iterationOperations = runIteration(benchmark, mMeasurementMillis);
+			long iterationNanos = System.nanoTime() - start;
+			throughputs[i] = iterationOperations * 1e9 / iterationNanos;
+			operations += iterationOperations;
+			nanos += iterationNanos;
+		}
+		long allocated = getAllocatedBytes() - allocatedBefore;
+
+		double mean = 0.0;
+		for (int i = 0; i < mIterations; i++) {
+			mean += throughputs[i];
+		}
+		mean /= mIterations;
+		double variance = 0.0;
+		for (int i = 0; i < mIterations; i++) {
+			variance += (throughputs[i] - mean) * (throughputs[i] - mean);
+		}
+		double error = (mIterations > 1) ? Math.sqrt(variance / (mIterations - 1)) : 0.0;
+
+		String bytesPerOperation = (allocated >= 0) ? String.format("%12.1f", (double) allocated / operations) : "         n/a";
+
+		System.out.println(String.format("%-66s %4d %6d %14.1f %12.1f %12.3f %s",
+				benchmark.getName(), axes, windowSize, mean, error,
+				nanos / 1000.0 / operations, bytesPerOperation));
+	}
+
+	/**
+	 * Runs the benchmark until the time is over, the clock is read after
+	 * batches of operations so that fast operations are not dominated by
+	 * System.nanoTime().
+	 *
+	 * @return number of operations
+	 */
+	private long runIteration(FeatureBenchmark benchmark, long millis) {
+		long end = System.nanoTime() + millis * 1000000L;
+		long operations = 0;
+		int batch = 1;
+		double result = 0.0;
+		while (System.nanoTime() < end) {
+			for (int i = 0; i < batch; i++) {
+				result += benchmark.run();
+			}
+			operations += batch;
+			if (batch < 1024) {
+				batch <<= 1;
+			}
+		}
+		mSink += result;
+		return operations;
+	}
+
+	/**
+	 * @return allocated bytes of this thread or -1 if not supported by the JVM
+	 */
+	private long getAllocatedBytes() {
+		if (!mThreadBean.isThreadAllocatedMemorySupported()) {
+			return -1;
+		}
+		return mThreadBean.getThreadAllocatedBytes(mThreadId);
+	}
+
+}
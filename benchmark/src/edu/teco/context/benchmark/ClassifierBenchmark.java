@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.benchmark;
+
+import java.io.File;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.teco.context.configuration.FrameworkContext;
+import edu.teco.context.recognition.ClassifierBackend;
+
+/**
+ * Compares the built-in classifier backends: accuracy, training time, time
+ * per classification (as measured by the backend) and model size. The
+ * instances are split into k folds like in the KernelGridBenchmark, all
+ * folds are run twice, the first time to warm up the JIT. It needs the WEKA
+ * jar at runtime.
+ *
+ * Usage: ClassifierBenchmark [-k folds] [-r rows] [file]
+ */
+public class ClassifierBenchmark {
+
+	/** name and options of every benchmarked backend */
+	private static final String[][] BACKENDS = new String[][] {
+			{ ClassifierBackend.NAIVE_BAYES },
+			{ ClassifierBackend.NAIVE_BAYES, "-K" },
+			{ ClassifierBackend.DECISION_TREE },
+			{ ClassifierBackend.LOGISTIC },
+			{ ClassifierBackend.NEAREST_NEIGHBOR } };
+
+	private int mFolds = 10;
+	private int mRows = 0;
+	private File mFile = new File("assets/TestTrainingData.arff");
+
+	private Instances mData;
+
+	/** per backend: correct classifications, training and classification time, model size */
+	private final long[] mCorrect = new long[BACKENDS.length];
+	private final long[] mTrainingNanos = new long[BACKENDS.length];
+	private final double[] mClassificationNanos = new double[BACKENDS.length];
+	private final long[] mModelSizes = new long[BACKENDS.length];
+	private long mClassifications = 0;
+
+	public static void main(String[] args) throws Exception {
+		// android.util.Log is not available on the desktop
+		FrameworkContext.INFO = false;
+		FrameworkContext.WARN = false;
+		FrameworkContext.ERROR = false;
+
+		ClassifierBenchmark benchmark = new ClassifierBenchmark();
+		for (int i = 0; i < args.length; i++) {
+			if ("-k".equals(args[i])) {
+				benchmark.mFolds = Integer.parseInt(args[++i]);
+			} else if ("-r".equals(args[i])) {
+				benchmark.mRows = Integer.parseInt(args[++i]);
+			} else {
+				benchmark.mFile = new File(args[i]);
+			}
+		}
+		benchmark.run();
+	}
+
+	public void run() throws Exception {
+		if (mRows > 0) {
+			mData = KernelGridBenchmark.createData(mRows);
+			System.out.println("Random features: " + mRows + " instances");
+		} else {
+			mData = KernelGridBenchmark.readData(mFile);
+			System.out.println("File: " + mFile.getPath() + " (" + mData.numInstances() + " instances)");
+		}
+		mFolds = Math.max(2, Math.min(mFolds, mData.numInstances()));
+		System.out.println((mData.numAttributes() - 1) + " features, " + mData.numClasses() + " classes, "
+				+ mFolds + " folds");
+
+		for (int pass = 0; pass < 2; pass++) {
+			reset();
+			for (int fold = 0; fold < mFolds; fold++) {
+				runFold(fold);
+			}
+		}
+
+		System.out.println(String.format("%-28s %10s %12s %10s %12s", "Classifier", "accuracy", "training ms",
+				"us/op", "model bytes"));
+		for (int i = 0; i < BACKENDS.length; i++) {
+			StringBuilder name = new StringBuilder();
+			for (String part : BACKENDS[i]) {
+				name.append(part).append(' ');
+			}
+			System.out.println(String.format("%-28s %9.2f%% %12.1f %10.2f %12d", name.toString().trim(), 100.0
+					* mCorrect[i] / mClassifications, mTrainingNanos[i] / 1e6 / mFolds, mClassificationNanos[i]
+					/ 1000.0 / mFolds, mModelSizes[i] / mFolds));
+		}
+	}
+
+	private void runFold(int fold) throws Exception {
+		Instances training = new Instances(mData, 0);
+		Instances testing = new Instances(mData, 0);
+		for (int i = 0; i < mData.numInstances(); i++) {
+			if (i % mFolds == fold) {
+				testing.add(mData.instance(i));
+			} else {
+				training.add(mData.instance(i));
+			}
+		}
+
+		int featureCount = mData.numAttributes() - 1;
+		double[] features = new double[featureCount];
+		double[] distribution = new double[mData.numClasses()];
+		for (int i = 0; i < BACKENDS.length; i++) {
+			String[] options = new String[BACKENDS[i].length - 1];
+			System.arraycopy(BACKENDS[i], 1, options, 0, options.length);
+			ClassifierBackend backend = (ClassifierBackend) ClassifierBackend.forName(BACKENDS[i][0], options);
+
+			long startTime = System.nanoTime();
+			backend.buildClassifier(training);
+			mTrainingNanos[i] += System.nanoTime() - startTime;
+
+			for (int j = 0; j < testing.numInstances(); j++) {
+				Instance instance = testing.instance(j);
+				for (int feature = 0; feature < featureCount; feature++) {
+					features[feature] = instance.value(feature);
+				}
+				if (backend.classify(features, distribution) == (int) instance.classValue()) {
+					mCorrect[i]++;
+				}
+			}
+			mClassificationNanos[i] += backend.getLatency();
+			mModelSizes[i] += backend.getModelSize();
+		}
+		mClassifications += testing.numInstances();
+	}
+
+	private void reset() {
+		for (int i = 0; i < BACKENDS.length; i++) {
+			mCorrect[i] = 0;
+			mTrainingNanos[i] = 0;
+			mClassificationNanos[i] = 0.0;
+			mModelSizes[i] = 0;
+		}
+		mClassifications = 0;
+	}
+
+}
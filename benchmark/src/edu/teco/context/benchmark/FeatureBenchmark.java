@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.benchmark;
+
+import java.util.Random;
+
+/**
+ * One operation of the feature extraction that is measured by the
+ * {@link BenchmarkRunner} for every window size and number of axes.
+ *
+ * The input is created once per configuration in {@link #setUp(int, int)} and
+ * must not be allocated in {@link #run()}, otherwise the allocation rate of the
+ * benchmark would be reported as the allocation rate of the measured code.
+ */
+public abstract class FeatureBenchmark {
+
+	/** the sample window of the framework in seconds */
+	public static final double SAMPLE_WINDOW = 2.0;
+
+	private final String mName;
+
+	protected FeatureBenchmark(String name) {
+		mName = name;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * Prepares the input of one configuration, called before the warmup.
+	 *
+	 * @param windowSize number of values per axis in the sample window
+	 * @param axes number of sensor axes
+	 */
+	public abstract void setUp(int windowSize, int axes);
+
+	/**
+	 * Runs one operation over all axes.
+	 *
+	 * @return a result of the operation, consumed by the runner so that the
+	 *         JIT compiler cannot remove the calculation
+	 */
+	public abstract double run();
+
+	/**
+	 * Creates sensor like values: a walking rhythm of about 2 Hz, a slower
+	 * component, an offset (e.g. gravity), noise and quantization.
+	 *
+	 * @param windowSize number of values per axis
+	 * @param axes number of sensor axes
+	 * @return the values per axis
+	 */
+	protected static float[][] createValues(int windowSize, int axes) {
+		Random random = new Random(42);
+		float[][] values = new float[axes][windowSize];
+		for (int axis = 0; axis < axes; axis++) {
+			double offset = (axis == axes - 1) ? 9.81 : 0.0;
+			for (int i = 0; i < windowSize; i++) {
+				double time = i * SAMPLE_WINDOW / windowSize;
+				double value = offset
+						+ 2.0 * Math.sin(2 * Math.PI * 2.1 * time + axis)
+						+ 0.5 * Math.sin(2 * Math.PI * 0.4 * time)
+						+ 0.3 * random.nextGaussian();
+				values[axis][i] = Math.round(value * 100) / 100.0f;
+			}
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.teco.context.features.FeatureCalculator;
+import edu.teco.context.features.entropy.EntropyCalculatorKernel;
+import edu.teco.context.features.fourier.DFT;
+import edu.teco.context.features.fourier.FFT;
+import edu.teco.context.features.fourier.Spectrum;
+
+/**
+ * Benchmarks of the single features of {@link FeatureCalculator} and the
+ * transforms they use. Every operation calculates the feature for all axes of
+ * one sample window.
+ */
+public class FeatureBenchmarks {
+
+	/**
+	 * Base class for features that are calculated independently per axis.
+	 */
+	private static abstract class AxisBenchmark extends FeatureBenchmark {
+
+		protected float[][] mValues;
+		protected Spectrum[] mSpectra;
+
+		AxisBenchmark(String name) {
+			super(name);
+		}
+
+		@Override
+		public void setUp(int windowSize, int axes) {
+			mValues = createValues(windowSize, axes);
+			mSpectra = new Spectrum[axes];
+			for (int axis = 0; axis < axes; axis++) {
+				mSpectra[axis] = new Spectrum(windowSize);
+				mSpectra[axis].calculate(mValues[axis], windowSize, SAMPLE_WINDOW);
+			}
+		}
+
+		@Override
+		public double run() {
+			double result = 0.0;
+			for (int axis = 0; axis < mValues.length; axis++) {
+				result += run(axis);
+			}
+			return result;
+		}
+
+		protected abstract double run(int axis);
+	}
+
+	/**
+	 * @return all feature benchmarks
+	 */
+	public static List<FeatureBenchmark> createAll() {
+		List<FeatureBenchmark> benchmarks = new ArrayList<FeatureBenchmark>();
+
+		// time domain
+
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.mean") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.mean(mValues[axis]);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.median") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.median(mValues[axis]);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.quantile") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.quantile(mValues[axis], 0.25);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.variance") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.variance(mValues[axis]);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.standardDeviation") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.standardDeviation(mValues[axis]);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.differenceMaxMin") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.differenceMaxMin(mValues[axis]);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.entropy") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.entropy(mValues[axis]);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.entropy(reused)") {
+			private double[] mNormalizedValues;
+			private EntropyCalculatorKernel mEntropyCalculator;
+
+			@Override
+			public void setUp(int windowSize, int axes) {
+				super.setUp(windowSize, axes);
+				mNormalizedValues = new double[windowSize];
+				mEntropyCalculator = new EntropyCalculatorKernel();
+			}
+
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.entropy(mValues[axis], mValues[axis].length,
+						mNormalizedValues, mEntropyCalculator);
+			}
+		});
+
+		// frequency domain, each call transforms the values
+
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.fftFrequencyPeak") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.fftFrequencyPeak(mValues[axis], SAMPLE_WINDOW);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.dftFrequencyPeak") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.dftFrequencyPeak(mValues[axis], SAMPLE_WINDOW);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.frequencyDomainEntropy") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.frequencyDomainEntropy(mValues[axis], SAMPLE_WINDOW);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.frequencyDomainEntropyWithDFT") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.frequencyDomainEntropyWithDFT(mValues[axis], SAMPLE_WINDOW);
+			}
+		});
+
+		// spectral features on an already calculated spectrum
+
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.frequencyPeak(Spectrum)") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.frequencyPeak(mSpectra[axis]);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.frequencyDomainEntropy(Spectrum)") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.frequencyDomainEntropy(mSpectra[axis]);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.bandEnergy") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.bandEnergy(mSpectra[axis],
+						FeatureCalculator.LOW_BAND_LIMIT, FeatureCalculator.MEDIUM_BAND_LIMIT);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.spectralCentroid") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.spectralCentroid(mSpectra[axis]);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.spectralRolloff") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.spectralRolloff(mSpectra[axis], FeatureCalculator.ROLLOFF_FRACTION);
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FeatureCalculator.spectralFlatness") {
+			@Override
+			protected double run(int axis) {
+				return FeatureCalculator.spectralFlatness(mSpectra[axis]);
+			}
+		});
+
+		// transforms
+
+		benchmarks.add(new AxisBenchmark("Spectrum.calculate") {
+			@Override
+			protected double run(int axis) {
+				mSpectra[axis].calculate(mValues[axis], mValues[axis].length, SAMPLE_WINDOW);
+				return mSpectra[axis].getTotalEnergy();
+			}
+		});
+		benchmarks.add(new AxisBenchmark("FFT.fft") {
+			private FFT mFFT;
+			private double[] mReal;
+			private double[] mImaginary;
+
+			@Override
+			public void setUp(int windowSize, int axes) {
+				super.setUp(windowSize, axes);
+				// the FFT needs a power of 2, the values are zero padded
+				int length = Integer.highestOneBit(windowSize);
+				if (length < windowSize) {
+					length <<= 1;
+				}
+				mFFT = new FFT(length);
+				mReal = new double[length];
+				mImaginary = new double[length];
+			}
+
+			@Override
+			protected double run(int axis) {
+				float[] values = mValues[axis];
+				for (int i = 0; i < mReal.length; i++) {
+					mReal[i] = (i < values.length) ? values[i] : 0.0;
+					mImaginary[i] = 0.0;
+				}
+				mFFT.fft(mReal, mImaginary);
+				return mReal[1];
+			}
+		});
+		benchmarks.add(new AxisBenchmark("DFT.dft") {
+			private double[] mReal;
+			private double[] mImaginary;
+			private double[] mOutReal;
+			private double[] mOutImaginary;
+
+			@Override
+			public void setUp(int windowSize, int axes) {
+				super.setUp(windowSize, axes);
+				mReal = new double[windowSize];
+				mImaginary = new double[windowSize];
+				mOutReal = new double[windowSize];
+				mOutImaginary = new double[windowSize];
+			}
+
+			@Override
+			protected double run(int axis) {
+				float[] values = mValues[axis];
+				for (int i = 0; i < values.length; i++) {
+					mReal[i] = values[i];
+				}
+				DFT.dft(mReal, mImaginary, mOutReal, mOutImaginary);
+				return mOutReal[1];
+			}
+		});
+
+		// kernel estimation of the entropy without the normalization
+
+		benchmarks.add(new AxisBenchmark("EntropyCalculatorKernel") {
+			private double[][] mObservations;
+			private EntropyCalculatorKernel mEntropyCalculator;
+
+			@Override
+			public void setUp(int windowSize, int axes) {
+				super.setUp(windowSize, axes);
+				mObservations = new double[axes][windowSize];
+				for (int axis = 0; axis < axes; axis++) {
+					for (int i = 0; i < windowSize; i++) {
+						mObservations[axis][i] = mValues[axis][i];
+					}
+				}
+				mEntropyCalculator = new EntropyCalculatorKernel();
+			}
+
+			@Override
+			protected double run(int axis) {
+				mEntropyCalculator.initialise();
+				mEntropyCalculator.setObservations(mObservations[axis]);
+				return mEntropyCalculator.computeAverageLocalOfObservations();
+			}
+		});
+
+		return benchmarks;
+	}
+
+}
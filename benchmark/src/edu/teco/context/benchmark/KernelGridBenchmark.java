@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.benchmark;
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import weka.classifiers.bayes.NaiveBayes;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.teco.context.configuration.FrameworkContext;
+import edu.teco.context.log.ArffFeatureReader;
+import edu.teco.context.recognition.CompiledNaiveBayes;
+import edu.teco.context.recognition.FeatureStoreNaiveBayes;
+
+/**
+ * Compares the accuracy and the classification time of the kernel naive
+ * Bayes of WEKA to the compiled model, with the kernels summed up and with
+ * the kernel densities precomputed on a grid. The instances are split into
+ * folds (every k-th instance), every fold is classified by the classifiers
+ * trained with the other folds. All folds are run twice, the first time to
+ * warm up the JIT. Like the ArffLoadBenchmark it needs the WEKA jar at
+ * runtime.
+ *
+ * Without a file argument assets/TestTrainingData.arff is used, with -r the
+ * instances are random features of 4 classes (to see the classification
+ * time for more training data).
+ *
+ * Usage: KernelGridBenchmark [-k folds] [-g grid resolution] [-r rows] [file]
+ */
+public class KernelGridBenchmark {
+
+	private static final String[] CLASS_VALUES = new String[] { "Walking", "Sitting", "Standing", "Cycling" };
+
+	private int mFolds = 10;
+	private int mGridResolution = CompiledNaiveBayes.DEFAULT_GRID_RESOLUTION;
+	private int mRows = 0;
+	private File mFile = new File("assets/TestTrainingData.arff");
+
+	private Instances mData;
+
+	/** per classifier: correct classifications, agreement with WEKA, max probability difference and time */
+	private final long[] mCorrect = new long[3];
+	private final long[] mAgreement = new long[3];
+	private final double[] mMaxDifference = new double[3];
+	private final long[] mNanos = new long[3];
+	private long mClassifications = 0;
+
+	public static void main(String[] args) throws Exception {
+		// android.util.Log is not available on the desktop
+		FrameworkContext.INFO = false;
+		FrameworkContext.WARN = false;
+		FrameworkContext.ERROR = false;
+
+		KernelGridBenchmark benchmark = new KernelGridBenchmark();
+		for (int i = 0; i < args.length; i++) {
+			if ("-k".equals(args[i])) {
+				benchmark.mFolds = Integer.parseInt(args[++i]);
+			} else if ("-g".equals(args[i])) {
+				benchmark.mGridResolution = Integer.parseInt(args[++i]);
+			} else if ("-r".equals(args[i])) {
+				benchmark.mRows = Integer.parseInt(args[++i]);
+			} else {
+				benchmark.mFile = new File(args[i]);
+			}
+		}
+		benchmark.run();
+	}
+
+	public void run() throws Exception {
+		if (mRows > 0) {
+			mData = createData(mRows);
+			System.out.println("Random features: " + mRows + " instances");
+		} else {
+			mData = readData(mFile);
+			System.out.println("File: " + mFile.getPath() + " (" + mData.numInstances() + " instances)");
+		}
+		mFolds = Math.max(2, Math.min(mFolds, mData.numInstances()));
+		System.out.println((mData.numAttributes() - 1) + " features, " + mData.numClasses() + " classes, "
+				+ mFolds + " folds");
+
+		for (int pass = 0; pass < 2; pass++) {
+			reset();
+			for (int fold = 0; fold < mFolds; fold++) {
+				runFold(fold);
+			}
+		}
+
+		String[] names = new String[] { "WEKA NaiveBayes (kernel)", "Compiled (kernel sum)",
+				"Compiled (grid " + mGridResolution + ")" };
+		System.out.println(String.format("%-28s %10s %10s %12s %10s", "Classifier", "accuracy", "agreement",
+				"max |dp|", "us/op"));
+		for (int i = 0; i < names.length; i++) {
+			System.out.println(String.format("%-28s %9.2f%% %9.2f%% %12.3g %10.2f", names[i],
+					100.0 * mCorrect[i] / mClassifications, 100.0 * mAgreement[i] / mClassifications,
+					mMaxDifference[i], mNanos[i] / 1000.0 / mClassifications));
+		}
+	}
+
+	private void runFold(int fold) throws Exception {
+		Instances training = new Instances(mData, 0);
+		Instances testing = new Instances(mData, 0);
+		for (int i = 0; i < mData.numInstances(); i++) {
+			if (i % mFolds == fold) {
+				testing.add(mData.instance(i));
+			} else {
+				training.add(mData.instance(i));
+			}
+		}
+
+		NaiveBayes weka = new NaiveBayes();
+		weka.setUseKernelEstimator(true);
+		weka.buildClassifier(training);
+		FeatureStoreNaiveBayes compiled = new FeatureStoreNaiveBayes();
+		compiled.setUseKernelEstimator(true);
+		compiled.buildClassifier(training);
+		CompiledNaiveBayes kernelSum = compiled.compile(0);
+		CompiledNaiveBayes grid = compiled.compile(mGridResolution);
+
+		int featureCount = mData.numAttributes() - 1;
+		double[] features = new double[featureCount];
+		double[] kernelSumDistribution = new double[mData.numClasses()];
+		double[] gridDistribution = new double[mData.numClasses()];
+		for (int i = 0; i < testing.numInstances(); i++) {
+			Instance instance = testing.instance(i);
+			for (int feature = 0; feature < featureCount; feature++) {
+				features[feature] = instance.value(feature);
+			}
+			int classIndex = (int) instance.classValue();
+
+			long startTime = System.nanoTime();
+			double[] wekaDistribution = weka.distributionForInstance(instance);
+			long wekaTime = System.nanoTime();
+			int kernelSumClass = kernelSum.distributionForFeatures(features, kernelSumDistribution);
+			long kernelSumTime = System.nanoTime();
+			int gridClass = grid.distributionForFeatures(features, gridDistribution);
+			long gridTime = System.nanoTime();
+
+			int wekaClass = maxIndex(wekaDistribution);
+			record(0, wekaClass, classIndex, wekaClass, wekaDistribution, wekaDistribution, wekaTime - startTime);
+			record(1, kernelSumClass, classIndex, wekaClass, kernelSumDistribution, wekaDistribution,
+					kernelSumTime - wekaTime);
+			record(2, gridClass, classIndex, wekaClass, gridDistribution, wekaDistribution, gridTime
+					- kernelSumTime);
+			mClassifications++;
+		}
+	}
+
+	private void reset() {
+		for (int i = 0; i < 3; i++) {
+			mCorrect[i] = 0;
+			mAgreement[i] = 0;
+			mMaxDifference[i] = 0.0;
+			mNanos[i] = 0;
+		}
+		mClassifications = 0;
+	}
+
+	private void record(int classifier, int predicted, int actual, int wekaPredicted, double[] distribution,
+			double[] wekaDistribution, long nanos) {
+		if (predicted == actual) {
+			mCorrect[classifier]++;
+		}
+		if (predicted == wekaPredicted) {
+			mAgreement[classifier]++;
+		}
+		for (int j = 0; j < distribution.length; j++) {
+			mMaxDifference[classifier] = Math.max(mMaxDifference[classifier],
+					Math.abs(distribution[j] - wekaDistribution[j]));
+		}
+		mNanos[classifier] += nanos;
+	}
+
+	private static int maxIndex(double[] values) {
+		int maxIndex = 0;
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] > values[maxIndex]) {
+				maxIndex = i;
+			}
+		}
+		return maxIndex;
+	}
+
+	/**
+	 * @return the instances of the ARFF file that have a class
+	 */
+	static Instances readData(File file) throws Exception {
+		ArffFeatureReader reader = new ArffFeatureReader(new FileReader(file));
+		reader.readHeader(null);
+		Instances data = createHeader(reader.getRelationName(), reader.getFeatureNames(), reader.getClassValues());
+		while (reader.next()) {
+			if (reader.getClassIndex() >= 0) {
+				addInstance(data, reader.getValues(), reader.getClassIndex());
+			}
+		}
+		reader.close();
+		return data;
+	}
+
+	/**
+	 * @return random features of 4 overlapping classes
+	 */
+	static Instances createData(int rows) {
+		int featureCount = 10;
+		List<String> featureNames = new ArrayList<String>();
+		for (int i = 0; i < featureCount; i++) {
+			featureNames.add("feature" + i);
+		}
+		List<String> classValues = new ArrayList<String>();
+		for (String classValue : CLASS_VALUES) {
+			classValues.add(classValue);
+		}
+		Instances data = createHeader("KernelGridBenchmark", featureNames, classValues);
+
+		Random random = new Random(42);
+		double[] features = new double[featureCount];
+		for (int row = 0; row < rows; row++) {
+			int classIndex = row % CLASS_VALUES.length;
+			for (int i = 0; i < featureCount; i++) {
+				// overlapping classes in the ranges of sensor features, rounded like the ARFF files
+				double value = (1.0 + 0.2 * classIndex) * Math.pow(10, i % 5 - 2) * (1.0 + 0.3 * random.nextGaussian());
+				features[i] = Math.rint(value * 1e6) / 1e6;
+			}
+			addInstance(data, features, classIndex);
+		}
+		return data;
+	}
+
+	private static Instances createHeader(String name, List<String> featureNames, List<String> classValues) {
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		for (String featureName : featureNames) {
+			attributes.add(new Attribute(featureName));
+		}
+		attributes.add(new Attribute("Class", new ArrayList<String>(classValues)));
+		Instances data = new Instances(name, attributes, 0);
+		data.setClassIndex(data.numAttributes() - 1);
+		return data;
+	}
+
+	private static void addInstance(Instances data, double[] features, int classIndex) {
+		double[] values = new double[data.numAttributes()];
+		System.arraycopy(features, 0, values, 0, features.length);
+		values[values.length - 1] = classIndex;
+		data.add(new DenseInstance(1.0, values));
+	}
+
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.benchmark;
+
+import java.util.Random;
+
+import edu.teco.context.log.DataParser;
+
+/**
+ * Benchmark of formatting the sensor events of one sample window as lines of
+ * the text probe log. The line of every event is formatted into a reused
+ * StringBuilder, either with {@link DataParser#appendSensorMessage} or with
+ * StringBuilder.append(float) as it was done before (Float.toString).
+ *
+ * The values have the full float precision of raw sensor values, unlike the
+ * rounded values of the feature benchmarks.
+ */
+public class LogFormatBenchmark extends FeatureBenchmark {
+
+	private final boolean isStringBuilder;
+
+	private float[][] mEvents;
+	private final double[] mCoordinates = new double[] { 49.011853, 8.416871 };
+	private final StringBuilder mLine = new StringBuilder(256);
+
+	/**
+	 * @param name
+	 * @param isStringBuilder true to format the values with StringBuilder.append(float)
+	 */
+	public LogFormatBenchmark(String name, boolean isStringBuilder) {
+		super(name);
+		this.isStringBuilder = isStringBuilder;
+	}
+
+	@Override
+	public void setUp(int windowSize, int axes) {
+		float[][] values = createValues(windowSize, axes);
+		Random random = new Random(7);
+		mEvents = new float[windowSize][axes];
+		for (int i = 0; i < windowSize; i++) {
+			for (int axis = 0; axis < axes; axis++) {
+				mEvents[i][axis] = values[axis][i] + (float) (0.01 * random.nextGaussian());
+			}
+		}
+	}
+
+	@Override
+	public double run() {
+		long length = 0;
+		for (int i = 0; i < mEvents.length; i++) {
+			StringBuilder sb = mLine;
+			sb.setLength(0);
+			if (isStringBuilder) {
+				sb.append("ACCELEROMETER").append(';').append(1000000L + i).append(';').append("Walking")
+						.append(';').append(1000000000000L + i).append(';').append(mCoordinates[0])
+						.append(';').append(mCoordinates[1]);
+				float[] values = mEvents[i];
+				for (int axis = 0; axis < values.length; axis++) {
+					sb.append(';').append(values[axis]);
+				}
+			} else {
+				DataParser.appendSensorMessage(sb, "ACCELEROMETER", 1000000L + i, "Walking", 1000000000000L + i,
+						mCoordinates, mEvents[i], mEvents[i].length, null);
+			}
+			length += sb.length();
+		}
+		return length;
+	}
+
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.benchmark;
+
+import edu.teco.context.configuration.FrameworkKeys.IFeatureKeys;
+import edu.teco.context.probe.sensors.AbstractSensorHandler;
+import edu.teco.context.probe.sensors.AccelerometerSensorHandler;
+import edu.teco.context.probe.sensors.LightSensorHandler;
+
+/**
+ * Benchmark of a whole {@link AbstractSensorHandler#calculateFeatures(double)}
+ * run with all features, i.e. the work of one sensor per sample window.
+ *
+ * The light sensor handler is used for one axis and the accelerometer handler
+ * for three axes. The values arrive equally spaced, so the window holds
+ * windowSize values. With an overlap every operation first adds the values of
+ * one hop (like the sensor events between two windows) and then calculates the
+ * features, without overlap only the features are calculated.
+ */
+public class SensorHandlerBenchmark extends FeatureBenchmark {
+
+	private static final String[] ALL_FEATURES = new String[] {
+		IFeatureKeys.MEAN,
+		IFeatureKeys.MEDIAN,
+		IFeatureKeys.PERCENTILE_10,
+		IFeatureKeys.PERCENTILE_25,
+		IFeatureKeys.PERCENTILE_75,
+		IFeatureKeys.PERCENTILE_90,
+		IFeatureKeys.INTERQUARTILE_RANGE,
+		IFeatureKeys.VARIANCE,
+		IFeatureKeys.STANDARD_DEVIATION,
+		IFeatureKeys.DIFFERENCE_MAX_MIN,
+		IFeatureKeys.SKEWNESS,
+		IFeatureKeys.KURTOSIS,
+		IFeatureKeys.FREQUENCY_PEAK,
+		IFeatureKeys.ENTROPY,
+		IFeatureKeys.FREQUENCY_DOMAIN_ENTROPY,
+		IFeatureKeys.SPECTRAL_ENERGY,
+		IFeatureKeys.BAND_ENERGY_LOW,
+		IFeatureKeys.BAND_ENERGY_MEDIUM,
+		IFeatureKeys.BAND_ENERGY_HIGH,
+		IFeatureKeys.SPECTRAL_CENTROID,
+		IFeatureKeys.SPECTRAL_ROLLOFF,
+		IFeatureKeys.SPECTRAL_FLATNESS
+	};
+
+	private final double mOverlap;
+	/** highest frequency of the sliding DFT in Hz or 0 for the FFT of the window */
+	private final double mSlidingDFTMaxFrequency;
+
+	private AbstractSensorHandler mHandler;
+	private float[][] mSamples;
+	private float[] mValues;
+	private double mInterval;
+	private int mHop;
+	private int mNextSample;
+	private double mTime;
+
+	/**
+	 * @param name name of the benchmark
+	 * @param overlap overlap of the sample windows between 0 and 1
+	 * @param slidingDFTMaxFrequency highest frequency of the sliding DFT in Hz or 0 for the FFT
+	 */
+	public SensorHandlerBenchmark(String name, double overlap, double slidingDFTMaxFrequency) {
+		super(name);
+		mOverlap = overlap;
+		mSlidingDFTMaxFrequency = slidingDFTMaxFrequency;
+	}
+
+	@Override
+	public void setUp(int windowSize, int axes) {
+		if (axes == 1) {
+			mHandler = new LightSensorHandler();
+		} else if (axes == 3) {
+			mHandler = new AccelerometerSensorHandler();
+		} else {
+			throw new RuntimeException("No sensor handler with " + axes + " axes.");
+		}
+		mHandler.setFeatureKeys(ALL_FEATURES);
+
+		// the capacity of the handler is sampling rate * sample window
+		double sampleWindow = windowSize / mHandler.getMaxSamplingRate();
+		mHandler.createSensorBuffers(sampleWindow);
+		if (mSlidingDFTMaxFrequency > 0) {
+			mHandler.setSlidingDFT(mSlidingDFTMaxFrequency);
+		}
+
+		mSamples = createValues(windowSize, axes);
+		mValues = new float[axes];
+		// slightly below the maximum rate, so rounding of the times never lets
+		// windowSize + 1 values into the window (the buffer would be full)
+		mInterval = sampleWindow / (windowSize - 0.5);
+		mHop = Math.max(1, (int) Math.round(windowSize * (1 - mOverlap)));
+		mNextSample = 0;
+		mTime = 0.0;
+
+		// fill the first window
+		for (int i = 0; i < windowSize; i++) {
+			putNextSample();
+		}
+	}
+
+	@Override
+	public double run() {
+		if (mOverlap > 0) {
+			for (int i = 0; i < mHop; i++) {
+				putNextSample();
+			}
+		}
+		double[] features = mHandler.calculateFeatures(mTime);
+		return features[features.length - 1];
+	}
+
+	private void putNextSample() {
+		for (int axis = 0; axis < mValues.length; axis++) {
+			mValues[axis] = mSamples[axis][mNextSample];
+		}
+		mNextSample = (mNextSample + 1) % mSamples[0].length;
+		mTime += mInterval;
+		mHandler.putSensorValues(mTime, mValues);
+	}
+
+}
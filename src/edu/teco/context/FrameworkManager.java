@@ -22,7 +22,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -38,6 +37,7 @@ import android.hardware.SensorManager;
 import android.location.LocationManager;
 import android.os.Environment;
 import android.util.Log;
+import edu.teco.context.configuration.ConfigurationMetaData;
 import edu.teco.context.configuration.FrameworkConfiguration;
 import edu.teco.context.configuration.FrameworkContext;
 import edu.teco.context.configuration.FrameworkKeys;
@@ -45,6 +45,7 @@ import edu.teco.context.configuration.FrameworkKeys.ILocationKeys;
 import edu.teco.context.configuration.FrameworkKeys.IMetaDataTags;
 import edu.teco.context.configuration.FrameworkKeys.IProbeKeys;
 import edu.teco.context.configuration.FrameworkState;
+import edu.teco.context.log.ArffFeatureReader;
 import edu.teco.context.log.DataLogger;
 
 import edu.teco.context.probe.ISensorFrameListener;
@@ -56,7 +57,9 @@ import edu.teco.context.probe.location.CustomLocationManager;
 import edu.teco.context.probe.location.LocationReceiver;
 
 import edu.teco.context.probe.sensors.StaticSensorHandlerFactory;
+import edu.teco.context.recognition.ClassifierBackend;
 import edu.teco.context.recognition.IWekaListener;
+import edu.teco.context.recognition.ModelFile;
 import edu.teco.context.recognition.WekaEvent;
 import edu.teco.context.recognition.WekaManager;
 
@@ -106,18 +109,11 @@ public class FrameworkManager implements IContextFramework,
 	/** time delta between sensor data */
 	private double mPreviousSeconds;
 
-	/** time of current sensor frame */
-	private double mTimer;
-	/** when should next frame start how many frame buffers are needed */
-	private double mOverlapStartTime;
-	/** how many SensorFrame Instances are needed */
-	private int mSensorFrameListSize;
-
 	/** current class name for logging, training and evaluation */
 	private String mCurrentContextLabel = null;
 
-	/** list of current frame buffers */
-	private ArrayList<SensorFrame> mSensorFrameList = null;
+	/** sliding sample window over all sensors, overlapping windows share their values */
+	private SensorFrame mSensorFrame = null;
 
 	private String mCurrentParameter = null;
 
@@ -172,8 +168,6 @@ public class FrameworkManager implements IContextFramework,
 			mSensorManager = (SensorManager) context
 					.getSystemService(Context.SENSOR_SERVICE);
 
-			mSensorFrameList = new ArrayList<SensorFrame>();
-
 			mSensorMap = new LinkedHashMap<String, Sensor>();
 
 			// standard values
@@ -181,8 +175,6 @@ public class FrameworkManager implements IContextFramework,
 			mOverlap = mConfiguration.getOverlap();
 			setTimerData();
 
-			// TODO this must be set by configuration
-			mWekaManager.setClassifier(null, null);
 			mWekaManager.addWekaListener(this);
 
 			if (mContextListener != null) {
@@ -238,16 +230,28 @@ public class FrameworkManager implements IContextFramework,
 	}
 
 	public boolean trainWithARFF(String fileName) {
+		return trainWithARFF(getArffFile(fileName), null);
+	}
+
+	/**
+	 * @param file the ARFF file
+	 * @param reader reader of the file after the header, null to read the file again
+	 */
+	private boolean trainWithARFF(File file, ArffFeatureReader reader) {
 		if (mFrameworkContext.changeFrameworkState(FrameworkState.TRAINED)) {
 
 			mFrameworkContext.setIsConfigurationAlreadySaved(true);
-			String arffDirectory = FrameworkConfiguration.getInstance()
-					.getArffDirectory();
-			File arffDir = new File(Environment.getExternalStorageDirectory()
-					+ arffDirectory);
-			File file = new File(arffDir, fileName);
 
-			mWekaManager.configureWithArffFile(file);
+			if (reader != null) {
+				try {
+					mWekaManager.configureWithArffReader(reader, file);
+				} catch (IOException e) {
+					e.printStackTrace();
+					mWekaManager.configureWithArffFile(file);
+				}
+			} else {
+				mWekaManager.configureWithArffFile(file);
+			}
 
 			if (mContextListener != null) {
 				mContextListener.onStateChanged(getCurrentState());
@@ -260,88 +264,31 @@ public class FrameworkManager implements IContextFramework,
 		}
 	}
 
+	/**
+	 * Reads the configuration from the meta data of the ARFF file, configures
+	 * the framework and trains the classifier with the instances of the file.
+	 * The file is read only once.
+	 */
 	public boolean configureAndTrainWithARFF(String fileName) {
+		File file = getArffFile(fileName);
+		ArffFeatureReader reader = null;
 		try {
-			String arffDirectory = FrameworkConfiguration.getInstance()
-					.getArffDirectory();
-			File arffDir = new File(Environment.getExternalStorageDirectory()
-					+ arffDirectory);
-			File file = new File(arffDir, fileName);
-
-			FileReader input = new FileReader(file);
-			BufferedReader bufRead = new BufferedReader(input);
-			String myLine = null;
-
-			while ((myLine = bufRead.readLine()) != null) {
-
-				if (myLine.contains(CONFIG_BEGIN)) {
-					if (FrameworkContext.INFO)
-						Log.i(TAG, "Started configuration reading from file "
-								+ fileName);
-				} else if (myLine.contains(CONFIG_END)) {
-					if (FrameworkContext.INFO)
-						Log.i(TAG, "Ended configuration reading from file "
-								+ fileName);
-					break;
-				} else if (myLine.contains(SAMPLE_WINDOW_BEGIN)) {
-
-					// sample window
-					int startPosition = myLine.indexOf(SAMPLE_WINDOW_BEGIN)
-							+ SAMPLE_WINDOW_BEGIN.length();
-					int endPosition = myLine.indexOf(SAMPLE_WINDOW_END,
-							startPosition);
-					String sampleWindow = myLine.substring(startPosition,
-							endPosition);
-					mConfiguration.setSampleWindow(Double
-							.parseDouble(sampleWindow));
-
-				} else if (myLine.contains(OVERLAP_BEGIN)) {
-
-					// overlap
-					int startPosition = myLine.indexOf(OVERLAP_BEGIN)
-							+ OVERLAP_BEGIN.length();
-					int endPosition = myLine
-							.indexOf(OVERLAP_END, startPosition);
-					String overlap = myLine.substring(startPosition,
-							endPosition);
-					mConfiguration.setOverlap(Double.parseDouble(overlap));
-
-				} else if (myLine.contains(PROBE_BEGIN)) {
-
-					// probe keys
-					int startPosition = myLine.indexOf(PROBE_BEGIN)
-							+ PROBE_BEGIN.length();
-					int endPosition = myLine.indexOf(PROBE_END, startPosition);
-					String probeKey = myLine.substring(startPosition,
-							endPosition);
-
-					// feature keys
-					String[] splits = myLine.split(FEATURE_BEGIN);
-					List<String> featureList = new ArrayList<String>();
-					for (String split : splits) {
-						if (split.contains(FEATURE_END)) {
-							int endPos = split.indexOf(FEATURE_END);
-							featureList.add(split.substring(0, endPos));
-						}
-					}
-					String[] features = new String[featureList.size()];
-					featureList.toArray(features);
-
-					mConfiguration.addSensorFeaturesCombination(probeKey,
-							features);
-				} else if (myLine.contains(CONTEXT_LABEL_BEGIN)) {
-
-					// context labels
-					String[] splits = myLine.split(CONTEXT_LABEL_BEGIN);
-					List<String> contextLabelsList = new ArrayList<String>();
-					for (String split : splits) {
-						if (split.contains(CONTEXT_LABEL_END)) {
-							int endPos = split.indexOf(CONTEXT_LABEL_END);
-							contextLabelsList.add(split.substring(0, endPos));
-						}
-					}
-					mConfiguration.setContextLabels(contextLabelsList);
-				}
+			if (FrameworkContext.INFO)
+				Log.i(TAG, "Reading configuration from file " + fileName);
+
+			reader = new ArffFeatureReader(new FileReader(file));
+			try {
+				reader.readHeader(mConfiguration);
+			} catch (IOException e) {
+				// not supported by the fast reader, only the configuration is read here
+				if (FrameworkContext.WARN)
+					Log.w(TAG, "Fast ARFF reader failed: " + e.getMessage());
+				reader.close();
+				reader = null;
+
+				BufferedReader bufRead = new BufferedReader(new FileReader(file));
+				ConfigurationMetaData.readMetaData(bufRead, mConfiguration);
+				bufRead.close();
 			}
 
 			if (FrameworkContext.INFO)
@@ -350,7 +297,7 @@ public class FrameworkManager implements IContextFramework,
 			boolean isConfigured = configure(mConfiguration);
 
 			if (isConfigured) {
-				if (trainWithARFF(fileName)) {
+				if (trainWithARFF(file, reader)) {
 					return true;
 				}
 			}
@@ -359,14 +306,31 @@ public class FrameworkManager implements IContextFramework,
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
 		}
 
 		return false;
 
 	}
 
+	private File getArffFile(String fileName) {
+		String arffDirectory = FrameworkConfiguration.getInstance()
+				.getArffDirectory();
+		File arffDir = new File(Environment.getExternalStorageDirectory()
+				+ arffDirectory);
+		return new File(arffDir, fileName);
+	}
+
 	public boolean startLogging() {
 		if (mFrameworkContext.changeFrameworkState(FrameworkState.LOGGING)) {
+			openCaptureWriter();
 			if (mContextListener != null) {
 				mContextListener.onStateChanged(getCurrentState());
 			}
@@ -381,6 +345,7 @@ public class FrameworkManager implements IContextFramework,
 	public boolean startLogging(String contextLabel) {
 		if (mFrameworkContext.changeFrameworkState(FrameworkState.LOGGING)) {
 			mCurrentContextLabel = contextLabel;
+			openCaptureWriter();
 			if (mContextListener != null) {
 				mContextListener.onStateChanged(getCurrentState());
 			}
@@ -395,6 +360,7 @@ public class FrameworkManager implements IContextFramework,
 	public boolean stopLogging() {
 		if (mFrameworkContext.resumeToPreviousState()) {
 			resetFrameworkManagerData();
+			mDataLogger.closeCaptureWriter();
 			mDataLogger.flushWriter();
 			if (mContextListener != null) {
 				mContextListener.onStateChanged(getCurrentState());
@@ -407,6 +373,16 @@ public class FrameworkManager implements IContextFramework,
 		}
 	}
 
+	/**
+	 * Raw capture: the sensor events of the recording are only copied to the
+	 * capture file, the features are calculated later from the file.
+	 */
+	private void openCaptureWriter() {
+		if (FrameworkConfiguration.getInstance().isRawCapture()) {
+			mDataLogger.openCaptureWriter();
+		}
+	}
+
 	public void setLogAll(boolean isLogAll) {
 		mFrameworkContext.setLogAllData(isLogAll);
 	}
@@ -449,6 +425,7 @@ public class FrameworkManager implements IContextFramework,
 		if (mFrameworkContext.resumeToPreviousState()) {
 			resetFrameworkManagerData();
 			mDataLogger.flushWriter();
+			mWekaManager.flushArffData();
 			if (mContextListener != null) {
 				mContextListener.onStateChanged(getCurrentState());
 			}
@@ -692,11 +669,48 @@ public class FrameworkManager implements IContextFramework,
 		return null;
 	}
 
+	/**
+	 * Saves the trained classifier and the configuration in the model file of
+	 * the configuration (configuration name and {@link ModelFile#EXTENSION}
+	 * in the ARFF directory), see {@link #loadPredictor(String)}.
+	 */
 	public boolean savePredictor() {
-		return false;
+		if (!DataLogger.isExternalStorageAvailable()) {
+			if (FrameworkContext.ERROR)
+				Log.e(TAG, "External storage is not available.");
+			return false;
+		}
+		String fileName = mConfiguration.getConfigurationName() + ModelFile.EXTENSION;
+		return mWekaManager.saveClassifier(getArffFile(fileName), mConfiguration);
 	}
 
+	/**
+	 * Reads the configuration and the trained classifier from a model file,
+	 * configures the framework and uses the classifier without training.
+	 */
 	public boolean loadPredictor(String fileName) {
+		File file = getArffFile(fileName);
+		try {
+			long startTime = System.currentTimeMillis();
+			ClassifierBackend backend = ModelFile.read(file, mConfiguration);
+			if (FrameworkContext.INFO)
+				Log.i(TAG, "Model file " + fileName + " read in " + (System.currentTimeMillis() - startTime) + " ms.");
+
+			mFrameworkContext.setIsConfigurationAlreadySaved(true);
+			if (configure(mConfiguration) && mWekaManager.setTrainedClassifier(backend)) {
+				if (mFrameworkContext.changeFrameworkState(FrameworkState.TRAINED)) {
+					if (mContextListener != null) {
+						mContextListener.onStateChanged(getCurrentState());
+					}
+					return true;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		if (FrameworkContext.ERROR)
+			Log.e(TAG, "Could not load predictor " + fileName);
 		return false;
 	}
 
@@ -725,9 +739,6 @@ public class FrameworkManager implements IContextFramework,
 
 	private void setTimerData() {
 		mPreviousSeconds = 0.0;
-		mTimer = 0.0;
-		mOverlapStartTime = mSampleWindow - (mSampleWindow * mOverlap);
-		mSensorFrameListSize = (int) Math.ceil(1.0 / mOverlap);
 	}
 
 	private void registerSensors(String[] sensorKeys) {
@@ -860,26 +871,26 @@ public class FrameworkManager implements IContextFramework,
 	}
 
 	private void createSensorFrames() {
-		for (int i = 0; i < mSensorFrameListSize; i++) {
-			SensorFrame frame = new SensorFrame(mSampleWindow);
-			for (Entry<String, String[]> sensorFeatures : mConfiguration
-					.getSensorFeaturesSet()) {
-				frame.addSensor(sensorFeatures.getKey(),
-						sensorFeatures.getValue());
-			}
-			frame.addSensorFrameListener(this);
-
-			if (mLocationReceiver != null) {
-				frame.addLocationSensor(mLocationReceiver.getLocationStrategy());
-			}
+		if (mSensorFrame != null) {
+			mSensorFrame.removeSensorFrameListener(this);
+		}
 
-			mSensorFrameList.add(frame);
+		SensorFrame frame = new SensorFrame(mSampleWindow, mOverlap);
+		for (Entry<String, String[]> sensorFeatures : mConfiguration
+				.getSensorFeaturesSet()) {
+			frame.addSensor(sensorFeatures.getKey(),
+					sensorFeatures.getValue(), mConfiguration
+							.getSlidingDFTMaxFrequency(sensorFeatures.getKey()));
 		}
+		frame.addSensorFrameListener(this);
 
-		// set the first sensor frame to active to be ready for input
-		if (mSensorFrameList.size() > 0) {
-			mSensorFrameList.get(0).setActive(true);
+		if (mLocationReceiver != null) {
+			frame.addLocationSensor(mLocationReceiver.getLocationStrategy());
 		}
+
+		// set the sensor frame to active to be ready for input
+		frame.setActive(true);
+		mSensorFrame = frame;
 	}
 
 	/**
@@ -891,14 +902,11 @@ public class FrameworkManager implements IContextFramework,
 		// reset all the frame and timer data
 		// mCurrentContextLabel = null;
 		mPreviousSeconds = 0.0;
-		mTimer = 0.0;
-		for (SensorFrame sensorFrame : mSensorFrameList) {
-			sensorFrame.reset();
-		}
+		if (mSensorFrame != null) {
+			mSensorFrame.reset();
 
-		// set the first sensor framework to active to be ready for input
-		if (mSensorFrameList.size() > 0) {
-			mSensorFrameList.get(0).setActive(true);
+			// set the sensor frame to active to be ready for input
+			mSensorFrame.setActive(true);
 		}
 	}
 
@@ -976,8 +984,13 @@ public class FrameworkManager implements IContextFramework,
 			String contextLabel = "";
 			if (mCurrentContextLabel != null)
 				contextLabel = mCurrentContextLabel;
-			mDataLogger.logData(createSensorMessage(sensorKey, contextLabel,
-					event.timestamp, event.values));
+			if (mDataLogger.isCaptureWriterOpen()) {
+				mDataLogger.captureSensorValues(sensorKey, contextLabel,
+						event.timestamp, event.values);
+			} else {
+				logSensorValues(sensorKey, contextLabel, event.timestamp,
+						event.values);
+			}
 		} else if (FrameworkState.isFeatureCalculationState(mFrameworkContext
 				.getFrameworkState())) {
 
@@ -985,8 +998,8 @@ public class FrameworkManager implements IContextFramework,
 				String contextLabel = "";
 				if (mCurrentContextLabel != null)
 					contextLabel = mCurrentContextLabel;
-				mDataLogger.logData(createSensorMessage(sensorKey,
-						contextLabel, event.timestamp, event.values));
+				logSensorValues(sensorKey, contextLabel, event.timestamp,
+						event.values);
 			}
 
 			// only calculate features when in data collecting state
@@ -1000,26 +1013,10 @@ public class FrameworkManager implements IContextFramework,
 			double differenceSeconds = currentSeconds - mPreviousSeconds;
 			mPreviousSeconds = currentSeconds;
 
-			mTimer += differenceSeconds;
-
-			// Use another SensorFrame because of overlap
-			if (mTimer >= mOverlapStartTime) {
-				// if (FrameworkContext.INFO) Log.i(TAG, "Timer: " + mTimer +
-				// " Overlap Start Time: " +
-				// mOverlapStartTime);
-				mTimer = 0.0;
-				for (SensorFrame sensorFrame : mSensorFrameList) {
-					if (!sensorFrame.isActive()) {
-						sensorFrame.setActive(true);
-						break;
-					}
-				}
-
-			}
-
-			// Store measurements in SensorFrame
-			for (SensorFrame sensorFrame : mSensorFrameList) {
-				sensorFrame.putSensorValues(sensorKey, event.values,
+			// Store measurements in SensorFrame, it emits the features of
+			// every (overlapping) window
+			if (mSensorFrame != null) {
+				mSensorFrame.putSensorValues(sensorKey, event.values,
 						differenceSeconds);
 			}
 
@@ -1050,38 +1047,21 @@ public class FrameworkManager implements IContextFramework,
 		mDataLogger.logComment(sb.toString());
 	}
 
-	private String createSensorMessage(String sensorKey, String contextLabel,
+	private void logSensorValues(String sensorKey, String contextLabel,
 			long timeStamp, float[] values) {
-		StringBuilder sb = new StringBuilder(sensorKey).append(";")
-				.append(System.currentTimeMillis()).append(";")
-				.append(contextLabel).append(";").append(timeStamp);
-
 		double[] coordinates = null;
 
 		if (mLocationManager.isEnabled()) {
 			coordinates = mLocationManager.getCurrentBestLocationCoordinates();
 		}
 
-		if (coordinates != null && coordinates.length >= 2) {
-			sb.append(";").append(coordinates[0]).append(";")
-					.append(coordinates[1]);
-		} else {
-			sb.append(";").append(0).append(";").append(0);
-		}
-
-		for (int i = 0; i < values.length; i++) {
-			sb.append(";").append(values[i]);
-		}
-
 		// also log parameter
-		if (mCurrentParameter != null) {
-			String parameter = mCurrentParameter;
-			if (parameter.equals("HSDPA"))
-				parameter = "UMTS";
-			sb.append(";").append(parameter);
-		}
+		String parameter = mCurrentParameter;
+		if (parameter != null && parameter.equals("HSDPA"))
+			parameter = "UMTS";
 
-		return sb.toString();
+		mDataLogger.logSensorValues(sensorKey, System.currentTimeMillis(),
+				contextLabel, timeStamp, coordinates, values, parameter);
 	}
 
 	// ******************************************************************** //
@@ -1131,8 +1111,8 @@ public class FrameworkManager implements IContextFramework,
 					+ longitude);
 		if (FrameworkState.isFeatureCalculationState(mFrameworkContext
 				.getFrameworkState())) {
-			for (SensorFrame sensorFrame : mSensorFrameList) {
-				sensorFrame.putLocationCoordinates(latitude, longitude);
+			if (mSensorFrame != null) {
+				mSensorFrame.putLocationCoordinates(latitude, longitude);
 			}
 		}
 	}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.configuration;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import android.util.Log;
+import edu.teco.context.configuration.FrameworkKeys.IMetaDataTags;
+import edu.teco.context.probe.sensors.StaticSensorHandlerFactory;
+
+/**
+ * Machine readable description of a {@link FrameworkConfiguration} in the
+ * comments of an ARFF file and the attribute names of its features. Used for
+ * writing the ARFF files on the phone as well as for reading the configuration
+ * again (on the phone or in the offline replay).
+ */
+public class ConfigurationMetaData implements IMetaDataTags {
+
+	/** Tag string for debug logs */
+	private static final String TAG = "ConfigurationMetaData";
+
+	/**
+	 * Creates the meta data lines (without comment token) for the configuration.
+	 * 
+	 * @param configuration
+	 * @return meta data lines
+	 */
+	public static List<String> createMetaData(FrameworkConfiguration configuration) {
+		List<String> metaData = new ArrayList<String>();
+		
+		// write down configuration in machine readable format
+		metaData.add(CONFIG_BEGIN);
+		metaData.add(SAMPLE_WINDOW_BEGIN + String.valueOf(configuration.getSampleWindow()) + SAMPLE_WINDOW_END);
+		metaData.add(OVERLAP_BEGIN + String.valueOf(configuration.getOverlap()) + OVERLAP_END);
+		for (Entry<String, String[]> entry : configuration.getSensorFeaturesSet()) {
+			String probeKey = entry.getKey();
+			String[] featureKeys = entry.getValue();
+			StringBuilder sb = new StringBuilder().append(PROBE_BEGIN).append(probeKey).append(PROBE_END);
+			for (String featureKey : featureKeys) {
+				sb.append(FEATURE_BEGIN).append(featureKey).append(FEATURE_END);
+			}
+			double slidingDFTMaxFrequency = configuration.getSlidingDFTMaxFrequency(probeKey);
+			if (slidingDFTMaxFrequency > 0.0) {
+				sb.append(SLIDING_DFT_BEGIN).append(slidingDFTMaxFrequency).append(SLIDING_DFT_END);
+			}
+			metaData.add(sb.toString());
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		for (String contextLabel : configuration.getContextLabels()) {
+			sb.append(CONTEXT_LABEL_BEGIN).append(contextLabel).append(CONTEXT_LABEL_END);
+		}
+		metaData.add(sb.toString());
+		
+		metaData.add(CONFIG_END);
+		
+		metaData.add("Sample Window in seconds: " + String.valueOf(configuration.getSampleWindow()));
+		metaData.add("Relative overlap: " + String.valueOf(configuration.getOverlap()));
+		
+		for (Entry<String, String[]> entry : configuration.getSensorFeaturesSet()) {
+			String sensorKey = entry.getKey();
+			String[] sensorValueKeys = StaticSensorHandlerFactory.getSensorValueKeys(sensorKey);
+			metaData.add("Sensor: " + sensorKey + " with values: " + Arrays.toString(sensorValueKeys));
+		}
+		
+		return metaData;
+	}
+	
+	/**
+	 * Creates the names of all features in the order of the feature vectors
+	 * (sensorKey_featureKey_sensorValueKey).
+	 * 
+	 * @param configuration
+	 * @return feature names
+	 */
+	public static List<String> createFeatureNames(FrameworkConfiguration configuration) {
+		List<String> features = new ArrayList<String>();
+
+		for (Entry<String, String[]> entry : configuration.getSensorFeaturesSet()) {
+
+			String sensorKey = entry.getKey();
+			String[] sensorValueKeys = StaticSensorHandlerFactory.getSensorValueKeys(sensorKey);
+
+			String[] featureKeys = entry.getValue();
+
+			for (String featureKey : featureKeys) {
+				for (String sensorValueKey : sensorValueKeys) {
+					features.add(sensorKey + "_" + featureKey + "_" + sensorValueKey);
+				}
+			}
+		}
+		
+		// TODO: GPS as feature
+		return features;
+	}
+	
+	/**
+	 * Reads the configuration from the meta data of an ARFF file into the
+	 * configuration. Reading stops after the end of the configuration.
+	 * 
+	 * @param reader reader of the ARFF file
+	 * @param configuration configuration that receives the values
+	 * @throws IOException
+	 */
+	public static void readMetaData(BufferedReader reader, FrameworkConfiguration configuration) throws IOException {
+		String myLine = null;
+
+		while ((myLine = reader.readLine()) != null) {
+			if (!readMetaDataLine(myLine, configuration)) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Reads the configuration values of one line of an ARFF file into the
+	 * configuration.
+	 * 
+	 * @param myLine line of the ARFF file (other lines than meta data are ignored)
+	 * @param configuration configuration that receives the values
+	 * @return false if the line is the end of the configuration
+	 */
+	public static boolean readMetaDataLine(String myLine, FrameworkConfiguration configuration) {
+
+		if (myLine.contains(CONFIG_BEGIN)) {
+			if (FrameworkContext.INFO)
+				Log.i(TAG, "Started configuration reading.");
+		} else if (myLine.contains(CONFIG_END)) {
+			if (FrameworkContext.INFO)
+				Log.i(TAG, "Ended configuration reading.");
+			return false;
+		} else if (myLine.contains(SAMPLE_WINDOW_BEGIN)) {
+
+			// sample window
+			int startPosition = myLine.indexOf(SAMPLE_WINDOW_BEGIN)
+					+ SAMPLE_WINDOW_BEGIN.length();
+			int endPosition = myLine.indexOf(SAMPLE_WINDOW_END,
+					startPosition);
+			String sampleWindow = myLine.substring(startPosition,
+					endPosition);
+			configuration.setSampleWindow(Double
+					.parseDouble(sampleWindow));
+
+		} else if (myLine.contains(OVERLAP_BEGIN)) {
+
+			// overlap
+			int startPosition = myLine.indexOf(OVERLAP_BEGIN)
+					+ OVERLAP_BEGIN.length();
+			int endPosition = myLine
+					.indexOf(OVERLAP_END, startPosition);
+			String overlap = myLine.substring(startPosition,
+					endPosition);
+			configuration.setOverlap(Double.parseDouble(overlap));
+
+		} else if (myLine.contains(PROBE_BEGIN)) {
+
+			// probe keys
+			int startPosition = myLine.indexOf(PROBE_BEGIN)
+					+ PROBE_BEGIN.length();
+			int endPosition = myLine.indexOf(PROBE_END, startPosition);
+			String probeKey = myLine.substring(startPosition,
+					endPosition);
+
+			// feature keys
+			String[] splits = myLine.split(FEATURE_BEGIN);
+			List<String> featureList = new ArrayList<String>();
+			for (String split : splits) {
+				if (split.contains(FEATURE_END)) {
+					int endPos = split.indexOf(FEATURE_END);
+					featureList.add(split.substring(0, endPos));
+				}
+			}
+			String[] features = new String[featureList.size()];
+			featureList.toArray(features);
+
+			configuration.addSensorFeaturesCombination(probeKey,
+					features);
+
+			// optional sliding DFT
+			if (myLine.contains(SLIDING_DFT_BEGIN)) {
+				int dftStartPosition = myLine.indexOf(SLIDING_DFT_BEGIN)
+						+ SLIDING_DFT_BEGIN.length();
+				int dftEndPosition = myLine.indexOf(SLIDING_DFT_END,
+						dftStartPosition);
+				configuration.setSlidingDFT(probeKey, Double
+						.parseDouble(myLine.substring(dftStartPosition,
+								dftEndPosition)));
+			}
+		} else if (myLine.contains(CONTEXT_LABEL_BEGIN)) {
+
+			// context labels
+			String[] splits = myLine.split(CONTEXT_LABEL_BEGIN);
+			List<String> contextLabelsList = new ArrayList<String>();
+			for (String split : splits) {
+				if (split.contains(CONTEXT_LABEL_END)) {
+					int endPos = split.indexOf(CONTEXT_LABEL_END);
+					contextLabelsList.add(split.substring(0, endPos));
+				}
+			}
+			configuration.setContextLabels(contextLabelsList);
+		}
+		return true;
+	}
+
+}
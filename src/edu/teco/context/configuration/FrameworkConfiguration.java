@@ -27,6 +27,10 @@ import android.util.Log;
 import edu.teco.context.configuration.FrameworkKeys.IFeatureKeys;
 import edu.teco.context.configuration.FrameworkKeys.ILocationKeys;
 import edu.teco.context.configuration.FrameworkKeys.IProbeKeys;
+import edu.teco.context.log.AsyncLogWriter;
+import edu.teco.context.recognition.ClassifierBackend;
+import edu.teco.context.recognition.CompiledNaiveBayes;
+import edu.teco.context.recognition.OnlineNaiveBayesTrainer;
 
 public class FrameworkConfiguration implements IProbeKeys, IFeatureKeys, ILocationKeys {
 	
@@ -46,6 +50,8 @@ public class FrameworkConfiguration implements IProbeKeys, IFeatureKeys, ILocati
 	private double mSampleWindow;
 	private double mOverlap;
 	private Map<String, String[]> mSensorFeaturMap;
+	/** highest frequency of the sliding DFT per sensor (only sensors using a sliding DFT) */
+	private Map<String, Double> mSlidingDFTMap;
 	private List<String> mContextLabels;
 
 	private boolean mIsLocationSensor;
@@ -53,6 +59,32 @@ public class FrameworkConfiguration implements IProbeKeys, IFeatureKeys, ILocati
 	private String mLocationStrategy;
 
 	private boolean mIsAudioVolumeProbe;
+	
+	/** probe log as binary records instead of text lines */
+	private boolean mIsBinaryLog;
+	/** binary probe log as compressed segments, rotated after a size in bytes or a duration in milliseconds */
+	private boolean mIsCompressedLog;
+	private long mLogSegmentSize;
+	private long mLogSegmentDuration;
+	/** records of the asynchronous probe log writer and what happens if they are all waiting */
+	private int mLogBufferCapacity;
+	private AsyncLogWriter.BackPressure mLogBackPressure;
+	/** time between two flushes of the probe log in milliseconds */
+	private long mLogFlushInterval;
+	/** raw sensor events are captured to a separate binary file while logging, events of every sensor ring */
+	private boolean mIsRawCapture;
+	private int mRawCaptureCapacity;
+	/** name and options of the classifier (see ClassifierBackend) */
+	private String mClassifierName;
+	private String[] mClassifierOptions;
+	/** grid points per standard deviation of the kernel estimators of the classifier, 0 to sum up the kernels */
+	private int mKernelGridResolution;
+	/** the classifier is trained with every feature vector while the training data is recorded */
+	private boolean mIsOnlineTraining;
+	private int mOnlineTrainingPrecisionCount;
+	/** instances and time in milliseconds after which the ARFF training data is flushed */
+	private int mArffFlushInstances;
+	private long mArffFlushInterval;
 
 	// Private constructor suppresses generation of
 	// a (public) default constructor
@@ -66,6 +98,7 @@ public class FrameworkConfiguration implements IProbeKeys, IFeatureKeys, ILocati
 		setOverlap(0.5);
 		
 		mSensorFeaturMap = new LinkedHashMap<String, String[]>();
+		mSlidingDFTMap = new LinkedHashMap<String, Double>();
 		mContextLabels = new ArrayList<String>();
 		
 		addContextLabel("Sitting");
@@ -80,6 +113,24 @@ public class FrameworkConfiguration implements IProbeKeys, IFeatureKeys, ILocati
 		mLocationStrategy = null;
 
 		mIsAudioVolumeProbe = false;
+		
+		mIsBinaryLog = true;
+		mIsCompressedLog = true;
+		mLogSegmentSize = 16 * 1024 * 1024;
+		mLogSegmentDuration = 60 * 60 * 1000;
+		mLogBufferCapacity = 8192;
+		mLogBackPressure = AsyncLogWriter.BackPressure.DROP_NEWEST;
+		mLogFlushInterval = 1000;
+		mIsRawCapture = false;
+		mRawCaptureCapacity = 8192;
+		mClassifierName = ClassifierBackend.NAIVE_BAYES;
+		mClassifierOptions = null;
+		mKernelGridResolution = CompiledNaiveBayes.DEFAULT_GRID_RESOLUTION;
+		mIsOnlineTraining = false;
+		mOnlineTrainingPrecisionCount = OnlineNaiveBayesTrainer.DEFAULT_PRECISION_COUNT;
+		
+		mArffFlushInstances = 100;
+		mArffFlushInterval = 10000;
 	}
 
 	// thread safe
@@ -122,6 +173,32 @@ public class FrameworkConfiguration implements IProbeKeys, IFeatureKeys, ILocati
 		return mSensorFeaturMap.entrySet();
 	}
 
+	/**
+	 * Calculates the spectral features of the sensor with a sliding DFT that is
+	 * updated with every value instead of a FFT per window. Recommended for high
+	 * overlaps, only frequencies up to maxFrequency are used for the features.
+	 * 
+	 * @param sensor
+	 * @param maxFrequency highest frequency in Hz or 0 to transform every window
+	 */
+	public void setSlidingDFT(String sensor, double maxFrequency) {
+		if (maxFrequency > 0.0) {
+			mSlidingDFTMap.put(sensor, maxFrequency);
+			if (FrameworkContext.INFO) Log.i(TAG, "Sliding DFT for probe " + sensor + " up to " + maxFrequency + " Hz");
+		} else {
+			mSlidingDFTMap.remove(sensor);
+		}
+	}
+	
+	/**
+	 * @param sensor
+	 * @return highest frequency of the sliding DFT or 0 if every window is transformed
+	 */
+	public double getSlidingDFTMaxFrequency(String sensor) {
+		Double maxFrequency = mSlidingDFTMap.get(sensor);
+		return (maxFrequency != null) ? maxFrequency.doubleValue() : 0.0;
+	}
+
 	public String[] getSensorKeys() {
 
 		Set<String> sensorSet = mSensorFeaturMap.keySet();
@@ -215,6 +292,191 @@ public class FrameworkConfiguration implements IProbeKeys, IFeatureKeys, ILocati
 		return mIsAudioVolumeProbe;
 	}
 	
+	/**
+	 * Selects the format of the probe log files that are created after this
+	 * call. Binary logs are much smaller and cheaper to write, they can be
+	 * converted to the text format with the BinaryLogConverter.
+	 * 
+	 * @param isBinaryLog true for binary records, false for text lines
+	 */
+	public void setBinaryLog(boolean isBinaryLog) {
+		mIsBinaryLog = isBinaryLog;
+	}
+	
+	public boolean isBinaryLog() {
+		return mIsBinaryLog;
+	}
+	
+	/**
+	 * Writes the binary probe log as compressed segment files with a time
+	 * index (see SegmentedLogWriter) instead of one .bin file. Only used for
+	 * binary logs.
+	 * 
+	 * @param isCompressedLog true for compressed segments
+	 */
+	public void setCompressedLog(boolean isCompressedLog) {
+		mIsCompressedLog = isCompressedLog;
+	}
+	
+	public boolean isCompressedLog() {
+		return mIsCompressedLog;
+	}
+	
+	/**
+	 * Sets when a new segment of the compressed probe log is started
+	 * (whichever comes first).
+	 * 
+	 * @param maxSize file size of a segment in bytes, 0 to disable
+	 * @param maxDuration time since the start of a segment in milliseconds, 0 to disable
+	 */
+	public void setLogSegments(long maxSize, long maxDuration) {
+		mLogSegmentSize = maxSize;
+		mLogSegmentDuration = maxDuration;
+	}
+	
+	public long getLogSegmentSize() {
+		return mLogSegmentSize;
+	}
+	
+	public long getLogSegmentDuration() {
+		return mLogSegmentDuration;
+	}
+	
+	/**
+	 * Sets the ring buffer of the probe log writer thread for the probe log
+	 * files that are created after this call. The default drops new entries if
+	 * the storage is too slow, so the sensor callbacks are never blocked.
+	 * 
+	 * @param capacity number of log entries that may wait for the writer thread
+	 * @param backPressure what happens if all entries are waiting
+	 * @param flushInterval time between two flushes of the log file and the raw capture file in milliseconds
+	 */
+	public void setLogBuffer(int capacity, AsyncLogWriter.BackPressure backPressure, long flushInterval) {
+		mLogBufferCapacity = capacity;
+		mLogBackPressure = backPressure;
+		mLogFlushInterval = flushInterval;
+	}
+	
+	public int getLogBufferCapacity() {
+		return mLogBufferCapacity;
+	}
+	
+	public AsyncLogWriter.BackPressure getLogBackPressure() {
+		return mLogBackPressure;
+	}
+	
+	public long getLogFlushInterval() {
+		return mLogFlushInterval;
+	}
+	
+	/**
+	 * Captures the raw sensor events of the next recordings in the LOGGING
+	 * state to a separate binary file (see RawCaptureWriter) instead of the
+	 * probe log. Location and parameter are not captured, the features are
+	 * calculated later with the ProbeLogReplay.
+	 * 
+	 * @param isRawCapture true for raw capture
+	 * @param capacity number of events of the ring of every sensor
+	 */
+	public void setRawCapture(boolean isRawCapture, int capacity) {
+		mIsRawCapture = isRawCapture;
+		mRawCaptureCapacity = capacity;
+	}
+	
+	public boolean isRawCapture() {
+		return mIsRawCapture;
+	}
+	
+	public int getRawCaptureCapacity() {
+		return mRawCaptureCapacity;
+	}
+	
+	/**
+	 * Sets the classifier that is created when the framework is configured.
+	 * The built-in classifiers (ClassifierBackend.NAIVE_BAYES, DECISION_TREE,
+	 * LOGISTIC and NEAREST_NEIGHBOR) classify the feature vectors without WEKA
+	 * instances and measure their classification time, a slower device can
+	 * use a faster classifier. Other names are class names of WEKA
+	 * classifiers.
+	 * 
+	 * @param name name of the classifier
+	 * @param options the options of the classifier (e.g. "-K" for the kernel estimator of the naive Bayes), may be null
+	 */
+	public void setClassifier(String name, String[] options) {
+		mClassifierName = name;
+		mClassifierOptions = (options == null) ? null : options.clone();
+	}
+	
+	public String getClassifierName() {
+		return mClassifierName;
+	}
+	
+	public String[] getClassifierOptions() {
+		return (mClassifierOptions == null) ? null : mClassifierOptions.clone();
+	}
+	
+	/**
+	 * Sets how the kernel estimators of the classifiers that are trained after
+	 * this call are evaluated. With a grid the kernel densities are
+	 * precomputed when the classifier is trained, so the classification costs
+	 * the same for every amount of training data (the probabilities differ
+	 * slightly from WEKA). Without a grid all kernels are summed up for every
+	 * classification like in WEKA.
+	 * 
+	 * @param resolution grid points per standard deviation of the kernels, 0 to disable the grid
+	 */
+	public void setKernelGridResolution(int resolution) {
+		mKernelGridResolution = resolution;
+	}
+	
+	public int getKernelGridResolution() {
+		return mKernelGridResolution;
+	}
+	
+	/**
+	 * Trains the classifier with every feature vector of the TRAINING state
+	 * as soon as it is calculated (see OnlineNaiveBayesTrainer), so the
+	 * classifier is trained without rebuilding it from all training data. The
+	 * training data is still logged. The precisions of the estimators are
+	 * calculated from the first feature vectors instead of all training data.
+	 * 
+	 * @param isOnlineTraining true for online training
+	 * @param precisionCount number of feature vectors to calculate the precisions
+	 */
+	public void setOnlineTraining(boolean isOnlineTraining, int precisionCount) {
+		mIsOnlineTraining = isOnlineTraining;
+		mOnlineTrainingPrecisionCount = precisionCount;
+	}
+	
+	public boolean isOnlineTraining() {
+		return mIsOnlineTraining;
+	}
+	
+	public int getOnlineTrainingPrecisionCount() {
+		return mOnlineTrainingPrecisionCount;
+	}
+	
+	/**
+	 * Sets when the training data that is logged directly to the ARFF file is
+	 * flushed (whichever comes first). It is always flushed when the training
+	 * recording is stopped.
+	 * 
+	 * @param instances number of instances, 0 to disable
+	 * @param interval time since the last flush in milliseconds, 0 to disable
+	 */
+	public void setArffFlushPolicy(int instances, long interval) {
+		mArffFlushInstances = instances;
+		mArffFlushInterval = interval;
+	}
+	
+	public int getArffFlushInstances() {
+		return mArffFlushInstances;
+	}
+	
+	public long getArffFlushInterval() {
+		return mArffFlushInterval;
+	}
+	
 	public List<String> getSupportedProbeNames() {
 		List<String> probeNames = new ArrayList<String>();
 		probeNames.add(FrameworkKeys.IProbeKeys.ACCELEROMETER);
@@ -253,7 +515,8 @@ public class FrameworkConfiguration implements IProbeKeys, IFeatureKeys, ILocati
 	@Override
 	public String toString() {
 		return "FrameworkConfiguration [Name=" + mConfigurationName + ", SampleWindow=" + mSampleWindow
-				+ ", Overlap=" + mOverlap + ", SensorFeaturMap=" + mSensorFeaturMap + ", ContextLabels="
+				+ ", Overlap=" + mOverlap + ", SensorFeaturMap=" + mSensorFeaturMap + ", SlidingDFTMap="
+				+ mSlidingDFTMap + ", ContextLabels="
 				+ mContextLabels + "]";
 	}
 
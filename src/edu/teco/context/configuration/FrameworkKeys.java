@@ -36,12 +36,26 @@ public class FrameworkKeys {
 		public static final String
 		MEAN = "MEAN",
 		MEDIAN = "MEDIAN",
+		PERCENTILE_10 = "PERCENTILE_10",
+		PERCENTILE_25 = "PERCENTILE_25",
+		PERCENTILE_75 = "PERCENTILE_75",
+		PERCENTILE_90 = "PERCENTILE_90",
+		INTERQUARTILE_RANGE = "INTERQUARTILE_RANGE",
 		VARIANCE = "VARIANCE",
 		STANDARD_DEVIATION = "STANDARD_DEVIATION",
 		DIFFERENCE_MAX_MIN = "DIFFERENCE_MAX_MIN",
+		SKEWNESS = "SKEWNESS",
+		KURTOSIS = "KURTOSIS",
 		FREQUENCY_PEAK = "FREQUENCY_PEAK",
 		ENTROPY = "ENTROPY",
-		FREQUENCY_DOMAIN_ENTROPY = "FREQUENCY_DOMAIN_ENTROPY";
+		FREQUENCY_DOMAIN_ENTROPY = "FREQUENCY_DOMAIN_ENTROPY",
+		SPECTRAL_ENERGY = "SPECTRAL_ENERGY",
+		BAND_ENERGY_LOW = "BAND_ENERGY_LOW",
+		BAND_ENERGY_MEDIUM = "BAND_ENERGY_MEDIUM",
+		BAND_ENERGY_HIGH = "BAND_ENERGY_HIGH",
+		SPECTRAL_CENTROID = "SPECTRAL_CENTROID",
+		SPECTRAL_ROLLOFF = "SPECTRAL_ROLLOFF",
+		SPECTRAL_FLATNESS = "SPECTRAL_FLATNESS";
 	}
 	
 	public static interface IMetaDataTags {
@@ -56,6 +70,8 @@ public class FrameworkKeys {
 		PROBE_END = "</probe>",
 		FEATURE_BEGIN = "<feature>",
 		FEATURE_END = "</feature>",
+		SLIDING_DFT_BEGIN = "<sliding_dft>",
+		SLIDING_DFT_END = "</sliding_dft>",
 		CONTEXT_LABEL_BEGIN = "<context_label>",
 		CONTEXT_LABEL_END = "</context_label>";
 	}
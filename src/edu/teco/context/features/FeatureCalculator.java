@@ -15,14 +15,19 @@
  ******************************************************************************/
 package edu.teco.context.features;
 
-import java.util.Arrays;
-
-import edu.teco.context.features.entropy.EntropyCalculator;
 import edu.teco.context.features.entropy.EntropyCalculatorKernel;
 import edu.teco.context.features.fourier.FFT;
+import edu.teco.context.features.fourier.Spectrum;
 
 public class FeatureCalculator {
 	
+	/** upper limit (Hz) of the low frequency band, e.g. posture changes */
+	public static final double LOW_BAND_LIMIT = 1.0;
+	/** upper limit (Hz) of the medium frequency band, e.g. walking */
+	public static final double MEDIUM_BAND_LIMIT = 3.0;
+	/** energy fraction for the spectral rolloff */
+	public static final double ROLLOFF_FRACTION = 0.85;
+	
 	/**
 	 * 
 	 * @param values
@@ -45,15 +50,20 @@ public class FeatureCalculator {
 	 * @return
 	 */
 	public static double median(float[] values) {
-		
-		Arrays.sort(values);
-		
-		int middle = values.length/2;
-	    if (values.length%2 == 1) {
-	        return values[middle];
-	    } else {
-	        return (values[middle-1] + values[middle]) / 2.0;
-	    }
+		return quantile(values, 0.5);
+	}
+	
+	/**
+	 * Quantile by selection on a copy of the values (the values are not reordered).
+	 * 
+	 * @param values
+	 * @param p the probability between 0 and 1 (e.g. 0.25 for the first quartile)
+	 * @return the linearly interpolated quantile
+	 */
+	public static double quantile(float[] values, double p) {
+		QuantileSelector selector = new QuantileSelector(values.length);
+		selector.setValues(values, values.length);
+		return selector.quantile(p);
 	}
 	
 	public static double variance(float[] values, double mean) {
@@ -106,11 +116,21 @@ public class FeatureCalculator {
 	
 	public static double differenceMaxMin(float[] values) {
 		
-		Arrays.sort(values);
-		double minValue = values[0];
-		double maxValue = values[values.length - 1];
+		if (values.length == 0) {
+			return 0.0;
+		}
+		
+		float minValue = values[0];
+		float maxValue = values[0];
+		for (float value : values) {
+			if (value < minValue) {
+				minValue = value;
+			} else if (value > maxValue) {
+				maxValue = value;
+			}
+		}
 		
-		return maxValue - minValue;
+		return (double) maxValue - minValue;
 	}
 	
 	/**
@@ -172,6 +192,20 @@ public class FeatureCalculator {
 	
 	
 	public static double entropy(float[] values) {
+		return entropy(values, values.length, new double[values.length], new EntropyCalculatorKernel());
+	}
+	
+	/**
+	 * Entropy of the first length values without allocating the normalized values.
+	 * 
+	 * @param values
+	 * @param length number of values used from the array
+	 * @param normalizedValues scratch array with at least length elements
+	 * @param entropyCalc calculator that is initialised again for these values
+	 * @return
+	 */
+	public static double entropy(float[] values, int length, double[] normalizedValues,
+			EntropyCalculatorKernel entropyCalc) {
 		// http://whaticode.com/2010/05/24/a-java-implementation-for-shannon-entropy/
 		
 		// Problem continuous variable --> use Differential entropy
@@ -184,14 +218,10 @@ public class FeatureCalculator {
 		// first normalize distribution
 		float valueSum = 0;
 		
-		for (int i = 0; i < values.length; i++) {
+		for (int i = 0; i < length; i++) {
 		
-			// for log value cannot be < 0
-			if (values[i] < 0) {
-				values[i] = -1 * values[i];
-			}
-			
-			valueSum += values[i];
+			// for log value cannot be < 0 (the values are not changed, other features use them)
+			valueSum += Math.abs(values[i]);
 		}
 		
 		double normalizingFactor = 1 / valueSum;
@@ -200,20 +230,18 @@ public class FeatureCalculator {
 		// sum over all i of -(dist[i] * Math.log(dist[i])) 
 		double entropy = 0;
 		
-		double[] normalizedValues = new double[values.length];
-		for (int i = 0; i < values.length; i++) {
-			normalizedValues[i] = values[i] * normalizingFactor;
+		for (int i = 0; i < length; i++) {
+			normalizedValues[i] = Math.abs(values[i]) * normalizingFactor;
 //			if (FrameworkContext.INFO) Log.i("ENTROPY", "Normalized Value = " + normalizedValues[i]);
 //			normalizedSum += normalizedValues[i];
 			
 //			entropy -= normalizedValues[i] * Math.log(normalizedValues[i]);
 		}
 		
-		EntropyCalculator entropyCalc = new EntropyCalculatorKernel();
 		try {
 			entropyCalc.initialise();
 //			entropyCalc.setDebug(true);
-			entropyCalc.setObservations(normalizedValues);
+			entropyCalc.setObservations(normalizedValues, length);
 			entropy = entropyCalc.computeAverageLocalOfObservations();
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -292,6 +320,10 @@ public class FeatureCalculator {
 	}
 	
 	/**
+	 * Calculates the entropy of the normalized DFT magnitudes up to the Nyquist
+	 * frequency. If more spectral features are calculated for the same values
+	 * use {@link #frequencyDomainEntropy(Spectrum)} with a shared spectrum.
+	 * 
 	 * source: http://nayuki.eigenstate.org/page/how-to-implement-the-discrete-fourier-transform
 	 * 
 	 * @param values
@@ -299,56 +331,15 @@ public class FeatureCalculator {
 	 * @return
 	 */
 	public static double frequencyDomainEntropyWithDFT(float[] values, double sampleWindow) {
-		
-		int n = values.length;
-	    
-		// imaginery part is always 0
-//	    double[] inimag = new double[n];
-//	    Arrays.fill(inimag, 0);
-	    
-	    // Signals sampled at Fs are only able to accurately represent frequencies up to, but not including Fs/2
-	    // http://en.wikipedia.org/wiki/Nyquist%E2%80%93Shannon_sampling_theorem
-	    // http://stackoverflow.com/questions/4364823/how-to-get-frequency-from-fft-result?lq=1
-	    int nyquistRate;
-	    if (n % 2 == 0) {
-	    	// even number
-	    	nyquistRate = n/2 - 1;
-	    } else {
-	    	// odd number
-	    	nyquistRate = (n-1) / 2;
-	    }
-
-	    double magnitude[] = new double[nyquistRate+1];
-	    double sumMagnitude = 0;
-	    
-	    for (int k = 0; k <= nyquistRate; k++) {  // For output element till nyquistRate
-	        double sumreal = 0;
-	        double sumimag = 0;
-	        for (int t = 0; t < n; t++) {  // For each input element
-	            sumreal +=  values[t]*Math.cos(2*Math.PI * t * k / n);
-	            sumimag += -values[t]*Math.sin(2*Math.PI * t * k / n);
-//	            sumreal +=  values[t]*Math.cos(2*Math.PI * t * k / n) + inimag[t]*Math.sin(2*Math.PI * t * k / n);
-//	            sumimag += -values[t]*Math.sin(2*Math.PI * t * k / n) + inimag[t]*Math.cos(2*Math.PI * t * k / n);
-	        }
-	        
-	        magnitude[k] = Math.sqrt(sumreal * sumreal + sumimag * sumimag);
-	        sumMagnitude += magnitude[k];
-	    }
-		
-		double entropy = 0.0;
-		
-		for (int i = 0; i < magnitude.length; i++) {
-			double normalizedValue = magnitude[i] / sumMagnitude;
-			if (normalizedValue > 0) {
-				entropy -= normalizedValue * (Math.log(normalizedValue) / Math.log(2));
-			}
-		}
-		
-		return entropy;
+		Spectrum spectrum = new Spectrum();
+		spectrum.calculate(values, values.length, sampleWindow);
+		return frequencyDomainEntropy(spectrum);
 	}
 	
 	/**
 	 * Calculates the frequency peak of given sensor values by maximum DFT magnitude.
+	 * If more spectral features are calculated for the same values use
+	 * {@link #frequencyPeak(Spectrum)} with a shared spectrum.
 	 * 
 	 * see references:
 	 * http://nayuki.eigenstate.org/page/how-to-implement-the-discrete-fourier-transform
@@ -359,49 +350,157 @@ public class FeatureCalculator {
 	 * @return the peak frequency recognized in sensor values (by magnitude)
 	 */
 	public static double dftFrequencyPeak(float[] values, double sampleWindow) {
+		Spectrum spectrum = new Spectrum();
+		spectrum.calculate(values, values.length, sampleWindow);
+		return frequencyPeak(spectrum);
+	}
+	
+	// ******************************************************************** //
+	// spectral features (all read from the same spectrum)
+	// ******************************************************************** //
+	
+	/**
+	 * @param spectrum the spectrum of the sensor values
+	 * @return the frequency with the maximum magnitude in Hz
+	 */
+	public static double frequencyPeak(Spectrum spectrum) {
+		
+		double[] magnitude = spectrum.getMagnitudes();
 		
-	    int n = values.length;
-	    
-	    // imaginery part is always 0
-//	    double[] inimag = new double[n];
-//	    Arrays.fill(inimag, 0);
-	    
-	    // Signals sampled at Fs are only able to accurately represent frequencies up to, but not including Fs/2
-	    // http://en.wikipedia.org/wiki/Nyquist%E2%80%93Shannon_sampling_theorem
-	    // http://stackoverflow.com/questions/4364823/how-to-get-frequency-from-fft-result?lq=1
-	    int nyquistRate;
-	    if (n % 2 == 0) {
-	    	// even number
-	    	nyquistRate = n/2 - 1;
-	    } else {
-	    	// odd number
-	    	nyquistRate = (n-1) / 2;
-	    }
-
 	    double maxValue = 0.0;
 		int maxValueIndex = 0;
 	    
-	    for (int k = 0; k <= nyquistRate; k++) {  // For each output element
-	        double sumreal = 0;
-	        double sumimag = 0;
-	        for (int t = 0; t < n; t++) {  // For each input element
-	            sumreal +=  values[t]*Math.cos(2*Math.PI * t * k / n);
-	            sumimag += -values[t]*Math.sin(2*Math.PI * t * k / n);
-//	            sumreal +=  values[t]*Math.cos(2*Math.PI * t * k / n) + inimag[t]*Math.sin(2*Math.PI * t * k / n);
-//	            sumimag += -values[t]*Math.sin(2*Math.PI * t * k / n) + inimag[t]*Math.cos(2*Math.PI * t * k / n);
-	        }
-	        
-	        double magnitude = Math.sqrt(sumreal * sumreal + sumimag * sumimag);
-	        
-	        if (magnitude > maxValue) {
-				maxValue = magnitude;
+	    for (int k = 0; k < spectrum.getBinCount(); k++) {
+	        if (magnitude[k] > maxValue) {
+				maxValue = magnitude[k];
 				maxValueIndex = k;
 			}
 	    }
 	    
-		// calculate the max frequency peak
-//		double frequencyPeak = samplingFrequency * maxValueIndex / n;
-		return maxValueIndex / sampleWindow;
+		return spectrum.getFrequency(maxValueIndex);
+	}
+	
+	/**
+	 * http://www.pervasive.jku.at/Teaching/_2012SS/EmbeddedSystems/Uebungen/UE52/2004_Activity%20Recognition%20from%20User-Annotated%20Acceleration%20Data_Intille.pdf
+	 * 
+	 * @param spectrum the spectrum of the sensor values
+	 * @return the entropy (bits) of the normalized magnitudes
+	 */
+	public static double frequencyDomainEntropy(Spectrum spectrum) {
+		
+		double[] magnitude = spectrum.getMagnitudes();
+		double sumMagnitude = spectrum.getTotalMagnitude();
+		
+		double entropy = 0.0;
+		
+		for (int i = 0; i < spectrum.getBinCount(); i++) {
+			double normalizedValue = magnitude[i] / sumMagnitude;
+			if (normalizedValue > 0) {
+				entropy -= normalizedValue * (Math.log(normalizedValue) / Math.log(2));
+			}
+		}
+		
+		return entropy;
+	}
+	
+	/**
+	 * Energy of the frequencies in [lowFrequency, highFrequency). The DC bin
+	 * (mean of the values) is never part of a band.
+	 * 
+	 * @param spectrum the spectrum of the sensor values
+	 * @param lowFrequency lower band limit in Hz (inclusive)
+	 * @param highFrequency upper band limit in Hz (exclusive)
+	 * @return sum of the power spectrum in the band
+	 */
+	public static double bandEnergy(Spectrum spectrum, double lowFrequency, double highFrequency) {
+		
+		double[] power = spectrum.getPowers();
+		int firstBin = Math.max(1, spectrum.getBin(lowFrequency));
+		int lastBin = Math.min(spectrum.getBinCount(), spectrum.getBin(highFrequency));
+		
+		double energy = 0.0;
+		for (int k = firstBin; k < lastBin; k++) {
+			energy += power[k];
+		}
+		return energy;
+	}
+	
+	/**
+	 * Power weighted mean frequency without the DC bin.
+	 * 
+	 * @param spectrum the spectrum of the sensor values
+	 * @return the spectral centroid in Hz
+	 */
+	public static double spectralCentroid(Spectrum spectrum) {
+		
+		double[] power = spectrum.getPowers();
+		
+		double weightedSum = 0.0;
+		double sum = 0.0;
+		for (int k = 1; k < spectrum.getBinCount(); k++) {
+			weightedSum += k * power[k];
+			sum += power[k];
+		}
+		
+		if (sum == 0.0) {
+			return 0.0;
+		}
+		return spectrum.getFrequency(1) * weightedSum / sum;
+	}
+	
+	/**
+	 * Frequency below which the given fraction of the energy (without DC bin)
+	 * is contained.
+	 * 
+	 * @param spectrum the spectrum of the sensor values
+	 * @param fraction fraction of the energy e.g. 0.85
+	 * @return the rolloff frequency in Hz
+	 */
+	public static double spectralRolloff(Spectrum spectrum, double fraction) {
+		
+		double[] power = spectrum.getPowers();
+		int binCount = spectrum.getBinCount();
+		
+		double threshold = (spectrum.getTotalEnergy() - (binCount > 0 ? power[0] : 0.0)) * fraction;
+		
+		double energy = 0.0;
+		for (int k = 1; k < binCount; k++) {
+			energy += power[k];
+			if (energy >= threshold) {
+				return spectrum.getFrequency(k);
+			}
+		}
+		return 0.0;
+	}
+	
+	/**
+	 * Ratio of geometric and arithmetic mean of the power spectrum without the
+	 * DC bin. Close to 1 for noise and close to 0 for periodic signals.
+	 * 
+	 * @param spectrum the spectrum of the sensor values
+	 * @return the spectral flatness between 0 and 1
+	 */
+	public static double spectralFlatness(Spectrum spectrum) {
+		
+		double[] power = spectrum.getPowers();
+		int bins = spectrum.getBinCount() - 1;
+		
+		if (bins < 1) {
+			return 0.0;
+		}
+		
+		double logSum = 0.0;
+		double sum = 0.0;
+		for (int k = 1; k <= bins; k++) {
+			if (power[k] <= 0.0) {
+				// geometric mean is zero
+				return 0.0;
+			}
+			logSum += Math.log(power[k]);
+			sum += power[k];
+		}
+		
+		return Math.exp(logSum / bins) / (sum / bins);
 	}
 	
 //	private static void fft(float[] values, double realOut[], double[] imaginaryOut) {
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.features;
+
+import java.util.Arrays;
+
+/**
+ * Median and quantiles of one sensor axis by selection instead of sorting.
+ *
+ * The values are copied into a scratch array once, so the sensor values keep
+ * their order for order dependent features (FFT, entropy). Every quantile is
+ * found with quickselect (median of three pivot, three way partition) in O(n)
+ * on average. If the partitioning degenerates the remaining range is sorted,
+ * which bounds the worst case to O(n log n) (introselect).
+ *
+ * Quantiles are linearly interpolated between the order statistics at
+ * (n - 1) * p, so the median of an even number of values is the mean of the
+ * two middle values like {@link FeatureCalculator#median(float[])}.
+ *
+ * see references:
+ * http://en.wikipedia.org/wiki/Quickselect
+ * http://en.wikipedia.org/wiki/Introselect
+ */
+public class QuantileSelector {
+
+	private float[] mScratch;
+	private int mLength = 0;
+
+	public QuantileSelector() {
+		this(0);
+	}
+
+	/**
+	 * @param capacity expected maximum number of values per window
+	 */
+	public QuantileSelector(int capacity) {
+		mScratch = new float[capacity];
+	}
+
+	/**
+	 * Copies the first length values into the scratch array.
+	 *
+	 * @param values the sensor values of one axis (not modified)
+	 * @param length number of values used from the array
+	 */
+	public void setValues(float[] values, int length) {
+		if (mScratch.length < length) {
+			mScratch = new float[length];
+		}
+		System.arraycopy(values, 0, mScratch, 0, length);
+		mLength = length;
+	}
+
+	/**
+	 * @param p the probability between 0 and 1 (e.g. 0.25 for the first quartile)
+	 * @return the interpolated quantile or 0 if no values are set
+	 */
+	public double quantile(double p) {
+		if (mLength == 0) {
+			return 0.0;
+		}
+
+		double position = (mLength - 1) * p;
+		int lower = (int) Math.floor(position);
+		double fraction = position - lower;
+
+		double lowerValue = select(lower);
+		if (fraction == 0.0 || lower + 1 >= mLength) {
+			return lowerValue;
+		}
+
+		// after select(lower) all values right of lower are >= lowerValue,
+		// the next order statistic is their minimum
+		float upperValue = mScratch[lower + 1];
+		for (int i = lower + 2; i < mLength; i++) {
+			if (mScratch[i] < upperValue) {
+				upperValue = mScratch[i];
+			}
+		}
+
+		return lowerValue + fraction * (upperValue - lowerValue);
+	}
+
+	public double median() {
+		return quantile(0.5);
+	}
+
+	public double interquartileRange() {
+		return quantile(0.75) - quantile(0.25);
+	}
+
+	/**
+	 * Moves the k-th smallest value to index k, smaller values to the left and
+	 * greater or equal values to the right.
+	 *
+	 * @param k index of the order statistic
+	 * @return the k-th smallest value
+	 */
+	private float select(int k) {
+		float[] a = mScratch;
+		int left = 0;
+		int right = mLength - 1;
+
+		// allow 2 * log2(n) partition steps before falling back to sorting
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(mLength));
+
+		while (right > left) {
+			if (depthLimit-- == 0) {
+				Arrays.sort(a, left, right + 1);
+				return a[k];
+			}
+
+			// median of three pivot
+			int middle = (left + right) >>> 1;
+			if (a[middle] < a[left]) swap(a, left, middle);
+			if (a[right] < a[left]) swap(a, left, right);
+			if (a[right] < a[middle]) swap(a, middle, right);
+			float pivot = a[middle];
+
+			// three way partition, sensor values often repeat (e.g. quantized light
+			// or proximity values) and equal values must not degenerate the selection
+			int less = left;
+			int greater = right;
+			int i = left;
+			while (i <= greater) {
+				if (a[i] < pivot) {
+					swap(a, i++, less++);
+				} else if (a[i] > pivot) {
+					swap(a, i, greater--);
+				} else {
+					i++;
+				}
+			}
+
+			if (k < less) {
+				right = less - 1;
+			} else if (k > greater) {
+				left = greater + 1;
+			} else {
+				return a[k];
+			}
+		}
+		return a[k];
+	}
+
+	private static void swap(float[] a, int i, int j) {
+		float temp = a[i];
+		a[i] = a[j];
+		a[j] = temp;
+	}
+
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.features;
+
+/**
+ * Time domain statistics of one sensor axis calculated in a single pass over
+ * the values: count, sum, sum of squares, min, max and the central moments up
+ * to the fourth order.
+ *
+ * The moments are updated with the numerically stable one-pass algorithm of
+ * Welford (extended to higher orders by Terriberry), so the variance does not
+ * suffer from cancellation like sumOfSquares/n - mean^2.
+ *
+ * see references:
+ * http://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Higher-order_statistics
+ */
+public class WindowStatistics {
+
+	private int mCount;
+	private double mSum;
+	private double mSumOfSquares;
+	private double mMin;
+	private double mMax;
+
+	private double mMean;
+	/** sums of powers of differences from the mean */
+	private double mM2;
+	private double mM3;
+	private double mM4;
+
+	public WindowStatistics() {
+		clear();
+	}
+
+	public void clear() {
+		mCount = 0;
+		mSum = 0.0;
+		mSumOfSquares = 0.0;
+		mMin = Double.POSITIVE_INFINITY;
+		mMax = Double.NEGATIVE_INFINITY;
+		mMean = 0.0;
+		mM2 = 0.0;
+		mM3 = 0.0;
+		mM4 = 0.0;
+	}
+
+	/**
+	 * Calculates all statistics of the first length values (old values are discarded).
+	 *
+	 * @param values the sensor values of one axis
+	 * @param length number of values used from the array
+	 */
+	public void calculate(float[] values, int length) {
+		clear();
+		for (int i = 0; i < length; i++) {
+			add(values[i]);
+		}
+	}
+
+	/**
+	 * Adds one value to the statistics.
+	 *
+	 * @param value
+	 */
+	public void add(double value) {
+		int previousCount = mCount;
+		mCount++;
+
+		mSum += value;
+		mSumOfSquares += value * value;
+		if (value < mMin) {
+			mMin = value;
+		}
+		if (value > mMax) {
+			mMax = value;
+		}
+
+		double delta = value - mMean;
+		double deltaN = delta / mCount;
+		double deltaN2 = deltaN * deltaN;
+		double term = delta * deltaN * previousCount;
+
+		mMean += deltaN;
+		mM4 += term * deltaN2 * ((double) mCount * mCount - 3 * mCount + 3) + 6 * deltaN2 * mM2 - 4 * deltaN * mM3;
+		mM3 += term * deltaN * (mCount - 2) - 3 * deltaN * mM2;
+		mM2 += term;
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+	public double getSum() {
+		return mSum;
+	}
+
+	public double getSumOfSquares() {
+		return mSumOfSquares;
+	}
+
+	public double getMin() {
+		return mCount > 0 ? mMin : 0.0;
+	}
+
+	public double getMax() {
+		return mCount > 0 ? mMax : 0.0;
+	}
+
+	public double getDifferenceMaxMin() {
+		return getMax() - getMin();
+	}
+
+	public double getMean() {
+		return mMean;
+	}
+
+	/**
+	 * @return the population variance (divided by n like {@link FeatureCalculator#variance(float[])})
+	 */
+	public double getVariance() {
+		return mCount > 0 ? mM2 / mCount : 0.0;
+	}
+
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @return the sample skewness or 0 if all values are equal
+	 */
+	public double getSkewness() {
+		if (mM2 == 0.0) {
+			return 0.0;
+		}
+		return Math.sqrt(mCount) * mM3 / Math.pow(mM2, 1.5);
+	}
+
+	/**
+	 * @return the excess kurtosis (0 for a normal distribution) or 0 if all values are equal
+	 */
+	public double getKurtosis() {
+		if (mM2 == 0.0) {
+			return 0.0;
+		}
+		return mCount * mM4 / (mM2 * mM2) - 3.0;
+	}
+
+}
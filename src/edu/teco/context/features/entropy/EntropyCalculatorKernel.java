@@ -59,22 +59,36 @@ public class EntropyCalculatorKernel implements EntropyCalculator {
 	 * @param observations
 	 */
 	public void setObservations(double observations[]) {
+		setObservations(observations, observations.length);
+	}
+	
+	/**
+	 * Set the first length observations of the array for the PDFs,
+	 *  so a scratch array can be reused for windows of different length.
+	 * 
+	 * @param observations
+	 * @param length
+	 */
+	public void setObservations(double observations[], int length) {
 		this.observations = observations;
-		svke.setObservations(observations);
-		totalObservations = observations.length;
+		svke.setObservations(observations, 0, length);
+		totalObservations = length;
 	}
 	
 	public double computeAverageLocalOfObservations() {
 		double entropy = 0.0;
-		for (int t = 0; t < observations.length; t++) {
-			double prob = svke.getProbability(observations[t]);
-			double cont = Math.log(prob);
-			entropy -= cont;
-			if (debug) {
+		if (debug) {
+			for (int t = 0; t < totalObservations; t++) {
+				double prob = svke.getProbability(observations[t]);
+				double cont = Math.log(prob);
+				entropy -= cont;
 				System.out.println(t + ": p(" + observations[t] + ")= " +
 						prob + " -> " + (cont/Math.log(2.0)) + " -> sum: " +
 						(entropy/Math.log(2.0)));
 			}
+		} else {
+			// all observations in one sweep over the sorted observations
+			entropy = -svke.sumLogProbabilitiesOfObservations();
 		}
 		return entropy / totalObservations / Math.log(2.0);
 	}
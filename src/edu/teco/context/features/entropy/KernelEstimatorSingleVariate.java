@@ -15,9 +15,6 @@
  ******************************************************************************/
 package edu.teco.context.features.entropy;
 
-import java.util.Arrays;
-import java.util.Vector;
-
 /**
  * <p>Class to maintain probability distribution function for
  *  a single variable, using kernel estimates.</p>
@@ -27,6 +24,14 @@ import java.util.Vector;
  *  see Kantz and Schreiber (below).
  * </p>
  * 
+ * <p>
+ *  The observations are kept in primitive arrays that are reused for the next
+ *  observations: one array sorted by value with the time steps in a parallel
+ *  array. The bins are consecutive ranges of the sorted array (the bin index
+ *  grows with the value), the first index of every bin is stored in an offset
+ *  array.
+ * </p>
+ * 
  * @see "H. Kantz and T. Schreiber, 'Nonlinear Time Series Analysis'.
  *   Cambridge, MA: Cambridge University Press, 1997"
  * @author Joseph Lizier, <a href="mailto:joseph.lizier at gmail.com">joseph.lizier at gmail.com</>
@@ -34,54 +39,30 @@ import java.util.Vector;
  */
 public class KernelEstimatorSingleVariate {
 
+	/** below this length a range is sorted by insertion sort */
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
 	private double suppliedKernelWidth = 0.1;
 	private double kernelWidthInUse;
 	private double min = 0;
 	private double max = 0;
 	private int bins = 0;
 	private int totalObservations = 0;
-	private TimeStampedObservation[][] sortedObservations = null;
 	private boolean debug = false;
 	
+	/** observations sorted by value */
+	private double[] sortedValues = new double[0];
+	/** time step of each sorted observation */
+	private int[] sortedTimeSteps = new int[0];
+	/** index of the first sorted observation of each bin, binOffsets[bins] = totalObservations */
+	private int[] binOffsets = new int[0];
+	private boolean hasObservations = false;
+	
 	private boolean normalise = true;
 	
 	private boolean excludeDynamicCorrelations = false;
 	private int timeProximityForDynamicCorrelationExclusion = 100;
 
-	/**
-	 * 
-	 * Private class to store a time-stamped data point.
-	 * This allows us to eliminate dynamic correlations later.
-	 * 
-	 * @author Joseph Lizier
-	 *
-	 */
-	private class TimeStampedObservation implements Comparable {
-		public int timeStep;
-		public double observation;
-		
-		TimeStampedObservation(int time, double dataPoint) {
-			timeStep = time;
-			observation = dataPoint;
-		}
-
-		/**
-		 * Compare the data values of the two time points
-		 * 
-		 * @param obj
-		 * @return
-		 */
-		public int compareTo(Object obj) {
-			TimeStampedObservation tso2 = (TimeStampedObservation) obj;
-			if (observation < tso2.observation) {
-				return -1;
-			} else if (observation > tso2.observation) {
-				return 1;
-			}
-			return 0;
-		}
-	}
-
 	public KernelEstimatorSingleVariate() {
 	}
 
@@ -92,7 +73,7 @@ public class KernelEstimatorSingleVariate {
 	 */
 	public void initialise(double epsilon) {
 		this.suppliedKernelWidth = epsilon;
-		sortedObservations = null;
+		hasObservations = false;
 	}
 	
 	public void setObservations(double[] data) {
@@ -100,22 +81,34 @@ public class KernelEstimatorSingleVariate {
 	}
 	
 	public void setObservations(double[] data, int startTime) {
-		min = MatrixUtils.minStartFromIndex(data, startTime);
-		max = MatrixUtils.maxStartFromIndex(data, startTime);
-		totalObservations = data.length - startTime;
+		setObservations(data, startTime, data.length);
+	}
+	
+	/**
+	 * Set the observations from startTime up to (excluding) endTime,
+	 *  the data array may be larger (e.g. a reused scratch array).
+	 * 
+	 * @param data
+	 * @param startTime
+	 * @param endTime
+	 */
+	public void setObservations(double[] data, int startTime, int endTime) {
+		min = MatrixUtils.minStartFromIndex(data, startTime, endTime);
+		max = MatrixUtils.maxStartFromIndex(data, startTime, endTime);
+		totalObservations = endTime - startTime;
 		
 		if (normalise) {
 			// Compute what the epsilonInUse should be here:
 			//  it should expand with the standard deviation.
 			// This saves us from normalising all of the incoming data points!
-			double std = MatrixUtils.stdDev(data);
+			double mean = MatrixUtils.sum(data, 0, endTime) / endTime;
+			double std = MatrixUtils.stdDev(data, mean, endTime);
 			kernelWidthInUse = suppliedKernelWidth * std;
 		} else {
 			kernelWidthInUse = suppliedKernelWidth;
 		}
 
 		// Create the bins
-		Vector<TimeStampedObservation>[] observations = null;
 		bins = (int) Math.ceil((max - min) / kernelWidthInUse);
 		if (bins == 0) {
 			// The max and min are the same.
@@ -132,43 +125,50 @@ public class KernelEstimatorSingleVariate {
 				", bins: " + bins);
 		}
 		
-		observations = new Vector[bins];
-		for (int v = 0; v < bins; v++) {
-			observations[v] = new Vector<TimeStampedObservation>();
-		}
+		ensureCapacity(totalObservations, bins);
 		
 		// Add each observation
-		for (int i = startTime; i < data.length; i++) {
-			int bin = getBinIndex(data[i]);
-			TimeStampedObservation tso = new TimeStampedObservation(i, data[i]);
-			// System.out.println(i + " " + observations.length +
-			//		" " + max + " " + min + " " + epsilon);
-			observations[bin].add(tso);
+		for (int i = startTime; i < endTime; i++) {
+			sortedValues[i - startTime] = data[i];
+			sortedTimeSteps[i - startTime] = i;
 		}
 		
-		// Now sort the bins, to allow faster counting later
-		sortedObservations = new TimeStampedObservation[bins][];
-		int total = 0;
-		for (int v = 0; v < bins; v++) {
-			// The class cast here causes a run time cast exception:
-			// sortedObservations[v] = (TimeStampedObservation[]) observations[v].toArray();
-			// It seems crazy, but to get around this we need to do
-			//  the following:
-			sortedObservations[v] = new TimeStampedObservation[observations[v].size()];
-			for (int o = 0; o < sortedObservations[v].length; o++) {
-				sortedObservations[v][o] = observations[v].elementAt(o);
-			}
-			// Sort into ascending order
-			Arrays.sort(sortedObservations[v]);
-			total += sortedObservations[v].length;
-			if (debug) {
-				System.out.println("Num observations in bin " + v + ": " + sortedObservations[v].length);
+		// Sort all observations by value, the bin index grows with the value
+		//  so every bin is a consecutive range sorted in ascending order
+		sort(sortedValues, sortedTimeSteps, 0, totalObservations - 1);
+		
+		// Find the first observation of every bin
+		int bin = 0;
+		binOffsets[0] = 0;
+		for (int o = 0; o < totalObservations; o++) {
+			int observationBin = getBinIndex(sortedValues[o]);
+			while (bin < observationBin) {
+				bin++;
+				binOffsets[bin] = o;
 			}
 		}
-		if (total != totalObservations) {
-			throw new RuntimeException("We have not stored all observations");
+		while (bin < bins) {
+			bin++;
+			binOffsets[bin] = totalObservations;
+		}
+		
+		if (debug) {
+			for (int v = 0; v < bins; v++) {
+				System.out.println("Num observations in bin " + v + ": " + (binOffsets[v + 1] - binOffsets[v]));
+			}
 		}
 		
+		hasObservations = true;
+	}
+	
+	private void ensureCapacity(int observations, int binCount) {
+		if (sortedValues.length < observations) {
+			sortedValues = new double[observations];
+			sortedTimeSteps = new int[observations];
+		}
+		if (binOffsets.length < binCount + 1) {
+			binOffsets = new int[binCount + 1];
+		}
 	}
 	
 	/**
@@ -195,9 +195,12 @@ public class KernelEstimatorSingleVariate {
 	
 	private double getProbability(double observation, int timeStep, 
 			boolean dynCorrExclusion) {
+		if (!hasObservations) {
+			throw new RuntimeException("No observations set for the kernel estimator");
+		}
 		int bin = getBinIndex(observation);
 		// First count the number of observations in the same bin
-		int count = sortedObservations[bin].length;
+		int count = binOffsets[bin + 1] - binOffsets[bin];
 		int totalTimePointsCompared = totalObservations;
 
 		// If required eliminate dynamic correlations
@@ -209,8 +212,8 @@ public class KernelEstimatorSingleVariate {
 					timeProximityForDynamicCorrelationExclusion - 1: totalObservations - timeStep - 1;
 			closeTimePointsToCompare++; // Add one for comparison to self
 			totalTimePointsCompared -= closeTimePointsToCompare;
-			for (int t = 0; t < sortedObservations[bin].length; t++) {
-				if (Math.abs(sortedObservations[bin][t].timeStep - timeStep) < timeProximityForDynamicCorrelationExclusion) {
+			for (int t = binOffsets[bin]; t < binOffsets[bin + 1]; t++) {
+				if (Math.abs(sortedTimeSteps[t] - timeStep) < timeProximityForDynamicCorrelationExclusion) {
 					count--;
 				}
 			}
@@ -224,22 +227,17 @@ public class KernelEstimatorSingleVariate {
 		if (bin > 0) {
 			// Find the cut-off point where values in the lower bin
 			//  are no longer within epsilon of the given value.
-			int topIndex;
-			for (topIndex = sortedObservations[bin-1].length;
-					(topIndex > 0) && (sortedObservations[bin-1][topIndex-1].observation > observation - kernelWidthInUse);
+			int lowerStart = binOffsets[bin - 1];
+			for (int topIndex = binOffsets[bin];
+					(topIndex > lowerStart) && (sortedValues[topIndex - 1] > observation - kernelWidthInUse);
 					topIndex--) {
 				// This observation is within epsilon.
 				// Before adding to the count just check if it's a dynamic correlation if required:
 				if (!dynCorrExclusion ||
-						(Math.abs(sortedObservations[bin-1][topIndex-1].timeStep - timeStep) < timeProximityForDynamicCorrelationExclusion)) {
+						(Math.abs(sortedTimeSteps[topIndex - 1] - timeStep) < timeProximityForDynamicCorrelationExclusion)) {
 					count++;
 				}
 			}
-			// Don't need to do this addition anymore, it's incorporated above:
-			// Post-condition: 
-			// Lower bin has (sortedObservations[bin-1].length - topIndex)
-			//  values within epsilon of our observation;
-			// count += sortedObservations[bin-1].length - topIndex;
 		}
 		if (debug) {
 			System.out.println("Count after lower bin " + (bin - 1) + " = " + count);
@@ -249,23 +247,17 @@ public class KernelEstimatorSingleVariate {
 		if (bin < bins - 1) {
 			// Find the cut-off point where values in the upper bin
 			//  are no longer within epsilon of the given value
-			int bottomIndex;
-			for (bottomIndex = 0;
-					(bottomIndex < sortedObservations[bin+1].length) &&
-						(sortedObservations[bin+1][bottomIndex].observation < observation + kernelWidthInUse);
+			int upperEnd = binOffsets[bin + 2];
+			for (int bottomIndex = binOffsets[bin + 1];
+					(bottomIndex < upperEnd) && (sortedValues[bottomIndex] < observation + kernelWidthInUse);
 					bottomIndex++) {
 				// This observation is within epsilon.
 				// Before adding to the count just check if it's a dynamic correlation if required:
 				if (!dynCorrExclusion ||
-						(Math.abs(sortedObservations[bin+1][bottomIndex].timeStep - timeStep) < timeProximityForDynamicCorrelationExclusion)) {
+						(Math.abs(sortedTimeSteps[bottomIndex] - timeStep) < timeProximityForDynamicCorrelationExclusion)) {
 					count++;
 				}
 			}
-			// Don't need to do this addition anymore, it's incorporated above:
-			// Post-condition: 
-			// Upper bin has bottomIndex
-			//  values within epsilon of our observation;
-			// count += bottomIndex;
 		}
 		if (debug) {
 			System.out.println("Count after upper bin " + (bin + 1) + " = " + count);
@@ -274,6 +266,48 @@ public class KernelEstimatorSingleVariate {
 		return (double) count / (double) totalTimePointsCompared;
 	}
 	
+	/**
+	 * Sum of the log probabilities of all observations (without dynamic
+	 *  correlation exclusion), the same as summing
+	 *  Math.log({@link #getProbability(double)}) over the observations.
+	 * 
+	 * The observations are visited in sorted order, so the cut-off points in
+	 *  the lower and upper bin only move forward within a bin (two pointers)
+	 *  and all counts take O(n) after sorting.
+	 * 
+	 * @return sum of the natural logarithms of the probabilities
+	 */
+	public double sumLogProbabilitiesOfObservations() {
+		if (!hasObservations) {
+			throw new RuntimeException("No observations set for the kernel estimator");
+		}
+		double sum = 0.0;
+		for (int bin = 0; bin < bins; bin++) {
+			int binStart = binOffsets[bin];
+			int binEnd = binOffsets[bin + 1];
+			int binCount = binEnd - binStart;
+			
+			// first value in the lower bin that is within epsilon
+			int lowerIndex = (bin > 0) ? binOffsets[bin - 1] : binStart;
+			// first value in the upper bin that is not within epsilon
+			int upperIndex = binEnd;
+			int upperEnd = (bin < bins - 1) ? binOffsets[bin + 2] : binEnd;
+			
+			for (int o = binStart; o < binEnd; o++) {
+				double observation = sortedValues[o];
+				while (lowerIndex < binStart && !(sortedValues[lowerIndex] > observation - kernelWidthInUse)) {
+					lowerIndex++;
+				}
+				while (upperIndex < upperEnd && sortedValues[upperIndex] < observation + kernelWidthInUse) {
+					upperIndex++;
+				}
+				int count = binCount + (binStart - lowerIndex) + (upperIndex - binEnd);
+				sum += Math.log((double) count / (double) totalObservations);
+			}
+		}
+		return sum;
+	}
+	
 	private int getBinIndex(double value) {
 		int bin = (int) Math.floor((value - min) / kernelWidthInUse);
 		// Check for any rounding errors on the bin assignment:
@@ -286,6 +320,61 @@ public class KernelEstimatorSingleVariate {
 		return bin;
 	}
 	
+	/**
+	 * Sorts values[left..right] in ascending order and moves the time steps
+	 *  with their values (quicksort with median of three pivot).
+	 */
+	private static void sort(double[] values, int[] timeSteps, int left, int right) {
+		while (right - left >= INSERTION_SORT_THRESHOLD) {
+			int middle = (left + right) >>> 1;
+			if (values[middle] < values[left]) swap(values, timeSteps, left, middle);
+			if (values[right] < values[left]) swap(values, timeSteps, left, right);
+			if (values[right] < values[middle]) swap(values, timeSteps, middle, right);
+			double pivot = values[middle];
+			
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (values[i] < pivot) i++;
+				while (values[j] > pivot) j--;
+				if (i <= j) {
+					swap(values, timeSteps, i++, j--);
+				}
+			}
+			
+			// recursion on the smaller part keeps the stack depth at O(log n)
+			if (j - left < right - i) {
+				sort(values, timeSteps, left, j);
+				left = i;
+			} else {
+				sort(values, timeSteps, i, right);
+				right = j;
+			}
+		}
+		
+		for (int i = left + 1; i <= right; i++) {
+			double value = values[i];
+			int timeStep = timeSteps[i];
+			int j = i - 1;
+			while (j >= left && values[j] > value) {
+				values[j + 1] = values[j];
+				timeSteps[j + 1] = timeSteps[j];
+				j--;
+			}
+			values[j + 1] = value;
+			timeSteps[j + 1] = timeStep;
+		}
+	}
+	
+	private static void swap(double[] values, int[] timeSteps, int i, int j) {
+		double value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+		int timeStep = timeSteps[i];
+		timeSteps[i] = timeSteps[j];
+		timeSteps[j] = timeStep;
+	}
+	
 	public void setDebug(boolean debug) {
 		this.debug = debug;
 	}
@@ -1907,9 +1907,21 @@ public class MatrixUtils {
 	}
 
 	public static double maxStartFromIndex(double[] array, int startFromIndex) {
+		return maxStartFromIndex(array, startFromIndex, array.length);
+	}
+
+	/**
+	 * Maximum of the elements from startFromIndex up to (excluding) endIndex
+	 * 
+	 * @param array
+	 * @param startFromIndex
+	 * @param endIndex
+	 * @return
+	 */
+	public static double maxStartFromIndex(double[] array, int startFromIndex, int endIndex) {
 		// double max = 0.0;
 		double max = array[startFromIndex];
-		for (int i = startFromIndex; i < array.length; i++) {
+		for (int i = startFromIndex; i < endIndex; i++) {
 			if (Double.isNaN(max) || (array[i] > max)) {
 				max = array[i];
 			}
@@ -2111,9 +2123,21 @@ public class MatrixUtils {
 	}
 
 	public static double minStartFromIndex(double[] array, int startFromIndex) {
+		return minStartFromIndex(array, startFromIndex, array.length);
+	}
+
+	/**
+	 * Minimum of the elements from startFromIndex up to (excluding) endIndex
+	 * 
+	 * @param array
+	 * @param startFromIndex
+	 * @param endIndex
+	 * @return
+	 */
+	public static double minStartFromIndex(double[] array, int startFromIndex, int endIndex) {
 		// double min = 0.0;
 		double min = array[startFromIndex];
-		for (int i = startFromIndex; i < array.length; i++) {
+		for (int i = startFromIndex; i < endIndex; i++) {
 			if (Double.isNaN(min) || (array[i] < min)) {
 				min = array[i];
 			}
@@ -18,7 +18,7 @@ package edu.teco.context.features.fourier;
 public class DFT {
 
 	// http://nayuki.eigenstate.org/page/how-to-implement-the-discrete-fourier-transform
-	static void dft(double[] inreal, double[] inimag, double[] outreal, double[] outimag) {
+	public static void dft(double[] inreal, double[] inimag, double[] outreal, double[] outimag) {
 		int n = inreal.length;
 		for (int k = 0; k < n; k++) { // For each output element
 			double sumreal = 0;
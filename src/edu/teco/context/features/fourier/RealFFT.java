@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.features.fourier;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Discrete Fourier transform of real input values for any window length.
+ *
+ * The number of samples in a sensor frame depends on the sensor event rate and
+ * is almost never a power of two. Instead of zero padding (which changes the
+ * frequency resolution) the exact DFT of length n is calculated:
+ *
+ * <ul>
+ * <li>for an even n the real values are packed into a complex signal of length
+ * n/2 which is transformed and split into the n/2+1 bins of the real spectrum
+ * </li>
+ * <li>complex transforms whose length is not a power of two are calculated with
+ * Bluestein's algorithm (chirp-z) as a convolution of radix-2 FFTs</li>
+ * </ul>
+ *
+ * All cos/sin tables are calculated once when the plan for a length is created
+ * and plans are cached per length, so no trigonometric function is evaluated
+ * while transforming a sensor frame.
+ *
+ * see references:
+ * http://www.engineeringproductivitytools.com/stuff/T0001/PT10.HTM
+ * http://en.wikipedia.org/wiki/Bluestein%27s_FFT_algorithm
+ */
+public class RealFFT {
+
+	/** Maximum number of cached plans (frame lengths vary slightly from frame to frame). */
+	private static final int MAX_CACHED_PLANS = 16;
+
+	private static final Map<Integer, RealFFT> PLANS = new LinkedHashMap<Integer, RealFFT>(MAX_CACHED_PLANS, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, RealFFT> eldest) {
+			return size() > MAX_CACHED_PLANS;
+		}
+	};
+
+	/** number of real input values */
+	private final int n;
+	/** length of the complex transform (n/2 for even n, otherwise n) */
+	private final int complexLength;
+	/** number of output bins from 0 to Nyquist frequency */
+	private final int binCount;
+
+	/** radix-2 FFT if the complex length is a power of two */
+	private FFT radix2 = null;
+
+	// Bluestein tables (only if the complex length is not a power of two)
+	private FFT convolutionFFT = null;
+	private int convolutionLength;
+	private double[] chirpCos;
+	private double[] chirpSin;
+	private double[] chirpSpectrumRe;
+	private double[] chirpSpectrumIm;
+	private double[] convolutionRe;
+	private double[] convolutionIm;
+
+	// twiddle factors exp(-2*pi*i*k/n) for splitting the packed even length transform
+	private double[] splitCos;
+	private double[] splitSin;
+
+	// work arrays of the complex transform
+	private double[] workRe;
+	private double[] workIm;
+
+	// output arrays for magnitude calculation
+	private double[] binRe;
+	private double[] binIm;
+
+	/**
+	 * Returns the cached plan for the given number of real input values or
+	 * creates a new one.
+	 *
+	 * @param n number of real input values
+	 * @return the plan for length n
+	 */
+	public static RealFFT getInstance(int n) {
+		synchronized (PLANS) {
+			Integer key = Integer.valueOf(n);
+			RealFFT plan = PLANS.get(key);
+			if (plan == null) {
+				plan = new RealFFT(n);
+				PLANS.put(key, plan);
+			}
+			return plan;
+		}
+	}
+
+	public RealFFT(int n) {
+		if (n < 1) {
+			throw new RuntimeException("FFT length must be at least 1");
+		}
+
+		this.n = n;
+		this.binCount = n / 2 + 1;
+
+		if (n % 2 == 0) {
+			complexLength = n / 2;
+
+			splitCos = new double[complexLength + 1];
+			splitSin = new double[complexLength + 1];
+			for (int k = 0; k <= complexLength; k++) {
+				splitCos[k] = Math.cos(-2 * Math.PI * k / n);
+				splitSin[k] = Math.sin(-2 * Math.PI * k / n);
+			}
+		} else {
+			complexLength = n;
+		}
+
+		workRe = new double[complexLength];
+		workIm = new double[complexLength];
+		binRe = new double[binCount];
+		binIm = new double[binCount];
+
+		if (isPowerOfTwo(complexLength)) {
+			radix2 = new FFT(complexLength);
+		} else {
+			createBluesteinTables();
+		}
+	}
+
+	private void createBluesteinTables() {
+		int length = complexLength;
+
+		convolutionLength = 1;
+		while (convolutionLength < 2 * length - 1) {
+			convolutionLength <<= 1;
+		}
+		convolutionFFT = new FFT(convolutionLength);
+
+		// chirp w[k] = exp(-i*pi*k^2/length), k^2 is reduced modulo 2*length for precision
+		chirpCos = new double[length];
+		chirpSin = new double[length];
+		long period = 2L * length;
+		for (int k = 0; k < length; k++) {
+			long square = ((long) k * k) % period;
+			double angle = Math.PI * square / length;
+			chirpCos[k] = Math.cos(angle);
+			chirpSin[k] = -Math.sin(angle);
+		}
+
+		// spectrum of the conjugated chirp, mirrored for negative indices
+		chirpSpectrumRe = new double[convolutionLength];
+		chirpSpectrumIm = new double[convolutionLength];
+		chirpSpectrumRe[0] = chirpCos[0];
+		chirpSpectrumIm[0] = -chirpSin[0];
+		for (int k = 1; k < length; k++) {
+			chirpSpectrumRe[k] = chirpSpectrumRe[convolutionLength - k] = chirpCos[k];
+			chirpSpectrumIm[k] = chirpSpectrumIm[convolutionLength - k] = -chirpSin[k];
+		}
+		convolutionFFT.fft(chirpSpectrumRe, chirpSpectrumIm);
+
+		convolutionRe = new double[convolutionLength];
+		convolutionIm = new double[convolutionLength];
+	}
+
+	/**
+	 * Calculates the spectrum of the first n values from bin 0 up to the
+	 * Nyquist bin n/2.
+	 *
+	 * @param values the real input values (at least n values)
+	 * @param outReal real part of the bins, length at least {@link #getBinCount()}
+	 * @param outImaginary imaginary part of the bins, length at least {@link #getBinCount()}
+	 */
+	public synchronized void transform(float[] values, double[] outReal, double[] outImaginary) {
+
+		if (n % 2 == 0) {
+			// pack even values as real and odd values as imaginary part
+			for (int m = 0; m < complexLength; m++) {
+				workRe[m] = values[2 * m];
+				workIm[m] = values[2 * m + 1];
+			}
+
+			complexTransform();
+
+			// split the packed spectrum into the spectrum of the real values
+			for (int k = 0; k <= complexLength; k++) {
+				int index = (k == complexLength) ? 0 : k;
+				int mirror = (k == 0) ? 0 : complexLength - k;
+
+				double a = workRe[index];
+				double b = workIm[index];
+				double c = workRe[mirror];
+				double d = workIm[mirror];
+
+				double evenRe = (a + c) / 2;
+				double evenIm = (b - d) / 2;
+				double oddRe = (b + d) / 2;
+				double oddIm = (c - a) / 2;
+
+				outReal[k] = evenRe + splitCos[k] * oddRe - splitSin[k] * oddIm;
+				outImaginary[k] = evenIm + splitCos[k] * oddIm + splitSin[k] * oddRe;
+			}
+		} else {
+			for (int t = 0; t < n; t++) {
+				workRe[t] = values[t];
+				workIm[t] = 0.0;
+			}
+
+			complexTransform();
+
+			System.arraycopy(workRe, 0, outReal, 0, binCount);
+			System.arraycopy(workIm, 0, outImaginary, 0, binCount);
+		}
+	}
+
+	/**
+	 * Calculates the magnitude of every bin from 0 up to the Nyquist bin n/2.
+	 *
+	 * @param values the real input values (at least n values)
+	 * @param outMagnitude magnitudes of the bins, length at least {@link #getBinCount()}
+	 */
+	public synchronized void magnitudes(float[] values, double[] outMagnitude) {
+		transform(values, binRe, binIm);
+		for (int k = 0; k < binCount; k++) {
+			outMagnitude[k] = Math.sqrt(binRe[k] * binRe[k] + binIm[k] * binIm[k]);
+		}
+	}
+
+	/**
+	 * In-place transform of workRe/workIm with the complex length.
+	 */
+	private void complexTransform() {
+		if (radix2 != null) {
+			radix2.fft(workRe, workIm);
+			return;
+		}
+
+		int length = complexLength;
+
+		// a[k] = x[k] * w[k], zero padded to the convolution length
+		for (int k = 0; k < length; k++) {
+			double re = workRe[k];
+			double im = workIm[k];
+			convolutionRe[k] = re * chirpCos[k] - im * chirpSin[k];
+			convolutionIm[k] = re * chirpSin[k] + im * chirpCos[k];
+		}
+		for (int k = length; k < convolutionLength; k++) {
+			convolutionRe[k] = 0.0;
+			convolutionIm[k] = 0.0;
+		}
+
+		convolutionFFT.fft(convolutionRe, convolutionIm);
+
+		// multiply with the chirp spectrum and conjugate for the inverse transform
+		for (int k = 0; k < convolutionLength; k++) {
+			double re = convolutionRe[k];
+			double im = convolutionIm[k];
+			convolutionRe[k] = re * chirpSpectrumRe[k] - im * chirpSpectrumIm[k];
+			convolutionIm[k] = -(re * chirpSpectrumIm[k] + im * chirpSpectrumRe[k]);
+		}
+
+		convolutionFFT.fft(convolutionRe, convolutionIm);
+
+		// X[k] = w[k] * conj(c[k]) / convolutionLength
+		double scale = 1.0 / convolutionLength;
+		for (int k = 0; k < length; k++) {
+			double re = convolutionRe[k] * scale;
+			double im = -convolutionIm[k] * scale;
+			workRe[k] = re * chirpCos[k] - im * chirpSin[k];
+			workIm[k] = re * chirpSin[k] + im * chirpCos[k];
+		}
+	}
+
+	public int getLength() {
+		return n;
+	}
+
+	public int getBinCount() {
+		return binCount;
+	}
+
+	private static boolean isPowerOfTwo(int value) {
+		return (value & (value - 1)) == 0;
+	}
+
+}
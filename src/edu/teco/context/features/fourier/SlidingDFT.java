@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.features.fourier;
+
+/**
+ * Sliding DFT of all axes of one sensor for the bins 0 up to a maximum
+ * frequency. Instead of transforming the whole window every hop, every value
+ * is added when it enters and subtracted when it leaves the window, so the cost
+ * is O(bins) per value and independent of the overlap.
+ *
+ * Sensor events do not arrive at a constant rate, therefore the bins are
+ * calculated with the time stamp of every value (bin k has the frequency
+ * k / sampleWindow):
+ *
+ * X[k] = sum over the window of x(t) * exp(-2*pi*i * k/sampleWindow * t)
+ *
+ * For equally spaced values this differs from the DFT of the window only by a
+ * phase factor, so the magnitudes (and all spectral features) are the same.
+ * If the window does not span a whole number of sample intervals the bins are
+ * not orthogonal to the mean anymore. Therefore the transform of a constant 1
+ * is kept as well and the mean is removed from the bins above 0, otherwise a
+ * large offset (e.g. gravity) would leak into all bins.
+ * Each value needs one cos/sin evaluation, the higher bins are calculated by
+ * complex multiplication. The sums are recalculated from the window after
+ * a number of removed values to stop rounding errors from accumulating.
+ *
+ * see references:
+ * http://en.wikipedia.org/wiki/Goertzel_algorithm
+ */
+public class SlidingDFT {
+
+	private final int mAxes;
+	private final int mBinCount;
+	private final double mSampleWindow;
+
+	/** bins per axis, index is axis * binCount + bin */
+	private final double[] mReal;
+	private final double[] mImaginary;
+
+	/** number of values inside the window */
+	private int mLength = 0;
+	private int mRemovedSinceRecalculation = 0;
+	private final int mRecalculationInterval;
+
+	/** transform of a constant 1 over the window times */
+	private final double[] mOnesRe;
+	private final double[] mOnesIm;
+
+	/** bins of one axis without the mean */
+	private final double[] mOutRe;
+	private final double[] mOutIm;
+
+	/** phasors exp(-2*pi*i*k*t/sampleWindow) of the current value */
+	private final double[] mPhasorRe;
+	private final double[] mPhasorIm;
+
+	/**
+	 * @param axes number of sensor axes
+	 * @param binCount number of bins from 0 (e.g. maxFrequency * sampleWindow + 1)
+	 * @param sampleWindow the sample window in seconds
+	 * @param recalculationInterval number of removed values before the bins are recalculated
+	 */
+	public SlidingDFT(int axes, int binCount, double sampleWindow, int recalculationInterval) {
+		if (binCount < 1) {
+			throw new RuntimeException("SlidingDFT needs at least one bin");
+		}
+		mAxes = axes;
+		mBinCount = binCount;
+		mSampleWindow = sampleWindow;
+		mRecalculationInterval = Math.max(1, recalculationInterval);
+		mReal = new double[axes * binCount];
+		mImaginary = new double[axes * binCount];
+		mOnesRe = new double[binCount];
+		mOnesIm = new double[binCount];
+		mOutRe = new double[binCount];
+		mOutIm = new double[binCount];
+		mPhasorRe = new double[binCount];
+		mPhasorIm = new double[binCount];
+	}
+
+	public void clear() {
+		for (int i = 0; i < mReal.length; i++) {
+			mReal[i] = 0.0;
+			mImaginary[i] = 0.0;
+		}
+		for (int k = 0; k < mBinCount; k++) {
+			mOnesRe[k] = 0.0;
+			mOnesIm[k] = 0.0;
+		}
+		mLength = 0;
+		mRemovedSinceRecalculation = 0;
+	}
+
+	/**
+	 * Adds the values of one sensor event that entered the window.
+	 *
+	 * @param time time of the event in seconds
+	 * @param values at least one value per axis
+	 */
+	public void add(double time, float[] values) {
+		update(time, values, 1.0);
+		mLength++;
+	}
+
+	/**
+	 * Subtracts the values of one sensor event that left the window.
+	 *
+	 * @param time time of the event in seconds
+	 * @param values at least one value per axis
+	 * @return true if the bins should be recalculated with {@link #recalculate(double[], float[][], int)}
+	 */
+	public boolean remove(double time, float[] values) {
+		update(time, values, -1.0);
+		mLength--;
+		if (mLength == 0) {
+			clear();
+			return false;
+		}
+		return ++mRemovedSinceRecalculation >= mRecalculationInterval;
+	}
+
+	/**
+	 * Calculates all bins again from the values inside the window.
+	 *
+	 * @param times times of the values in seconds
+	 * @param values values per axis in the same order as the times
+	 * @param length number of values
+	 */
+	public void recalculate(double[] times, float[][] values, int length) {
+		clear();
+		for (int t = 0; t < length; t++) {
+			calculatePhasors(times[t]);
+			addOnes(1.0);
+			for (int axis = 0; axis < mAxes; axis++) {
+				addScaled(axis, values[axis][t]);
+			}
+		}
+		mLength = length;
+	}
+
+	private void update(double time, float[] values, double sign) {
+		calculatePhasors(time);
+		addOnes(sign);
+		for (int axis = 0; axis < mAxes; axis++) {
+			addScaled(axis, sign * values[axis]);
+		}
+	}
+
+	private void addOnes(double sign) {
+		for (int k = 0; k < mBinCount; k++) {
+			mOnesRe[k] += sign * mPhasorRe[k];
+			mOnesIm[k] += sign * mPhasorIm[k];
+		}
+	}
+
+	private void addScaled(int axis, double value) {
+		int offset = axis * mBinCount;
+		for (int k = 0; k < mBinCount; k++) {
+			mReal[offset + k] += value * mPhasorRe[k];
+			mImaginary[offset + k] += value * mPhasorIm[k];
+		}
+	}
+
+	private void calculatePhasors(double time) {
+		// only the fraction of the cycles matters, keeps the angle small for long recordings
+		double cycles = time / mSampleWindow;
+		cycles -= Math.floor(cycles);
+		double angle = -2 * Math.PI * cycles;
+		double baseRe = Math.cos(angle);
+		double baseIm = Math.sin(angle);
+
+		double re = 1.0;
+		double im = 0.0;
+		for (int k = 0; k < mBinCount; k++) {
+			mPhasorRe[k] = re;
+			mPhasorIm[k] = im;
+			double nextRe = re * baseRe - im * baseIm;
+			im = re * baseIm + im * baseRe;
+			re = nextRe;
+		}
+	}
+
+	/**
+	 * Writes the bins of one axis into the spectrum, bins above the Nyquist
+	 * frequency of the current window are left out.
+	 *
+	 * @param axis index of the axis
+	 * @param spectrum the spectrum for the spectral features
+	 */
+	public void getSpectrum(int axis, Spectrum spectrum) {
+		int offset = axis * mBinCount;
+
+		// bin 0 is the sum of the values
+		mOutRe[0] = mReal[offset];
+		mOutIm[0] = 0.0;
+
+		double mean = (mLength > 0) ? mReal[offset] / mLength : 0.0;
+		for (int k = 1; k < mBinCount; k++) {
+			mOutRe[k] = mReal[offset + k] - mean * mOnesRe[k];
+			mOutIm[k] = mImaginary[offset + k] - mean * mOnesIm[k];
+		}
+
+		spectrum.setBins(mOutRe, mOutIm, 0, mBinCount, mLength, mSampleWindow);
+	}
+
+	public int getBinCount() {
+		return mBinCount;
+	}
+
+	public int getLength() {
+		return mLength;
+	}
+
+}
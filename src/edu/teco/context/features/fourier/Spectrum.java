@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.features.fourier;
+
+/**
+ * Spectrum of one sensor axis in one sample window. It is calculated once per
+ * axis and shared by all spectral features, so enabling more spectral features
+ * does not add further transforms.
+ *
+ * Only the bins below the Nyquist frequency are kept (bin 0 up to n/2 - 1 for
+ * an even and (n-1)/2 for an odd number of values). The frequency of bin k is
+ * k / sampleWindow.
+ *
+ * The spectrum is either calculated from the values of the window or set from
+ * the bins of a {@link SlidingDFT}, which may only cover the low frequencies.
+ *
+ * The arrays are reused for the next window and only grow if a window has more
+ * values than any window before.
+ */
+public class Spectrum {
+
+	private double[] mReal = new double[0];
+	private double[] mImaginary = new double[0];
+	private double[] mMagnitude = new double[0];
+	private double[] mPower = new double[0];
+
+	/** number of values the spectrum was calculated from */
+	private int mLength = 0;
+	/** number of bins below the Nyquist frequency */
+	private int mBinCount = 0;
+	private double mSampleWindow = 1.0;
+
+	private double mTotalMagnitude = 0.0;
+	private double mTotalEnergy = 0.0;
+
+	/** plan of the last length, avoids the cache lookup while the length does not change */
+	private RealFFT mPlan = null;
+
+	public Spectrum() {
+	}
+
+	/**
+	 * @param capacity expected maximum number of values per window
+	 */
+	public Spectrum(int capacity) {
+		ensureCapacity(capacity);
+	}
+
+	/**
+	 * Calculates the spectrum of the first length values.
+	 *
+	 * @param values the real sensor values
+	 * @param length number of values used from the array
+	 * @param sampleWindow the sample window in seconds
+	 */
+	public void calculate(float[] values, int length, double sampleWindow) {
+		mLength = length;
+		mSampleWindow = sampleWindow;
+		mTotalMagnitude = 0.0;
+		mTotalEnergy = 0.0;
+
+		if (length == 0) {
+			mBinCount = 0;
+			return;
+		}
+
+		mBinCount = getNyquistBinCount(length);
+
+		ensureCapacity(length);
+
+		if (mPlan == null || mPlan.getLength() != length) {
+			mPlan = RealFFT.getInstance(length);
+		}
+		mPlan.transform(values, mReal, mImaginary);
+
+		calculateMagnitudes();
+	}
+
+	/**
+	 * Sets the bins from an already transformed window (e.g. a sliding DFT).
+	 * Only the bins below the Nyquist frequency of the window are used.
+	 *
+	 * @param real real part of the bins
+	 * @param imaginary imaginary part of the bins
+	 * @param offset index of bin 0 in the arrays
+	 * @param binCount number of available bins
+	 * @param length number of values the bins were calculated from
+	 * @param sampleWindow the sample window in seconds
+	 */
+	public void setBins(double[] real, double[] imaginary, int offset, int binCount, int length, double sampleWindow) {
+		mLength = length;
+		mSampleWindow = sampleWindow;
+		mTotalMagnitude = 0.0;
+		mTotalEnergy = 0.0;
+
+		mBinCount = Math.min(binCount, getNyquistBinCount(length));
+
+		ensureCapacity(2 * mBinCount);
+		System.arraycopy(real, offset, mReal, 0, mBinCount);
+		System.arraycopy(imaginary, offset, mImaginary, 0, mBinCount);
+
+		calculateMagnitudes();
+	}
+
+	private void calculateMagnitudes() {
+		for (int k = 0; k < mBinCount; k++) {
+			double squaredMagnitude = mReal[k] * mReal[k] + mImaginary[k] * mImaginary[k];
+			mMagnitude[k] = Math.sqrt(squaredMagnitude);
+			mPower[k] = squaredMagnitude / mLength;
+			mTotalMagnitude += mMagnitude[k];
+			mTotalEnergy += mPower[k];
+		}
+	}
+
+	/**
+	 * Signals sampled at Fs are only able to accurately represent frequencies up to, but not including Fs/2
+	 * http://en.wikipedia.org/wiki/Nyquist%E2%80%93Shannon_sampling_theorem
+	 *
+	 * @param length number of values
+	 * @return number of bins below the Nyquist frequency
+	 */
+	private static int getNyquistBinCount(int length) {
+		if (length % 2 == 0) {
+			return length / 2;
+		} else {
+			return (length - 1) / 2 + 1;
+		}
+	}
+
+	private void ensureCapacity(int length) {
+		int bins = length / 2 + 1;
+		if (mReal.length < bins) {
+			mReal = new double[bins];
+			mImaginary = new double[bins];
+			mMagnitude = new double[bins];
+			mPower = new double[bins];
+		}
+	}
+
+	/**
+	 * @return the magnitudes |X[k]|, valid up to {@link #getBinCount()}
+	 */
+	public double[] getMagnitudes() {
+		return mMagnitude;
+	}
+
+	/**
+	 * @return the power spectrum |X[k]|^2 / n, valid up to {@link #getBinCount()}
+	 */
+	public double[] getPowers() {
+		return mPower;
+	}
+
+	public int getBinCount() {
+		return mBinCount;
+	}
+
+	public int getLength() {
+		return mLength;
+	}
+
+	public double getSampleWindow() {
+		return mSampleWindow;
+	}
+
+	/**
+	 * @param bin index of the bin
+	 * @return frequency of the bin in Hz
+	 */
+	public double getFrequency(int bin) {
+		return bin / mSampleWindow;
+	}
+
+	/**
+	 * @param frequency frequency in Hz
+	 * @return index of the first bin at or above the frequency
+	 */
+	public int getBin(double frequency) {
+		return (int) Math.ceil(frequency * mSampleWindow);
+	}
+
+	/**
+	 * @return sum of all magnitudes below the Nyquist frequency
+	 */
+	public double getTotalMagnitude() {
+		return mTotalMagnitude;
+	}
+
+	/**
+	 * @return sum of the power spectrum below the Nyquist frequency
+	 */
+	public double getTotalEnergy() {
+		return mTotalEnergy;
+	}
+
+}
@@ -0,0 +1,584 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.teco.context.configuration.ConfigurationMetaData;
+import edu.teco.context.configuration.FrameworkConfiguration;
+
+/**
+ * Reads ARFF files with numeric features and a nominal class (last attribute)
+ * like the files of the {@link ArffFeatureWriter} in a single pass without
+ * WEKA. The meta data comments are read into the configuration while the
+ * header is parsed, afterwards the instances are read one by one into a
+ * reused array, so the file does not have to be kept in memory.
+ *
+ * The numbers are parsed directly from the read buffer. Numbers with up to 15
+ * significant digits and a small exponent (like all numbers with 6 decimal
+ * places) are calculated exactly by one multiplication or division with a
+ * power of ten, all others are parsed by Double.parseDouble, so the values are
+ * the same as read by WEKA.
+ *
+ * Other attribute types, sparse and weighted instances are not supported and
+ * throw an IOException.
+ */
+public class ArffFeatureReader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** largest mantissa that is exactly representable as double */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final Reader mReader;
+	private char[] mBuffer = new char[BUFFER_SIZE];
+	private int mPosition = 0;
+	private int mLimit = 0;
+	private boolean isEndOfFile = false;
+	private int mLineNumber = 0;
+
+	private final List<String> mMetaData = new ArrayList<String>();
+	private String mRelationName = null;
+	private final List<String> mFeatureNames = new ArrayList<String>();
+	private final List<String> mClassValues = new ArrayList<String>();
+	private char[][] mClassValueChars = null;
+
+	/** values of the current instance */
+	private double[] mValues = null;
+	private int mClassIndex = -1;
+	private int mInstanceCount = 0;
+
+	/** reused for quoted class values */
+	private final StringBuilder mQuoted = new StringBuilder();
+
+	/**
+	 * @param reader the reader is buffered by this class
+	 */
+	public ArffFeatureReader(Reader reader) {
+		mReader = reader;
+	}
+
+	/**
+	 * Reads the meta data comments, the relation and the attributes up to the
+	 * data section. Must be called once before the instances are read.
+	 *
+	 * @param configuration receives the configuration of the meta data, may be null
+	 * @throws IOException if the file is not a supported ARFF file
+	 */
+	public void readHeader(FrameworkConfiguration configuration) throws IOException {
+		boolean isConfiguration = configuration != null;
+		boolean hasClass = false;
+		String line;
+
+		while ((line = readLine()) != null) {
+			String trimmed = line.trim();
+			if (trimmed.length() == 0) {
+				continue;
+			}
+
+			if (trimmed.charAt(0) == '%') {
+				mMetaData.add(trimmed.startsWith("% ") ? trimmed.substring(2) : trimmed.substring(1));
+				if (isConfiguration) {
+					isConfiguration = ConfigurationMetaData.readMetaDataLine(trimmed, configuration);
+				}
+				continue;
+			}
+
+			int[] position = { 0 };
+			String keyword = readToken(trimmed, position).toLowerCase();
+
+			if (keyword.equals("@relation")) {
+				mRelationName = readToken(trimmed, position);
+			} else if (keyword.equals("@attribute")) {
+				if (hasClass) {
+					throw new IOException("Only the last attribute may be nominal (line " + mLineNumber + ").");
+				}
+				String name = readToken(trimmed, position);
+				skipWhitespace(trimmed, position);
+				if (position[0] < trimmed.length() && trimmed.charAt(position[0]) == '{') {
+					position[0]++;
+					readNominalValues(trimmed, position);
+					hasClass = true;
+				} else {
+					String type = readToken(trimmed, position).toLowerCase();
+					if (!type.equals("numeric") && !type.equals("real") && !type.equals("integer")) {
+						throw new IOException("Unsupported attribute type " + type + " (line " + mLineNumber + ").");
+					}
+					mFeatureNames.add(name);
+				}
+			} else if (keyword.equals("@data")) {
+				if (!hasClass) {
+					throw new IOException("The last attribute must be a nominal class.");
+				}
+				mValues = new double[mFeatureNames.size()];
+				mClassValueChars = new char[mClassValues.size()][];
+				for (int i = 0; i < mClassValueChars.length; i++) {
+					mClassValueChars[i] = mClassValues.get(i).toCharArray();
+				}
+				return;
+			} else {
+				throw new IOException("Unexpected line " + mLineNumber + " in ARFF header: " + trimmed);
+			}
+		}
+		throw new IOException("ARFF file without data section.");
+	}
+
+	/**
+	 * Reads the next instance.
+	 *
+	 * @return false at the end of the file
+	 * @throws IOException if the instance can not be parsed
+	 */
+	public boolean next() throws IOException {
+		if (mValues == null) {
+			throw new RuntimeException("The ARFF header must be read before the instances.");
+		}
+
+		while (true) {
+			int end = findLineEnd();
+			if (end < 0) {
+				return false;
+			}
+			mLineNumber++;
+			int start = mPosition;
+			mPosition = end + 1;
+
+			// line without \r and trailing whitespace
+			while (end > start && mBuffer[end - 1] <= ' ') {
+				end--;
+			}
+			start = skipWhitespace(start, end);
+			if (start == end || mBuffer[start] == '%') {
+				continue;
+			}
+			if (mBuffer[start] == '{') {
+				throw new IOException("Sparse instances are not supported (line " + mLineNumber + ").");
+			}
+
+			parseInstance(start, end);
+			mInstanceCount++;
+			return true;
+		}
+	}
+
+	private void parseInstance(int start, int end) throws IOException {
+		char[] buffer = mBuffer;
+		int position = start;
+
+		for (int i = 0; i < mValues.length; i++) {
+			position = skipWhitespace(position, end);
+			int valueEnd = position;
+			while (valueEnd < end && buffer[valueEnd] != ',') {
+				valueEnd++;
+			}
+			if (valueEnd == end) {
+				throw new IOException("Too few values in line " + mLineNumber + ".");
+			}
+			int numberEnd = valueEnd;
+			while (numberEnd > position && buffer[numberEnd - 1] <= ' ') {
+				numberEnd--;
+			}
+			mValues[i] = parseNumber(buffer, position, numberEnd);
+			position = valueEnd + 1;
+		}
+
+		position = skipWhitespace(position, end);
+		if (position == end) {
+			throw new IOException("Missing class value in line " + mLineNumber + ".");
+		}
+		char first = buffer[position];
+		if (first == '\'' || first == '"') {
+			position = unquote(buffer, position, end);
+			if (skipWhitespace(position, end) != end) {
+				throw new IOException("Unexpected values after the class value in line " + mLineNumber + ".");
+			}
+			mClassIndex = findClassIndex(mQuoted);
+		} else {
+			int classEnd = position;
+			while (classEnd < end && buffer[classEnd] != ',' && buffer[classEnd] != '{') {
+				classEnd++;
+			}
+			if (classEnd != end) {
+				throw new IOException("Unexpected values after the class value in line " + mLineNumber + ".");
+			}
+			if (classEnd - position == 1 && first == '?') {
+				mClassIndex = -1;
+			} else {
+				mClassIndex = findClassIndex(buffer, position, classEnd);
+			}
+		}
+	}
+
+	private int findClassIndex(char[] buffer, int start, int end) throws IOException {
+		int length = end - start;
+		for (int c = 0; c < mClassValueChars.length; c++) {
+			char[] classValue = mClassValueChars[c];
+			if (classValue.length != length) {
+				continue;
+			}
+			int i = 0;
+			while (i < length && classValue[i] == buffer[start + i]) {
+				i++;
+			}
+			if (i == length) {
+				return c;
+			}
+		}
+		throw new IOException("Unknown class value " + new String(buffer, start, length) + " in line "
+				+ mLineNumber + ".");
+	}
+
+	private int findClassIndex(StringBuilder classValue) throws IOException {
+		int length = classValue.length();
+		for (int c = 0; c < mClassValueChars.length; c++) {
+			char[] chars = mClassValueChars[c];
+			if (chars.length != length) {
+				continue;
+			}
+			int i = 0;
+			while (i < length && chars[i] == classValue.charAt(i)) {
+				i++;
+			}
+			if (i == length) {
+				return c;
+			}
+		}
+		throw new IOException("Unknown class value " + classValue + " in line " + mLineNumber + ".");
+	}
+
+	/**
+	 * Reads a quoted value into mQuoted.
+	 *
+	 * @return the position after the closing quote
+	 */
+	private int unquote(char[] buffer, int position, int end) throws IOException {
+		char quote = buffer[position++];
+		mQuoted.setLength(0);
+		while (position < end) {
+			char c = buffer[position++];
+			if (c == quote) {
+				return position;
+			}
+			if (c == '\\' && position < end) {
+				c = unescape(buffer[position++]);
+			}
+			mQuoted.append(c);
+		}
+		throw new IOException("Unterminated quote in line " + mLineNumber + ".");
+	}
+
+	/**
+	 * Parses a number like Double.parseDouble, ? is a missing value (NaN).
+	 */
+	private double parseNumber(char[] buffer, int start, int end) throws IOException {
+		if (end - start == 1 && buffer[start] == '?') {
+			return Double.NaN;
+		}
+
+		int position = start;
+		boolean isNegative = false;
+		if (position < end && (buffer[position] == '-' || buffer[position] == '+')) {
+			isNegative = buffer[position] == '-';
+			position++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean isExact = true;
+		boolean hasDigits = false;
+
+		while (position < end) {
+			char c = buffer[position];
+			if (c < '0' || c > '9') {
+				break;
+			}
+			hasDigits = true;
+			if (mantissa != 0 || c != '0') {
+				if (++digits > 18) {
+					isExact = false;
+					break;
+				}
+			}
+			mantissa = 10 * mantissa + (c - '0');
+			position++;
+		}
+		if (isExact && position < end && buffer[position] == '.') {
+			position++;
+			while (position < end) {
+				char c = buffer[position];
+				if (c < '0' || c > '9') {
+					break;
+				}
+				hasDigits = true;
+				if (mantissa != 0 || c != '0') {
+					if (++digits > 18) {
+						isExact = false;
+						break;
+					}
+				}
+				mantissa = 10 * mantissa + (c - '0');
+				exponent--;
+				position++;
+			}
+		}
+		if (isExact && hasDigits && position < end && (buffer[position] == 'e' || buffer[position] == 'E')) {
+			position++;
+			boolean isNegativeExponent = false;
+			if (position < end && (buffer[position] == '-' || buffer[position] == '+')) {
+				isNegativeExponent = buffer[position] == '-';
+				position++;
+			}
+			int exponentStart = position;
+			int explicitExponent = 0;
+			while (position < end && buffer[position] >= '0' && buffer[position] <= '9'
+					&& explicitExponent < 10000) {
+				explicitExponent = 10 * explicitExponent + (buffer[position] - '0');
+				position++;
+			}
+			if (position == exponentStart) {
+				isExact = false;
+			}
+			exponent += isNegativeExponent ? -explicitExponent : explicitExponent;
+		}
+
+		if (isExact && hasDigits && position == end && mantissa <= MAX_EXACT_MANTISSA
+				&& exponent >= -22 && exponent <= 22) {
+			// mantissa and power of ten are exact, so the result is correctly rounded
+			double value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent]
+					: mantissa / POWERS_OF_TEN[-exponent];
+			return isNegative ? -value : value;
+		}
+
+		// long mantissas, large exponents, NaN, Infinity and invalid numbers
+		String number = new String(buffer, start, end - start);
+		try {
+			return Double.parseDouble(number);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid number " + number + " in line " + mLineNumber + ".");
+		}
+	}
+
+	private int skipWhitespace(int position, int end) {
+		while (position < end && mBuffer[position] <= ' ') {
+			position++;
+		}
+		return position;
+	}
+
+	/**
+	 * Finds the end of the next line in the buffer and reads more characters
+	 * if needed.
+	 *
+	 * @return index of the \n (or the end of the last line), -1 at the end of the file
+	 */
+	private int findLineEnd() throws IOException {
+		int searched = mPosition;
+		while (true) {
+			for (int i = searched; i < mLimit; i++) {
+				if (mBuffer[i] == '\n') {
+					return i;
+				}
+			}
+			if (isEndOfFile) {
+				if (mPosition < mLimit) {
+					// last line without line break
+					if (mLimit == mBuffer.length) {
+						grow();
+					}
+					mBuffer[mLimit] = '\n';
+					return mLimit++;
+				}
+				return -1;
+			}
+			searched = mLimit - mPosition;
+			fill();
+		}
+	}
+
+	/**
+	 * Moves the rest of the buffer to the beginning and reads more characters.
+	 */
+	private void fill() throws IOException {
+		int remaining = mLimit - mPosition;
+		if (remaining == mBuffer.length) {
+			// line longer than the buffer
+			grow();
+		} else if (mPosition > 0) {
+			System.arraycopy(mBuffer, mPosition, mBuffer, 0, remaining);
+		}
+		mPosition = 0;
+		mLimit = remaining;
+
+		int read = mReader.read(mBuffer, mLimit, mBuffer.length - mLimit);
+		if (read < 0) {
+			isEndOfFile = true;
+		} else {
+			mLimit += read;
+		}
+	}
+
+	private void grow() {
+		char[] buffer = new char[2 * mBuffer.length];
+		System.arraycopy(mBuffer, mPosition, buffer, 0, mLimit - mPosition);
+		mLimit -= mPosition;
+		mPosition = 0;
+		mBuffer = buffer;
+	}
+
+	private String readLine() throws IOException {
+		int end = findLineEnd();
+		if (end < 0) {
+			return null;
+		}
+		mLineNumber++;
+		String line = new String(mBuffer, mPosition, end - mPosition);
+		mPosition = end + 1;
+		return line;
+	}
+
+	private void readNominalValues(String line, int[] position) throws IOException {
+		while (true) {
+			skipWhitespace(line, position);
+			if (position[0] >= line.length()) {
+				throw new IOException("Unterminated nominal values in line " + mLineNumber + ".");
+			}
+			if (line.charAt(position[0]) == '}') {
+				position[0]++;
+				return;
+			}
+			String value = readToken(line, position);
+			if (value.length() == 0) {
+				throw new IOException("Empty nominal value in line " + mLineNumber + ".");
+			}
+			mClassValues.add(value);
+			skipWhitespace(line, position);
+			if (position[0] < line.length() && line.charAt(position[0]) == ',') {
+				position[0]++;
+			}
+		}
+	}
+
+	/**
+	 * Reads a (quoted) name, keyword or nominal value of a header line.
+	 */
+	private String readToken(String line, int[] position) throws IOException {
+		skipWhitespace(line, position);
+		int i = position[0];
+		if (i >= line.length()) {
+			throw new IOException("Incomplete line " + mLineNumber + " in ARFF header.");
+		}
+
+		StringBuilder sb = new StringBuilder();
+		char quote = line.charAt(i);
+		if (quote == '\'' || quote == '"') {
+			i++;
+			while (i < line.length() && line.charAt(i) != quote) {
+				char c = line.charAt(i++);
+				if (c == '\\' && i < line.length()) {
+					c = unescape(line.charAt(i++));
+				}
+				sb.append(c);
+			}
+			if (i >= line.length()) {
+				throw new IOException("Unterminated quote in line " + mLineNumber + ".");
+			}
+			position[0] = i + 1;
+		} else {
+			while (i < line.length()) {
+				char c = line.charAt(i);
+				if (c <= ' ' || c == ',' || c == '{' || c == '}') {
+					break;
+				}
+				sb.append(c);
+				i++;
+			}
+			position[0] = i;
+		}
+		return sb.toString();
+	}
+
+	private static void skipWhitespace(String line, int[] position) {
+		while (position[0] < line.length() && line.charAt(position[0]) <= ' ') {
+			position[0]++;
+		}
+	}
+
+	private static char unescape(char c) {
+		switch (c) {
+		case 't': return '\t';
+		case 'n': return '\n';
+		case 'r': return '\r';
+		default: return c;
+		}
+	}
+
+	public void close() throws IOException {
+		mReader.close();
+	}
+
+	/**
+	 * @return lines of the meta data comments (without comment token)
+	 */
+	public List<String> getMetaData() {
+		return mMetaData;
+	}
+
+	public String getRelationName() {
+		return mRelationName;
+	}
+
+	public List<String> getFeatureNames() {
+		return mFeatureNames;
+	}
+
+	public List<String> getClassValues() {
+		return mClassValues;
+	}
+
+	public int getFeatureCount() {
+		return mFeatureNames.size();
+	}
+
+	/**
+	 * @return the feature values of the current instance (reused for the next
+	 *         instance), missing values are NaN
+	 */
+	public double[] getValues() {
+		return mValues;
+	}
+
+	/**
+	 * @return index of the class value of the current instance, -1 if missing
+	 */
+	public int getClassIndex() {
+		return mClassIndex;
+	}
+
+	public int getInstanceCount() {
+		return mInstanceCount;
+	}
+
+	public int getLineNumber() {
+		return mLineNumber;
+	}
+
+}
@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import edu.teco.context.configuration.ConfigurationMetaData;
+import edu.teco.context.configuration.FrameworkConfiguration;
+
+/**
+ * Writes feature vectors as ARFF file without WEKA instances, e.g. for the
+ * offline replay on a server and the training data of the WekaManager. The
+ * file has the same meta data comments, attributes and number format (6
+ * decimal places) as WEKA, so it can be used to configure and train the
+ * framework on the phone.
+ * 
+ * The numbers are formatted directly into a reused line buffer. The writer is
+ * flushed according to the flush policy (every number of instances or after a
+ * time) and on {@link #flush()}, not after every instance.
+ */
+public class ArffFeatureWriter {
+
+	private static final String COMMENT_TOKEN = "% ";
+	private static final int DECIMAL_PLACES = 6;
+	private static final double DECIMAL_FACTOR = 1e6;
+
+	private final Writer mWriter;
+	private List<String> mClassValues = null;
+	/** class values as written in the file */
+	private String[] mQuotedClassValues = null;
+	private int mFeatureCount = 0;
+	private int mInstanceCount = 0;
+
+	/** flush policy, 0 to disable */
+	private int mFlushInstances = 0;
+	private long mFlushInterval = 0;
+	private int mUnflushedInstanceCount = 0;
+	private long mLastFlushTime = 0;
+
+	/** reused for every line */
+	private final LineBuffer mLine = new LineBuffer(1024);
+
+	/**
+	 * @param writer the writer is not buffered by this class, use e.g. a BufferedWriter
+	 */
+	public ArffFeatureWriter(Writer writer) {
+		mWriter = writer;
+	}
+
+	/**
+	 * Writes the meta data of the configuration, the relation and the
+	 * attributes. Must be called once before the features are written.
+	 * 
+	 * @param configuration
+	 * @throws IOException
+	 */
+	public void writeHeader(FrameworkConfiguration configuration) throws IOException {
+		writeHeader(ConfigurationMetaData.createMetaData(configuration),
+				configuration.getConfigurationName() + "_TrainingData",
+				ConfigurationMetaData.createFeatureNames(configuration), configuration.getContextLabels());
+	}
+
+	/**
+	 * Writes the meta data comments, the relation and the attributes (numeric
+	 * features and the nominal class). Must be called once before the features
+	 * are written.
+	 * 
+	 * @param metaData lines of the meta data (without comment token)
+	 * @param relationName
+	 * @param featureNames
+	 * @param classValues
+	 * @throws IOException
+	 */
+	public void writeHeader(List<String> metaData, String relationName, List<String> featureNames,
+			List<String> classValues) throws IOException {
+		for (String metaDataLine : metaData) {
+			mWriter.write(COMMENT_TOKEN + metaDataLine);
+			mWriter.write('\n');
+		}
+
+		mWriter.write("@relation " + quote(relationName));
+		mWriter.write("\n\n");
+
+		for (String featureName : featureNames) {
+			mWriter.write("@attribute " + quote(featureName) + " numeric\n");
+		}
+		mFeatureCount = featureNames.size();
+
+		mClassValues = classValues;
+		mQuotedClassValues = new String[classValues.size()];
+		StringBuilder classAttribute = new StringBuilder("@attribute Class {");
+		for (int i = 0; i < classValues.size(); i++) {
+			if (i > 0) {
+				classAttribute.append(',');
+			}
+			mQuotedClassValues[i] = quote(classValues.get(i));
+			classAttribute.append(mQuotedClassValues[i]);
+		}
+		classAttribute.append("}\n");
+		mWriter.write(classAttribute.toString());
+
+		mWriter.write("\n@data\n");
+		mLastFlushTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Sets when the written instances are flushed to the file (whichever comes
+	 * first). Without a policy the instances are only flushed by {@link #flush()},
+	 * {@link #close()} or when the buffer of the writer is full.
+	 * 
+	 * @param instances number of instances, 0 to disable
+	 * @param interval time since the last flush in milliseconds, 0 to disable
+	 */
+	public void setFlushPolicy(int instances, long interval) {
+		mFlushInstances = instances;
+		mFlushInterval = interval;
+	}
+
+	/**
+	 * Writes one instance.
+	 * 
+	 * @param features the feature vector in the order of the attributes
+	 * @param contextLabel the class value
+	 * @return false if the context label is not a class value (nothing is written)
+	 * @throws IOException
+	 */
+	public boolean writeFeatures(double[] features, String contextLabel) throws IOException {
+		if (mClassValues == null) {
+			throw new RuntimeException("The ARFF header must be written before the features.");
+		}
+		int classIndex = mClassValues.indexOf(contextLabel);
+		if (classIndex < 0) {
+			return false;
+		}
+		if (features.length != mFeatureCount) {
+			throw new RuntimeException("Number of feature values " + features.length
+					+ " differs from the number of attributes " + mFeatureCount + ".");
+		}
+
+		StringBuilder line = mLine.clear();
+		for (int i = 0; i < features.length; i++) {
+			appendNumber(line, features[i]);
+			line.append(',');
+		}
+		line.append(mQuotedClassValues[classIndex]).append('\n');
+		mLine.writeTo(mWriter);
+		mInstanceCount++;
+
+		mUnflushedInstanceCount++;
+		if (mFlushInstances > 0 && mUnflushedInstanceCount >= mFlushInstances) {
+			flush();
+		} else if (mFlushInterval > 0 && System.currentTimeMillis() - mLastFlushTime >= mFlushInterval) {
+			flush();
+		}
+		return true;
+	}
+
+	public void flush() throws IOException {
+		mWriter.flush();
+		mUnflushedInstanceCount = 0;
+		mLastFlushTime = System.currentTimeMillis();
+	}
+
+	public void close() throws IOException {
+		mWriter.close();
+	}
+
+	public int getInstanceCount() {
+		return mInstanceCount;
+	}
+
+	public int getFeatureCount() {
+		return mFeatureCount;
+	}
+
+	/**
+	 * Appends the value rounded to 6 decimal places without trailing zeros like
+	 * WEKA (missing values as ?).
+	 * 
+	 * @param sb
+	 * @param value
+	 */
+	static void appendNumber(StringBuilder sb, double value) {
+		if (Double.isNaN(value)) {
+			sb.append('?');
+			return;
+		}
+		double scaled = Math.abs(value) * DECIMAL_FACTOR;
+		if (scaled >= Long.MAX_VALUE) {
+			sb.append(value);
+			return;
+		}
+
+		long rounded = (long) (scaled + 0.5);
+		if (rounded == 0) {
+			sb.append('0');
+			return;
+		}
+		if (value < 0) {
+			sb.append('-');
+		}
+
+		long integerPart = rounded / (long) DECIMAL_FACTOR;
+		long fraction = rounded % (long) DECIMAL_FACTOR;
+		sb.append(integerPart);
+
+		if (fraction != 0) {
+			int digits = DECIMAL_PLACES;
+			while (fraction % 10 == 0) {
+				fraction /= 10;
+				digits--;
+			}
+			sb.append('.');
+			// leading zeros of the fraction
+			for (long limit = pow10(digits - 1); fraction < limit; limit /= 10) {
+				sb.append('0');
+			}
+			sb.append(fraction);
+		}
+	}
+
+	private static long pow10(int exponent) {
+		long result = 1;
+		for (int i = 0; i < exponent; i++) {
+			result *= 10;
+		}
+		return result;
+	}
+
+	/**
+	 * Quotes names and nominal values with special characters like WEKA.
+	 * 
+	 * @param string
+	 * @return the string, in single quotes if needed
+	 */
+	static String quote(String string) {
+		boolean isQuoted = string.length() == 0 || string.equals("?");
+		for (int i = 0; i < string.length() && !isQuoted; i++) {
+			char c = string.charAt(i);
+			isQuoted = (c == ' ' || c == ',' || c == '\'' || c == '"' || c == '\\' || c == '%'
+					|| c == '{' || c == '}' || c == '\t' || c == '\n' || c == '\r');
+		}
+		if (!isQuoted) {
+			return string;
+		}
+
+		StringBuilder sb = new StringBuilder(string.length() + 2).append('\'');
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			switch (c) {
+			case '\\': sb.append("\\\\"); break;
+			case '\'': sb.append("\\'"); break;
+			case '"': sb.append("\\\""); break;
+			case '%': sb.append("\\%"); break;
+			case '\t': sb.append("\\t"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			default: sb.append(c);
+			}
+		}
+		return sb.append('\'').toString();
+	}
+
+}
@@ -0,0 +1,485 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+import edu.teco.context.configuration.FrameworkContext;
+
+/**
+ * Writes the log entries on a background thread, so a slow storage (e.g. a
+ * stalling sdCard) does not delay the sensor callbacks.
+ * 
+ * The entries are copied into a ring of preallocated records. The ring has a
+ * single consumer (the writer thread) and a single producer at a time: the
+ * producer methods are synchronized because other probes log from their own
+ * threads, but the writer thread never takes the lock and the producer never
+ * waits for a write (except with {@link BackPressure#BLOCK}). Head and tail
+ * are sequence numbers, the tail is published after the record is filled.
+ * 
+ * While records arrive, the writer thread wakes up every few milliseconds (or
+ * when the ring is half full), writes all waiting records to the target
+ * writer and flushes the target once per flush interval (group flushing) or
+ * when requested. While the ring is empty the writer thread sleeps until the
+ * next group flush is due, or until a producer publishes a record if
+ * everything is flushed, so an idle log does not wake up the device.
+ * 
+ * see references:
+ * http://mechanical-sympathy.blogspot.com/2011/09/single-writer-principle.html
+ */
+public class AsyncLogWriter implements ILogWriter {
+
+	/**
+	 * What happens with a new entry if the ring is full.
+	 */
+	public enum BackPressure {
+		/** the producer waits until the writer thread made space */
+		BLOCK,
+		/** the oldest waiting entry is discarded */
+		DROP_OLDEST,
+		/** the new entry is discarded */
+		DROP_NEWEST
+	}
+
+	/** Tag string for debug logs */
+	private static final String TAG = "AsyncLogWriter";
+
+	/** time the writer thread collects new records for one batch */
+	private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	/** time a blocked producer waits for space */
+	private static final long BLOCK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	private static final int SENSOR_EVENT = 0;
+	private static final int PROBE_VALUES = 1;
+	private static final int TEXT = 2;
+
+	/**
+	 * One log entry, a sensor event, the values of another probe or a text line.
+	 */
+	private static class Record {
+		int type;
+		String text;
+		String sensorKey;
+		long systemTime;
+		String contextLabel;
+		long timestamp;
+		boolean hasLocation;
+		double latitude;
+		double longitude;
+		float[] values = new float[3];
+		double[] probeValues = new double[2];
+		int valueCount;
+		String parameter;
+
+		/**
+		 * Copies a record of the ring. If the producer overwrote it meanwhile
+		 * (drop oldest) the copy is discarded, so it must not fail on
+		 * inconsistent fields.
+		 */
+		void copyFrom(Record record) {
+			type = record.type;
+			text = record.text;
+			sensorKey = record.sensorKey;
+			systemTime = record.systemTime;
+			contextLabel = record.contextLabel;
+			timestamp = record.timestamp;
+			hasLocation = record.hasLocation;
+			latitude = record.latitude;
+			longitude = record.longitude;
+			if (type == PROBE_VALUES) {
+				double[] source = record.probeValues;
+				int count = Math.min(record.valueCount, source.length);
+				if (probeValues.length < count) {
+					probeValues = new double[count];
+				}
+				System.arraycopy(source, 0, probeValues, 0, count);
+				valueCount = count;
+			} else {
+				float[] source = record.values;
+				int count = Math.min(record.valueCount, source.length);
+				if (values.length < count) {
+					values = new float[count];
+				}
+				System.arraycopy(source, 0, values, 0, count);
+				valueCount = count;
+			}
+			parameter = record.parameter;
+		}
+	}
+
+	private final ILogWriter mTarget;
+	private final BackPressure mBackPressure;
+	private final long mFlushIntervalNanos;
+
+	private final Record[] mRing;
+	private final int mCapacity;
+	/** sequence number of the oldest waiting record, advanced by the writer thread (and the producer for drop oldest) */
+	private final AtomicLong mHead = new AtomicLong();
+	/** sequence number of the next record, only advanced by the producer */
+	private final AtomicLong mTail = new AtomicLong();
+
+	private final Thread mWriterThread;
+	private volatile boolean mIsClosed = false;
+	private volatile boolean mIsFlushRequested = false;
+	/** the writer thread sleeps until a record is published */
+	private volatile boolean mIsWriterIdle = false;
+	private volatile IOException mError = null;
+
+	private volatile long mDroppedCount = 0;
+	private volatile long mRejectedCount = 0;
+
+	/** record of the writer thread the ring records are copied to */
+	private final Record mCurrent = new Record();
+	private final double[] mCoordinates = new double[2];
+
+	/**
+	 * Starts the writer thread.
+	 * 
+	 * @param target the writer the records are written to (only used by the writer thread)
+	 * @param capacity number of records in the ring
+	 * @param backPressure what happens if the ring is full
+	 * @param flushInterval time between two flushes of the target in milliseconds
+	 */
+	public AsyncLogWriter(ILogWriter target, int capacity, BackPressure backPressure, long flushInterval) {
+		if (capacity < 2) {
+			throw new RuntimeException("AsyncLogWriter capacity must be at least 2");
+		}
+		mTarget = target;
+		mBackPressure = backPressure;
+		mFlushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+		mCapacity = capacity;
+		mRing = new Record[capacity];
+		for (int i = 0; i < capacity; i++) {
+			mRing[i] = new Record();
+		}
+
+		mWriterThread = new Thread(new Runnable() {
+
+			public void run() {
+				writerRun();
+			}
+		}, "Probe Log Writer");
+		mWriterThread.start();
+	}
+
+	// ******************************************************************** //
+	// Producer
+	// ******************************************************************** //
+
+	/**
+	 * Puts a sensor event into the ring, the values are copied.
+	 * 
+	 * @return false if the event was dropped or the writer is closed
+	 */
+	public synchronized boolean writeSensorValues(String sensorKey, long systemTime, String contextLabel,
+			long timestamp, double[] coordinates, float[] values, int valueCount, String parameter) {
+		Record record = claim();
+		if (record == null) {
+			return false;
+		}
+		record.type = SENSOR_EVENT;
+		record.text = null;
+		record.sensorKey = sensorKey;
+		record.systemTime = systemTime;
+		record.contextLabel = contextLabel;
+		record.timestamp = timestamp;
+		record.hasLocation = coordinates != null && coordinates.length >= 2;
+		if (record.hasLocation) {
+			record.latitude = coordinates[0];
+			record.longitude = coordinates[1];
+		}
+		if (record.values.length < valueCount) {
+			record.values = new float[valueCount];
+		}
+		System.arraycopy(values, 0, record.values, 0, valueCount);
+		record.valueCount = valueCount;
+		record.parameter = parameter;
+		publish();
+		return true;
+	}
+
+	/**
+	 * Puts the values of a probe into the ring, the values are copied.
+	 * 
+	 * @return false if the values were dropped or the writer is closed
+	 */
+	public synchronized boolean writeProbeValues(String probeKey, long systemTime, double[] values, int valueCount) {
+		Record record = claim();
+		if (record == null) {
+			return false;
+		}
+		record.type = PROBE_VALUES;
+		record.text = null;
+		record.sensorKey = probeKey;
+		record.systemTime = systemTime;
+		record.contextLabel = null;
+		if (record.probeValues.length < valueCount) {
+			record.probeValues = new double[valueCount];
+		}
+		System.arraycopy(values, 0, record.probeValues, 0, valueCount);
+		record.valueCount = valueCount;
+		record.parameter = null;
+		publish();
+		return true;
+	}
+
+	/**
+	 * Puts a text line into the ring. The line is dropped if the ring is full
+	 * (depending on the back pressure) or the writer is closed.
+	 */
+	public synchronized void writeText(String line) {
+		Record record = claim();
+		if (record == null) {
+			return;
+		}
+		record.type = TEXT;
+		record.text = line;
+		record.sensorKey = null;
+		record.contextLabel = null;
+		record.parameter = null;
+		publish();
+	}
+
+	/**
+	 * Requests a flush of the target, it is done by the writer thread.
+	 */
+	public void flush() {
+		mIsFlushRequested = true;
+		LockSupport.unpark(mWriterThread);
+	}
+
+	/**
+	 * Writes all waiting records, closes the target and stops the writer thread.
+	 * 
+	 * @throws IOException the first error of the target
+	 */
+	public synchronized void close() throws IOException {
+		if (mIsClosed) {
+			return;
+		}
+		mIsClosed = true;
+		LockSupport.unpark(mWriterThread);
+		boolean isInterrupted = false;
+		while (mWriterThread.isAlive()) {
+			try {
+				mWriterThread.join();
+			} catch (InterruptedException e) {
+				isInterrupted = true;
+			}
+		}
+		if (isInterrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (mDroppedCount > 0) {
+			if (FrameworkContext.WARN) Log.w(TAG, mDroppedCount + " log entries were dropped because the writer was too slow.");
+		}
+		if (mRejectedCount > 0) {
+			if (FrameworkContext.ERROR) Log.e(TAG, mRejectedCount + " sensor events or probe values were rejected by the log writer.");
+		}
+		if (mError != null) {
+			throw mError;
+		}
+	}
+
+	/**
+	 * @return the record for the next entry or null if the entry is dropped
+	 */
+	private Record claim() {
+		if (mIsClosed) {
+			return null;
+		}
+		long tail = mTail.get();
+		while (tail - mHead.get() >= mCapacity) {
+			switch (mBackPressure) {
+			case DROP_NEWEST:
+				mDroppedCount++;
+				return null;
+			case DROP_OLDEST: {
+				long head = mHead.get();
+				// fails if the writer thread took the record meanwhile, then there is space
+				if (tail - head >= mCapacity && mHead.compareAndSet(head, head + 1)) {
+					mDroppedCount++;
+				}
+				break;
+			}
+			case BLOCK:
+				if (!mWriterThread.isAlive()) {
+					mDroppedCount++;
+					return null;
+				}
+				LockSupport.unpark(mWriterThread);
+				LockSupport.parkNanos(this, BLOCK_NANOS);
+				break;
+			}
+		}
+		return mRing[(int) (tail % mCapacity)];
+	}
+
+	private void publish() {
+		long tail = mTail.get() + 1;
+		// volatile store before the idle flag is read: either the writer thread
+		// sees the new tail before it sleeps or the producer sees the flag
+		mTail.set(tail);
+		if (mIsWriterIdle || tail - mHead.get() == mCapacity / 2) {
+			LockSupport.unpark(mWriterThread);
+		}
+	}
+
+	// ******************************************************************** //
+	// Writer thread
+	// ******************************************************************** //
+
+	private void writerRun() {
+		long nextFlush = System.nanoTime() + mFlushIntervalNanos;
+		// records were written since the last flush
+		boolean isDirty = false;
+		while (true) {
+			// read before draining, so all records put before close are written
+			boolean isClosed = mIsClosed;
+
+			boolean hasWritten = drain();
+			isDirty |= hasWritten;
+
+			long now = System.nanoTime();
+			if (isClosed || mIsFlushRequested || (isDirty && now - nextFlush >= 0)) {
+				mIsFlushRequested = false;
+				isDirty = false;
+				nextFlush = now + mFlushIntervalNanos;
+				try {
+					mTarget.flush();
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+
+			if (isClosed) {
+				break;
+			}
+			if (hasWritten) {
+				// more records are coming, they are collected for one batch
+				LockSupport.parkNanos(this, WAIT_NANOS);
+			} else {
+				// the ring is empty: sleep until a record is published, a flush
+				// is requested or the group flush is due
+				mIsWriterIdle = true;
+				if (mHead.get() == mTail.get() && !mIsClosed && !mIsFlushRequested) {
+					if (isDirty) {
+						LockSupport.parkNanos(this, nextFlush - now);
+					} else {
+						LockSupport.park(this);
+					}
+				}
+				mIsWriterIdle = false;
+			}
+		}
+
+		try {
+			mTarget.close();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Writes all waiting records.
+	 * 
+	 * @return true if at least one record was written
+	 */
+	private boolean drain() {
+		boolean hasWritten = false;
+		long head = mHead.get();
+		while (head < mTail.get()) {
+			mCurrent.copyFrom(mRing[(int) (head % mCapacity)]);
+			// fails if the producer dropped the record meanwhile (drop oldest), the copy is discarded
+			if (mHead.compareAndSet(head, head + 1)) {
+				write(mCurrent);
+				hasWritten = true;
+			}
+			head = mHead.get();
+		}
+		return hasWritten;
+	}
+
+	private void write(Record record) {
+		if (mError != null) {
+			// the target failed, records are discarded so that the producer is not blocked
+			return;
+		}
+		try {
+			if (record.type == SENSOR_EVENT) {
+				double[] coordinates = null;
+				if (record.hasLocation) {
+					mCoordinates[0] = record.latitude;
+					mCoordinates[1] = record.longitude;
+					coordinates = mCoordinates;
+				}
+				if (!mTarget.writeSensorValues(record.sensorKey, record.systemTime, record.contextLabel,
+						record.timestamp, coordinates, record.values, record.valueCount, record.parameter)) {
+					mRejectedCount++;
+				}
+			} else if (record.type == PROBE_VALUES) {
+				if (!mTarget.writeProbeValues(record.sensorKey, record.systemTime, record.probeValues,
+						record.valueCount)) {
+					mRejectedCount++;
+				}
+			} else {
+				mTarget.writeText(record.text);
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void fail(IOException e) {
+		if (mError == null) {
+			mError = e;
+			if (FrameworkContext.ERROR) Log.e(TAG, "Log could not be written: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	// ******************************************************************** //
+	// Statistics
+	// ******************************************************************** //
+
+	/**
+	 * @return number of entries dropped because the ring was full
+	 */
+	public long getDroppedCount() {
+		return mDroppedCount;
+	}
+
+	/**
+	 * @return number of records waiting for the writer thread
+	 */
+	public int getPendingCount() {
+		return (int) (mTail.get() - mHead.get());
+	}
+
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	public BackPressure getBackPressure() {
+		return mBackPressure;
+	}
+
+}
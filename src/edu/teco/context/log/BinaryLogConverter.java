@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Converts a binary probe log (see {@link BinaryLogWriter}) to the text format
+ * of the probe log, e.g. to inspect it or for tools that only read text logs.
+ * The lines are the same as if the text log had been enabled on the phone.
+ * 
+ * Compressed log segments (.binz) can be converted completely or only the
+ * events of a time window (system time in milliseconds), only the blocks of
+ * the time window are read.
+ * 
+ * Usage: BinaryLogConverter ProbeLog.bin ProbeLog.txt
+ *        BinaryLogConverter ProbeLog_000.binz ProbeLog.txt [fromTime toTime]
+ */
+public class BinaryLogConverter {
+
+	private BinaryLogConverter() {
+	}
+
+	/**
+	 * Writes all records of the binary log as text lines.
+	 * 
+	 * @param reader
+	 * @param writer
+	 * @return number of written lines
+	 * @throws IOException
+	 */
+	public static long convert(BinaryLogReader reader, Writer writer) throws IOException {
+		StringBuilder sb = new StringBuilder(256);
+		double[] coordinates = new double[2];
+		long lineCount = 0;
+
+		while (reader.next()) {
+			if (reader.isSensorEvent()) {
+				coordinates[0] = reader.getLatitude();
+				coordinates[1] = reader.getLongitude();
+				sb.setLength(0);
+				DataParser.appendSensorMessage(sb, reader.getSensorKey(), reader.getSystemTime(),
+						reader.getContextLabel(), reader.getTimestamp(), reader.hasLocation() ? coordinates : null,
+						reader.getValues(), reader.getValueCount(), reader.getParameter());
+				writer.append(sb);
+			} else {
+				writer.write(reader.getText());
+			}
+			writer.write('\n');
+			lineCount++;
+		}
+		return lineCount;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2 && !(args.length == 4 && args[0].endsWith(SegmentedLogWriter.EXTENSION))) {
+			System.err.println("Usage: BinaryLogConverter ProbeLog.bin ProbeLog.txt");
+			System.err.println("       BinaryLogConverter ProbeLog_000.binz ProbeLog.txt [fromTime toTime]");
+			System.exit(1);
+		}
+
+		if (args[0].endsWith(SegmentedLogWriter.EXTENSION)) {
+			LogSegment segment = new LogSegment(new File(args[0]));
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1]), "UTF-8"), 1 << 16);
+			try {
+				BinaryLogReader reader;
+				if (args.length == 4) {
+					reader = segment.createReader(Long.parseLong(args[2]), Long.parseLong(args[3]));
+				} else {
+					reader = segment.createReader();
+				}
+				long lineCount = convert(reader, writer);
+				System.out.println("Converted " + lineCount + " lines.");
+			} finally {
+				writer.close();
+				segment.close();
+			}
+			return;
+		}
+
+		InputStream input = new FileInputStream(args[0]);
+		if (args[0].endsWith(".gz")) {
+			input = new GZIPInputStream(input, 1 << 16);
+		}
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1]), "UTF-8"), 1 << 16);
+		try {
+			long lineCount = convert(new BinaryLogReader(input), writer);
+			System.out.println("Converted " + lineCount + " lines.");
+		} finally {
+			writer.close();
+			input.close();
+		}
+	}
+
+}
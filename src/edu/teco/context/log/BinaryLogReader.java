@@ -0,0 +1,399 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the records of a binary probe log (see {@link BinaryLogWriter}). The
+ * dictionary, location, parameter and time base records are applied while
+ * reading, {@link #next()} stops at every sensor event, probe values record
+ * and text line. Probe values are also available as text line in the format
+ * of the text log.
+ */
+public class BinaryLogReader {
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private final InputStream mInput;
+	private ByteBuffer mBuffer;
+	private boolean mIsEndOfStream = false;
+
+	private final String[] mSensorKeys = new String[BinaryLogWriter.MAX_SENSORS];
+	private final int[] mValueCounts = new int[BinaryLogWriter.MAX_SENSORS];
+	private final String[] mLabels = new String[BinaryLogWriter.MAX_LABELS];
+	private final String[] mProbeKeys = new String[BinaryLogWriter.MAX_PROBES];
+	private final int[] mProbeValueCounts = new int[BinaryLogWriter.MAX_PROBES];
+	private final String[] mParameters = new String[BinaryLogWriter.MAX_PARAMETERS];
+
+	private long mTimeBase;
+	private double mLatitude = Double.NaN;
+	private double mLongitude = Double.NaN;
+	private String mParameter = null;
+
+	// current record
+	private boolean mIsSensorEvent = false;
+	private boolean mIsProbeValues = false;
+	private String mText = null;
+	private String mProbeKey = null;
+	private double[] mProbeValues = new double[2];
+	private int mProbeValueCount = 0;
+	private final StringBuilder mProbeText = new StringBuilder();
+	private String mSensorKey = null;
+	private String mContextLabel = null;
+	private long mSystemTime = 0;
+	private long mTimestamp = 0;
+	private float[] mValues = new float[3];
+	private int mValueCount = 0;
+
+	/** sensor events and probe values outside of the time window are skipped */
+	private long mFromTime = Long.MIN_VALUE;
+	private long mToTime = Long.MAX_VALUE;
+
+	/**
+	 * Reads the header of the log.
+	 * 
+	 * @param input the stream is not closed by the reader
+	 * @throws IOException if the stream is not a binary probe log
+	 */
+	public BinaryLogReader(InputStream input) throws IOException {
+		mInput = input;
+		mBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(BinaryLogWriter.BYTE_ORDER);
+		mBuffer.limit(0);
+
+		if (!ensureAvailable(4 + 2 + 8) || mBuffer.getInt() != BinaryLogWriter.MAGIC) {
+			throw new IOException("Not a binary probe log.");
+		}
+		short version = mBuffer.getShort();
+		if (version < 1 || version > BinaryLogWriter.VERSION) {
+			throw new IOException("Unsupported binary probe log version " + version + ".");
+		}
+		mTimeBase = mBuffer.getLong();
+	}
+
+	/**
+	 * Creates a reader for records without header, e.g. the decompressed
+	 * blocks of a log segment (see {@link LogSegment}).
+	 * 
+	 * @param input the stream is not closed by the reader
+	 * @param timeBase time base (ms) until the first time base record
+	 */
+	BinaryLogReader(InputStream input, long timeBase) {
+		mInput = input;
+		mBuffer = ByteBuffer.allocate(BUFFER_SIZE).order(BinaryLogWriter.BYTE_ORDER);
+		mBuffer.limit(0);
+		mTimeBase = timeBase;
+	}
+
+	/**
+	 * Skips the sensor events and probe values that were logged before or after the time
+	 * window, text lines are not skipped.
+	 * 
+	 * @param fromTime first system time in milliseconds
+	 * @param toTime last system time in milliseconds
+	 */
+	public void setTimeWindow(long fromTime, long toTime) {
+		mFromTime = fromTime;
+		mToTime = toTime;
+	}
+
+	/**
+	 * Reads up to the next sensor event, probe values or text line.
+	 * 
+	 * @return false at the end of the log
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		while (ensureAvailable(1)) {
+			byte tag = mBuffer.get();
+
+			if (tag >= 0) {
+				int sensorId = tag;
+				String sensorKey = mSensorKeys[sensorId];
+				if (sensorKey == null) {
+					throw new IOException("Undefined sensor id " + sensorId + ".");
+				}
+				int valueCount = mValueCounts[sensorId];
+				require(1 + 4 + 8 + 4 * valueCount);
+				int labelId = mBuffer.get() & 0xFF;
+				long systemTime = mTimeBase + mBuffer.getInt();
+				if (systemTime < mFromTime || systemTime > mToTime) {
+					mBuffer.position(mBuffer.position() + 8 + 4 * valueCount);
+					continue;
+				}
+				mContextLabel = mLabels[labelId];
+				mSystemTime = systemTime;
+				mTimestamp = mBuffer.getLong();
+				if (mValues.length < valueCount) {
+					mValues = new float[valueCount];
+				}
+				for (int i = 0; i < valueCount; i++) {
+					mValues[i] = mBuffer.getFloat();
+				}
+				mValueCount = valueCount;
+				mSensorKey = sensorKey;
+				mText = null;
+				mIsSensorEvent = true;
+				mIsProbeValues = false;
+				return true;
+			}
+
+			switch (tag) {
+			case BinaryLogWriter.TAG_SENSOR: {
+				require(1 + 1);
+				int sensorId = mBuffer.get() & 0xFF;
+				int valueCount = mBuffer.get() & 0xFF;
+				if (sensorId >= BinaryLogWriter.MAX_SENSORS) {
+					throw new IOException("Invalid sensor id " + sensorId + ".");
+				}
+				mSensorKeys[sensorId] = readString();
+				mValueCounts[sensorId] = valueCount;
+				break;
+			}
+			case BinaryLogWriter.TAG_LABEL: {
+				require(1);
+				int labelId = mBuffer.get() & 0xFF;
+				mLabels[labelId] = readString();
+				break;
+			}
+			case BinaryLogWriter.TAG_LOCATION:
+				require(16);
+				mLatitude = mBuffer.getDouble();
+				mLongitude = mBuffer.getDouble();
+				break;
+			case BinaryLogWriter.TAG_PARAMETER:
+				mParameter = readString();
+				break;
+			case BinaryLogWriter.TAG_TIME_BASE:
+				require(8);
+				mTimeBase = mBuffer.getLong();
+				break;
+			case BinaryLogWriter.TAG_TEXT:
+				mText = readString();
+				mIsSensorEvent = false;
+				mIsProbeValues = false;
+				return true;
+			case BinaryLogWriter.TAG_PROBE: {
+				require(1 + 1);
+				int probeId = mBuffer.get() & 0xFF;
+				mProbeValueCounts[probeId] = mBuffer.get() & 0xFF;
+				mProbeKeys[probeId] = readString();
+				break;
+			}
+			case BinaryLogWriter.TAG_PROBE_VALUES: {
+				require(1 + 4);
+				int probeId = mBuffer.get() & 0xFF;
+				String probeKey = mProbeKeys[probeId];
+				if (probeKey == null) {
+					throw new IOException("Undefined probe id " + probeId + ".");
+				}
+				int valueCount = mProbeValueCounts[probeId];
+				long systemTime = mTimeBase + mBuffer.getInt();
+				require(8 * valueCount);
+				if (systemTime < mFromTime || systemTime > mToTime) {
+					mBuffer.position(mBuffer.position() + 8 * valueCount);
+					continue;
+				}
+				if (mProbeValues.length < valueCount) {
+					mProbeValues = new double[valueCount];
+				}
+				for (int i = 0; i < valueCount; i++) {
+					mProbeValues[i] = mBuffer.getDouble();
+				}
+				mProbeValueCount = valueCount;
+				mProbeKey = probeKey;
+				mSystemTime = systemTime;
+				// formatted when needed
+				mText = null;
+				mIsSensorEvent = false;
+				mIsProbeValues = true;
+				return true;
+			}
+			case BinaryLogWriter.TAG_PARAMETER_DEFINITION: {
+				require(1);
+				int parameterId = mBuffer.get() & 0xFF;
+				if (parameterId >= BinaryLogWriter.MAX_PARAMETERS) {
+					throw new IOException("Invalid parameter id " + parameterId + ".");
+				}
+				mParameters[parameterId] = readString();
+				break;
+			}
+			case BinaryLogWriter.TAG_PARAMETER_ID: {
+				require(1);
+				int parameterId = mBuffer.get() & 0xFF;
+				if (parameterId == BinaryLogWriter.NO_PARAMETER) {
+					mParameter = null;
+				} else if (mParameters[parameterId] != null) {
+					mParameter = mParameters[parameterId];
+				} else {
+					throw new IOException("Undefined parameter id " + parameterId + ".");
+				}
+				break;
+			}
+			default:
+				throw new IOException("Unknown record tag " + tag + ".");
+			}
+		}
+		return false;
+	}
+
+	private String readString() throws IOException {
+		require(4);
+		int length = mBuffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		if (length > mBuffer.capacity()) {
+			// longer than the buffer
+			ByteBuffer buffer = ByteBuffer.allocate(length).order(BinaryLogWriter.BYTE_ORDER);
+			buffer.put(mBuffer);
+			mBuffer = buffer;
+		}
+		require(length);
+		String string = new String(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(), length, "UTF-8");
+		mBuffer.position(mBuffer.position() + length);
+		return string;
+	}
+
+	private void require(int bytes) throws IOException {
+		if (!ensureAvailable(bytes)) {
+			throw new EOFException("Binary probe log ends within a record.");
+		}
+	}
+
+	/**
+	 * Reads from the stream until the buffer contains the number of bytes.
+	 * 
+	 * @return false if the stream ends before
+	 */
+	private boolean ensureAvailable(int bytes) throws IOException {
+		if (mBuffer.remaining() >= bytes) {
+			return true;
+		}
+		mBuffer.compact();
+		while (mBuffer.position() < bytes && !mIsEndOfStream) {
+			int read = mInput.read(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(), mBuffer.remaining());
+			if (read < 0) {
+				mIsEndOfStream = true;
+			} else {
+				mBuffer.position(mBuffer.position() + read);
+			}
+		}
+		mBuffer.flip();
+		return mBuffer.remaining() >= bytes;
+	}
+
+	/**
+	 * @return true for a sensor event, false for probe values or a text line
+	 */
+	public boolean isSensorEvent() {
+		return mIsSensorEvent;
+	}
+
+	/**
+	 * @return true for the values of a probe that is not a sensor (e.g. audio volume or location)
+	 */
+	public boolean isProbeValues() {
+		return mIsProbeValues;
+	}
+
+	/**
+	 * @return the text line of the current record (comment, or probe values
+	 *         in the format of the text log)
+	 */
+	public String getText() {
+		if (mText == null && mIsProbeValues) {
+			mProbeText.setLength(0);
+			mText = DataParser.appendProbeMessage(mProbeText, mProbeKey, mSystemTime, mProbeValues,
+					mProbeValueCount).toString();
+		}
+		return mText;
+	}
+
+	public String getProbeKey() {
+		return mProbeKey;
+	}
+
+	/**
+	 * @return the probe values, valid up to {@link #getProbeValueCount()}
+	 */
+	public double[] getProbeValues() {
+		return mProbeValues;
+	}
+
+	public int getProbeValueCount() {
+		return mProbeValueCount;
+	}
+
+	public String getSensorKey() {
+		return mSensorKey;
+	}
+
+	/**
+	 * @return time of the log entry in milliseconds
+	 */
+	public long getSystemTime() {
+		return mSystemTime;
+	}
+
+	public String getContextLabel() {
+		return mContextLabel;
+	}
+
+	/**
+	 * @return timestamp of the sensor event in nanoseconds
+	 */
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+
+	/**
+	 * @return false if the location was unknown when the event was logged
+	 */
+	public boolean hasLocation() {
+		return !Double.isNaN(mLatitude);
+	}
+
+	public double getLatitude() {
+		return mLatitude;
+	}
+
+	public double getLongitude() {
+		return mLongitude;
+	}
+
+	/**
+	 * @return the sensor values, valid up to {@link #getValueCount()}
+	 */
+	public float[] getValues() {
+		return mValues;
+	}
+
+	public int getValueCount() {
+		return mValueCount;
+	}
+
+	/**
+	 * @return the logged parameter or null
+	 */
+	public String getParameter() {
+		return mParameter;
+	}
+
+}
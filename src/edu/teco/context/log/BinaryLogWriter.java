@@ -0,0 +1,431 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the probe log as binary records instead of text lines. A sensor event
+ * is a fixed size record per sensor (e.g. 26 bytes for the accelerometer
+ * instead of about 100 characters) and no strings or number formatting are
+ * needed while logging.
+ * 
+ * File format (little endian):
+ * 
+ * <pre>
+ * header:   int MAGIC, short VERSION, long start time (ms),
+ *           label definitions of the context labels known at the start
+ * records:  byte tag followed by the content of the tag
+ * 
+ * tag 0..127 (sensor id): byte label id, int system time (ms after the time base),
+ *                         long event timestamp (ns), float values[value count of the sensor]
+ * TAG_SENSOR:     byte sensor id, byte value count, string sensor key
+ * TAG_LABEL:      byte label id, string context label
+ * TAG_LOCATION:   double latitude, double longitude (NaN if unknown) for the following events
+ * TAG_PARAMETER:  string parameter (length -1 for none) for the following events,
+ *                 only used if there are more than MAX_PARAMETERS parameters
+ * TAG_TIME_BASE:  long time base (ms) for the following events and probe values
+ * TAG_TEXT:       string line (comments)
+ * TAG_PROBE:      byte probe id, byte value count, string probe key (e.g. audio volume, location)
+ * TAG_PROBE_VALUES:      byte probe id, int system time (ms after the time base),
+ *                        double values[value count of the probe]
+ * TAG_PARAMETER_DEFINITION: byte parameter id, string parameter
+ * TAG_PARAMETER_ID:      byte parameter id (NO_PARAMETER for none) for the following events
+ * 
+ * string: int length of the UTF-8 bytes, bytes
+ * </pre>
+ * 
+ * Sensors, probes, labels and parameters are defined (dictionary) before
+ * their first use, so every event only stores the ids. Version 1 logs have no
+ * probe records (other probes are text lines) and write the parameter as
+ * string. The records are collected in a direct buffer and
+ * written to the file channel when the buffer is full or flushed.
+ * 
+ * Subclasses receive the buffer as block instead (e.g. to compress it, see
+ * {@link SegmentedLogWriter}). A flush only happens between two events, and
+ * after {@link #resetState()} the next block defines the sensors, labels,
+ * time base, location and parameter again, so every block can be read on its
+ * own.
+ */
+public class BinaryLogWriter implements ILogWriter {
+
+	static final int MAGIC = 0x474F4C50; // "PLOG" in little endian
+	static final short VERSION = 2;
+	static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	static final int MAX_SENSORS = 128;
+	static final int MAX_LABELS = 256;
+	static final int MAX_PROBES = 256;
+	static final int MAX_PARAMETERS = 255;
+	static final int NO_PARAMETER = 0xFF;
+
+	static final byte TAG_SENSOR = (byte) 0x80;
+	static final byte TAG_LABEL = (byte) 0x81;
+	static final byte TAG_LOCATION = (byte) 0x82;
+	static final byte TAG_PARAMETER = (byte) 0x83;
+	static final byte TAG_TIME_BASE = (byte) 0x84;
+	static final byte TAG_TEXT = (byte) 0x85;
+	static final byte TAG_PROBE = (byte) 0x86;
+	static final byte TAG_PROBE_VALUES = (byte) 0x87;
+	static final byte TAG_PARAMETER_DEFINITION = (byte) 0x88;
+	static final byte TAG_PARAMETER_ID = (byte) 0x89;
+
+	private static final int BUFFER_SIZE = 65536;
+
+	/** null if the blocks are written by a subclass */
+	private final FileChannel mChannel;
+	private final ByteBuffer mBuffer;
+
+	private final Map<String, Integer> mSensorIds = new HashMap<String, Integer>();
+	private final int[] mValueCounts = new int[MAX_SENSORS];
+	private final Map<String, Integer> mLabelIds = new HashMap<String, Integer>();
+	private final Map<String, Integer> mProbeIds = new HashMap<String, Integer>();
+	private final int[] mProbeValueCounts = new int[MAX_PROBES];
+	private final Map<String, Integer> mParameterIds = new HashMap<String, Integer>();
+
+	private long mTimeBase;
+	private double mLatitude = Double.NaN;
+	private double mLongitude = Double.NaN;
+	private String mParameter = null;
+	/** false if the location and parameter must be written before the next event */
+	private boolean isStateWritten = true;
+	private boolean isTimeBaseWritten = true;
+
+	/**
+	 * Creates a new log file (an existing file is overwritten).
+	 * 
+	 * @param file
+	 * @param contextLabels labels that are defined in the header, others are defined when used
+	 * @throws IOException
+	 */
+	public BinaryLogWriter(File file, List<String> contextLabels) throws IOException {
+		mChannel = new FileOutputStream(file).getChannel();
+		mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(BYTE_ORDER);
+
+		mTimeBase = System.currentTimeMillis();
+		mBuffer.putInt(MAGIC);
+		mBuffer.putShort(VERSION);
+		mBuffer.putLong(mTimeBase);
+
+		if (contextLabels != null) {
+			for (String contextLabel : contextLabels) {
+				getLabelId(contextLabel);
+			}
+		}
+	}
+
+	/**
+	 * Creates an encoder without file and header for subclasses that write the
+	 * blocks with {@link #writeBlock(ByteBuffer)}.
+	 * 
+	 * @param blockSize size of the buffer (uncompressed block) in bytes
+	 */
+	protected BinaryLogWriter(int blockSize) {
+		mChannel = null;
+		mBuffer = ByteBuffer.allocate(blockSize).order(BYTE_ORDER);
+		isStateWritten = false;
+		isTimeBaseWritten = false;
+	}
+
+	/**
+	 * Writes one sensor event, the value count of a sensor is defined by its
+	 * first event.
+	 * 
+	 * @return false if there are too many sensors or labels (nothing is written)
+	 */
+	public boolean writeSensorValues(String sensorKey, long systemTime, String contextLabel, long timestamp,
+			double[] coordinates, float[] values, int valueCount, String parameter) throws IOException {
+		// space for the event with all definitions, the buffer is not flushed within the event
+		int maximumSize = 17 + 9 + 14 + 4 * valueCount + 7 + 3 * sensorKey.length() + 6 + 3 * contextLabel.length()
+				+ 8 + (parameter != null ? 3 * parameter.length() : 0);
+		if (maximumSize <= mBuffer.capacity()) {
+			ensureSpace(maximumSize);
+		}
+
+		int sensorId = getSensorId(sensorKey, valueCount);
+		int labelId = getLabelId(contextLabel);
+		if (sensorId < 0 || labelId < 0) {
+			return false;
+		}
+
+		boolean hasLocation = coordinates != null && coordinates.length >= 2;
+		double latitude = hasLocation ? coordinates[0] : Double.NaN;
+		double longitude = hasLocation ? coordinates[1] : Double.NaN;
+		if (!isStateWritten || Double.compare(latitude, mLatitude) != 0
+				|| Double.compare(longitude, mLongitude) != 0) {
+			ensureSpace(1 + 16);
+			mBuffer.put(TAG_LOCATION);
+			mBuffer.putDouble(latitude);
+			mBuffer.putDouble(longitude);
+			mLatitude = latitude;
+			mLongitude = longitude;
+		}
+
+		if (!isStateWritten || (parameter == null ? mParameter != null : !parameter.equals(mParameter))) {
+			int parameterId = getParameterId(parameter);
+			if (parameterId >= 0) {
+				ensureSpace(1 + 1);
+				mBuffer.put(TAG_PARAMETER_ID);
+				mBuffer.put((byte) parameterId);
+			} else {
+				putStringRecord(TAG_PARAMETER, parameter);
+			}
+			mParameter = parameter;
+		}
+		isStateWritten = true;
+
+		long timeOffset = getTimeOffset(systemTime);
+
+		int sensorValueCount = mValueCounts[sensorId];
+		ensureSpace(1 + 1 + 4 + 8 + 4 * sensorValueCount);
+		mBuffer.put((byte) sensorId);
+		mBuffer.put((byte) labelId);
+		mBuffer.putInt((int) timeOffset);
+		mBuffer.putLong(timestamp);
+		for (int i = 0; i < sensorValueCount; i++) {
+			mBuffer.putFloat(i < valueCount ? values[i] : 0.0f);
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the values of a probe, the value count of a probe is defined by
+	 * its first values.
+	 * 
+	 * @return false if there are too many probes (nothing is written)
+	 */
+	public boolean writeProbeValues(String probeKey, long systemTime, double[] values, int valueCount)
+			throws IOException {
+		int maximumSize = 9 + 7 + 3 * probeKey.length() + 6 + 8 * valueCount;
+		if (maximumSize <= mBuffer.capacity()) {
+			ensureSpace(maximumSize);
+		}
+
+		int probeId = getProbeId(probeKey, valueCount);
+		if (probeId < 0) {
+			return false;
+		}
+		long timeOffset = getTimeOffset(systemTime);
+
+		int probeValueCount = mProbeValueCounts[probeId];
+		ensureSpace(1 + 1 + 4 + 8 * probeValueCount);
+		mBuffer.put(TAG_PROBE_VALUES);
+		mBuffer.put((byte) probeId);
+		mBuffer.putInt((int) timeOffset);
+		for (int i = 0; i < probeValueCount; i++) {
+			mBuffer.putDouble(i < valueCount ? values[i] : 0.0);
+		}
+		return true;
+	}
+
+	public void writeText(String line) throws IOException {
+		putStringRecord(TAG_TEXT, line);
+	}
+
+	/**
+	 * Writes a new time base if the time is not within the range of the current one.
+	 * 
+	 * @return the time after the time base
+	 */
+	private long getTimeOffset(long systemTime) throws IOException {
+		long timeOffset = systemTime - mTimeBase;
+		if (!isTimeBaseWritten || timeOffset < 0 || timeOffset > Integer.MAX_VALUE) {
+			ensureSpace(1 + 8);
+			mBuffer.put(TAG_TIME_BASE);
+			mBuffer.putLong(systemTime);
+			mTimeBase = systemTime;
+			timeOffset = 0;
+			isTimeBaseWritten = true;
+		}
+		return timeOffset;
+	}
+
+	public void flush() throws IOException {
+		mBuffer.flip();
+		if (mBuffer.hasRemaining()) {
+			writeBlock(mBuffer);
+		}
+		mBuffer.clear();
+	}
+
+	public void close() throws IOException {
+		flush();
+		if (mChannel != null) {
+			mChannel.close();
+		}
+	}
+
+	/**
+	 * Writes the records of the buffer to the file.
+	 * 
+	 * @param block buffer with the records between position and limit
+	 * @throws IOException
+	 */
+	protected void writeBlock(ByteBuffer block) throws IOException {
+		while (block.hasRemaining()) {
+			mChannel.write(block);
+		}
+	}
+
+	/**
+	 * Forgets the defined sensors and labels and the current time base,
+	 * location and parameter, they are written again before the next event.
+	 */
+	protected void resetState() {
+		mSensorIds.clear();
+		mLabelIds.clear();
+		mProbeIds.clear();
+		mParameterIds.clear();
+		isStateWritten = false;
+		isTimeBaseWritten = false;
+	}
+
+	/**
+	 * @return number of bytes in the buffer that are not written yet
+	 */
+	protected int getBufferedSize() {
+		return mBuffer.position();
+	}
+
+	private int getSensorId(String sensorKey, int valueCount) throws IOException {
+		Integer id = mSensorIds.get(sensorKey);
+		if (id != null) {
+			return id.intValue();
+		}
+		int sensorId = mSensorIds.size();
+		if (sensorId >= MAX_SENSORS || valueCount > 255) {
+			return -1;
+		}
+		mSensorIds.put(sensorKey, sensorId);
+		mValueCounts[sensorId] = valueCount;
+
+		byte[] bytes = sensorKey.getBytes("UTF-8");
+		ensureSpace(1 + 1 + 1 + 4 + bytes.length);
+		mBuffer.put(TAG_SENSOR);
+		mBuffer.put((byte) sensorId);
+		mBuffer.put((byte) valueCount);
+		mBuffer.putInt(bytes.length);
+		mBuffer.put(bytes);
+		return sensorId;
+	}
+
+	private int getLabelId(String contextLabel) throws IOException {
+		Integer id = mLabelIds.get(contextLabel);
+		if (id != null) {
+			return id.intValue();
+		}
+		int labelId = mLabelIds.size();
+		if (labelId >= MAX_LABELS) {
+			return -1;
+		}
+		mLabelIds.put(contextLabel, labelId);
+
+		byte[] bytes = contextLabel.getBytes("UTF-8");
+		ensureSpace(1 + 1 + 4 + bytes.length);
+		mBuffer.put(TAG_LABEL);
+		mBuffer.put((byte) labelId);
+		mBuffer.putInt(bytes.length);
+		mBuffer.put(bytes);
+		return labelId;
+	}
+
+	private int getProbeId(String probeKey, int valueCount) throws IOException {
+		Integer id = mProbeIds.get(probeKey);
+		if (id != null) {
+			return id.intValue();
+		}
+		int probeId = mProbeIds.size();
+		if (probeId >= MAX_PROBES || valueCount > 255) {
+			return -1;
+		}
+		mProbeIds.put(probeKey, probeId);
+		mProbeValueCounts[probeId] = valueCount;
+
+		byte[] bytes = probeKey.getBytes("UTF-8");
+		ensureSpace(1 + 1 + 1 + 4 + bytes.length);
+		mBuffer.put(TAG_PROBE);
+		mBuffer.put((byte) probeId);
+		mBuffer.put((byte) valueCount);
+		mBuffer.putInt(bytes.length);
+		mBuffer.put(bytes);
+		return probeId;
+	}
+
+	/**
+	 * @return id of the parameter, NO_PARAMETER for null or -1 if there are too many parameters
+	 */
+	private int getParameterId(String parameter) throws IOException {
+		if (parameter == null) {
+			return NO_PARAMETER;
+		}
+		Integer id = mParameterIds.get(parameter);
+		if (id != null) {
+			return id.intValue();
+		}
+		int parameterId = mParameterIds.size();
+		if (parameterId >= MAX_PARAMETERS) {
+			return -1;
+		}
+		mParameterIds.put(parameter, parameterId);
+
+		byte[] bytes = parameter.getBytes("UTF-8");
+		ensureSpace(1 + 1 + 4 + bytes.length);
+		mBuffer.put(TAG_PARAMETER_DEFINITION);
+		mBuffer.put((byte) parameterId);
+		mBuffer.putInt(bytes.length);
+		mBuffer.put(bytes);
+		return parameterId;
+	}
+
+	private void putStringRecord(byte tag, String string) throws IOException {
+		if (string == null) {
+			ensureSpace(1 + 4);
+			mBuffer.put(tag);
+			mBuffer.putInt(-1);
+			return;
+		}
+
+		byte[] bytes = string.getBytes("UTF-8");
+		if (1 + 4 + bytes.length > mBuffer.capacity()) {
+			// longer than the buffer, written directly
+			flush();
+			ByteBuffer record = ByteBuffer.allocate(1 + 4 + bytes.length).order(BYTE_ORDER);
+			record.put(tag).putInt(bytes.length).put(bytes);
+			record.flip();
+			writeBlock(record);
+			return;
+		}
+		ensureSpace(1 + 4 + bytes.length);
+		mBuffer.put(tag);
+		mBuffer.putInt(bytes.length);
+		mBuffer.put(bytes);
+	}
+
+	private void ensureSpace(int bytes) throws IOException {
+		if (mBuffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+}
@@ -17,8 +17,9 @@ package edu.teco.context.log;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.Date;
 
 import android.os.Environment;
@@ -56,7 +57,14 @@ public class DataLogger {
 	private boolean isExternalStorageAvailable = false;
 	private boolean isExternalStorageWriteable = false;
 
-	private BufferedWriter mWriter = null;
+	/**
+	 * Writes the text or binary log on a background thread, so the sensor
+	 * callbacks are not blocked by the storage.
+	 */
+	private AsyncLogWriter mWriter = null;
+	
+	/** captures raw sensor events to a separate file while it is open */
+	private RawCaptureWriter mCaptureWriter = null;
 	
 	private String mFileName = null;
 	
@@ -84,7 +92,7 @@ public class DataLogger {
 	
 	/**
 	 * Creates a new BufferedWriter with the filename ProbeLog_{current Date
-	 * in nanoseconds} as .txt file or does nothing if BufferedWriter is already
+	 * in nanoseconds} as .txt (or .bin for the binary log, _000.binz ... for the compressed log) file or does nothing if BufferedWriter is already
 	 * open. Must be called before writing to a file.
 	 */
 	public void openLogger() {
@@ -112,13 +120,27 @@ public class DataLogger {
 				File logDir = new File(Environment.getExternalStorageDirectory() + logDirectory);
 				logDir.mkdirs();
 				
-				File file = new File(logDir, mFileName + ".txt");
+				FrameworkConfiguration config = FrameworkConfiguration.getInstance();
+				String fileName;
+				ILogWriter writer;
+				if (config.isBinaryLog() && config.isCompressedLog()) {
+					fileName = SegmentedLogWriter.getSegmentFile(logDir, mFileName, 0).getName();
+					writer = new SegmentedLogWriter(logDir, mFileName, config.getLogSegmentSize(),
+							config.getLogSegmentDuration());
+				} else if (config.isBinaryLog()) {
+					fileName = mFileName + ".bin";
+					writer = new BinaryLogWriter(new File(logDir, fileName), config.getContextLabels());
+				} else {
+					fileName = mFileName + ".txt";
+					writer = new TextLogWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+							new File(logDir, fileName), true)), 32768));
+				}
 				
-				mWriter = new BufferedWriter(new FileWriter(file, true), 32768);
+				mWriter = new AsyncLogWriter(writer, config.getLogBufferCapacity(), config.getLogBackPressure(),
+						config.getLogFlushInterval());
 				
-				mWriter.write(mCommentToken + "This is the probe log file for all probe data from " + new Date().toString());
-				mWriter.newLine();
-				if (FrameworkContext.INFO) Log.i(TAG, "Writer was opened with filename: " + mFileName + ".txt");
+				mWriter.writeText(mCommentToken + "This is the probe log file for all probe data from " + new Date().toString());
+				if (FrameworkContext.INFO) Log.i(TAG, "Writer was opened with filename: " + fileName);
 			} catch (IOException e) {
 				if (FrameworkContext.INFO) Log.i(TAG, "Writer could not be opened.");
 				e.printStackTrace();
@@ -128,14 +150,80 @@ public class DataLogger {
 		}
 	}
 	
-	public void flushWriter() {
-		if (isWriterOpen()) {
+	/**
+	 * Opens a new raw capture file RawCapture_{current Date in milliseconds}
+	 * as .bin file (or _000.binz ... for the compressed log). Does nothing if
+	 * a capture file is already open.
+	 */
+	public void openCaptureWriter() {
+		if (mCaptureWriter != null) {
+			return;
+		}
+		if (isStorageAvailable()) {
+
 			try {
-				mWriter.flush();
+				String logDirectory = FrameworkConfiguration.getInstance().getLogDirectory();
+				File logDir = new File(Environment.getExternalStorageDirectory() + logDirectory);
+				logDir.mkdirs();
+
+				FrameworkConfiguration config = FrameworkConfiguration.getInstance();
+				String baseName = "RawCapture_" + new Date().getTime();
+				String fileName;
+				ILogWriter writer;
+				if (config.isCompressedLog()) {
+					fileName = SegmentedLogWriter.getSegmentFile(logDir, baseName, 0).getName();
+					writer = new SegmentedLogWriter(logDir, baseName, config.getLogSegmentSize(),
+							config.getLogSegmentDuration());
+				} else {
+					fileName = baseName + ".bin";
+					writer = new BinaryLogWriter(new File(logDir, fileName), config.getContextLabels());
+				}
+				writer.writeText(mCommentToken + "This is the raw capture file for all sensor data from " + new Date().toString());
+
+				mCaptureWriter = new RawCaptureWriter(writer, config.getRawCaptureCapacity(),
+						config.getLogFlushInterval());
+				if (FrameworkContext.INFO) Log.i(TAG, "Capture writer was opened with filename: " + fileName);
 			} catch (IOException e) {
+				if (FrameworkContext.INFO) Log.i(TAG, "Capture writer could not be opened.");
 				e.printStackTrace();
 			}
 		} else {
+			if (FrameworkContext.INFO) Log.i(TAG, "Storage is not available. Nothing was done.");
+		}
+	}
+
+	/**
+	 * Writes all captured events and closes the capture file. Does nothing if
+	 * no capture file is open.
+	 */
+	public void closeCaptureWriter() {
+		if (mCaptureWriter != null) {
+			try {
+				mCaptureWriter.close();
+				if (FrameworkContext.INFO) Log.i(TAG, "Capture writer has been closed.");
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			mCaptureWriter = null;
+		}
+	}
+
+	public boolean isCaptureWriterOpen() {
+		return mCaptureWriter != null;
+	}
+
+	/**
+	 * Flushes the probe log and the capture file.
+	 */
+	public void flushWriter() {
+		if (mCaptureWriter != null) {
+			// done by the spill thread
+			mCaptureWriter.flush();
+		}
+		if (isWriterOpen()) {
+			// done by the writer thread
+			mWriter.flush();
+		} else if (mCaptureWriter == null) {
 			if (FrameworkContext.INFO) Log.i(TAG, "Writer was not open.");
 		}
 	}
@@ -146,13 +234,13 @@ public class DataLogger {
 	public void closeWriter() {
 		if (isWriterOpen()) {
 			try {
-				mWriter.flush();
+				// writes all waiting entries
 				mWriter.close();
 				if (FrameworkContext.INFO) Log.i(TAG, "Writer has been closed.");
-				mWriter = null;
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+			mWriter = null;
 		} else {
 			if (FrameworkContext.INFO) Log.i(TAG, "Writer was not open.");
 		}
@@ -241,12 +329,7 @@ public class DataLogger {
 	
 	public void log(String message) {
 		if (isWriterOpen()) {
-			try {
-				mWriter.write(message);
-				mWriter.newLine();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			mWriter.writeText(message);
 		} else {
 			if (FrameworkContext.INFO) Log.i(TAG, "Could not write data. Writer is not open.");
 		}
@@ -255,6 +338,61 @@ public class DataLogger {
 	public void logData(String data) {
 		log(data);
 	}
+	
+	/**
+	 * Logs one sensor event, as binary record or as text line. The event is
+	 * only copied, it is written by the writer thread.
+	 * 
+	 * @param sensorKey
+	 * @param systemTime time of the log entry in milliseconds
+	 * @param contextLabel
+	 * @param timestamp timestamp of the sensor event in nanoseconds
+	 * @param coordinates latitude and longitude or null if unknown
+	 * @param values
+	 * @param parameter the parameter or null
+	 */
+	public void logSensorValues(String sensorKey, long systemTime, String contextLabel, long timestamp,
+			double[] coordinates, float[] values, String parameter) {
+		if (isWriterOpen()) {
+			mWriter.writeSensorValues(sensorKey, systemTime, contextLabel, timestamp, coordinates, values,
+					values.length, parameter);
+		} else {
+			if (FrameworkContext.INFO) Log.i(TAG, "Could not write data. Writer is not open.");
+		}
+	}
+
+	/**
+	 * Logs the values of a probe that is not a sensor (e.g. audio volume or
+	 * location), as binary record or as text line
+	 * "probeKey;systemTime;values...". The values are only copied, they are
+	 * written by the writer thread.
+	 * 
+	 * @param probeKey
+	 * @param systemTime time of the log entry in milliseconds
+	 * @param values
+	 */
+	public void logProbeValues(String probeKey, long systemTime, double[] values) {
+		if (isWriterOpen()) {
+			mWriter.writeProbeValues(probeKey, systemTime, values, values.length);
+		} else {
+			if (FrameworkContext.INFO) Log.i(TAG, "Could not write data. Writer is not open.");
+		}
+	}
+
+	/**
+	 * Captures one raw sensor event in the open capture file, the event is
+	 * only copied into the ring of the sensor.
+	 * 
+	 * @param sensorKey
+	 * @param contextLabel
+	 * @param timestamp timestamp of the sensor event in nanoseconds
+	 * @param values
+	 */
+	public void captureSensorValues(String sensorKey, String contextLabel, long timestamp, float[] values) {
+		if (mCaptureWriter != null) {
+			mCaptureWriter.captureSensorValues(sensorKey, contextLabel, timestamp, values);
+		}
+	}
 
 	public void logComment(String comment) {
 		log(mCommentToken + comment);
@@ -15,8 +15,218 @@
  ******************************************************************************/
 package edu.teco.context.log;
 
+/**
+ * Parser for the lines of the probe log files written by {@link DataLogger}:
+ * 
+ * sensorKey;systemTime;contextLabel;timestamp;latitude;longitude;values...[;parameter]
+ * 
+ * The system time is in milliseconds, the timestamp of the sensor event in
+ * nanoseconds. Comment lines start with the comment token "%". One parser is
+ * used for all lines, the fields of the last parsed line are kept until the
+ * next line is parsed (the values array is reused).
+ */
 public class DataParser {
 	
+	private static final char SEPARATOR = ';';
+	private static final String COMMENT_TOKEN = "%";
+	
+	private String mSensorKey = null;
+	private long mSystemTime = 0;
+	private String mContextLabel = null;
+	private long mTimestamp = 0;
+	private double mLatitude = 0.0;
+	private double mLongitude = 0.0;
+	private float[] mValues = new float[3];
+	private int mValueCount = 0;
+	private String mParameter = null;
+	
+	/**
+	 * Parses one line of a probe log file.
+	 * 
+	 * @param line
+	 * @return true if the line contains sensor values, false for comments, empty and invalid lines
+	 */
+	public boolean parseLine(String line) {
+		if (line.length() == 0 || line.startsWith(COMMENT_TOKEN)) {
+			return false;
+		}
+		
+		try {
+			int start = 0;
+			int end = line.indexOf(SEPARATOR, start);
+			if (end < 0) return false;
+			mSensorKey = line.substring(start, end);
+			
+			start = end + 1;
+			end = line.indexOf(SEPARATOR, start);
+			if (end < 0) return false;
+			mSystemTime = Long.parseLong(line.substring(start, end));
+			
+			start = end + 1;
+			end = line.indexOf(SEPARATOR, start);
+			if (end < 0) return false;
+			mContextLabel = line.substring(start, end);
+			
+			start = end + 1;
+			end = line.indexOf(SEPARATOR, start);
+			if (end < 0) return false;
+			mTimestamp = Long.parseLong(line.substring(start, end));
+			
+			start = end + 1;
+			end = line.indexOf(SEPARATOR, start);
+			if (end < 0) return false;
+			mLatitude = Double.parseDouble(line.substring(start, end));
+			
+			start = end + 1;
+			end = line.indexOf(SEPARATOR, start);
+			if (end < 0) return false;
+			mLongitude = Double.parseDouble(line.substring(start, end));
+			
+			// sensor values up to an optional parameter that is not a number
+			mValueCount = 0;
+			mParameter = null;
+			while (end >= 0) {
+				start = end + 1;
+				end = line.indexOf(SEPARATOR, start);
+				String field = (end < 0) ? line.substring(start) : line.substring(start, end);
+				float value;
+				try {
+					// most parameters are recognized without the (slow) exception
+					value = isNumberStart(field) ? Float.parseFloat(field) : Float.NaN;
+				} catch (NumberFormatException e) {
+					value = Float.NaN;
+				}
+				if (Float.isNaN(value) && !field.equals("NaN")) {
+					mParameter = field;
+					break;
+				}
+				if (mValueCount == mValues.length) {
+					float[] values = new float[2 * mValues.length];
+					System.arraycopy(mValues, 0, values, 0, mValueCount);
+					mValues = values;
+				}
+				mValues[mValueCount++] = value;
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		
+		return mValueCount > 0;
+	}
+	
+	/**
+	 * Appends one sensor event in the format of the probe log lines (without a
+	 * line break), e.g. to convert a binary log back to text. The numbers are
+	 * formatted like Float.toString and Double.toString without creating
+	 * objects (see {@link NumberFormatter}).
+	 * 
+	 * @param sb
+	 * @param sensorKey
+	 * @param systemTime time of the log entry in milliseconds
+	 * @param contextLabel
+	 * @param timestamp timestamp of the sensor event in nanoseconds
+	 * @param coordinates latitude and longitude or null if unknown ("0;0" is logged)
+	 * @param values
+	 * @param valueCount number of values used from the array
+	 * @param parameter the parameter or null
+	 * @return the StringBuilder
+	 */
+	public static StringBuilder appendSensorMessage(StringBuilder sb, String sensorKey, long systemTime,
+			String contextLabel, long timestamp, double[] coordinates, float[] values, int valueCount, String parameter) {
+		sb.append(sensorKey).append(SEPARATOR).append(systemTime).append(SEPARATOR).append(contextLabel)
+				.append(SEPARATOR).append(timestamp);
+
+		if (coordinates != null && coordinates.length >= 2) {
+			NumberFormatter.appendDouble(sb.append(SEPARATOR), coordinates[0]);
+			NumberFormatter.appendDouble(sb.append(SEPARATOR), coordinates[1]);
+		} else {
+			sb.append(SEPARATOR).append(0).append(SEPARATOR).append(0);
+		}
+
+		for (int i = 0; i < valueCount; i++) {
+			NumberFormatter.appendFloat(sb.append(SEPARATOR), values[i]);
+		}
+
+		if (parameter != null) {
+			sb.append(SEPARATOR).append(parameter);
+		}
+		return sb;
+	}
+	
+	/**
+	 * Appends the values of a probe that is not a sensor (e.g. audio volume or
+	 * location) in the format of the probe log lines (without a line break).
+	 * 
+	 * @param sb
+	 * @param probeKey
+	 * @param systemTime time of the log entry in milliseconds
+	 * @param values
+	 * @param valueCount number of values used from the array
+	 * @return the StringBuilder
+	 */
+	public static StringBuilder appendProbeMessage(StringBuilder sb, String probeKey, long systemTime,
+			double[] values, int valueCount) {
+		sb.append(probeKey).append(SEPARATOR).append(systemTime);
+		for (int i = 0; i < valueCount; i++) {
+			NumberFormatter.appendDouble(sb.append(SEPARATOR), values[i]);
+		}
+		return sb;
+	}
+	
+	private static boolean isNumberStart(String field) {
+		if (field.length() == 0) {
+			return false;
+		}
+		char c = field.charAt(0);
+		return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'N' || c == 'I';
+	}
+	
+	public String getSensorKey() {
+		return mSensorKey;
+	}
+	
+	/**
+	 * @return time of the log entry in milliseconds
+	 */
+	public long getSystemTime() {
+		return mSystemTime;
+	}
+	
+	public String getContextLabel() {
+		return mContextLabel;
+	}
+	
+	/**
+	 * @return timestamp of the sensor event in nanoseconds
+	 */
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+	
+	public double getLatitude() {
+		return mLatitude;
+	}
+	
+	public double getLongitude() {
+		return mLongitude;
+	}
+	
+	/**
+	 * @return the sensor values, valid up to {@link #getValueCount()}
+	 */
+	public float[] getValues() {
+		return mValues;
+	}
+	
+	public int getValueCount() {
+		return mValueCount;
+	}
 	
+	/**
+	 * @return the logged parameter or null if the line has none
+	 */
+	public String getParameter() {
+		return mParameter;
+	}
 
 }
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.IOException;
+
+/**
+ * Destination of the probe log entries written by the {@link DataLogger}.
+ */
+public interface ILogWriter {
+
+	/**
+	 * Writes one sensor event.
+	 * 
+	 * @param sensorKey
+	 * @param systemTime time of the log entry in milliseconds
+	 * @param contextLabel
+	 * @param timestamp timestamp of the sensor event in nanoseconds
+	 * @param coordinates latitude and longitude or null (or empty) if unknown
+	 * @param values
+	 * @param valueCount number of values used from the array
+	 * @param parameter logged parameter or null
+	 * @return false if the event was not written
+	 * @throws IOException
+	 */
+	public boolean writeSensorValues(String sensorKey, long systemTime, String contextLabel, long timestamp,
+			double[] coordinates, float[] values, int valueCount, String parameter) throws IOException;
+
+	/**
+	 * Writes the values of a probe that is not a sensor, e.g. the audio volume
+	 * or the location.
+	 * 
+	 * @param probeKey
+	 * @param systemTime time of the log entry in milliseconds
+	 * @param values
+	 * @param valueCount number of values used from the array
+	 * @return false if the values were not written
+	 * @throws IOException
+	 */
+	public boolean writeProbeValues(String probeKey, long systemTime, double[] values, int valueCount)
+			throws IOException;
+
+	/**
+	 * Writes a text line, e.g. a comment.
+	 * 
+	 * @param line
+	 * @throws IOException
+	 */
+	public void writeText(String line) throws IOException;
+
+	public void flush() throws IOException;
+
+	public void close() throws IOException;
+
+}
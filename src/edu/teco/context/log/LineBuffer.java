@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Reused line of the text writers. The line is built in a StringBuilder and
+ * written through a reused char array, because Writer.append(CharSequence)
+ * and Writer.write(String) would create a String for every line. Together
+ * with the {@link NumberFormatter} a line is written without creating
+ * objects.
+ *
+ * Not thread safe, every writer (or thread) needs its own line buffer.
+ */
+public final class LineBuffer {
+
+	private final StringBuilder mLine;
+	private char[] mChars;
+
+	/**
+	 * @param capacity initial number of characters of a line
+	 */
+	public LineBuffer(int capacity) {
+		mLine = new StringBuilder(capacity);
+		mChars = new char[capacity];
+	}
+
+	/**
+	 * Starts a new line.
+	 * 
+	 * @return the empty line to append to
+	 */
+	public StringBuilder clear() {
+		mLine.setLength(0);
+		return mLine;
+	}
+
+	/**
+	 * Writes the line with one call of the writer, the line is not cleared.
+	 * 
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeTo(Writer writer) throws IOException {
+		int length = mLine.length();
+		if (mChars.length < length) {
+			mChars = new char[2 * length];
+		}
+		mLine.getChars(0, length, mChars, 0);
+		writer.write(mChars, 0, length);
+	}
+
+}
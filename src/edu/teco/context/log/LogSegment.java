@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a compressed segment of the probe log (see {@link SegmentedLogWriter}).
+ * The time index at the end of the segment is read when the segment is opened,
+ * a reader for a time window only decompresses the blocks that overlap the
+ * window. Segments without index (e.g. the logging was not stopped) are
+ * indexed by reading the block headers.
+ */
+public class LogSegment {
+
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final long mStartTime;
+	private final boolean hasIndex;
+
+	private int mBlockCount = 0;
+	private long[] mBlockFirstTimes = new long[64];
+	private long[] mBlockLastTimes = new long[64];
+	private long[] mBlockOffsets = new long[64];
+
+	/**
+	 * Opens the segment and reads its index.
+	 *
+	 * @param file
+	 * @throws IOException if the file is not a log segment
+	 */
+	public LogSegment(File file) throws IOException {
+		mFile = new RandomAccessFile(file, "r");
+		mChannel = mFile.getChannel();
+
+		ByteBuffer header = readBytes(0, SegmentedLogWriter.HEADER_SIZE);
+		if (header == null || header.getInt() != SegmentedLogWriter.SEGMENT_MAGIC) {
+			mFile.close();
+			throw new IOException("Not a probe log segment: " + file.getName());
+		}
+		short version = header.getShort();
+		if (version < 1 || version > SegmentedLogWriter.VERSION) {
+			mFile.close();
+			throw new IOException("Unsupported probe log segment version " + version + ".");
+		}
+		mStartTime = header.getLong();
+
+		hasIndex = readIndex();
+		if (!hasIndex) {
+			scanBlocks();
+		}
+	}
+
+	/**
+	 * @return false if the segment has no valid index at the end
+	 */
+	private boolean readIndex() throws IOException {
+		long size = mChannel.size();
+		if (size < SegmentedLogWriter.HEADER_SIZE + SegmentedLogWriter.FOOTER_SIZE) {
+			return false;
+		}
+		ByteBuffer footer = readBytes(size - SegmentedLogWriter.FOOTER_SIZE, SegmentedLogWriter.FOOTER_SIZE);
+		int blockCount = footer.getInt();
+		long indexOffset = footer.getLong();
+		if (footer.getInt() != SegmentedLogWriter.SEGMENT_MAGIC || blockCount < 0
+				|| indexOffset + (long) blockCount * SegmentedLogWriter.INDEX_ENTRY_SIZE
+						+ SegmentedLogWriter.FOOTER_SIZE != size) {
+			return false;
+		}
+
+		ByteBuffer index = readBytes(indexOffset, blockCount * SegmentedLogWriter.INDEX_ENTRY_SIZE);
+		for (int i = 0; i < blockCount; i++) {
+			addBlock(index.getLong(), index.getLong(), index.getLong());
+		}
+		return true;
+	}
+
+	/**
+	 * Indexes the complete blocks by their headers.
+	 */
+	private void scanBlocks() throws IOException {
+		long size = mChannel.size();
+		long offset = SegmentedLogWriter.HEADER_SIZE;
+		while (offset + SegmentedLogWriter.BLOCK_HEADER_SIZE <= size) {
+			ByteBuffer blockHeader = readBytes(offset, SegmentedLogWriter.BLOCK_HEADER_SIZE);
+			int compressedSize = blockHeader.getInt();
+			int blockSize = blockHeader.getInt();
+			long end = offset + SegmentedLogWriter.BLOCK_HEADER_SIZE + compressedSize;
+			if (compressedSize < 0 || blockSize < 0 || end > size) {
+				break;
+			}
+			addBlock(blockHeader.getLong(), blockHeader.getLong(), offset);
+			offset = end;
+		}
+	}
+
+	private void addBlock(long firstTime, long lastTime, long offset) {
+		if (mBlockCount == mBlockOffsets.length) {
+			mBlockFirstTimes = grow(mBlockFirstTimes);
+			mBlockLastTimes = grow(mBlockLastTimes);
+			mBlockOffsets = grow(mBlockOffsets);
+		}
+		mBlockFirstTimes[mBlockCount] = firstTime;
+		mBlockLastTimes[mBlockCount] = lastTime;
+		mBlockOffsets[mBlockCount] = offset;
+		mBlockCount++;
+	}
+
+	/**
+	 * @return a reader for all records of the segment
+	 */
+	public BinaryLogReader createReader() {
+		return new BinaryLogReader(new BlockInputStream(0, mBlockCount), mStartTime);
+	}
+
+	/**
+	 * Creates a reader that only decompresses the blocks with events in the
+	 * time window and skips the other events of these blocks.
+	 *
+	 * @param fromTime first system time in milliseconds
+	 * @param toTime last system time in milliseconds
+	 * @return the reader
+	 */
+	public BinaryLogReader createReader(long fromTime, long toTime) {
+		// the times of the blocks are only ordered roughly (events of different threads)
+		int firstBlock = 0;
+		while (firstBlock < mBlockCount && mBlockLastTimes[firstBlock] < fromTime) {
+			firstBlock++;
+		}
+		int endBlock = firstBlock;
+		while (endBlock < mBlockCount && mBlockFirstTimes[endBlock] <= toTime) {
+			endBlock++;
+		}
+
+		BinaryLogReader reader = new BinaryLogReader(new BlockInputStream(firstBlock, endBlock), mStartTime);
+		reader.setTimeWindow(fromTime, toTime);
+		return reader;
+	}
+
+	public void close() throws IOException {
+		mFile.close();
+	}
+
+	/**
+	 * @return time in milliseconds when the segment was started
+	 */
+	public long getStartTime() {
+		return mStartTime;
+	}
+
+	/**
+	 * @return time of the last event in milliseconds
+	 */
+	public long getEndTime() {
+		return mBlockCount > 0 ? mBlockLastTimes[mBlockCount - 1] : mStartTime;
+	}
+
+	/**
+	 * @return false if the index was not written and the blocks were found by their headers
+	 */
+	public boolean hasIndex() {
+		return hasIndex;
+	}
+
+	public int getBlockCount() {
+		return mBlockCount;
+	}
+
+	public long getBlockFirstTime(int block) {
+		return mBlockFirstTimes[block];
+	}
+
+	public long getBlockLastTime(int block) {
+		return mBlockLastTimes[block];
+	}
+
+	public long getBlockOffset(int block) {
+		return mBlockOffsets[block];
+	}
+
+	/**
+	 * @return the bytes or null if the file ends before
+	 */
+	private ByteBuffer readBytes(long position, int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(BinaryLogWriter.BYTE_ORDER);
+		while (buffer.hasRemaining()) {
+			if (mChannel.read(buffer, position + buffer.position()) < 0) {
+				return null;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static long[] grow(long[] array) {
+		long[] grown = new long[2 * array.length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	/**
+	 * Decompresses the blocks one after another.
+	 */
+	private class BlockInputStream extends InputStream {
+
+		private int mNextBlock;
+		private final int mEndBlock;
+		private final Inflater mInflater = new Inflater(true);
+		private byte[] mCompressed = new byte[0];
+		private byte[] mBlock = new byte[0];
+		private int mPosition = 0;
+		private int mLimit = 0;
+
+		BlockInputStream(int firstBlock, int endBlock) {
+			mNextBlock = firstBlock;
+			mEndBlock = endBlock;
+		}
+
+		@Override
+		public int read() throws IOException {
+			while (mPosition == mLimit) {
+				if (!readBlock()) {
+					return -1;
+				}
+			}
+			return mBlock[mPosition++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (mPosition == mLimit) {
+				if (!readBlock()) {
+					return -1;
+				}
+			}
+			int count = Math.min(len, mLimit - mPosition);
+			System.arraycopy(mBlock, mPosition, b, off, count);
+			mPosition += count;
+			return count;
+		}
+
+		@Override
+		public void close() {
+			mInflater.end();
+		}
+
+		/**
+		 * @return false after the last block
+		 */
+		private boolean readBlock() throws IOException {
+			if (mNextBlock >= mEndBlock) {
+				mInflater.end();
+				return false;
+			}
+			long offset = mBlockOffsets[mNextBlock++];
+			ByteBuffer blockHeader = readBytes(offset, SegmentedLogWriter.BLOCK_HEADER_SIZE);
+			if (blockHeader == null) {
+				throw new EOFException("Probe log segment ends within a block.");
+			}
+			int compressedSize = blockHeader.getInt();
+			int blockSize = blockHeader.getInt();
+
+			if (mCompressed.length < compressedSize) {
+				mCompressed = new byte[compressedSize];
+			}
+			if (mBlock.length < blockSize) {
+				mBlock = new byte[blockSize];
+			}
+			ByteBuffer compressed = ByteBuffer.wrap(mCompressed, 0, compressedSize);
+			long position = offset + SegmentedLogWriter.BLOCK_HEADER_SIZE;
+			while (compressed.hasRemaining()) {
+				if (mChannel.read(compressed, position + compressed.position()) < 0) {
+					throw new EOFException("Probe log segment ends within a block.");
+				}
+			}
+
+			mInflater.reset();
+			mInflater.setInput(mCompressed, 0, compressedSize);
+			try {
+				int size = 0;
+				while (size < blockSize && !mInflater.finished()) {
+					int inflated = mInflater.inflate(mBlock, size, blockSize - size);
+					if (inflated == 0 && (mInflater.needsInput() || mInflater.needsDictionary())) {
+						break;
+					}
+					size += inflated;
+				}
+				if (size != blockSize) {
+					throw new IOException("Corrupt block in probe log segment at offset " + offset + ".");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt block in probe log segment at offset " + offset + ": "
+						+ e.getMessage());
+			}
+			mPosition = 0;
+			mLimit = blockSize;
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+/**
+ * Appends float and double values to a StringBuilder without creating
+ * objects, in the format of Float.toString and Double.toString (e.g. "9.81",
+ * "-0.5899929", "60.0").
+ *
+ * The shortest number of decimal places that parses back to the same value
+ * is searched with exact double arithmetic: a candidate n / 10^k is accepted
+ * if the division, which is correctly rounded like the parser, gives the
+ * value again. Values outside of 10^-3 <= |value| < 10^7 (scientific notation
+ * of Java), infinite, NaN and doubles that need more than 2^53 as digits are
+ * appended by the StringBuilder (which allocates).
+ */
+public final class NumberFormatter {
+
+	private static final double MIN_DECIMAL = 1e-3;
+	private static final double MAX_DECIMAL = 1e7;
+	/** largest integer with all smaller integers exact as double */
+	private static final double MAX_EXACT = 9007199254740992.0; // 2^53
+
+	private static final int FLOAT_DIGITS = 9;
+	private static final int DOUBLE_DIGITS = 17;
+
+	private static final int MAX_DECIMAL_PLACES = 18;
+	private static final double[] POWERS_OF_TEN = new double[MAX_DECIMAL_PLACES + 1];
+	private static final long[] LONG_POWERS_OF_TEN = new long[19];
+
+	static {
+		double power = 1.0;
+		for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = power;
+			power *= 10.0;
+		}
+		long longPower = 1;
+		for (int i = 0; i < LONG_POWERS_OF_TEN.length; i++) {
+			LONG_POWERS_OF_TEN[i] = longPower;
+			longPower *= 10;
+		}
+	}
+
+	private NumberFormatter() {
+	}
+
+	/**
+	 * Appends the shortest decimal that parses back to the value (with Float.parseFloat).
+	 *
+	 * @param sb
+	 * @param value
+	 * @return the StringBuilder
+	 */
+	public static StringBuilder appendFloat(StringBuilder sb, float value) {
+		if (value == 0.0f) {
+			return sb.append(value);
+		}
+		double absolute = Math.abs((double) value);
+		if (!(absolute >= MIN_DECIMAL && absolute < MAX_DECIMAL)) {
+			return sb.append(value);
+		}
+
+		// 9 significant digits are always enough for a float
+		int maxDecimalPlaces = FLOAT_DIGITS - 1 - exponent(absolute);
+		int decimalPlaces = -1;
+		int low = 0;
+		int high = maxDecimalPlaces;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (isFloatDecimal(absolute, middle)) {
+				decimalPlaces = middle;
+				high = middle - 1;
+			} else {
+				low = middle + 1;
+			}
+		}
+		if (decimalPlaces < 0) {
+			return sb.append(value);
+		}
+		return appendDecimal(sb, value < 0, round(absolute * POWERS_OF_TEN[decimalPlaces]), decimalPlaces);
+	}
+
+	/**
+	 * Appends the shortest decimal that parses back to the value (with
+	 * Double.parseDouble) or the result of Double.toString if the decimal has
+	 * more than about 16 significant digits.
+	 *
+	 * @param sb
+	 * @param value
+	 * @return the StringBuilder
+	 */
+	public static StringBuilder appendDouble(StringBuilder sb, double value) {
+		if (value == 0.0) {
+			return sb.append(value);
+		}
+		double absolute = Math.abs(value);
+		if (!(absolute >= MIN_DECIMAL && absolute < MAX_DECIMAL)) {
+			return sb.append(value);
+		}
+
+		// 17 significant digits are always enough for a double, but only up to 2^53 is exact
+		int maxDecimalPlaces = Math.min(DOUBLE_DIGITS - 1 - exponent(absolute), MAX_DECIMAL_PLACES);
+		while (absolute * POWERS_OF_TEN[maxDecimalPlaces] >= MAX_EXACT) {
+			maxDecimalPlaces--;
+		}
+		int decimalPlaces = -1;
+		int low = 0;
+		int high = maxDecimalPlaces;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (isDoubleDecimal(absolute, middle)) {
+				decimalPlaces = middle;
+				high = middle - 1;
+			} else {
+				low = middle + 1;
+			}
+		}
+		if (decimalPlaces < 0) {
+			return sb.append(value);
+		}
+		return appendDecimal(sb, value < 0, round(absolute * POWERS_OF_TEN[decimalPlaces]), decimalPlaces);
+	}
+
+	/**
+	 * If the value can be written with a number of decimal places, it can
+	 * also be written with more, so the fewest decimal places are searched
+	 * with a binary search.
+	 * 
+	 * @return true if the value rounded to the decimal places parses back to the float
+	 */
+	private static boolean isFloatDecimal(double absolute, int decimalPlaces) {
+		double power = POWERS_OF_TEN[decimalPlaces];
+		// the float is exact as double, the product is rounded once
+		double parsed = round(absolute * power) / power;
+		return (float) parsed == (float) absolute && !isFloatMidpoint(parsed);
+	}
+
+	/**
+	 * @return true if the value rounded to the decimal places parses back to the double
+	 */
+	private static boolean isDoubleDecimal(double absolute, int decimalPlaces) {
+		double power = POWERS_OF_TEN[decimalPlaces];
+		// both operands are exact, the quotient is the parsed value of the decimal
+		return round(absolute * power) / power == absolute;
+	}
+
+	/**
+	 * @return the decimal exponent, e.g. 0 for 1 <= value < 10 and -3 for 0.001 <= value < 0.01
+	 */
+	private static int exponent(double absolute) {
+		int exponent = 6;
+		while (absolute < POWERS_OF_TEN[exponent + 3] * MIN_DECIMAL) {
+			exponent--;
+		}
+		return exponent;
+	}
+
+	/**
+	 * Rounds half to even like Float.toString and Double.toString if the
+	 * value is exactly between two decimals.
+	 */
+	private static long round(double scaled) {
+		long digits = (long) scaled;
+		double remainder = scaled - digits;
+		if (remainder > 0.5 || (remainder == 0.5 && (digits & 1) != 0)) {
+			digits++;
+		}
+		return digits;
+	}
+
+	/**
+	 * A decimal that is rounded to a double exactly between two floats may
+	 * be rounded to the other float by Float.parseFloat, which rounds the
+	 * decimal only once.
+	 */
+	private static boolean isFloatMidpoint(double value) {
+		// the 29 bits of the double mantissa that are not in the float mantissa
+		return (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L;
+	}
+
+	/**
+	 * Appends digits / 10^decimalPlaces with at least one decimal place.
+	 */
+	private static StringBuilder appendDecimal(StringBuilder sb, boolean isNegative, long digits,
+			int decimalPlaces) {
+		if (isNegative) {
+			sb.append('-');
+		}
+		if (decimalPlaces == 0) {
+			return sb.append(digits).append(".0");
+		}
+		long divisor = LONG_POWERS_OF_TEN[decimalPlaces];
+		long fraction = digits % divisor;
+		sb.append(digits / divisor).append('.');
+		// leading zeros of the fraction
+		for (int i = decimalPlaces - 1; i > 0 && fraction < LONG_POWERS_OF_TEN[i]; i--) {
+			sb.append('0');
+		}
+		return sb.append(fraction);
+	}
+
+}
@@ -0,0 +1,671 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.teco.context.configuration.FrameworkContext;
+
+/**
+ * Parses a text probe log (see {@link DataParser}) on several threads into
+ * primitive columns per sensor, e.g. to analyze logs of the devices on a
+ * server.
+ *
+ * The file is split into chunks that start and end at line breaks, every
+ * chunk is read with positional reads of the file channel and parsed from the
+ * UTF-8 bytes by its own task. The chunks are joined in the order of the file,
+ * so the columns are the same as if the lines were parsed one after another
+ * with {@link DataParser#parseLine(String)}: numbers are parsed exactly
+ * (correctly rounded like Float.parseFloat and Double.parseDouble) and fields
+ * that are not plain decimal numbers are parsed by the same methods as in
+ * DataParser. Lines end at "\n", "\r\n" or "\r" like for BufferedReader.
+ * Compressed logs (.gz) cannot be split and are not supported.
+ *
+ * Usage: ParallelLogParser ProbeLog.txt [threads]
+ */
+public class ParallelLogParser {
+
+	private static final byte SEPARATOR = ';';
+	private static final byte COMMENT_TOKEN = '%';
+
+	private static final int MIN_USER_CHUNK_SIZE = 64 << 10;
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+	private static final int MAX_CHUNK_SIZE = 64 << 20;
+	private static final int SCAN_SIZE = 8192;
+
+	/** largest mantissa that is exactly representable as double */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final int mThreadCount;
+	private final int mChunkSize;
+
+	/**
+	 * Parses with one thread per processor.
+	 */
+	public ParallelLogParser() {
+		this(Runtime.getRuntime().availableProcessors(), 0);
+	}
+
+	/**
+	 * @param threadCount number of parser threads
+	 * @param chunkSize size of the chunks in bytes (at least 64 KB), 0 to split
+	 *            the file into about four chunks per thread (at least 1 MB)
+	 */
+	public ParallelLogParser(int threadCount, int chunkSize) {
+		mThreadCount = Math.max(1, threadCount);
+		mChunkSize = (chunkSize > 0) ? Math.max(MIN_USER_CHUNK_SIZE, chunkSize) : 0;
+	}
+
+	/**
+	 * Parses all lines of the log.
+	 *
+	 * @param file a text probe log
+	 * @return the sensor events per sensor
+	 * @throws IOException
+	 */
+	public ProbeLogColumns parse(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		ExecutorService executor = Executors.newFixedThreadPool(mThreadCount);
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			long size = channel.size();
+			long chunkSize = mChunkSize;
+			if (chunkSize <= 0) {
+				chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size / (4 * mThreadCount) + 1));
+			}
+
+			List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+			for (long start = 0; start < size; start += chunkSize) {
+				futures.add(executor.submit(new Chunk(channel, start, Math.min(size, start + chunkSize), size)));
+			}
+
+			List<Chunk> chunks = new ArrayList<Chunk>(futures.size());
+			for (Future<Chunk> future : futures) {
+				chunks.add(future.get());
+			}
+			return join(chunks);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing " + file.getName() + ".");
+		} finally {
+			executor.shutdownNow();
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Joins the columns of the chunks in the order of the file.
+	 */
+	private static ProbeLogColumns join(List<Chunk> chunks) {
+		ProbeLogColumns result = new ProbeLogColumns();
+		List<String> contextLabels = result.getContextLabels();
+		List<String> parameters = result.getParameters();
+		List<String> sensorKeys = new ArrayList<String>();
+		List<int[]> sizes = new ArrayList<int[]>();
+		long skippedLineCount = 0;
+
+		// ids of the chunks to ids of the result, in the order of the first lines
+		int[][] contextLabelIds = new int[chunks.size()][];
+		int[][] parameterIds = new int[chunks.size()][];
+		Map<String, Integer> contextLabelMap = new HashMap<String, Integer>();
+		Map<String, Integer> parameterMap = new HashMap<String, Integer>();
+		for (int c = 0; c < chunks.size(); c++) {
+			Chunk chunk = chunks.get(c);
+			contextLabelIds[c] = mapIds(chunk.mContextLabels.getStrings(), contextLabels, contextLabelMap);
+			parameterIds[c] = mapIds(chunk.mParameters.getStrings(), parameters, parameterMap);
+			for (SensorColumns columns : chunk.mSensorColumns) {
+				int index = sensorKeys.indexOf(columns.getSensorKey());
+				if (index < 0) {
+					sensorKeys.add(columns.getSensorKey());
+					sizes.add(new int[2]);
+					index = sensorKeys.size() - 1;
+				}
+				sizes.get(index)[0] += columns.getRowCount();
+				sizes.get(index)[1] += columns.getValueTotal();
+			}
+			skippedLineCount += chunk.mSkippedLineCount;
+		}
+
+		for (int i = 0; i < sensorKeys.size(); i++) {
+			String sensorKey = sensorKeys.get(i);
+			SensorColumns joined = new SensorColumns(sensorKey, sizes.get(i)[0], sizes.get(i)[1]);
+			for (int c = 0; c < chunks.size(); c++) {
+				for (SensorColumns columns : chunks.get(c).mSensorColumns) {
+					if (columns.getSensorKey().equals(sensorKey)) {
+						joined.addRows(columns, contextLabelIds[c], parameterIds[c]);
+					}
+				}
+			}
+			result.addSensorColumns(joined);
+		}
+		result.setSkippedLineCount(skippedLineCount);
+		return result;
+	}
+
+	private static int[] mapIds(List<String> strings, List<String> joinedStrings, Map<String, Integer> joinedIds) {
+		int[] ids = new int[strings.size()];
+		for (int i = 0; i < ids.length; i++) {
+			Integer id = joinedIds.get(strings.get(i));
+			if (id == null) {
+				id = joinedStrings.size();
+				joinedStrings.add(strings.get(i));
+				joinedIds.put(strings.get(i), id);
+			}
+			ids[i] = id.intValue();
+		}
+		return ids;
+	}
+
+	/**
+	 * Reads and parses the lines that start within a byte range of the file.
+	 */
+	private static class Chunk implements Callable<Chunk> {
+
+		private final FileChannel mChannel;
+		private final long mStart;
+		private final long mEnd;
+		private final long mFileSize;
+
+		private final List<SensorColumns> mSensorColumns = new ArrayList<SensorColumns>();
+		private final StringDictionary mSensorKeys = new StringDictionary();
+		private final StringDictionary mContextLabels = new StringDictionary();
+		private final StringDictionary mParameters = new StringDictionary();
+		private long mSkippedLineCount = 0;
+
+		private byte[] mBytes;
+		/** file position of the first byte */
+		private long mBytesPosition;
+		private float[] mValues = new float[8];
+		// fields of the current line
+		private long mLong;
+		private double mDouble;
+		private float mFloat;
+
+		Chunk(FileChannel channel, long start, long end, long fileSize) {
+			mChannel = channel;
+			mStart = start;
+			mEnd = end;
+			mFileSize = fileSize;
+		}
+
+		public Chunk call() throws IOException {
+			// the line that starts before the chunk belongs to the previous chunk
+			long start = (mStart == 0) ? 0 : findLineStart(mStart);
+			if (start >= mEnd) {
+				return this;
+			}
+			int length = readLines(start);
+
+			int position = 0;
+			while (position < length) {
+				int lineEnd = position;
+				while (lineEnd < length && mBytes[lineEnd] != '\n' && mBytes[lineEnd] != '\r') {
+					lineEnd++;
+				}
+				parseLine(position, lineEnd);
+				position = lineEnd + 1;
+				if (lineEnd + 1 < length && mBytes[lineEnd] == '\r' && mBytes[lineEnd + 1] == '\n') {
+					position++;
+				}
+			}
+			mBytes = null;
+			return this;
+		}
+
+		/**
+		 * @return position after the next line break at or after position - 1
+		 */
+		private long findLineStart(long position) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+			long scanPosition = position - 1;
+			while (scanPosition < mFileSize) {
+				buffer.clear();
+				int read = mChannel.read(buffer, scanPosition);
+				if (read <= 0) {
+					break;
+				}
+				for (int i = 0; i < read; i++) {
+					if (buffer.get(i) == '\n') {
+						return scanPosition + i + 1;
+					}
+				}
+				scanPosition += read;
+			}
+			return mFileSize;
+		}
+
+		/**
+		 * Reads from the start to the end of the chunk and on to the end of the last line.
+		 *
+		 * @return number of bytes read
+		 */
+		private int readLines(long start) throws IOException {
+			int length = (int) (mEnd - start);
+			mBytes = new byte[length + SCAN_SIZE];
+			mBytesPosition = start;
+			readFully(start, length);
+
+			while (start + length < mFileSize && mBytes[length - 1] != '\n') {
+				if (length + SCAN_SIZE > mBytes.length) {
+					byte[] bytes = new byte[2 * mBytes.length];
+					System.arraycopy(mBytes, 0, bytes, 0, length);
+					mBytes = bytes;
+				}
+				int read = (int) Math.min(SCAN_SIZE, mFileSize - start - length);
+				readFully(start + length, read);
+				// up to the first line break
+				int end = length;
+				while (end < length + read && mBytes[end] != '\n') {
+					end++;
+				}
+				length = (end < length + read) ? end + 1 : length + read;
+			}
+			return length;
+		}
+
+		private void readFully(long position, int length) throws IOException {
+			int offset = (int) (position - mBytesPosition);
+			ByteBuffer buffer = ByteBuffer.wrap(mBytes, offset, length);
+			while (buffer.hasRemaining()) {
+				if (mChannel.read(buffer, mBytesPosition + buffer.position()) < 0) {
+					throw new IOException("Probe log ends unexpectedly.");
+				}
+			}
+		}
+
+		/**
+		 * Parses one line like {@link DataParser#parseLine(String)}.
+		 */
+		private void parseLine(int start, int end) throws UnsupportedEncodingException {
+			if (start == end || mBytes[start] == COMMENT_TOKEN) {
+				return;
+			}
+
+			int sensorKeyEnd = indexOfSeparator(start, end);
+			if (sensorKeyEnd < 0) {
+				skip();
+				return;
+			}
+
+			int fieldEnd = indexOfSeparator(sensorKeyEnd + 1, end);
+			if (fieldEnd < 0 || !parseLong(sensorKeyEnd + 1, fieldEnd)) {
+				skip();
+				return;
+			}
+			long systemTime = mLong;
+
+			int contextLabelStart = fieldEnd + 1;
+			int contextLabelEnd = indexOfSeparator(contextLabelStart, end);
+			if (contextLabelEnd < 0) {
+				skip();
+				return;
+			}
+
+			fieldEnd = indexOfSeparator(contextLabelEnd + 1, end);
+			if (fieldEnd < 0 || !parseLong(contextLabelEnd + 1, fieldEnd)) {
+				skip();
+				return;
+			}
+			long timestamp = mLong;
+
+			int fieldStart = fieldEnd + 1;
+			fieldEnd = indexOfSeparator(fieldStart, end);
+			if (fieldEnd < 0 || !parseDouble(fieldStart, fieldEnd)) {
+				skip();
+				return;
+			}
+			double latitude = mDouble;
+
+			fieldStart = fieldEnd + 1;
+			fieldEnd = indexOfSeparator(fieldStart, end);
+			if (fieldEnd < 0 || !parseDouble(fieldStart, fieldEnd)) {
+				skip();
+				return;
+			}
+			double longitude = mDouble;
+
+			// sensor values up to an optional parameter that is not a number
+			int valueCount = 0;
+			int parameterStart = -1;
+			int parameterEnd = -1;
+			while (fieldEnd >= 0) {
+				fieldStart = fieldEnd + 1;
+				fieldEnd = indexOfSeparator(fieldStart, end);
+				int valueEnd = (fieldEnd < 0) ? end : fieldEnd;
+				if (!parseValue(fieldStart, valueEnd)) {
+					parameterStart = fieldStart;
+					parameterEnd = valueEnd;
+					break;
+				}
+				if (valueCount == mValues.length) {
+					float[] values = new float[2 * mValues.length];
+					System.arraycopy(mValues, 0, values, 0, valueCount);
+					mValues = values;
+				}
+				mValues[valueCount++] = mFloat;
+			}
+			if (valueCount == 0) {
+				skip();
+				return;
+			}
+
+			// the strings are only added for valid lines, so they are in the order of the events
+			int sensorId = mSensorKeys.getId(mBytes, start, sensorKeyEnd);
+			if (sensorId == mSensorColumns.size()) {
+				mSensorColumns.add(new SensorColumns(mSensorKeys.getStrings().get(sensorId), 64, 64 * valueCount));
+			}
+			int contextLabelId = mContextLabels.getId(mBytes, contextLabelStart, contextLabelEnd);
+			int parameterId = (parameterStart < 0) ? -1 : mParameters.getId(mBytes, parameterStart, parameterEnd);
+			mSensorColumns.get(sensorId).addRow(systemTime, timestamp, contextLabelId, latitude, longitude,
+					parameterId, mValues, valueCount);
+		}
+
+		private void skip() {
+			mSkippedLineCount++;
+		}
+
+		private int indexOfSeparator(int start, int end) {
+			for (int i = start; i < end; i++) {
+				if (mBytes[i] == SEPARATOR) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Parses the field like Long.parseLong into mLong.
+		 *
+		 * @return false if it is not a number
+		 */
+		private boolean parseLong(int start, int end) throws UnsupportedEncodingException {
+			int position = start;
+			boolean isNegative = position < end && mBytes[position] == '-';
+			if (isNegative) {
+				position++;
+			}
+			if (position < end && end - position <= 18) {
+				long value = 0;
+				while (position < end && mBytes[position] >= '0' && mBytes[position] <= '9') {
+					value = 10 * value + (mBytes[position] - '0');
+					position++;
+				}
+				if (position == end) {
+					mLong = isNegative ? -value : value;
+					return true;
+				}
+			}
+
+			// long numbers, plus signs and invalid numbers
+			try {
+				mLong = Long.parseLong(new String(mBytes, start, end - start, "UTF-8"));
+				return true;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Parses the field like Double.parseDouble into mDouble.
+		 *
+		 * @return false if it is not a number
+		 */
+		private boolean parseDouble(int start, int end) throws UnsupportedEncodingException {
+			if (parseDecimal(start, end)) {
+				return true;
+			}
+			try {
+				mDouble = Double.parseDouble(new String(mBytes, start, end - start, "UTF-8"));
+				return true;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Parses a sensor value like DataParser into mFloat.
+		 *
+		 * @return false if the field is a parameter
+		 */
+		private boolean parseValue(int start, int end) throws UnsupportedEncodingException {
+			if (parseDecimal(start, end)) {
+				double value = mDouble;
+				mFloat = (float) value;
+				// a double between two floats is rounded again and may differ from Float.parseFloat
+				if (!isFloatMidpoint(value)) {
+					return true;
+				}
+			}
+
+			String field = new String(mBytes, start, end - start, "UTF-8");
+			float value;
+			try {
+				value = isNumberStart(field) ? Float.parseFloat(field) : Float.NaN;
+			} catch (NumberFormatException e) {
+				value = Float.NaN;
+			}
+			if (Float.isNaN(value) && !field.equals("NaN")) {
+				return false;
+			}
+			mFloat = value;
+			return true;
+		}
+
+		/**
+		 * Parses a plain decimal number ([-+]digits[.digits][e[-+]digits]) into
+		 * mDouble if the result is correctly rounded.
+		 *
+		 * @return false for other numbers, e.g. long mantissas, large exponents, NaN or white space
+		 */
+		private boolean parseDecimal(int start, int end) {
+			byte[] bytes = mBytes;
+			int position = start;
+			boolean isNegative = false;
+			if (position < end && (bytes[position] == '-' || bytes[position] == '+')) {
+				isNegative = bytes[position] == '-';
+				position++;
+			}
+
+			long mantissa = 0;
+			int digits = 0;
+			int exponent = 0;
+			boolean hasDigits = false;
+			while (position < end && bytes[position] >= '0' && bytes[position] <= '9') {
+				hasDigits = true;
+				if ((mantissa != 0 || bytes[position] != '0') && ++digits > 18) {
+					return false;
+				}
+				mantissa = 10 * mantissa + (bytes[position] - '0');
+				position++;
+			}
+			if (position < end && bytes[position] == '.') {
+				position++;
+				while (position < end && bytes[position] >= '0' && bytes[position] <= '9') {
+					hasDigits = true;
+					if ((mantissa != 0 || bytes[position] != '0') && ++digits > 18) {
+						return false;
+					}
+					mantissa = 10 * mantissa + (bytes[position] - '0');
+					exponent--;
+					position++;
+				}
+			}
+			if (!hasDigits) {
+				return false;
+			}
+			if (position < end && (bytes[position] == 'e' || bytes[position] == 'E')) {
+				position++;
+				boolean isNegativeExponent = false;
+				if (position < end && (bytes[position] == '-' || bytes[position] == '+')) {
+					isNegativeExponent = bytes[position] == '-';
+					position++;
+				}
+				int exponentStart = position;
+				int explicitExponent = 0;
+				while (position < end && bytes[position] >= '0' && bytes[position] <= '9' && explicitExponent < 10000) {
+					explicitExponent = 10 * explicitExponent + (bytes[position] - '0');
+					position++;
+				}
+				if (position == exponentStart) {
+					return false;
+				}
+				exponent += isNegativeExponent ? -explicitExponent : explicitExponent;
+			}
+			if (position != end || mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+				return false;
+			}
+
+			// mantissa and power of ten are exact, so the result is correctly rounded
+			double value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+			mDouble = isNegative ? -value : value;
+			return true;
+		}
+	}
+
+	private static boolean isFloatMidpoint(double value) {
+		// the 29 bits of the double mantissa that are not in the float mantissa
+		return (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L;
+	}
+
+	private static boolean isNumberStart(String field) {
+		if (field.length() == 0) {
+			return false;
+		}
+		char c = field.charAt(0);
+		return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'N' || c == 'I';
+	}
+
+	/**
+	 * Ids of the strings of a chunk, looked up by their UTF-8 bytes.
+	 */
+	private static class StringDictionary {
+
+		private final List<byte[]> mBytes = new ArrayList<byte[]>();
+		private final List<String> mStrings = new ArrayList<String>();
+		private int[] mTable = new int[64];
+		private int[] mHashes = new int[64];
+
+		/**
+		 * @return the id of the string, a new string gets the next id
+		 */
+		int getId(byte[] bytes, int start, int end) throws UnsupportedEncodingException {
+			int hash = 1;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + bytes[i];
+			}
+			int mask = mTable.length - 1;
+			int slot = hash & mask;
+			while (mTable[slot] != 0) {
+				int id = mTable[slot] - 1;
+				if (mHashes[slot] == hash && equals(mBytes.get(id), bytes, start, end)) {
+					return id;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			byte[] copy = new byte[end - start];
+			System.arraycopy(bytes, start, copy, 0, copy.length);
+			mBytes.add(copy);
+			mStrings.add(new String(copy, "UTF-8"));
+			mTable[slot] = mBytes.size();
+			mHashes[slot] = hash;
+			if (2 * mBytes.size() > mTable.length) {
+				rehash();
+			}
+			return mBytes.size() - 1;
+		}
+
+		List<String> getStrings() {
+			return mStrings;
+		}
+
+		private void rehash() {
+			int[] table = new int[2 * mTable.length];
+			int[] hashes = new int[table.length];
+			int mask = table.length - 1;
+			for (int i = 0; i < mTable.length; i++) {
+				if (mTable[i] != 0) {
+					int slot = mHashes[i] & mask;
+					while (table[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					table[slot] = mTable[i];
+					hashes[slot] = mHashes[i];
+				}
+			}
+			mTable = table;
+			mHashes = hashes;
+		}
+
+		private static boolean equals(byte[] string, byte[] bytes, int start, int end) {
+			if (string.length != end - start) {
+				return false;
+			}
+			for (int i = 0; i < string.length; i++) {
+				if (string[i] != bytes[start + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: ParallelLogParser ProbeLog.txt [threads]");
+			System.exit(1);
+		}
+		// android.util.Log is not available on the desktop
+		FrameworkContext.INFO = false;
+		FrameworkContext.WARN = false;
+		FrameworkContext.ERROR = false;
+
+		int threadCount = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		File file = new File(args[0]);
+		long startTime = System.nanoTime();
+		ProbeLogColumns columns = new ParallelLogParser(threadCount, 0).parse(file);
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+
+		for (String sensorKey : columns.getSensorKeys()) {
+			System.out.println(sensorKey + ": " + columns.getSensorColumns(sensorKey).getRowCount() + " events");
+		}
+		System.out.println("Parsed " + columns.getRowCount() + " sensor events (" + file.length() / (1024 * 1024)
+				+ " MB) with " + threadCount + " threads in " + seconds + " s, skipped "
+				+ columns.getSkippedLineCount() + " invalid lines.");
+	}
+
+}
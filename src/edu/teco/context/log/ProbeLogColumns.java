@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sensor events of a text probe log as columns per sensor (see
+ * {@link ParallelLogParser}). Sensors, context labels and parameters are in
+ * the order of their first line in the log.
+ */
+public class ProbeLogColumns {
+
+	private final Map<String, SensorColumns> mSensorColumns = new LinkedHashMap<String, SensorColumns>();
+	private final List<String> mContextLabels = new ArrayList<String>();
+	private final List<String> mParameters = new ArrayList<String>();
+	private long mSkippedLineCount = 0;
+
+	void addSensorColumns(SensorColumns columns) {
+		mSensorColumns.put(columns.getSensorKey(), columns);
+	}
+
+	void setSkippedLineCount(long skippedLineCount) {
+		mSkippedLineCount = skippedLineCount;
+	}
+
+	public List<String> getSensorKeys() {
+		return new ArrayList<String>(mSensorColumns.keySet());
+	}
+
+	/**
+	 * @param sensorKey
+	 * @return the columns or null if the log has no events of the sensor
+	 */
+	public SensorColumns getSensorColumns(String sensorKey) {
+		return mSensorColumns.get(sensorKey);
+	}
+
+	/**
+	 * @return the context labels of the context label ids
+	 */
+	public List<String> getContextLabels() {
+		return mContextLabels;
+	}
+
+	/**
+	 * @return the parameters of the parameter ids
+	 */
+	public List<String> getParameters() {
+		return mParameters;
+	}
+
+	/**
+	 * @return number of sensor events of all sensors
+	 */
+	public long getRowCount() {
+		long rowCount = 0;
+		for (SensorColumns columns : mSensorColumns.values()) {
+			rowCount += columns.getRowCount();
+		}
+		return rowCount;
+	}
+
+	/**
+	 * @return number of lines that are neither sensor events, comments nor empty
+	 */
+	public long getSkippedLineCount() {
+		return mSkippedLineCount;
+	}
+
+}
@@ -0,0 +1,324 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
+
+import edu.teco.context.configuration.ConfigurationMetaData;
+import edu.teco.context.configuration.FrameworkConfiguration;
+import edu.teco.context.configuration.FrameworkContext;
+import edu.teco.context.probe.ISensorFrameListener;
+import edu.teco.context.probe.SensorFrame;
+import edu.teco.context.probe.SensorFrameEvent;
+
+/**
+ * Replays probe log files (see {@link DataLogger}) through the same sample
+ * windows and feature calculation as the framework on the phone, as fast as
+ * the lines can be read (no real time pacing). It runs on a plain JVM, e.g.
+ * to create training data for a new feature configuration from archived logs.
+ * 
+ * The time between two sensor events is taken from the event timestamps like
+ * in the FrameworkManager. The sample window is started again (like stopping
+ * and starting a recording on the phone) if the context label changes, at the
+ * beginning of every file and if the timestamps jump back or by more than one
+ * sample window. Sensors that are not in the configuration are skipped,
+ * location features are not replayed.
+ * 
+ * Text logs, binary logs (.bin, see {@link BinaryLogWriter}) and compressed
+ * log segments (.binz, see {@link SegmentedLogWriter}) are replayed.
+ * 
+ * Usage: ProbeLogReplay configuration.arff output.arff ProbeLog.txt [ProbeLog.bin ProbeLog_000.binz ProbeLog.txt.gz ...]
+ * 
+ * The configuration is read from the meta data of an ARFF file written by the
+ * framework (only the meta data is needed).
+ */
+public class ProbeLogReplay implements ISensorFrameListener {
+
+	public interface ReplayListener {
+		/**
+		 * @param features the feature vector of one sample window (in the order of the attributes)
+		 * @param contextLabel the context label of the last sensor event of the window
+		 */
+		void onFeaturesCalculated(double[] features, String contextLabel);
+	}
+
+	private final FrameworkConfiguration mConfiguration;
+	private final SensorFrame mSensorFrame;
+	private final DataParser mParser = new DataParser();
+
+	private List<ReplayListener> mListeners = new ArrayList<ReplayListener>();
+
+	private String mCurrentContextLabel = null;
+	/** timestamp of the previous sensor event in seconds */
+	private double mPreviousSeconds = 0.0;
+
+	private long mSampleCount = 0;
+	private long mSkippedLineCount = 0;
+	private long mWindowCount = 0;
+
+	/**
+	 * @param configuration sample window, overlap and the features of the sensors
+	 */
+	public ProbeLogReplay(FrameworkConfiguration configuration) {
+		mConfiguration = configuration;
+
+		mSensorFrame = new SensorFrame(configuration.getSampleWindow(), configuration.getOverlap());
+		for (Entry<String, String[]> sensorFeatures : configuration.getSensorFeaturesSet()) {
+			mSensorFrame.addSensor(sensorFeatures.getKey(), sensorFeatures.getValue(),
+					configuration.getSlidingDFTMaxFrequency(sensorFeatures.getKey()));
+		}
+		mSensorFrame.addSensorFrameListener(this);
+		mSensorFrame.setActive(true);
+	}
+
+	/**
+	 * Replays a probe log file, files ending with .gz are decompressed,
+	 * files ending with .bin (or .bin.gz) are read as binary log and files
+	 * ending with .binz as log segment.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void replay(File file) throws IOException {
+		String name = file.getName();
+		if (name.endsWith(SegmentedLogWriter.EXTENSION)) {
+			LogSegment segment = new LogSegment(file);
+			try {
+				replay(segment.createReader());
+			} finally {
+				segment.close();
+			}
+			return;
+		}
+		InputStream input = new FileInputStream(file);
+		if (name.endsWith(".gz")) {
+			input = new GZIPInputStream(input, 1 << 16);
+			name = name.substring(0, name.length() - 3);
+		}
+		if (name.endsWith(".bin")) {
+			try {
+				replay(new BinaryLogReader(input));
+			} finally {
+				input.close();
+			}
+			return;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"), 1 << 20);
+		try {
+			replay(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Replays all lines of the reader as one recording.
+	 * 
+	 * @param reader
+	 * @throws IOException
+	 */
+	public void replay(BufferedReader reader) throws IOException {
+		reset();
+		String line = null;
+		while ((line = reader.readLine()) != null) {
+			putLine(line);
+		}
+	}
+
+	/**
+	 * Replays all sensor events of a binary log as one recording.
+	 * 
+	 * @param reader
+	 * @throws IOException
+	 */
+	public void replay(BinaryLogReader reader) throws IOException {
+		reset();
+		while (reader.next()) {
+			if (reader.isSensorEvent()) {
+				putSensorValues(reader.getSensorKey(), reader.getContextLabel(), reader.getTimestamp(),
+						reader.getValues());
+			}
+		}
+	}
+
+	/**
+	 * Replays one line of a probe log file.
+	 * 
+	 * @param line
+	 */
+	public void putLine(String line) {
+		if (!mParser.parseLine(line)) {
+			if (line.length() > 0 && !line.startsWith("%")) {
+				mSkippedLineCount++;
+			}
+			return;
+		}
+
+		putSensorValues(mParser.getSensorKey(), mParser.getContextLabel(), mParser.getTimestamp(),
+				mParser.getValues());
+	}
+
+	/**
+	 * Replays one sensor event.
+	 * 
+	 * @param sensorKey
+	 * @param contextLabel
+	 * @param timestamp timestamp of the sensor event in nanoseconds
+	 * @param values
+	 */
+	public void putSensorValues(String sensorKey, String contextLabel, long timestamp, float[] values) {
+		if (!mConfiguration.containsSensorKey(sensorKey)) {
+			return;
+		}
+		mSampleCount++;
+
+		if (!contextLabel.equals(mCurrentContextLabel)) {
+			reset();
+			mCurrentContextLabel = contextLabel;
+		}
+
+		// event timestamp is the time the event happened in nanoseconds
+		double currentSeconds = timestamp / 1000000000.0d;
+
+		if (mPreviousSeconds == 0) {
+			mPreviousSeconds = currentSeconds;
+		}
+
+		double differenceSeconds = currentSeconds - mPreviousSeconds;
+		if (differenceSeconds < 0 || differenceSeconds > mConfiguration.getSampleWindow()) {
+			// new recording
+			reset();
+			differenceSeconds = 0.0;
+		}
+		mPreviousSeconds = currentSeconds;
+
+		mSensorFrame.putSensorValues(sensorKey, values, differenceSeconds);
+	}
+
+	/**
+	 * Starts the sample windows again, the values of the current window are discarded.
+	 */
+	public void reset() {
+		mPreviousSeconds = 0.0;
+		mSensorFrame.reset();
+		mSensorFrame.setActive(true);
+	}
+
+	public void onFeaturesCalculated(SensorFrameEvent event) {
+		mWindowCount++;
+		for (ReplayListener listener : mListeners) {
+			listener.onFeaturesCalculated(event.getFeatureValues(), mCurrentContextLabel);
+		}
+	}
+
+	public void addReplayListener(ReplayListener listener) {
+		if (!mListeners.contains(listener)) {
+			mListeners.add(listener);
+		}
+	}
+
+	public void removeReplayListener(ReplayListener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * @return number of replayed sensor events
+	 */
+	public long getSampleCount() {
+		return mSampleCount;
+	}
+
+	/**
+	 * @return number of lines that could not be parsed
+	 */
+	public long getSkippedLineCount() {
+		return mSkippedLineCount;
+	}
+
+	/**
+	 * @return number of calculated feature vectors
+	 */
+	public long getWindowCount() {
+		return mWindowCount;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: ProbeLogReplay configuration.arff output.arff ProbeLog.txt [ProbeLog.bin ProbeLog_000.binz ProbeLog.txt.gz ...]");
+			System.exit(1);
+		}
+
+		// android.util.Log is not available on the desktop
+		FrameworkContext.VERBOSE = false;
+		FrameworkContext.DEBUG = false;
+		FrameworkContext.INFO = false;
+		FrameworkContext.WARN = false;
+		FrameworkContext.ERROR = false;
+
+		FrameworkConfiguration configuration = FrameworkConfiguration.getInstance();
+		BufferedReader configurationReader = new BufferedReader(new FileReader(args[0]));
+		try {
+			ConfigurationMetaData.readMetaData(configurationReader, configuration);
+		} finally {
+			configurationReader.close();
+		}
+
+		final ArffFeatureWriter arffWriter = new ArffFeatureWriter(new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(args[1]), "UTF-8"), 1 << 16));
+		arffWriter.writeHeader(configuration);
+
+		ProbeLogReplay replay = new ProbeLogReplay(configuration);
+		replay.addReplayListener(new ReplayListener() {
+			public void onFeaturesCalculated(double[] features, String contextLabel) {
+				try {
+					arffWriter.writeFeatures(features, contextLabel);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+
+		long start = System.nanoTime();
+		try {
+			for (int i = 2; i < args.length; i++) {
+				replay.replay(new File(args[i]));
+			}
+		} finally {
+			arffWriter.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println("Replayed " + replay.getSampleCount() + " sensor events in " + seconds + " s ("
+				+ (long) (replay.getSampleCount() / seconds) + " events/s), skipped "
+				+ replay.getSkippedLineCount() + " invalid lines.");
+		System.out.println("Calculated " + replay.getWindowCount() + " sample windows, wrote "
+				+ arffWriter.getInstanceCount() + " instances with a context label of the configuration.");
+	}
+
+}
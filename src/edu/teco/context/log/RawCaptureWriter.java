@@ -0,0 +1,471 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+import edu.teco.context.configuration.FrameworkContext;
+
+/**
+ * Captures raw sensor events with as little work as possible in the sensor
+ * callback, the features are calculated later from the file (see
+ * {@link ProbeLogReplay}).
+ *
+ * Every sensor has its own ring of preallocated primitive arrays (timestamps,
+ * context label ids and values), an event is only copied into the next slot.
+ * No location, parameter or system time is requested per event and no object
+ * is created per event. The events of all sensors are published to the spill
+ * thread together as soon as one ring has a new block of a quarter ring, the
+ * spill thread wakes up once per block and writes all published events in
+ * bulk to the binary log. Once per flush interval the spill thread publishes
+ * the unfinished blocks itself and flushes the binary log, so a killed
+ * process loses at most the events of one interval. While no event is
+ * captured the spill thread sleeps until the next event (see {@link BinaryLogWriter} and
+ * {@link SegmentedLogWriter}), so the file can be replayed, converted and
+ * parsed like every other binary probe log. The rings are merged in the
+ * order of the timestamps, the feature calculation of the replay needs the
+ * events of all sensors in one sequence.
+ *
+ * The system time of an event is derived from its timestamp and the time of
+ * the first event of the sensor. If a ring is full the new events are
+ * dropped, the sensor callbacks are never blocked.
+ */
+public class RawCaptureWriter {
+
+	/** Tag string for debug logs */
+	private static final String TAG = "RawCaptureWriter";
+
+	/**
+	 * The ring of one sensor. The slots from head to published belong to the
+	 * spill thread, all others to the producer.
+	 */
+	private static class SensorRing {
+		final String sensorKey;
+		final int valueCount;
+		final long[] timestamps;
+		final int[] labelIds;
+		final float[] values;
+		final long firstSystemTime;
+		final long firstTimestamp;
+
+		/** sequence number of the next event, only used by the producer */
+		long written = 0;
+		/** sequence number after the last published event, only used by the producer */
+		long published = 0;
+		/** sequence number of the oldest event that was not written, only advanced by the spill thread */
+		volatile long head = 0;
+
+		SensorRing(String sensorKey, int valueCount, int capacity, long firstTimestamp) {
+			this.sensorKey = sensorKey;
+			this.valueCount = valueCount;
+			timestamps = new long[capacity];
+			labelIds = new int[capacity];
+			values = new float[capacity * valueCount];
+			firstSystemTime = System.currentTimeMillis();
+			this.firstTimestamp = firstTimestamp;
+		}
+	}
+
+	private final ILogWriter mTarget;
+	private final int mCapacity;
+	private final int mBlockSize;
+	private final long mFlushIntervalNanos;
+
+	/** replaced (not changed) when a sensor is added, so the spill thread sees complete rings */
+	private volatile SensorRing[] mRings = new SensorRing[0];
+	/**
+	 * sequence numbers after the last event of every ring the spill thread may
+	 * write, replaced for every block so all rings are published at once
+	 */
+	private volatile long[] mPublished = new long[0];
+	/** replaced when a context label is added */
+	private volatile String[] mContextLabels = new String[0];
+	private String mCurrentContextLabel = null;
+	private int mCurrentLabelId = -1;
+
+	private final Thread mSpillThread;
+	private volatile boolean mIsClosed = false;
+	private volatile boolean mIsFlushRequested = false;
+	/** the spill thread sleeps until an event is captured, guarded by this */
+	private boolean mIsSpillIdle = false;
+	private volatile IOException mError = null;
+
+	private long mDroppedCount = 0;
+	private volatile long mRejectedCount = 0;
+
+	/** values of one event for the target and positions of the merge, only used by the spill thread */
+	private float[] mValues = new float[3];
+	private long[] mPositions = new long[0];
+
+	/**
+	 * Starts the spill thread.
+	 *
+	 * @param target the binary log the events are written to (only used by the spill thread)
+	 * @param capacity number of events of every sensor ring
+	 * @param flushInterval time between two flushes of the target in milliseconds
+	 */
+	public RawCaptureWriter(ILogWriter target, int capacity, long flushInterval) {
+		if (capacity < 4) {
+			throw new RuntimeException("RawCaptureWriter capacity must be at least 4");
+		}
+		mTarget = target;
+		mCapacity = capacity;
+		mBlockSize = capacity / 4;
+		mFlushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+
+		mSpillThread = new Thread(new Runnable() {
+
+			public void run() {
+				spillRun();
+			}
+		}, "Raw Capture Writer");
+		mSpillThread.start();
+	}
+
+	// ******************************************************************** //
+	// Producer
+	// ******************************************************************** //
+
+	/**
+	 * Copies a sensor event into the ring of the sensor. The ring is created
+	 * with the number of values of the first event of the sensor, other
+	 * events are cut or filled with 0.
+	 *
+	 * @param sensorKey
+	 * @param contextLabel
+	 * @param timestamp timestamp of the sensor event in nanoseconds
+	 * @param values
+	 * @return false if the event was dropped or the writer is closed
+	 */
+	public synchronized boolean captureSensorValues(String sensorKey, String contextLabel, long timestamp,
+			float[] values) {
+		if (mIsClosed) {
+			return false;
+		}
+		SensorRing ring = getRing(sensorKey, values.length, timestamp);
+		long written = ring.written;
+		if (written - ring.head >= mCapacity) {
+			mDroppedCount++;
+			return false;
+		}
+
+		int slot = (int) (written % mCapacity);
+		ring.timestamps[slot] = timestamp;
+		ring.labelIds[slot] = getLabelId(contextLabel);
+		int valueCount = ring.valueCount;
+		int count = Math.min(values.length, valueCount);
+		int offset = slot * valueCount;
+		System.arraycopy(values, 0, ring.values, offset, count);
+		for (int i = count; i < valueCount; i++) {
+			ring.values[offset + i] = 0.0f;
+		}
+		written++;
+		ring.written = written;
+
+		if (written - ring.published >= mBlockSize) {
+			publishAll();
+			LockSupport.unpark(mSpillThread);
+		} else if (mIsSpillIdle) {
+			// the event is published with the next flush
+			mIsSpillIdle = false;
+			LockSupport.unpark(mSpillThread);
+		}
+		return true;
+	}
+
+	/**
+	 * Publishes all captured events and requests a flush of the target, it is
+	 * done by the spill thread.
+	 */
+	public synchronized void flush() {
+		publishAll();
+		mIsFlushRequested = true;
+		LockSupport.unpark(mSpillThread);
+	}
+
+	/**
+	 * Writes all captured events, closes the target and stops the spill thread.
+	 *
+	 * @throws IOException the first error of the target
+	 */
+	public void close() throws IOException {
+		// the lock is not held while waiting, the spill thread publishes with it
+		synchronized (this) {
+			if (mIsClosed) {
+				return;
+			}
+			publishAll();
+			mIsClosed = true;
+		}
+		LockSupport.unpark(mSpillThread);
+		boolean isInterrupted = false;
+		while (mSpillThread.isAlive()) {
+			try {
+				mSpillThread.join();
+			} catch (InterruptedException e) {
+				isInterrupted = true;
+			}
+		}
+		if (isInterrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		long droppedCount = getDroppedCount();
+		if (droppedCount > 0) {
+			if (FrameworkContext.WARN) Log.w(TAG, droppedCount + " sensor events were dropped because the capture file was written too slowly.");
+		}
+		if (mRejectedCount > 0) {
+			if (FrameworkContext.ERROR) Log.e(TAG, mRejectedCount + " sensor events were rejected by the log writer.");
+		}
+		if (mError != null) {
+			throw mError;
+		}
+	}
+
+	private void publishAll() {
+		SensorRing[] rings = mRings;
+		long[] published = new long[rings.length];
+		for (int i = 0; i < rings.length; i++) {
+			rings[i].published = rings[i].written;
+			published[i] = rings[i].written;
+		}
+		mPublished = published;
+	}
+
+	/**
+	 * Publishes the events of the unfinished blocks, called by the spill
+	 * thread when a flush is due.
+	 *
+	 * @return false if no event was captured since the last publish
+	 */
+	private synchronized boolean publishCaptured() {
+		SensorRing[] rings = mRings;
+		boolean hasEvents = false;
+		for (int i = 0; i < rings.length; i++) {
+			if (rings[i].written != rings[i].published) {
+				hasEvents = true;
+				break;
+			}
+		}
+		if (hasEvents) {
+			publishAll();
+		}
+		mIsSpillIdle = !hasEvents;
+		return hasEvents;
+	}
+
+	private SensorRing getRing(String sensorKey, int valueCount, long timestamp) {
+		SensorRing[] rings = mRings;
+		// the sensor keys are constants, the identity check is enough in the sensor callback
+		for (int i = 0; i < rings.length; i++) {
+			if (rings[i].sensorKey == sensorKey) {
+				return rings[i];
+			}
+		}
+		for (int i = 0; i < rings.length; i++) {
+			if (rings[i].sensorKey.equals(sensorKey)) {
+				return rings[i];
+			}
+		}
+
+		SensorRing ring = new SensorRing(sensorKey, valueCount, mCapacity, timestamp);
+		SensorRing[] newRings = new SensorRing[rings.length + 1];
+		System.arraycopy(rings, 0, newRings, 0, rings.length);
+		newRings[rings.length] = ring;
+		mRings = newRings;
+		if (FrameworkContext.INFO) Log.i(TAG, "Capturing " + sensorKey + " with " + valueCount + " values.");
+		return ring;
+	}
+
+	private int getLabelId(String contextLabel) {
+		if (contextLabel == null) {
+			contextLabel = "";
+		}
+		if (contextLabel == mCurrentContextLabel) {
+			return mCurrentLabelId;
+		}
+		String[] labels = mContextLabels;
+		int labelId = -1;
+		for (int i = 0; i < labels.length; i++) {
+			if (labels[i].equals(contextLabel)) {
+				labelId = i;
+				break;
+			}
+		}
+		if (labelId < 0) {
+			String[] newLabels = new String[labels.length + 1];
+			System.arraycopy(labels, 0, newLabels, 0, labels.length);
+			newLabels[labels.length] = contextLabel;
+			// published before the events with the label id
+			mContextLabels = newLabels;
+			labelId = labels.length;
+		}
+		mCurrentContextLabel = contextLabel;
+		mCurrentLabelId = labelId;
+		return labelId;
+	}
+
+	// ******************************************************************** //
+	// Spill thread
+	// ******************************************************************** //
+
+	private void spillRun() {
+		long nextFlush = System.nanoTime() + mFlushIntervalNanos;
+		// events were written since the last flush
+		boolean isDirty = false;
+		while (true) {
+			// read before spilling, so all events published before close are written
+			boolean isClosed = mIsClosed;
+
+			long now = System.nanoTime();
+			boolean isFlushDue = now - nextFlush >= 0;
+			// nothing was captured since the last flush
+			boolean isIdle = isFlushDue && !isClosed && !publishCaptured();
+
+			isDirty |= spill();
+
+			if (isClosed || mIsFlushRequested || (isDirty && isFlushDue)) {
+				mIsFlushRequested = false;
+				isDirty = false;
+				try {
+					mTarget.flush();
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+
+			if (isClosed) {
+				break;
+			}
+			if (isIdle) {
+				// sleep until an event is captured, a flush is requested or the writer is closed
+				LockSupport.park(this);
+				nextFlush = System.nanoTime() + mFlushIntervalNanos;
+			} else {
+				if (isFlushDue) {
+					nextFlush = now + mFlushIntervalNanos;
+				}
+				// woken up earlier for every block
+				LockSupport.parkNanos(this, nextFlush - now);
+			}
+		}
+
+		try {
+			mTarget.close();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Writes the published events of all rings, the event with the smallest
+	 * timestamp first (the events of one sensor are in order).
+	 *
+	 * @return true if events were written
+	 */
+	private boolean spill() {
+		long[] published = mPublished;
+		// read after the published events, rings added later are not published
+		SensorRing[] rings = mRings;
+		int ringCount = published.length;
+		if (mPositions.length < ringCount) {
+			mPositions = new long[ringCount];
+		}
+		long[] positions = mPositions;
+		boolean hasWritten = false;
+		for (int i = 0; i < ringCount; i++) {
+			positions[i] = rings[i].head;
+		}
+
+		while (true) {
+			int next = -1;
+			long nextTimestamp = 0;
+			for (int i = 0; i < ringCount; i++) {
+				if (positions[i] < published[i]) {
+					long timestamp = rings[i].timestamps[(int) (positions[i] % mCapacity)];
+					if (next < 0 || timestamp < nextTimestamp) {
+						next = i;
+						nextTimestamp = timestamp;
+					}
+				}
+			}
+			if (next < 0) {
+				break;
+			}
+			write(rings[next], (int) (positions[next] % mCapacity));
+			positions[next]++;
+			hasWritten = true;
+		}
+
+		for (int i = 0; i < ringCount; i++) {
+			// the slots can be used again by the producer
+			rings[i].head = published[i];
+		}
+		return hasWritten;
+	}
+
+	private void write(SensorRing ring, int slot) {
+		if (mError != null) {
+			// the target failed, events are discarded so that the rings do not stay full
+			return;
+		}
+		int valueCount = ring.valueCount;
+		if (mValues.length < valueCount) {
+			mValues = new float[valueCount];
+		}
+		System.arraycopy(ring.values, slot * valueCount, mValues, 0, valueCount);
+		long timestamp = ring.timestamps[slot];
+		long systemTime = ring.firstSystemTime + (timestamp - ring.firstTimestamp) / 1000000L;
+		try {
+			if (!mTarget.writeSensorValues(ring.sensorKey, systemTime, mContextLabels[ring.labelIds[slot]],
+					timestamp, null, mValues, valueCount, null)) {
+				mRejectedCount++;
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private void fail(IOException e) {
+		if (mError == null) {
+			mError = e;
+			if (FrameworkContext.ERROR) Log.e(TAG, "Capture file could not be written: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	// ******************************************************************** //
+	// Statistics
+	// ******************************************************************** //
+
+	/**
+	 * @return number of events dropped because a ring was full
+	 */
+	public synchronized long getDroppedCount() {
+		return mDroppedCount;
+	}
+
+	/**
+	 * @return number of events of every sensor ring
+	 */
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+}
@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the binary probe log (see {@link BinaryLogWriter}) as compressed
+ * segment files. A new segment is started when the current one reaches the
+ * maximum size or duration, so a long logging session does not create one
+ * ever-growing file. The segments are named {baseName}_000.binz,
+ * {baseName}_001.binz, ...
+ *
+ * The records are collected in blocks (64 KB by default) that are compressed
+ * with Deflate. Every block defines its sensors, labels and state again and
+ * can be decompressed and read on its own. At the end of the segment a sparse
+ * index with the time range of every block is written, so readers jump to a
+ * time window and only decompress the blocks of the window (see
+ * {@link LogSegment}).
+ *
+ * Segment format (little endian):
+ *
+ * <pre>
+ * header:  int SEGMENT_MAGIC, short VERSION (version of the records), long start time (ms)
+ * block:   int compressed size, int size, long first system time (ms), long last system time (ms),
+ *          compressed records (Deflate without zlib header)
+ * index:   per block: long first system time, long last system time, long offset of the block
+ * footer:  int block count, long offset of the index, int SEGMENT_MAGIC
+ * </pre>
+ *
+ * The blocks are written when they are full, the segment is closed or the
+ * writer is flushed. A flush writes the partial block as a shorter block, so
+ * the log is complete up to the last flush even if the process is killed
+ * without closing the writer. The index is missing if the segment was not
+ * closed, the blocks are then found by their headers.
+ */
+public class SegmentedLogWriter implements ILogWriter {
+
+	static final int SEGMENT_MAGIC = 0x5A474C50; // "PLGZ" in little endian
+	static final short VERSION = 2;
+	static final String EXTENSION = ".binz";
+
+	static final int HEADER_SIZE = 4 + 2 + 8;
+	static final int BLOCK_HEADER_SIZE = 4 + 4 + 8 + 8;
+	static final int INDEX_ENTRY_SIZE = 8 + 8 + 8;
+	static final int FOOTER_SIZE = 4 + 8 + 4;
+
+	private static final int DEFAULT_BLOCK_SIZE = 65536;
+
+	private final File mDirectory;
+	private final String mBaseName;
+	private final long mMaxSegmentSize;
+	private final long mMaxSegmentDuration;
+
+	private final BlockEncoder mEncoder;
+	private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED, true);
+	private byte[] mCompressed;
+	private final ByteBuffer mBlockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(BinaryLogWriter.BYTE_ORDER);
+
+	private int mSegmentNumber = 0;
+	private FileChannel mChannel = null;
+	private File mSegmentFile = null;
+	/** size of the segment file */
+	private long mSegmentSize = 0;
+	private long mSegmentStartTime = 0;
+
+	/** time range of the events in the current block */
+	private boolean hasBlockTime = false;
+	private long mBlockFirstTime = 0;
+	private long mBlockLastTime = 0;
+	private long mLastTime = 0;
+
+	/** index of the blocks of the current segment */
+	private int mBlockCount = 0;
+	private long[] mBlockFirstTimes = new long[64];
+	private long[] mBlockLastTimes = new long[64];
+	private long[] mBlockOffsets = new long[64];
+
+	/**
+	 * Encodes the records into blocks and writes them compressed to the
+	 * current segment.
+	 */
+	private class BlockEncoder extends BinaryLogWriter {
+
+		BlockEncoder(int blockSize) {
+			super(blockSize);
+		}
+
+		@Override
+		protected void writeBlock(ByteBuffer block) throws IOException {
+			writeCompressedBlock(block);
+			resetState();
+		}
+	}
+
+	/**
+	 * @param directory directory of the segment files
+	 * @param baseName name of the segment files without number and extension
+	 * @param maxSegmentSize a new segment is started after this file size in bytes, 0 for no limit
+	 * @param maxSegmentDuration a new segment is started after this time in milliseconds, 0 for no limit
+	 */
+	public SegmentedLogWriter(File directory, String baseName, long maxSegmentSize, long maxSegmentDuration) {
+		this(directory, baseName, maxSegmentSize, maxSegmentDuration, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param directory directory of the segment files
+	 * @param baseName name of the segment files without number and extension
+	 * @param maxSegmentSize a new segment is started after this file size in bytes, 0 for no limit
+	 * @param maxSegmentDuration a new segment is started after this time in milliseconds, 0 for no limit
+	 * @param blockSize size of the uncompressed blocks in bytes
+	 */
+	public SegmentedLogWriter(File directory, String baseName, long maxSegmentSize, long maxSegmentDuration,
+			int blockSize) {
+		mDirectory = directory;
+		mBaseName = baseName;
+		mMaxSegmentSize = maxSegmentSize;
+		mMaxSegmentDuration = maxSegmentDuration;
+		mEncoder = new BlockEncoder(blockSize);
+		mCompressed = new byte[blockSize + blockSize / 8 + 64];
+	}
+
+	/**
+	 * @param directory
+	 * @param baseName
+	 * @param segmentNumber
+	 * @return the file of the segment
+	 */
+	public static File getSegmentFile(File directory, String baseName, int segmentNumber) {
+		return new File(directory, String.format("%s_%03d%s", baseName, segmentNumber, EXTENSION));
+	}
+
+	public boolean writeSensorValues(String sensorKey, long systemTime, String contextLabel, long timestamp,
+			double[] coordinates, float[] values, int valueCount, String parameter) throws IOException {
+		checkSegment(systemTime);
+
+		// a full block is written before the event, so the event is in the current block
+		boolean isWritten = mEncoder.writeSensorValues(sensorKey, systemTime, contextLabel, timestamp,
+				coordinates, values, valueCount, parameter);
+		if (isWritten) {
+			addBlockTime(systemTime);
+		}
+		return isWritten;
+	}
+
+	public boolean writeProbeValues(String probeKey, long systemTime, double[] values, int valueCount)
+			throws IOException {
+		checkSegment(systemTime);
+
+		boolean isWritten = mEncoder.writeProbeValues(probeKey, systemTime, values, valueCount);
+		if (isWritten) {
+			addBlockTime(systemTime);
+		}
+		return isWritten;
+	}
+
+	public void writeText(String line) throws IOException {
+		if (mChannel == null) {
+			openSegment(System.currentTimeMillis());
+		}
+		mEncoder.writeText(line);
+	}
+
+	/**
+	 * Compresses the partial block and writes it with its index entry. The
+	 * blocks get smaller and compress less if the writer is flushed often
+	 * (the {@link AsyncLogWriter} flushes once per flush interval).
+	 */
+	public void flush() throws IOException {
+		if (mChannel != null) {
+			mEncoder.flush();
+		}
+	}
+
+	public void close() throws IOException {
+		if (mChannel != null) {
+			closeSegment();
+		}
+		mDeflater.end();
+	}
+
+	/**
+	 * @return the file of the current segment or null if no segment is open
+	 */
+	public File getSegmentFile() {
+		return mSegmentFile;
+	}
+
+	public int getSegmentCount() {
+		return mSegmentNumber;
+	}
+
+	/**
+	 * Opens the first segment or starts a new one if the current one is full.
+	 */
+	private void checkSegment(long systemTime) throws IOException {
+		if (mChannel == null) {
+			openSegment(systemTime);
+		} else if ((mMaxSegmentDuration > 0 && systemTime - mSegmentStartTime >= mMaxSegmentDuration)
+				|| (mMaxSegmentSize > 0 && mSegmentSize >= mMaxSegmentSize)) {
+			closeSegment();
+			openSegment(systemTime);
+		}
+	}
+
+	private void addBlockTime(long systemTime) {
+		if (!hasBlockTime) {
+			mBlockFirstTime = systemTime;
+			mBlockLastTime = systemTime;
+			hasBlockTime = true;
+		} else if (systemTime > mBlockLastTime) {
+			mBlockLastTime = systemTime;
+		}
+		mLastTime = systemTime;
+	}
+
+	private void openSegment(long startTime) throws IOException {
+		mSegmentFile = getSegmentFile(mDirectory, mBaseName, mSegmentNumber++);
+		mChannel = new FileOutputStream(mSegmentFile).getChannel();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BinaryLogWriter.BYTE_ORDER);
+		header.putInt(SEGMENT_MAGIC);
+		header.putShort(VERSION);
+		header.putLong(startTime);
+		header.flip();
+		write(header);
+
+		// the first block of the segment defines everything again
+		mEncoder.resetState();
+		mSegmentSize = HEADER_SIZE;
+		mSegmentStartTime = startTime;
+		mBlockCount = 0;
+		hasBlockTime = false;
+		mLastTime = startTime;
+	}
+
+	private void closeSegment() throws IOException {
+		// last block
+		mEncoder.flush();
+
+		ByteBuffer index = ByteBuffer.allocate(mBlockCount * INDEX_ENTRY_SIZE + FOOTER_SIZE).order(
+				BinaryLogWriter.BYTE_ORDER);
+		for (int i = 0; i < mBlockCount; i++) {
+			index.putLong(mBlockFirstTimes[i]);
+			index.putLong(mBlockLastTimes[i]);
+			index.putLong(mBlockOffsets[i]);
+		}
+		index.putInt(mBlockCount);
+		index.putLong(mSegmentSize);
+		index.putInt(SEGMENT_MAGIC);
+		index.flip();
+		write(index);
+
+		mChannel.close();
+		mChannel = null;
+	}
+
+	/**
+	 * Compresses the block and adds it to the index.
+	 */
+	private void writeCompressedBlock(ByteBuffer block) throws IOException {
+		int size = block.remaining();
+		mDeflater.reset();
+		mDeflater.setInput(block.array(), block.arrayOffset() + block.position(), size);
+		mDeflater.finish();
+		int compressedSize = 0;
+		while (!mDeflater.finished()) {
+			if (compressedSize == mCompressed.length) {
+				byte[] compressed = new byte[2 * mCompressed.length];
+				System.arraycopy(mCompressed, 0, compressed, 0, compressedSize);
+				mCompressed = compressed;
+			}
+			compressedSize += mDeflater.deflate(mCompressed, compressedSize, mCompressed.length - compressedSize);
+		}
+		block.position(block.limit());
+
+		// blocks with text lines only get the time of the last event
+		long firstTime = hasBlockTime ? mBlockFirstTime : mLastTime;
+		long lastTime = hasBlockTime ? mBlockLastTime : mLastTime;
+		hasBlockTime = false;
+
+		if (mBlockCount == mBlockOffsets.length) {
+			mBlockFirstTimes = grow(mBlockFirstTimes);
+			mBlockLastTimes = grow(mBlockLastTimes);
+			mBlockOffsets = grow(mBlockOffsets);
+		}
+		mBlockFirstTimes[mBlockCount] = firstTime;
+		mBlockLastTimes[mBlockCount] = lastTime;
+		mBlockOffsets[mBlockCount] = mSegmentSize;
+		mBlockCount++;
+
+		mBlockHeader.clear();
+		mBlockHeader.putInt(compressedSize);
+		mBlockHeader.putInt(size);
+		mBlockHeader.putLong(firstTime);
+		mBlockHeader.putLong(lastTime);
+		mBlockHeader.flip();
+		write(mBlockHeader);
+		write(ByteBuffer.wrap(mCompressed, 0, compressedSize));
+
+		mSegmentSize += BLOCK_HEADER_SIZE + compressedSize;
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			mChannel.write(buffer);
+		}
+	}
+
+	private static long[] grow(long[] array) {
+		long[] grown = new long[2 * array.length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+}
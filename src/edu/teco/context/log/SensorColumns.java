@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+/**
+ * The sensor events of one sensor of a probe log as primitive columns, one
+ * row per log line (see {@link ParallelLogParser}). The arrays are valid up
+ * to {@link #getRowCount()}.
+ *
+ * The values of all rows are stored one after another, the values of a row
+ * start at its value offset (sensors have a fixed number of values, but the
+ * lines are not checked for it). Context labels and parameters are ids of
+ * the lists of {@link ProbeLogColumns}, the parameter id is -1 for lines
+ * without parameter.
+ */
+public class SensorColumns {
+
+	private final String mSensorKey;
+	private int mRowCount = 0;
+
+	private long[] mSystemTimes;
+	private long[] mTimestamps;
+	private int[] mContextLabelIds;
+	private double[] mLatitudes;
+	private double[] mLongitudes;
+	private int[] mParameterIds;
+	/** row count + 1 offsets, the values of row i end at the offset of row i + 1 */
+	private int[] mValueOffsets;
+	private float[] mValues;
+
+	/**
+	 * @param sensorKey
+	 * @param rowCapacity initial number of rows
+	 * @param valueCapacity initial number of values of all rows
+	 */
+	SensorColumns(String sensorKey, int rowCapacity, int valueCapacity) {
+		mSensorKey = sensorKey;
+		mSystemTimes = new long[rowCapacity];
+		mTimestamps = new long[rowCapacity];
+		mContextLabelIds = new int[rowCapacity];
+		mLatitudes = new double[rowCapacity];
+		mLongitudes = new double[rowCapacity];
+		mParameterIds = new int[rowCapacity];
+		mValueOffsets = new int[rowCapacity + 1];
+		mValues = new float[valueCapacity];
+	}
+
+	/**
+	 * Adds one row, the arrays grow if needed.
+	 */
+	void addRow(long systemTime, long timestamp, int contextLabelId, double latitude, double longitude,
+			int parameterId, float[] values, int valueCount) {
+		if (mRowCount == mSystemTimes.length) {
+			int capacity = Math.max(16, 2 * mRowCount);
+			mSystemTimes = copyOf(mSystemTimes, capacity);
+			mTimestamps = copyOf(mTimestamps, capacity);
+			mContextLabelIds = copyOf(mContextLabelIds, capacity);
+			mLatitudes = copyOf(mLatitudes, capacity);
+			mLongitudes = copyOf(mLongitudes, capacity);
+			mParameterIds = copyOf(mParameterIds, capacity);
+			mValueOffsets = copyOf(mValueOffsets, capacity + 1);
+		}
+		int offset = mValueOffsets[mRowCount];
+		if (offset + valueCount > mValues.length) {
+			mValues = copyOf(mValues, Math.max(offset + valueCount, 2 * mValues.length));
+		}
+
+		mSystemTimes[mRowCount] = systemTime;
+		mTimestamps[mRowCount] = timestamp;
+		mContextLabelIds[mRowCount] = contextLabelId;
+		mLatitudes[mRowCount] = latitude;
+		mLongitudes[mRowCount] = longitude;
+		mParameterIds[mRowCount] = parameterId;
+		System.arraycopy(values, 0, mValues, offset, valueCount);
+		mRowCount++;
+		mValueOffsets[mRowCount] = offset + valueCount;
+	}
+
+	/**
+	 * Appends all rows of the other columns (the capacity must be big enough).
+	 *
+	 * @param columns
+	 * @param contextLabelIds new ids of the context label ids of the other columns
+	 * @param parameterIds new ids of the parameter ids of the other columns
+	 */
+	void addRows(SensorColumns columns, int[] contextLabelIds, int[] parameterIds) {
+		int rowCount = columns.mRowCount;
+		int offset = mValueOffsets[mRowCount];
+		System.arraycopy(columns.mSystemTimes, 0, mSystemTimes, mRowCount, rowCount);
+		System.arraycopy(columns.mTimestamps, 0, mTimestamps, mRowCount, rowCount);
+		System.arraycopy(columns.mLatitudes, 0, mLatitudes, mRowCount, rowCount);
+		System.arraycopy(columns.mLongitudes, 0, mLongitudes, mRowCount, rowCount);
+		System.arraycopy(columns.mValues, 0, mValues, offset, columns.mValueOffsets[rowCount]);
+		for (int i = 0; i < rowCount; i++) {
+			mContextLabelIds[mRowCount + i] = contextLabelIds[columns.mContextLabelIds[i]];
+			int parameterId = columns.mParameterIds[i];
+			mParameterIds[mRowCount + i] = (parameterId < 0) ? -1 : parameterIds[parameterId];
+			mValueOffsets[mRowCount + i + 1] = offset + columns.mValueOffsets[i + 1];
+		}
+		mRowCount += rowCount;
+	}
+
+	int getValueTotal() {
+		return mValueOffsets[mRowCount];
+	}
+
+	public String getSensorKey() {
+		return mSensorKey;
+	}
+
+	public int getRowCount() {
+		return mRowCount;
+	}
+
+	/**
+	 * @return times of the log entries in milliseconds
+	 */
+	public long[] getSystemTimes() {
+		return mSystemTimes;
+	}
+
+	/**
+	 * @return timestamps of the sensor events in nanoseconds
+	 */
+	public long[] getTimestamps() {
+		return mTimestamps;
+	}
+
+	/**
+	 * @return ids of {@link ProbeLogColumns#getContextLabels()}
+	 */
+	public int[] getContextLabelIds() {
+		return mContextLabelIds;
+	}
+
+	public double[] getLatitudes() {
+		return mLatitudes;
+	}
+
+	public double[] getLongitudes() {
+		return mLongitudes;
+	}
+
+	/**
+	 * @return ids of {@link ProbeLogColumns#getParameters()}, -1 for none
+	 */
+	public int[] getParameterIds() {
+		return mParameterIds;
+	}
+
+	/**
+	 * @return the values of all rows, see {@link #getValueOffsets()}
+	 */
+	public float[] getValues() {
+		return mValues;
+	}
+
+	/**
+	 * @return offset of the first value of every row and the end of the last row
+	 */
+	public int[] getValueOffsets() {
+		return mValueOffsets;
+	}
+
+	public int getValueCount(int row) {
+		return mValueOffsets[row + 1] - mValueOffsets[row];
+	}
+
+	public float getValue(int row, int axis) {
+		return mValues[mValueOffsets[row] + axis];
+	}
+
+	private static long[] copyOf(long[] array, int length) {
+		long[] copy = new long[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+	private static int[] copyOf(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+	private static double[] copyOf(double[] array, int length) {
+		double[] copy = new double[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+	private static float[] copyOf(float[] array, int length) {
+		float[] copy = new float[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.log;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the probe log as text lines (see {@link DataParser}).
+ */
+public class TextLogWriter implements ILogWriter {
+
+	private final Writer mWriter;
+
+	private final LineBuffer mLine = new LineBuffer(256);
+
+	/**
+	 * @param writer should be buffered, it is closed with this writer
+	 */
+	public TextLogWriter(Writer writer) {
+		mWriter = writer;
+	}
+
+	public boolean writeSensorValues(String sensorKey, long systemTime, String contextLabel, long timestamp,
+			double[] coordinates, float[] values, int valueCount, String parameter) throws IOException {
+		DataParser.appendSensorMessage(mLine.clear(), sensorKey, systemTime, contextLabel, timestamp, coordinates,
+				values, valueCount, parameter).append('\n');
+		mLine.writeTo(mWriter);
+		return true;
+	}
+
+	public boolean writeProbeValues(String probeKey, long systemTime, double[] values, int valueCount)
+			throws IOException {
+		DataParser.appendProbeMessage(mLine.clear(), probeKey, systemTime, values, valueCount).append('\n');
+		mLine.writeTo(mWriter);
+		return true;
+	}
+
+	public void writeText(String line) throws IOException {
+		mWriter.write(line);
+		mWriter.write('\n');
+	}
+
+	public void flush() throws IOException {
+		mWriter.flush();
+	}
+
+	public void close() throws IOException {
+		mWriter.close();
+	}
+
+}
@@ -30,6 +30,12 @@ import edu.teco.context.probe.sensors.StaticSensorHandlerFactory;
 
 //import android.util.Log;
 
+/**
+ * Sliding sample window over all sensors. Every sensor handler keeps the values
+ * of the last sample window once, and a feature vector is calculated every hop
+ * (sample window * (1 - overlap)). Overlapping windows therefore share their
+ * values instead of buffering and recalculating them per window.
+ */
 public class SensorFrame {
 	
 	/** Tag string for debug logs */
@@ -38,7 +44,12 @@ public class SensorFrame {
 	private int mValueCounter = 0;
 
 	private double mSampleWindow = 2.0;
+	/** time between two feature vectors in seconds */
+	private double mHop = 2.0;
+	/** time since the frame was started or reset in seconds */
 	private double mFrameTimer = 0.0;
+	/** time of the next feature vector */
+	private double mNextWindowEnd = 2.0;
 	private boolean mActive = false;
 	
 	private LocationBuffer mLocationBuffer = null;
@@ -49,12 +60,40 @@ public class SensorFrame {
 	private List<ISensorFrameListener> mListeners = new ArrayList<ISensorFrameListener>();
 
 	public SensorFrame(double sampleWindow) {
+		this(sampleWindow, 0.0);
+	}
+
+	/**
+	 * @param sampleWindow sample window in seconds
+	 * @param overlap overlap of two successive windows as ratio (0 <= overlap < 1)
+	 */
+	public SensorFrame(double sampleWindow, double overlap) {
 		mSampleWindow = sampleWindow;
+		mHop = sampleWindow - (sampleWindow * overlap);
+		if (mHop <= 0.0) {
+			if (FrameworkContext.WARN) Log.w(TAG, "Overlap " + overlap + " is not smaller than 1, windows do not overlap.");
+			mHop = sampleWindow;
+		}
+		mNextWindowEnd = sampleWindow;
 	}
 
 	public void addSensor(String sensorKey, String[] featureKeys) {
-		mSensorFrameMap.put(sensorKey,
-				StaticSensorHandlerFactory.getSensorHandler(sensorKey, featureKeys, mSampleWindow));
+		addSensor(sensorKey, featureKeys, 0.0);
+	}
+	
+	/**
+	 * @param sensorKey
+	 * @param featureKeys
+	 * @param slidingDFTMaxFrequency highest frequency of a sliding DFT for the
+	 *            spectral features or 0 to transform every window
+	 */
+	public void addSensor(String sensorKey, String[] featureKeys, double slidingDFTMaxFrequency) {
+		AbstractSensorHandler abstractSensorHandler = StaticSensorHandlerFactory.getSensorHandler(sensorKey,
+				featureKeys, mSampleWindow);
+		if (abstractSensorHandler != null && slidingDFTMaxFrequency > 0.0) {
+			abstractSensorHandler.setSlidingDFT(slidingDFTMaxFrequency);
+		}
+		mSensorFrameMap.put(sensorKey, abstractSensorHandler);
 	}
 	
 	public void addLocationSensor(String locationStrategy) {
@@ -82,8 +121,10 @@ public class SensorFrame {
 			mValueCounter++;
 			mFrameTimer += timeDifference;
 			AbstractSensorHandler abstractSensorHandler = mSensorFrameMap.get(sensorKey);
-			abstractSensorHandler.putSensorValues(values);
-			if (mFrameTimer > mSampleWindow) {
+			if (abstractSensorHandler != null) {
+				abstractSensorHandler.putSensorValues(mFrameTimer, values);
+			}
+			if (mFrameTimer > mNextWindowEnd) {
 				frameIsFinished();
 			}
 		}
@@ -92,7 +133,7 @@ public class SensorFrame {
 	public void putLocationCoordinates(double latitude, double longitude) {
 		if (isActive()) {
 			if (mLocationBuffer != null) {
-				mLocationBuffer.putCoordinates(latitude, longitude);
+				mLocationBuffer.putCoordinates(mFrameTimer, latitude, longitude);
 			} else {
 				if (FrameworkContext.WARN) Log.w(TAG, "No LocationBuffer added. You must call addLocation() first before putting location values.");
 			}
@@ -100,38 +141,46 @@ public class SensorFrame {
 	}
 
 	private void frameIsFinished() {
-		setActive(false);
 		
 		if (FrameworkContext.INFO) Log.i(TAG, "Number of received values " + mValueCounter);
 		mValueCounter = 0;
 		
-		double[] allFeatures = new double[0];
+		// location coordinates are added at the end.
+		double coordinates[] = null;
+		if (mLocationBuffer != null) {
+			// like the sensor values, the coordinates of the whole sample window
+			mLocationBuffer.removeUntil(mFrameTimer - mSampleWindow);
+			coordinates = mLocationBuffer.getMeanCoordinates();
+		} else if (mBestLocationProvider != null) {
+			coordinates = mBestLocationProvider.getCurrentBestLocationCoordinates();
+		}
+		
+		int featureLength = (coordinates != null) ? coordinates.length : 0;
+		for (AbstractSensorHandler abstractSensorHandler : mSensorFrameMap.values()) {
+			featureLength += abstractSensorHandler.getFeatureKeys().length * abstractSensorHandler.getValueSize();
+		}
 		
+		// the handlers reuse their feature arrays, the event gets its own copy
+		double[] allFeatures = new double[featureLength];
+		int position = 0;
 		for (AbstractSensorHandler abstractSensorHandler : mSensorFrameMap.values()) {
-			abstractSensorHandler.flipSensorBuffers();
-			double[] features = abstractSensorHandler.calculateFeatures();
-			allFeatures = concat(allFeatures, features);
+			double[] features = abstractSensorHandler.calculateFeatures(mFrameTimer);
+			System.arraycopy(features, 0, allFeatures, position, features.length);
+			position += features.length;
 		}
 		
-		// location coordinates are added at the end.
-		if (mLocationBuffer != null) {
-			double coordinates[] = mLocationBuffer.getMeanCoordinates();
-			allFeatures = concat(allFeatures, coordinates);
-		} else if (mBestLocationProvider != null) {
-			double coordinates[] = mBestLocationProvider.getCurrentBestLocationCoordinates();
-			allFeatures = concat(allFeatures, coordinates);
+		if (coordinates != null) {
+			System.arraycopy(coordinates, 0, allFeatures, position, coordinates.length);
 		}
 
 		notifyFeaturesCalculated(new SensorFrameEvent(this, allFeatures));
-		resetSensorFrame();
-	}
-
-	private double[] concat(double[] A, double[] B) {
-		double[] C = new double[A.length + B.length];
-		System.arraycopy(A, 0, C, 0, A.length);
-		System.arraycopy(B, 0, C, A.length, B.length);
-
-		return C;
+		
+		// the values of the overlap stay in the sensor handlers and the location buffer for the next window
+		mNextWindowEnd += mHop;
+		if (mNextWindowEnd < mFrameTimer) {
+			// no values for more than one hop, continue with the current time
+			mNextWindowEnd = mFrameTimer + mHop;
+		}
 	}
 
 	private void resetSensorFrame() {
@@ -144,6 +193,7 @@ public class SensorFrame {
 		}
 		
 		mFrameTimer = 0.0;
+		mNextWindowEnd = mSampleWindow;
 	}
 	
 	public void reset() {
@@ -34,6 +34,8 @@ public class AudioReceiver implements VolumeListener {
 	// based on this example http://code.google.com/p/moonblink/wiki/Audalyzer
 	private AudioAnalyser mAnalyzer = null;
 	private boolean mRecording = false;
+	/** reused for logging, the values are copied by the logger */
+	private final double[] mLogValues = new double[1];
 	
 	private Thread thread = new Thread()
     {
@@ -73,12 +75,6 @@ public class AudioReceiver implements VolumeListener {
 		DataLogger.getInstance().logComment(logMessage);
 	}
 	
-	private String createAudioMessage(String audioKey, double audioValue) {
-		StringBuilder sb = new StringBuilder(audioKey).append(";").append(System.currentTimeMillis()).append(";")
-				.append(audioValue);
-		return sb.toString();
-	}
-	
 	private void tick() {
         try {
             // Do the application's physics.
@@ -98,7 +94,8 @@ public class AudioReceiver implements VolumeListener {
 		}
 		
 		if (mFrameworkContext.isLogging()) {
-			DataLogger.getInstance().logData(createAudioMessage(IProbeKeys.AUDIO_VOLUME, volume));
+			mLogValues[0] = volume;
+			DataLogger.getInstance().logProbeValues(IProbeKeys.AUDIO_VOLUME, System.currentTimeMillis(), mLogValues);
 		}
 	}
 
@@ -15,67 +15,89 @@
  ******************************************************************************/
 package edu.teco.context.probe.location;
 
-import java.util.Arrays;
-
 import edu.teco.context.configuration.FrameworkContext;
 
 import android.util.Log;
 
+/**
+ * Location coordinates of the sample window. The coordinates are stored with
+ * the time they were received and removed when they are older than the sample
+ * window (like the values of the sensor handlers), so every window gets the
+ * mean of all coordinates of the whole window, also when the windows overlap.
+ */
 public class LocationBuffer {
 	
 	private static String TAG = "LocationBuffer";
 	
 	private double[] mLatitudeBuffer = null;
 	private double[] mLongitudeBuffer = null;
+	private double[] mTimes = null;
 	
 	private int mSamplingRate = 100;
 	
-	private int mCurrentPosition = 0;
+	/** position of the oldest coordinates and number of coordinates in the ring buffer */
+	private int mFirstPosition = 0;
+	private int mSize = 0;
 
 	public LocationBuffer(double sampleWindow) {
-		int capacity = (int) Math.ceil(mSamplingRate * sampleWindow);
+		int capacity = Math.max(1, (int) Math.ceil(mSamplingRate * sampleWindow));
 		
 		mLatitudeBuffer = new double[capacity];
 		mLongitudeBuffer = new double[capacity];
-		
-		Arrays.fill(mLatitudeBuffer, 0.0);
-		Arrays.fill(mLongitudeBuffer, 0.0);
+		mTimes = new double[capacity];
 	}
 	
 	public void clearBuffer() {
-		
-		Arrays.fill(mLatitudeBuffer, 0, mCurrentPosition, 0.0);
-		Arrays.fill(mLongitudeBuffer, 0, mCurrentPosition, 0.0);
-		
-		mCurrentPosition = 0;
+		mFirstPosition = 0;
+		mSize = 0;
 	}
 	
-	public void putCoordinates(double latitude, double longitude) {
-		if (mLatitudeBuffer.length > mCurrentPosition) {
-			mLatitudeBuffer[mCurrentPosition] = latitude;
-			mLongitudeBuffer[mCurrentPosition] = longitude;
-			
-			mCurrentPosition++;
-		} else {
-			if (FrameworkContext.WARN) Log.w(TAG, "Cannot put values into buffer, because max position is reached. Increase buffer size.");
+	/**
+	 * @param time time of the coordinates in seconds
+	 * @param latitude
+	 * @param longitude
+	 */
+	public void putCoordinates(double time, double latitude, double longitude) {
+		int capacity = mTimes.length;
+		if (mSize == capacity) {
+			if (FrameworkContext.WARN) Log.w(TAG, "Buffer is full, the oldest coordinates are removed. Increase buffer size.");
+			mFirstPosition = (mFirstPosition + 1) % capacity;
+			mSize--;
 		}
+		int position = (mFirstPosition + mSize) % capacity;
+		mLatitudeBuffer[position] = latitude;
+		mLongitudeBuffer[position] = longitude;
+		mTimes[position] = time;
+		mSize++;
 	}
 	
+	/**
+	 * Removes all coordinates that are not newer than the given time.
+	 * 
+	 * @param time time in seconds, e.g. current time - sample window
+	 */
+	public void removeUntil(double time) {
+		while (mSize > 0 && mTimes[mFirstPosition] <= time) {
+			mFirstPosition = (mFirstPosition + 1) % mTimes.length;
+			mSize--;
+		}
+	}
 	
 	public double[] getMeanCoordinates() {
 
 		double latitudeMean = 0.0;
 		double longitudeMean = 0.0;
 		
-		if (mCurrentPosition > 0) {
+		if (mSize > 0) {
 			
-			for (int i = 0; i <= mCurrentPosition; i++) {
-				latitudeMean += mLatitudeBuffer[i];
-				longitudeMean += mLongitudeBuffer[i];
+			for (int i = 0; i < mSize; i++) {
+				int position = (mFirstPosition + i) % mTimes.length;
+				latitudeMean += mLatitudeBuffer[position];
+				longitudeMean += mLongitudeBuffer[position];
 			}
 			
-			latitudeMean = latitudeMean / (mCurrentPosition + 1 );
-			longitudeMean = longitudeMean / (mCurrentPosition + 1 );
+			latitudeMean = latitudeMean / mSize;
+			longitudeMean = longitudeMean / mSize;
 			
 		} else {
 			if (FrameworkContext.WARN) Log.w(TAG, "No location values to calculate the mean. These are zero values");
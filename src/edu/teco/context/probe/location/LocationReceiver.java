@@ -39,6 +39,8 @@ public class LocationReceiver implements ILocationKeys {
 	LocationListener mLocationListener = null;
 	String mLocationStrategy = null;
 	BestLocationProvider mBestLocationProvider = null;
+	/** latitude and longitude, reused for logging (the values are copied by the logger) */
+	private final double[] mLogValues = new double[2];
 
 	public LocationReceiver(LocationManager locationManager, ProbeDataListener probeDataListener) {
 		mLocationManager = locationManager;
@@ -80,7 +82,9 @@ public class LocationReceiver implements ILocationKeys {
 				}
 
 				if (mFrameworkContext.isLogging()) {
-					DataLogger.getInstance().logData(createLocationMessage(IProbeKeys.LOCATION, latitude, longitude));
+					mLogValues[0] = latitude;
+					mLogValues[1] = longitude;
+					DataLogger.getInstance().logProbeValues(IProbeKeys.LOCATION, System.currentTimeMillis(), mLogValues);
 				}
 			}
 
@@ -129,10 +133,4 @@ public class LocationReceiver implements ILocationKeys {
 		DataLogger.getInstance().logComment(logMessage);
 	}
 
-	private String createLocationMessage(String locationKey, double latitude, double longitude) {
-		StringBuilder sb = new StringBuilder(locationKey).append(";").append(System.currentTimeMillis()).append(";")
-				.append(latitude).append(";").append(longitude);
-		return sb.toString();
-	}
-
 }
@@ -15,14 +15,16 @@
  ******************************************************************************/
 package edu.teco.context.probe.sensors;
 
-import java.nio.BufferOverflowException;
-import java.nio.FloatBuffer;
-
 import android.util.Log;
 import edu.teco.context.configuration.FrameworkContext;
 import edu.teco.context.configuration.FrameworkKeys.IFeatureKeys;
 import edu.teco.context.configuration.FrameworkKeys.IProbeKeys;
 import edu.teco.context.features.FeatureCalculator;
+import edu.teco.context.features.QuantileSelector;
+import edu.teco.context.features.WindowStatistics;
+import edu.teco.context.features.entropy.EntropyCalculatorKernel;
+import edu.teco.context.features.fourier.SlidingDFT;
+import edu.teco.context.features.fourier.Spectrum;
 
 public abstract class AbstractSensorHandler implements IProbeKeys, IFeatureKeys {
 	
@@ -31,8 +33,28 @@ public abstract class AbstractSensorHandler implements IProbeKeys, IFeatureKeys
 	
 	private String[] mFeatureKeys;
 	private String mSensorKey;
-	private FloatBuffer[] mBuffer = new FloatBuffer[getValueSize()];
+	/** values of all axes inside the sample window, shared by overlapping windows */
+	private SlidingWindow mWindow;
+	/** values per sensor axis in time order for the features that need all values */
+	private float[][] mValues = new float[getValueSize()][];
 	private double mSampleWindow;
+	/** one spectrum per sensor axis shared by all spectral features */
+	private Spectrum[] mSpectra = new Spectrum[getValueSize()];
+	/** optional sliding DFT that replaces the FFT of every window */
+	private SlidingDFT mSlidingDFT = null;
+	/** values of the oldest sensor event while it is removed from the sliding DFT */
+	private float[] mRemovedValues = new float[getValueSize()];
+	/** times of the window values for recalculating the sliding DFT */
+	private double[] mTimes = new double[0];
+	/** one pass statistics per sensor axis for the higher moments */
+	private WindowStatistics[] mStatistics = new WindowStatistics[getValueSize()];
+	/** scratch copy per sensor axis for median and quantile selection */
+	private QuantileSelector[] mQuantiles = new QuantileSelector[getValueSize()];
+	/** scratch array for the normalized values of the entropy feature */
+	private double[] mEntropyValues = new double[0];
+	private EntropyCalculatorKernel mEntropyCalculator = new EntropyCalculatorKernel();
+	/** feature vector, reused for every frame */
+	private double[] mFeatures = new double[0];
 	
 	public String[] getFeatureKeys() {
 		return mFeatureKeys;
@@ -55,64 +77,185 @@ public abstract class AbstractSensorHandler implements IProbeKeys, IFeatureKeys
 		
 		int capacity = (int) Math.ceil(getMaxSamplingRate() * sampleWindow);
 		
-		for (int i = 0; i < mBuffer.length; i++) {
-			mBuffer[i] = FloatBuffer.allocate(capacity);
+		mWindow = new SlidingWindow(getValueSize(), capacity);
+		
+		for (int i = 0; i < mValues.length; i++) {
+			mValues[i] = new float[capacity];
+			mSpectra[i] = new Spectrum(capacity);
+			mStatistics[i] = new WindowStatistics();
+			mQuantiles[i] = new QuantileSelector(capacity);
 		}
+		mEntropyValues = new double[capacity];
+	}
+	
+	/**
+	 * Calculates the spectral features with a sliding DFT that is updated with
+	 * every value instead of a FFT of the whole window. Only the frequencies up
+	 * to maxFrequency are available for the spectral features, which makes the
+	 * update cheap for high overlaps. Must be called after
+	 * {@link #createSensorBuffers(double)}.
+	 * 
+	 * @param maxFrequency highest frequency in Hz used by the spectral features
+	 */
+	public void setSlidingDFT(double maxFrequency) {
+		int capacity = mWindow.getCapacity();
+		int binCount = Math.min((int) Math.floor(maxFrequency * mSampleWindow) + 1, capacity / 2 + 1);
+		
+		mSlidingDFT = new SlidingDFT(getValueSize(), binCount, mSampleWindow, capacity);
+		mTimes = new double[capacity];
+		
+		// values that are already in the window
+		recalculateSlidingDFT();
+		
+		if (FrameworkContext.INFO) Log.i(TAG, "Sliding DFT for " + getSensorKey() + " with " + binCount + " bins up to " + maxFrequency + " Hz.");
 	}
 	
 	public void clearSensorBuffers() {
-		for (int i = 0; i < mBuffer.length; i++) {
-			mBuffer[i].clear();
+		mWindow.clear();
+		if (mSlidingDFT != null) {
+			mSlidingDFT.clear();
 		}
 	}
 	
-	public void flipSensorBuffers() {
-		for (int i = 0; i < mBuffer.length; i++) {
-			mBuffer[i].flip();
+	/**
+	 * Adds the values of one sensor event and removes the values that have
+	 * left the sample window.
+	 * 
+	 * @param time time of the sensor event in seconds
+	 * @param values
+	 */
+	public void putSensorValues(double time, float[] values) {
+		removeSensorValues(time - mSampleWindow);
+		
+		boolean isComplete = true;
+		if (mWindow.isFull()) {
+			removeOldestSensorValues();
+			isComplete = false;
+		}
+		
+		mWindow.put(time, values);
+		if (mSlidingDFT != null) {
+			mSlidingDFT.add(time, values);
+		}
+		
+		if (!isComplete) {
+			String errorMessage = "Buffer full with valuesSize:"+ values.length + 
+					" and BufferSize:"+ mWindow.getCapacity() + ". Please increase the buffer size" +
+					" in the specific SensorHandler (e.g. AccelerometerSensorHandler) by increasing the" +
+					" value in the getMaxSamplingRate() method. The oldest values are omitted" +
+					" and the sample window will be incomplete.";
+			if (FrameworkContext.ERROR) Log.e(TAG,errorMessage);
 		}
 	}
 	
-	public void putSensorValues(float[] values) {
-		
-		for (int i = 0; i < mBuffer.length; i++) {
-			
-			try {
-				mBuffer[i].put(values[i]);
-			} catch (BufferOverflowException e) {
-				String errorMessage = "BufferOverFlow with valuesSize:"+ values.length + 
-						" and BufferSize:"+ mBuffer.length + " BufferSizeLimit"+mBuffer[i].limit() +
-						" BufferPosition:"+ mBuffer[i].position() +". Please increase the buffer size" +
-						" in the specific SensorHandler (e.g. AccelerometerSensorHandler) by increasing the" +
-						" value in the getMaxSamplingRate() method. These and following values will be omitted" +
-						" and the SensorFrame will be incomplete.";
-				if (FrameworkContext.ERROR) Log.e(TAG,errorMessage);
-				e.printStackTrace();
-				break;
+	/**
+	 * Removes all values that are not newer than the given time.
+	 * 
+	 * @param time time in seconds
+	 */
+	private void removeSensorValues(double time) {
+		if (mSlidingDFT == null) {
+			mWindow.removeUntil(time);
+		} else {
+			while (!mWindow.isEmpty() && mWindow.getOldestTime() <= time) {
+				removeOldestSensorValues();
+			}
+		}
+	}
+	
+	private void removeOldestSensorValues() {
+		if (mSlidingDFT == null) {
+			mWindow.removeOldest();
+		} else {
+			mWindow.getOldestValues(mRemovedValues);
+			boolean isRecalculationNeeded = mSlidingDFT.remove(mWindow.getOldestTime(), mRemovedValues);
+			mWindow.removeOldest();
+			if (isRecalculationNeeded) {
+				recalculateSlidingDFT();
 			}
 		}
 	}
 	
+	private void recalculateSlidingDFT() {
+		int sampleLength = mWindow.copyTimes(mTimes);
+		for (int axis = 0; axis < mValues.length; axis++) {
+			mWindow.copyValues(axis, mValues[axis]);
+		}
+		mSlidingDFT.recalculate(mTimes, mValues, sampleLength);
+	}
+	
+	/**
+	 * Copies the values inside the sample window into new arrays. The features
+	 * are calculated on scratch arrays of the handler, so this is only needed if
+	 * the values must be kept beyond the current window.
+	 * 
+	 * @return one array per sensor axis
+	 */
 	public float[][] getValues() {
 		
-		int sampleLength = mBuffer[0].limit();
-		float[][] valuesArray = new float[mBuffer.length][sampleLength];
+		int sampleLength = mWindow.getCount();
+		float[][] valuesArray = new float[mValues.length][sampleLength];
 		
-		for (int i = 0; i < mBuffer.length; i++) {
-			float[] values  = new float[sampleLength];
-			mBuffer[i].get(values);
-			valuesArray[i] = values;
+		for (int i = 0; i < mValues.length; i++) {
+			mWindow.copyValues(i, valuesArray[i]);
 		}
 		return valuesArray;
 	}
 	
-	public double[] calculateFeatures() {
+	/**
+	 * Calculates the features of the sample window that ends at the given time.
+	 * Mean, variance, standard deviation and min/max are maintained by the
+	 * sliding window while the values arrive, the other features are calculated
+	 * on scratch arrays of this handler, so no garbage is created per window.
+	 * 
+	 * @param time end of the sample window in seconds
+	 * @return the features, the array is reused for the next window
+	 */
+	public double[] calculateFeatures(double time) {
 		
 		// number of features depends on the sensor dimensions and feature dimension
-		int featureLength = mFeatureKeys.length * mBuffer.length;
-		double[] features = new double[featureLength];
-		float[][] allValues = getValues();
+		int featureLength = mFeatureKeys.length * mValues.length;
+		if (mFeatures.length != featureLength) {
+			mFeatures = new double[featureLength];
+		}
+		double[] features = mFeatures;
 		
-		boolean meanCalculated = false;
+		removeSensorValues(time - mSampleWindow);
+		int sampleLength = mWindow.getCount();
+		
+		boolean isSpectrumCalculated = hasSpectralFeature() && mSlidingDFT == null;
+		
+		// only the features that need all values get a copy in time order
+		if (hasMomentFeature() || hasQuantileFeature() || isSpectrumCalculated || hasEntropyFeature()) {
+			for (int axis = 0; axis < mValues.length; axis++) {
+				mWindow.copyValues(axis, mValues[axis]);
+			}
+		}
+		
+		// skewness and kurtosis in one pass per axis
+		if (hasMomentFeature()) {
+			for (int axis = 0; axis < mValues.length; axis++) {
+				mStatistics[axis].calculate(mValues[axis], sampleLength);
+			}
+		}
+		
+		// median and quantiles are selected on a copy, the values keep their order
+		if (hasQuantileFeature()) {
+			for (int axis = 0; axis < mValues.length; axis++) {
+				mQuantiles[axis].setValues(mValues[axis], sampleLength);
+			}
+		}
+		
+		// the spectrum is calculated once per axis for all spectral features
+		if (isSpectrumCalculated) {
+			for (int axis = 0; axis < mValues.length; axis++) {
+				mSpectra[axis].calculate(mValues[axis], sampleLength, mSampleWindow);
+			}
+		} else if (hasSpectralFeature()) {
+			for (int axis = 0; axis < mValues.length; axis++) {
+				mSlidingDFT.getSpectrum(axis, mSpectra[axis]);
+			}
+		}
 		
 //		if (FrameworkContext.INFO) Log.i(TAG, "Sensor: " + getSensorKey());
 		
@@ -121,60 +264,123 @@ public abstract class AbstractSensorHandler implements IProbeKeys, IFeatureKeys
 		int i = 0;
 		for (String featureKey : mFeatureKeys) {
 			if (featureKey.equals(MEAN)) {	
-				for (float[] values : allValues) {
-					features[i] = FeatureCalculator.mean(values);
-//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated MEAN: " + features[i] + " with " + values.length + " values.");
+				for (int axis = 0; axis < mValues.length; axis++) {
+					features[i] = mWindow.getMean(axis);
+//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated MEAN: " + features[i] + " with " + sampleLength + " values.");
 					i++;
-					meanCalculated = true;
 				}
 			} else if (featureKey.equals(MEDIAN)) {
-				for (float[] values : allValues) {
-					features[i] = FeatureCalculator.median(values);
-//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated MEDIAN: " + features[i] + " with " + values.length + " values.");
+				for (QuantileSelector quantiles : mQuantiles) {
+					features[i] = quantiles.median();
+//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated MEDIAN: " + features[i]);
+					i++;
+				}
+			} else if (featureKey.equals(PERCENTILE_10)) {
+				for (QuantileSelector quantiles : mQuantiles) {
+					features[i] = quantiles.quantile(0.10);
+					i++;
+				}
+			} else if (featureKey.equals(PERCENTILE_25)) {
+				for (QuantileSelector quantiles : mQuantiles) {
+					features[i] = quantiles.quantile(0.25);
+					i++;
+				}
+			} else if (featureKey.equals(PERCENTILE_75)) {
+				for (QuantileSelector quantiles : mQuantiles) {
+					features[i] = quantiles.quantile(0.75);
+					i++;
+				}
+			} else if (featureKey.equals(PERCENTILE_90)) {
+				for (QuantileSelector quantiles : mQuantiles) {
+					features[i] = quantiles.quantile(0.90);
+					i++;
+				}
+			} else if (featureKey.equals(INTERQUARTILE_RANGE)) {
+				for (QuantileSelector quantiles : mQuantiles) {
+					features[i] = quantiles.interquartileRange();
 					i++;
 				}
 			} else if (featureKey.equals(VARIANCE)) {
-				for (float[] values : allValues) {
-					features[i] = FeatureCalculator.variance(values);
-//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated VARIANCE: " + features[i] + " with " + values.length + " values.");
+				for (int axis = 0; axis < mValues.length; axis++) {
+					features[i] = mWindow.getVariance(axis);
+//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated VARIANCE: " + features[i] + " with " + sampleLength + " values.");
 					i++;
 				}
 			} else if (featureKey.equals(STANDARD_DEVIATION)) {
-				for (float[] values : allValues) {
-					if (meanCalculated) {
-						int meanNumber = 0;
-						features[i] = FeatureCalculator.standardDeviation(values, features[meanNumber]);
-						meanNumber++;
-					} else {
-						features[i] = FeatureCalculator.standardDeviation(values);
-					}
-//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated Standard Deviation: " + features[i] + " with " + values.length + " values.");
+				for (int axis = 0; axis < mValues.length; axis++) {
+					features[i] = mWindow.getStandardDeviation(axis);
+//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated Standard Deviation: " + features[i] + " with " + sampleLength + " values.");
 					i++;
 				}
 			} else if (featureKey.equals(DIFFERENCE_MAX_MIN)) {
-				for (float[] values : allValues) {
-					features[i] = FeatureCalculator.differenceMaxMin(values);
-//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated Difference between max and min value: " + features[i] + " with " + values.length + " values.");
+				for (int axis = 0; axis < mValues.length; axis++) {
+					features[i] = mWindow.getDifferenceMaxMin(axis);
+//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated Difference between max and min value: " + features[i] + " with " + sampleLength + " values.");
+					i++;
+				}
+			} else if (featureKey.equals(SKEWNESS)) {
+				for (WindowStatistics statistics : mStatistics) {
+					features[i] = statistics.getSkewness();
+					i++;
+				}
+			} else if (featureKey.equals(KURTOSIS)) {
+				for (WindowStatistics statistics : mStatistics) {
+					features[i] = statistics.getKurtosis();
 					i++;
 				}
 			} else if (featureKey.equals(FREQUENCY_PEAK)) {
-				for (float[] values : allValues) {
-					features[i] = FeatureCalculator.dftFrequencyPeak(values, mSampleWindow);
+				for (Spectrum spectrum : mSpectra) {
+					features[i] = FeatureCalculator.frequencyPeak(spectrum);
 //					if (FrameworkContext.INFO) Log.i(TAG, "Sensor Number: " + i + " MaxFrequency (Hz) = " + features[i]);
-//					if (FrameworkContext.INFO) Log.i(TAG, "Values: " + Arrays.toString(values));
-//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated FFT Peaks: " + features[i] + " with " + values.length + " values.");
 					i++;
 				}
 			} else if (featureKey.equals(ENTROPY)) {
-				for (float[] values : allValues) {
-					features[i] = FeatureCalculator.entropy(values);
-//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated Entropy: " + features[i] + " with " + values.length + " values.");
+				for (float[] values : mValues) {
+					features[i] = FeatureCalculator.entropy(values, sampleLength, mEntropyValues, mEntropyCalculator);
+//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated Entropy: " + features[i] + " with " + sampleLength + " values.");
 					i++;
 				}
 			} else if (featureKey.equals(FREQUENCY_DOMAIN_ENTROPY)) {
-				for (float[] values : allValues) {
-					features[i] = FeatureCalculator.frequencyDomainEntropyWithDFT(values, mSampleWindow);
-//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated frequency domain entropy: " + features[i] + " with " + values.length + " values.");
+				for (Spectrum spectrum : mSpectra) {
+					features[i] = FeatureCalculator.frequencyDomainEntropy(spectrum);
+//					if (FrameworkContext.INFO) Log.i(TAG, "Calculated frequency domain entropy: " + features[i] + " with " + spectrum.getLength() + " values.");
+					i++;
+				}
+			} else if (featureKey.equals(SPECTRAL_ENERGY)) {
+				for (Spectrum spectrum : mSpectra) {
+					features[i] = spectrum.getTotalEnergy();
+					i++;
+				}
+			} else if (featureKey.equals(BAND_ENERGY_LOW)) {
+				for (Spectrum spectrum : mSpectra) {
+					features[i] = FeatureCalculator.bandEnergy(spectrum, 0.0, FeatureCalculator.LOW_BAND_LIMIT);
+					i++;
+				}
+			} else if (featureKey.equals(BAND_ENERGY_MEDIUM)) {
+				for (Spectrum spectrum : mSpectra) {
+					features[i] = FeatureCalculator.bandEnergy(spectrum, FeatureCalculator.LOW_BAND_LIMIT,
+							FeatureCalculator.MEDIUM_BAND_LIMIT);
+					i++;
+				}
+			} else if (featureKey.equals(BAND_ENERGY_HIGH)) {
+				for (Spectrum spectrum : mSpectra) {
+					features[i] = FeatureCalculator.bandEnergy(spectrum, FeatureCalculator.MEDIUM_BAND_LIMIT,
+							Double.MAX_VALUE);
+					i++;
+				}
+			} else if (featureKey.equals(SPECTRAL_CENTROID)) {
+				for (Spectrum spectrum : mSpectra) {
+					features[i] = FeatureCalculator.spectralCentroid(spectrum);
+					i++;
+				}
+			} else if (featureKey.equals(SPECTRAL_ROLLOFF)) {
+				for (Spectrum spectrum : mSpectra) {
+					features[i] = FeatureCalculator.spectralRolloff(spectrum, FeatureCalculator.ROLLOFF_FRACTION);
+					i++;
+				}
+			} else if (featureKey.equals(SPECTRAL_FLATNESS)) {
+				for (Spectrum spectrum : mSpectra) {
+					features[i] = FeatureCalculator.spectralFlatness(spectrum);
 					i++;
 				}
 			}
@@ -183,6 +389,48 @@ public abstract class AbstractSensorHandler implements IProbeKeys, IFeatureKeys
 		return features;
 	}
 	
+	private boolean hasMomentFeature() {
+		for (String featureKey : mFeatureKeys) {
+			if (featureKey.equals(SKEWNESS) || featureKey.equals(KURTOSIS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private boolean hasEntropyFeature() {
+		for (String featureKey : mFeatureKeys) {
+			if (featureKey.equals(ENTROPY)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private boolean hasQuantileFeature() {
+		for (String featureKey : mFeatureKeys) {
+			if (featureKey.equals(MEDIAN) || featureKey.equals(PERCENTILE_10) || featureKey.equals(PERCENTILE_25)
+					|| featureKey.equals(PERCENTILE_75) || featureKey.equals(PERCENTILE_90)
+					|| featureKey.equals(INTERQUARTILE_RANGE)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private boolean hasSpectralFeature() {
+		for (String featureKey : mFeatureKeys) {
+			if (featureKey.equals(FREQUENCY_PEAK) || featureKey.equals(FREQUENCY_DOMAIN_ENTROPY)
+					|| featureKey.equals(SPECTRAL_ENERGY) || featureKey.equals(BAND_ENERGY_LOW)
+					|| featureKey.equals(BAND_ENERGY_MEDIUM) || featureKey.equals(BAND_ENERGY_HIGH)
+					|| featureKey.equals(SPECTRAL_CENTROID) || featureKey.equals(SPECTRAL_ROLLOFF)
+					|| featureKey.equals(SPECTRAL_FLATNESS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	public String sensorFeatureString() {
 		StringBuilder string = new StringBuilder().append("------- SensorFeatureString -------\n").append(getSensorKey()).append(";");
 		for (String valueName : getValueNames()) {
@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.util.Date;
 
 import edu.teco.context.configuration.FrameworkContext;
+import edu.teco.context.log.LineBuffer;
+import edu.teco.context.log.NumberFormatter;
 
 import android.os.Environment;
 import android.util.Log;
@@ -39,6 +41,16 @@ public class SensorDataWriter {
 
 	private BufferedWriter writer = null;
 
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	/** reused for every line, the writeData methods may be called by several threads */
+	private final ThreadLocal<LineBuffer> lineBuffer = new ThreadLocal<LineBuffer>() {
+		@Override
+		protected LineBuffer initialValue() {
+			return new LineBuffer(256);
+		}
+	};
+
 	private SensorDataWriter() {
 		super();
 	}
@@ -211,14 +223,15 @@ public class SensorDataWriter {
 	}
 	
 	public void writeData(String time, String sensor, double[] values) {
-		// use of StringBuilder has better performance for loops
-		StringBuilder builder = new StringBuilder();
-		builder.append(time).append(";").append(sensor);
+		LineBuffer line = lineBuffer.get();
+		StringBuilder builder = line.clear();
+		builder.append(time).append(';').append(sensor);
 		for (double value : values) {
-			builder.append(";").append(value);
+			NumberFormatter.appendDouble(builder.append(';'), value);
 		}
+		builder.append(LINE_SEPARATOR);
 		
-		writeDataLine(builder.toString());
+		writeLine(line);
 	}
 	
 	/**
@@ -230,17 +243,34 @@ public class SensorDataWriter {
 	 * @param values
 	 */
 	public void writeData(String time, String classLabel, String sensor, float[] values) {
-		// use of StringBuilder has better performance for loops
-		StringBuilder builder = new StringBuilder();
-		builder.append(time).append(";").append(sensor);
+		LineBuffer line = lineBuffer.get();
+		StringBuilder builder = line.clear();
+		builder.append(time).append(';').append(sensor);
 		if (classLabel != null) {
-			builder.append(";").append(classLabel);
+			builder.append(';').append(classLabel);
 		}
 		for (float value : values) {
-			builder.append(";").append(value);
+			NumberFormatter.appendFloat(builder.append(';'), value);
 		}
+		builder.append(LINE_SEPARATOR);
 		
-		writeDataLine(builder.toString());
+		writeLine(line);
+	}
+	
+	/**
+	 * Writes the line with the line separator in one call, so the lines of
+	 * several threads are not mixed.
+	 */
+	private void writeLine(LineBuffer line) {
+		if (isWriterOpen()) {
+			try {
+				line.writeTo(writer);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		} else {
+			if (FrameworkContext.WARN) Log.w(TAG, "Could not write data. Writer is not open.");
+		}
 	}
 	
 	public void writeDataLine(String line) {
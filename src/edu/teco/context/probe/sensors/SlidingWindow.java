@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.probe.sensors;
+
+/**
+ * Ring buffer with the values of all axes of one sensor inside the sample
+ * window. Every value is stored once, no matter how much the windows overlap.
+ *
+ * Values are added with the time of the sensor event and removed when they are
+ * older than the sample window. While adding and removing, the statistics that
+ * can be updated in O(1) are maintained for every axis:
+ *
+ * <ul>
+ * <li>sum and sum of squares (shifted by the first value to avoid cancellation
+ * in the variance), recalculated exactly once per buffer length to stop
+ * rounding errors from accumulating</li>
+ * <li>minimum and maximum with monotonic deques (amortized O(1) per value)</li>
+ * </ul>
+ *
+ * see references:
+ * http://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Computing_shifted_data
+ * http://people.cs.uct.ac.za/~ksmith/articles/sliding_window_minimum.html
+ */
+public class SlidingWindow {
+
+	private final int mAxes;
+	private final int mCapacity;
+
+	/** values per axis, index is sequence number % capacity */
+	private final float[][] mValues;
+	private final double[] mTimes;
+	/** sequence number of the oldest value */
+	private long mHead = 0;
+	/** sequence number of the next value */
+	private long mTail = 0;
+
+	private final double[] mShift;
+	private final double[] mSum;
+	private final double[] mSumOfSquares;
+	private int mRemovedSinceRecalculation = 0;
+
+	/** sequence numbers of the values in the deques, per axis */
+	private final long[][] mMinDeque;
+	private final long[][] mMaxDeque;
+	private final int[] mMinFirst;
+	private final int[] mMinSize;
+	private final int[] mMaxFirst;
+	private final int[] mMaxSize;
+
+	/**
+	 * @param axes number of sensor axes
+	 * @param capacity maximum number of values per axis inside the window
+	 */
+	public SlidingWindow(int axes, int capacity) {
+		if (capacity < 1) {
+			throw new RuntimeException("SlidingWindow capacity must be at least 1");
+		}
+		mAxes = axes;
+		mCapacity = capacity;
+		mValues = new float[axes][capacity];
+		mTimes = new double[capacity];
+		mShift = new double[axes];
+		mSum = new double[axes];
+		mSumOfSquares = new double[axes];
+		mMinDeque = new long[axes][capacity];
+		mMaxDeque = new long[axes][capacity];
+		mMinFirst = new int[axes];
+		mMinSize = new int[axes];
+		mMaxFirst = new int[axes];
+		mMaxSize = new int[axes];
+	}
+
+	public void clear() {
+		mHead = 0;
+		mTail = 0;
+		mRemovedSinceRecalculation = 0;
+		for (int axis = 0; axis < mAxes; axis++) {
+			mSum[axis] = 0.0;
+			mSumOfSquares[axis] = 0.0;
+			mMinFirst[axis] = 0;
+			mMinSize[axis] = 0;
+			mMaxFirst[axis] = 0;
+			mMaxSize[axis] = 0;
+		}
+	}
+
+	/**
+	 * Adds the values of one sensor event.
+	 *
+	 * @param time time of the event in seconds
+	 * @param values at least one value per axis
+	 * @return false if the buffer was full and the oldest value was removed
+	 */
+	public boolean put(double time, float[] values) {
+		boolean isFull = isFull();
+		if (isFull) {
+			removeOldest();
+		}
+
+		if (isEmpty()) {
+			// new shift for the sums, close to the values of the window
+			for (int axis = 0; axis < mAxes; axis++) {
+				mShift[axis] = values[axis];
+			}
+		}
+
+		long sequence = mTail++;
+		int position = (int) (sequence % mCapacity);
+		mTimes[position] = time;
+
+		for (int axis = 0; axis < mAxes; axis++) {
+			float value = values[axis];
+			mValues[axis][position] = value;
+
+			double shifted = value - mShift[axis];
+			mSum[axis] += shifted;
+			mSumOfSquares[axis] += shifted * shifted;
+
+			pushMin(axis, sequence, value);
+			pushMax(axis, sequence, value);
+		}
+		return !isFull;
+	}
+
+	/**
+	 * Removes all values that are not newer than the given time.
+	 *
+	 * @param time time in seconds, e.g. current time - sample window
+	 */
+	public void removeUntil(double time) {
+		while (!isEmpty() && getOldestTime() <= time) {
+			removeOldest();
+		}
+	}
+
+	/**
+	 * Removes the oldest value (e.g. after it has been read with
+	 * {@link #getOldestValues(float[])}).
+	 */
+	public void removeOldest() {
+		long sequence = mHead++;
+		int position = (int) (sequence % mCapacity);
+
+		for (int axis = 0; axis < mAxes; axis++) {
+			double shifted = mValues[axis][position] - mShift[axis];
+			mSum[axis] -= shifted;
+			mSumOfSquares[axis] -= shifted * shifted;
+
+			if (mMinSize[axis] > 0 && mMinDeque[axis][mMinFirst[axis]] == sequence) {
+				mMinFirst[axis] = (mMinFirst[axis] + 1) % mCapacity;
+				mMinSize[axis]--;
+			}
+			if (mMaxSize[axis] > 0 && mMaxDeque[axis][mMaxFirst[axis]] == sequence) {
+				mMaxFirst[axis] = (mMaxFirst[axis] + 1) % mCapacity;
+				mMaxSize[axis]--;
+			}
+		}
+
+		if (isEmpty()) {
+			clear();
+		} else if (++mRemovedSinceRecalculation >= mCapacity) {
+			recalculateSums();
+		}
+	}
+
+	/**
+	 * Sums are recalculated from the buffer with a new shift, otherwise the
+	 * rounding errors of adding and subtracting would grow over time.
+	 */
+	private void recalculateSums() {
+		mRemovedSinceRecalculation = 0;
+		int first = (int) (mHead % mCapacity);
+		for (int axis = 0; axis < mAxes; axis++) {
+			float[] values = mValues[axis];
+			double shift = values[first];
+			double sum = 0.0;
+			double sumOfSquares = 0.0;
+			for (long sequence = mHead; sequence < mTail; sequence++) {
+				double shifted = values[(int) (sequence % mCapacity)] - shift;
+				sum += shifted;
+				sumOfSquares += shifted * shifted;
+			}
+			mShift[axis] = shift;
+			mSum[axis] = sum;
+			mSumOfSquares[axis] = sumOfSquares;
+		}
+	}
+
+	private void pushMin(int axis, long sequence, float value) {
+		long[] deque = mMinDeque[axis];
+		float[] values = mValues[axis];
+		// values behind the new one that are not smaller can never be the minimum again
+		while (mMinSize[axis] > 0) {
+			int last = (mMinFirst[axis] + mMinSize[axis] - 1) % mCapacity;
+			if (values[(int) (deque[last] % mCapacity)] >= value) {
+				mMinSize[axis]--;
+			} else {
+				break;
+			}
+		}
+		deque[(mMinFirst[axis] + mMinSize[axis]) % mCapacity] = sequence;
+		mMinSize[axis]++;
+	}
+
+	private void pushMax(int axis, long sequence, float value) {
+		long[] deque = mMaxDeque[axis];
+		float[] values = mValues[axis];
+		while (mMaxSize[axis] > 0) {
+			int last = (mMaxFirst[axis] + mMaxSize[axis] - 1) % mCapacity;
+			if (values[(int) (deque[last] % mCapacity)] <= value) {
+				mMaxSize[axis]--;
+			} else {
+				break;
+			}
+		}
+		deque[(mMaxFirst[axis] + mMaxSize[axis]) % mCapacity] = sequence;
+		mMaxSize[axis]++;
+	}
+
+	/**
+	 * Copies the values of one axis in time order.
+	 *
+	 * @param axis index of the axis
+	 * @param destination array with at least {@link #getCount()} elements
+	 * @return number of copied values
+	 */
+	public int copyValues(int axis, float[] destination) {
+		int count = getCount();
+		int first = (int) (mHead % mCapacity);
+		int firstPart = Math.min(count, mCapacity - first);
+		System.arraycopy(mValues[axis], first, destination, 0, firstPart);
+		System.arraycopy(mValues[axis], 0, destination, firstPart, count - firstPart);
+		return count;
+	}
+
+	/**
+	 * Copies the times of the values in time order.
+	 *
+	 * @param destination array with at least {@link #getCount()} elements
+	 * @return number of copied times
+	 */
+	public int copyTimes(double[] destination) {
+		int count = getCount();
+		int first = (int) (mHead % mCapacity);
+		int firstPart = Math.min(count, mCapacity - first);
+		System.arraycopy(mTimes, first, destination, 0, firstPart);
+		System.arraycopy(mTimes, 0, destination, firstPart, count - firstPart);
+		return count;
+	}
+
+	/**
+	 * @return time of the oldest value in seconds
+	 */
+	public double getOldestTime() {
+		return mTimes[(int) (mHead % mCapacity)];
+	}
+
+	/**
+	 * @param destination array with one element per axis for the oldest values
+	 */
+	public void getOldestValues(float[] destination) {
+		int position = (int) (mHead % mCapacity);
+		for (int axis = 0; axis < mAxes; axis++) {
+			destination[axis] = mValues[axis][position];
+		}
+	}
+
+	public int getCount() {
+		return (int) (mTail - mHead);
+	}
+
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	public int getAxes() {
+		return mAxes;
+	}
+
+	public boolean isEmpty() {
+		return mTail == mHead;
+	}
+
+	public boolean isFull() {
+		return getCount() == mCapacity;
+	}
+
+	public double getMean(int axis) {
+		int count = getCount();
+		return count > 0 ? mShift[axis] + mSum[axis] / count : 0.0;
+	}
+
+	/**
+	 * @return the population variance (divided by n)
+	 */
+	public double getVariance(int axis) {
+		int count = getCount();
+		if (count == 0) {
+			return 0.0;
+		}
+		double variance = (mSumOfSquares[axis] - mSum[axis] * mSum[axis] / count) / count;
+		return variance > 0.0 ? variance : 0.0;
+	}
+
+	public double getStandardDeviation(int axis) {
+		return Math.sqrt(getVariance(axis));
+	}
+
+	public double getMin(int axis) {
+		if (mMinSize[axis] == 0) {
+			return 0.0;
+		}
+		return mValues[axis][(int) (mMinDeque[axis][mMinFirst[axis]] % mCapacity)];
+	}
+
+	public double getMax(int axis) {
+		if (mMaxSize[axis] == 0) {
+			return 0.0;
+		}
+		return mValues[axis][(int) (mMaxDeque[axis][mMaxFirst[axis]] % mCapacity)];
+	}
+
+	public double getDifferenceMaxMin(int axis) {
+		return getMax(axis) - getMin(axis);
+	}
+
+}
@@ -0,0 +1,457 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.recognition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Classifier of the {@link WekaManager} that classifies feature vectors
+ * without WEKA instances. The training data is read through a
+ * {@link TrainingData} view of the memory mapped {@link FeatureStore} or of
+ * the WEKA instances, it is not copied. Live feature vectors are classified
+ * into a reused distribution array.
+ *
+ * A backend is still a WEKA classifier, so it can be evaluated with WEKA.
+ * The built-in backends are created by name with
+ * {@link #forName(String, String[])}. Every backend measures the time of its
+ * classifications and reports the size of its model, so the classifier can be
+ * chosen for the speed of the device. A trained backend can be saved in a
+ * {@link ModelFile}.
+ */
+public abstract class ClassifierBackend extends AbstractClassifier {
+
+	/** naive Bayes, options: -K kernel estimator, -D supervised discretization, -G grid resolution */
+	public static final String NAIVE_BAYES = "NaiveBayes";
+	/** binary decision tree, options: -D maximum depth, -M minimum instances per leaf */
+	public static final String DECISION_TREE = "DecisionTree";
+	/** multinomial logistic regression, options: -I iterations, -R ridge, -L learning rate */
+	public static final String LOGISTIC = "Logistic";
+	/** k nearest neighbors in a KD-tree, options: -K neighbors */
+	public static final String NEAREST_NEIGHBOR = "NearestNeighbor";
+
+	private static final long serialVersionUID = 1L;
+
+	/** data set with the attributes of the training data, null if not trained */
+	private Instances mHeader = null;
+	protected int mFeatureCount = 0;
+	protected int mClassCount = 0;
+
+	private long mClassificationCount = 0;
+	private long mClassificationNanos = 0;
+
+	/**
+	 * Labeled rows of the training data, rows without class are left out. The
+	 * values are read from the store or the instances when they are used.
+	 */
+	public interface TrainingData {
+
+		/**
+		 * @return number of rows with a class
+		 */
+		int getRowCount();
+
+		/**
+		 * Copies the feature values of the row, missing values are NaN.
+		 */
+		void getRow(int row, double[] features);
+
+		double getValue(int row, int feature);
+
+		int getClassIndex(int row);
+	}
+
+	/**
+	 * Rows of a feature store, the rows without class are skipped with an
+	 * index of the labeled rows (one int per row).
+	 */
+	private static class StoreData implements TrainingData {
+
+		private final FeatureStore mStore;
+		/** rows of the store with a class, null if all rows have a class */
+		private final int[] mRows;
+		private final int mRowCount;
+
+		StoreData(FeatureStore store) {
+			mStore = store;
+			int storeRowCount = store.getRowCount();
+			int rowCount = 0;
+			for (int row = 0; row < storeRowCount; row++) {
+				if (store.getClassIndex(row) >= 0) {
+					rowCount++;
+				}
+			}
+			if (rowCount == storeRowCount) {
+				mRows = null;
+			} else {
+				mRows = new int[rowCount];
+				int i = 0;
+				for (int row = 0; row < storeRowCount; row++) {
+					if (store.getClassIndex(row) >= 0) {
+						mRows[i++] = row;
+					}
+				}
+			}
+			mRowCount = rowCount;
+		}
+
+		public int getRowCount() {
+			return mRowCount;
+		}
+
+		public void getRow(int row, double[] features) {
+			mStore.getRow((mRows != null) ? mRows[row] : row, features);
+		}
+
+		public double getValue(int row, int feature) {
+			return mStore.getValue((mRows != null) ? mRows[row] : row, feature);
+		}
+
+		public int getClassIndex(int row) {
+			return mStore.getClassIndex((mRows != null) ? mRows[row] : row);
+		}
+	}
+
+	/**
+	 * Instances of a WEKA data set, the instances without class are skipped.
+	 */
+	private static class InstancesData implements TrainingData {
+
+		private final Instances mData;
+		private final int mFeatureCount;
+		/** instances with a class */
+		private final int[] mRows;
+
+		InstancesData(Instances data, int featureCount) {
+			mData = data;
+			mFeatureCount = featureCount;
+			int[] rows = new int[data.numInstances()];
+			int rowCount = 0;
+			for (int i = 0; i < data.numInstances(); i++) {
+				if (!Double.isNaN(data.instance(i).value(featureCount))) {
+					rows[rowCount++] = i;
+				}
+			}
+			mRows = (rowCount == rows.length) ? rows : Arrays.copyOf(rows, rowCount);
+		}
+
+		public int getRowCount() {
+			return mRows.length;
+		}
+
+		public void getRow(int row, double[] features) {
+			Instance instance = mData.instance(mRows[row]);
+			for (int feature = 0; feature < mFeatureCount; feature++) {
+				features[feature] = instance.value(feature);
+			}
+		}
+
+		public double getValue(int row, int feature) {
+			return mData.instance(mRows[row]).value(feature);
+		}
+
+		public int getClassIndex(int row) {
+			return (int) mData.instance(mRows[row]).value(mFeatureCount);
+		}
+	}
+
+	/**
+	 * Creates a built-in backend or any other WEKA classifier (e.g.
+	 * weka.classifiers.trees.J48), which classifies WEKA instances.
+	 *
+	 * @param name name of a built-in backend or class name of a WEKA classifier, null for the naive Bayes
+	 * @param options the options of the classifier, may be null
+	 * @return the classifier
+	 * @throws Exception if the classifier can not be created or the options are invalid
+	 */
+	public static Classifier forName(String name, String[] options) throws Exception {
+		options = (options == null) ? new String[0] : options.clone();
+
+		ClassifierBackend backend;
+		if (name == null || NAIVE_BAYES.equals(name)) {
+			backend = new NaiveBayesBackend();
+		} else if (DECISION_TREE.equals(name)) {
+			backend = new DecisionTreeBackend();
+		} else if (LOGISTIC.equals(name)) {
+			backend = new LogisticBackend();
+		} else if (NEAREST_NEIGHBOR.equals(name)) {
+			backend = new NearestNeighborBackend();
+		} else {
+			return AbstractClassifier.forName(name, options);
+		}
+		backend.setOptions(options);
+		return backend;
+	}
+
+	/**
+	 * Builds the classifier from the instances, instances without class are
+	 * ignored.
+	 */
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		Instances header = new Instances(data, 0);
+		header.setClassIndex(header.numAttributes() - 1);
+		train(header, new InstancesData(data, header.numAttributes() - 1));
+	}
+
+	/**
+	 * Builds the classifier from all rows of the store. The rows are read from
+	 * the memory mapped store, they are not copied into the heap.
+	 *
+	 * @param store the training data
+	 * @param header data set with the attributes of the store (features and nominal class as last attribute)
+	 * @throws Exception
+	 */
+	public void buildClassifier(FeatureStore store, Instances header) throws Exception {
+		header = new Instances(header, 0);
+		header.setClassIndex(header.numAttributes() - 1);
+		if (header.numAttributes() != store.getFeatureCount() + 1) {
+			throw new Exception("Attributes of the data set differ from the features of the store.");
+		}
+		train(header, new StoreData(store));
+	}
+
+	private void train(Instances header, TrainingData data) throws Exception {
+		mHeader = null;
+		mFeatureCount = header.numAttributes() - 1;
+		mClassCount = header.numClasses();
+		buildModel(header, data);
+		setTrained(header);
+	}
+
+	/**
+	 * Creates the model from the training data.
+	 *
+	 * @param header data set with the features and the nominal class as last attribute
+	 * @param data the labeled rows
+	 * @throws Exception
+	 */
+	protected abstract void buildModel(Instances header, TrainingData data) throws Exception;
+
+	/**
+	 * Writes the trained model, the options are saved by the
+	 * {@link ModelFile}.
+	 *
+	 * @throws IOException if the model can not be saved
+	 */
+	protected abstract void writeModel(ModelFile file) throws IOException;
+
+	/**
+	 * Reads the model written by {@link #writeModel(ModelFile)}, the options
+	 * and the feature and class count are already set.
+	 *
+	 * @throws IOException if the model is invalid
+	 */
+	protected abstract void readModel(ByteBuffer buffer) throws IOException;
+
+	/**
+	 * Reads the model of a {@link ModelFile} and marks the classifier as
+	 * trained.
+	 */
+	void load(Instances header, ByteBuffer buffer) throws IOException {
+		mHeader = null;
+		mFeatureCount = header.numAttributes() - 1;
+		mClassCount = header.numClasses();
+		readModel(buffer);
+		setTrained(header);
+	}
+
+	/**
+	 * @return name of the backend for {@link #forName(String, String[])}
+	 */
+	public abstract String getName();
+
+	/**
+	 * Calculates the class distribution of a feature vector.
+	 *
+	 * @param features the feature values, missing values are NaN
+	 * @param distribution array for the probability of every class
+	 * @return index of the most probable class or -1 if the vector can not be classified
+	 */
+	protected abstract int distributionForFeatures(double[] features, double[] distribution);
+
+	/**
+	 * @return size of the model in bytes, -1 if unknown
+	 */
+	public abstract long getModelSize();
+
+	/**
+	 * Marks the classifier as trained with the attributes of the data set and
+	 * resets the measured classification time.
+	 */
+	protected void setTrained(Instances header) {
+		mHeader = header;
+		mFeatureCount = header.numAttributes() - 1;
+		mClassCount = header.numClasses();
+		resetLatency();
+	}
+
+	/**
+	 * Classifies a feature vector, the time is added to the latency.
+	 *
+	 * @param features the feature values, missing values are NaN
+	 * @param distribution array for the probability of every class (class count elements)
+	 * @return index of the most probable class or -1 if the vector can not be classified
+	 */
+	public final int classify(double[] features, double[] distribution) {
+		if (mHeader == null) {
+			return -1;
+		}
+		long startTime = System.nanoTime();
+		int classIndex = distributionForFeatures(features, distribution);
+		mClassificationNanos += System.nanoTime() - startTime;
+		mClassificationCount++;
+		return classIndex;
+	}
+
+	@Override
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		if (mHeader == null) {
+			throw new Exception("Classifier is not trained.");
+		}
+		double[] features = new double[mFeatureCount];
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			features[feature] = instance.value(feature);
+		}
+		double[] distribution = new double[mClassCount];
+		classify(features, distribution);
+		return distribution;
+	}
+
+	public boolean isTrained() {
+		return mHeader != null;
+	}
+
+	/**
+	 * @return data set with the attributes of the training data, null if not trained
+	 */
+	Instances getHeader() {
+		return mHeader;
+	}
+
+	public int getFeatureCount() {
+		return mFeatureCount;
+	}
+
+	public int getClassCount() {
+		return mClassCount;
+	}
+
+	/**
+	 * @return mean time of the classifications since the training in nanoseconds
+	 */
+	public double getLatency() {
+		return (mClassificationCount == 0) ? 0.0 : (double) mClassificationNanos / mClassificationCount;
+	}
+
+	/**
+	 * @return number of classifications since the training
+	 */
+	public long getClassificationCount() {
+		return mClassificationCount;
+	}
+
+	public void resetLatency() {
+		mClassificationCount = 0;
+		mClassificationNanos = 0;
+	}
+
+	/**
+	 * Size of an array with a value per row and feature, for the backends
+	 * that keep the training data in the heap.
+	 *
+	 * @throws Exception if the array would be larger than the largest Java array
+	 */
+	protected static int getArraySize(int rowCount, int featureCount) throws Exception {
+		long size = (long) rowCount * featureCount;
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new Exception("Training data too large: " + rowCount + " rows with " + featureCount
+					+ " features do not fit into one array.");
+		}
+		return (int) size;
+	}
+
+	/**
+	 * Mean of every feature, missing values are ignored.
+	 */
+	protected static double[] calculateMeans(TrainingData data, int featureCount) {
+		double[] means = new double[featureCount];
+		int[] counts = new int[featureCount];
+		double[] values = new double[featureCount];
+		for (int row = 0; row < data.getRowCount(); row++) {
+			data.getRow(row, values);
+			for (int feature = 0; feature < featureCount; feature++) {
+				double value = values[feature];
+				if (!Double.isNaN(value)) {
+					means[feature] += value;
+					counts[feature]++;
+				}
+			}
+		}
+		for (int feature = 0; feature < featureCount; feature++) {
+			if (counts[feature] > 0) {
+				means[feature] /= counts[feature];
+			}
+		}
+		return means;
+	}
+
+	/**
+	 * Inverse standard deviation of every feature (0 for constant features),
+	 * missing values are ignored.
+	 */
+	protected static double[] calculateScales(TrainingData data, int featureCount, double[] means) {
+		double[] scales = new double[featureCount];
+		int[] counts = new int[featureCount];
+		double[] values = new double[featureCount];
+		for (int row = 0; row < data.getRowCount(); row++) {
+			data.getRow(row, values);
+			for (int feature = 0; feature < featureCount; feature++) {
+				double value = values[feature];
+				if (!Double.isNaN(value)) {
+					double delta = value - means[feature];
+					scales[feature] += delta * delta;
+					counts[feature]++;
+				}
+			}
+		}
+		for (int feature = 0; feature < featureCount; feature++) {
+			double variance = (counts[feature] > 0) ? scales[feature] / counts[feature] : 0.0;
+			scales[feature] = (variance > 0.0) ? 1.0 / Math.sqrt(variance) : 0.0;
+		}
+		return scales;
+	}
+
+	/**
+	 * @return index of the largest value, -1 if the array is empty
+	 */
+	protected static int maxIndex(double[] values, int length) {
+		int maxIndex = (length > 0) ? 0 : -1;
+		for (int i = 1; i < length; i++) {
+			if (values[i] > values[maxIndex]) {
+				maxIndex = i;
+			}
+		}
+		return maxIndex;
+	}
+
+}
@@ -0,0 +1,532 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.recognition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import weka.classifiers.bayes.NaiveBayes;
+import weka.core.Instances;
+import weka.core.Statistics;
+import weka.estimators.DiscreteEstimator;
+import weka.estimators.Estimator;
+import weka.estimators.KernelEstimator;
+import weka.estimators.NormalEstimator;
+
+/**
+ * Inference model of a trained {@link NaiveBayes} in flat primitive arrays.
+ * The class distribution of a feature vector is calculated directly from the
+ * double[] of the features, without WEKA instances and without creating
+ * objects, with the same arithmetic as
+ * {@link NaiveBayes#distributionForInstance(weka.core.Instance)} (the
+ * results are identical).
+ *
+ * The estimators of a feature and a class are stored in cell feature *
+ * class count + class. Kernel estimators store their kernels (the distinct
+ * rounded training values) one cell after another, the kernels of a cell
+ * start at its kernel offset.
+ *
+ * The sum over all kernels grows with the training data, so the kernel
+ * estimators can be precomputed on a grid (binned kernel density estimate):
+ * the kernel weights are spread linearly onto the two nearest grid points and
+ * convolved with the kernel, which is cut off after 6 standard deviations.
+ * The logarithm of the density is interpolated linearly between the grid
+ * points, a probability then costs the same for every amount of training
+ * data. Only values outside of the grid (6 standard deviations beyond the
+ * outer kernels) are summed up from the kernels, there only the outer kernels
+ * contribute. The grid probabilities are not identical to WEKA, the kernel
+ * sum of WEKA stops at a relative error of 1%.
+ *
+ * The model is not changed when the classifier is trained again, it has to
+ * be compiled again.
+ */
+public final class CompiledNaiveBayes {
+
+	/** probabilities are not smaller, like in {@link NaiveBayes} */
+	private static final double MIN_PROBABILITY = 1e-75;
+	/** scale of the probabilities if all are smaller than the minimum */
+	private static final double UNDERFLOW_SCALE = 1e75;
+	/** relative error of the kernel sum, like in {@link KernelEstimator} */
+	private static final double MAX_ERROR = 0.01;
+
+	/** grid points per standard deviation of the kernels */
+	public static final int DEFAULT_GRID_RESOLUTION = 8;
+	/** grid points of one kernel estimator, the resolution is lower for a wider range */
+	private static final int MAX_GRID_POINTS = 2048;
+	/** standard deviations after which the kernels are cut off */
+	private static final double KERNEL_CUTOFF = 6.0;
+
+	private final int mClassCount;
+	private final int mFeatureCount;
+	private final boolean isKernelEstimator;
+
+	private final double[] mClassProbabilities;
+	/** exponent of the probabilities of every feature */
+	private final double[] mFeatureWeights;
+
+	/** per cell: mean (normal estimator), standard deviation and precision */
+	private final double[] mMeans;
+	private final double[] mStdDevs;
+	private final double[] mPrecisions;
+
+	/** per cell: sum of the kernel weights and kernel offset (cell count + 1) */
+	private final double[] mWeightSums;
+	private final int[] mKernelOffsets;
+	private final double[] mKernelMeans;
+	private final double[] mKernelWeights;
+
+	/** per cell: position of the first grid point, distance of the grid points and grid offset (cell count + 1) */
+	private double[] mGridStarts = null;
+	private double[] mGridSteps = null;
+	private int[] mGridOffsets = null;
+	/** logarithm of the kernel density at the grid points */
+	private double[] mGridLogDensities = null;
+
+	private CompiledNaiveBayes(int classCount, int featureCount, boolean isKernelEstimator, int kernelCount) {
+		mClassCount = classCount;
+		mFeatureCount = featureCount;
+		this.isKernelEstimator = isKernelEstimator;
+		int cellCount = classCount * featureCount;
+		mClassProbabilities = new double[classCount];
+		mFeatureWeights = new double[featureCount];
+		mMeans = new double[cellCount];
+		mStdDevs = new double[cellCount];
+		mPrecisions = new double[cellCount];
+		mWeightSums = new double[cellCount];
+		mKernelOffsets = new int[cellCount + 1];
+		mKernelMeans = new double[kernelCount];
+		mKernelWeights = new double[kernelCount];
+	}
+
+	/**
+	 * Creates the model from the arrays of a model file.
+	 */
+	private CompiledNaiveBayes(int classCount, int featureCount, boolean isKernelEstimator, ByteBuffer buffer)
+			throws IOException {
+		mClassCount = classCount;
+		mFeatureCount = featureCount;
+		this.isKernelEstimator = isKernelEstimator;
+		int cellCount = classCount * featureCount;
+		mClassProbabilities = ModelFile.getDoubles(buffer, classCount);
+		mFeatureWeights = ModelFile.getDoubles(buffer, featureCount);
+		mMeans = ModelFile.getDoubles(buffer, cellCount);
+		mStdDevs = ModelFile.getDoubles(buffer, cellCount);
+		mPrecisions = ModelFile.getDoubles(buffer, cellCount);
+		mWeightSums = ModelFile.getDoubles(buffer, cellCount);
+		mKernelOffsets = ModelFile.getInts(buffer, cellCount + 1);
+		int kernelCount = mKernelOffsets[cellCount];
+		mKernelMeans = ModelFile.getDoubles(buffer, kernelCount);
+		mKernelWeights = ModelFile.getDoubles(buffer, kernelCount);
+
+		mGridStarts = ModelFile.getDoubles(buffer);
+		if (mGridStarts != null) {
+			mGridSteps = ModelFile.getDoubles(buffer, cellCount);
+			mGridOffsets = ModelFile.getInts(buffer, cellCount + 1);
+			mGridLogDensities = ModelFile.getDoubles(buffer, mGridOffsets[cellCount]);
+			if (mGridStarts.length != cellCount) {
+				throw new IOException("Invalid model: " + cellCount + " values expected.");
+			}
+		}
+	}
+
+	/**
+	 * Writes the model arrays, see {@link #read(ByteBuffer)}.
+	 */
+	void write(ModelFile file) {
+		file.putInt(mClassCount);
+		file.putInt(mFeatureCount);
+		file.putInt(isKernelEstimator ? 1 : 0);
+		file.putDoubles(mClassProbabilities);
+		file.putDoubles(mFeatureWeights);
+		file.putDoubles(mMeans);
+		file.putDoubles(mStdDevs);
+		file.putDoubles(mPrecisions);
+		file.putDoubles(mWeightSums);
+		file.putInts(mKernelOffsets);
+		file.putDoubles(mKernelMeans);
+		file.putDoubles(mKernelWeights);
+		file.putDoubles(mGridStarts);
+		if (mGridStarts != null) {
+			file.putDoubles(mGridSteps);
+			file.putInts(mGridOffsets);
+			file.putDoubles(mGridLogDensities);
+		}
+	}
+
+	/**
+	 * Reads a model written by {@link #write(ModelFile)}, the probabilities
+	 * are identical to the written model.
+	 *
+	 * @throws IOException if the model is invalid
+	 */
+	static CompiledNaiveBayes read(ByteBuffer buffer) throws IOException {
+		int classCount = buffer.getInt();
+		int featureCount = buffer.getInt();
+		boolean isKernelEstimator = buffer.getInt() != 0;
+		if (classCount < 0 || featureCount < 0 || (long) classCount * featureCount > buffer.remaining() / 8) {
+			throw new IOException("Invalid model: " + classCount + " classes, " + featureCount + " features.");
+		}
+		return new CompiledNaiveBayes(classCount, featureCount, isKernelEstimator, buffer);
+	}
+
+	/**
+	 * Copies the parameters of the estimators of a trained naive Bayes.
+	 *
+	 * @param classEstimator estimator of the class probabilities
+	 * @param estimators estimators of every feature and class
+	 * @param header data set with the features and the class as last attribute
+	 * @param gridResolution grid points per standard deviation of the kernel estimators, 0 to sum up the kernels
+	 * @return the model or null if the estimators are not all normal or all kernel estimators
+	 */
+	public static CompiledNaiveBayes compile(Estimator classEstimator, Estimator[][] estimators, Instances header,
+			int gridResolution) {
+		if (!(classEstimator instanceof DiscreteEstimator) || estimators == null || estimators.length == 0) {
+			return null;
+		}
+		int featureCount = estimators.length;
+		int classCount = estimators[0].length;
+		boolean isKernelEstimator = estimators[0].length > 0 && estimators[0][0] instanceof KernelEstimator;
+
+		int kernelCount = 0;
+		for (int feature = 0; feature < featureCount; feature++) {
+			if (estimators[feature].length != classCount) {
+				return null;
+			}
+			for (int j = 0; j < classCount; j++) {
+				Estimator estimator = estimators[feature][j];
+				if (isKernelEstimator && estimator instanceof KernelEstimator) {
+					kernelCount += ((KernelEstimator) estimator).getNumKernels();
+				} else if (isKernelEstimator || !(estimator instanceof NormalEstimator)) {
+					return null;
+				}
+			}
+		}
+
+		CompiledNaiveBayes model = new CompiledNaiveBayes(classCount, featureCount, isKernelEstimator, kernelCount);
+		for (int j = 0; j < classCount; j++) {
+			model.mClassProbabilities[j] = classEstimator.getProbability(j);
+		}
+		for (int feature = 0; feature < featureCount; feature++) {
+			model.mFeatureWeights[feature] = header.attribute(feature).weight();
+		}
+
+		int offset = 0;
+		for (int feature = 0; feature < featureCount; feature++) {
+			for (int j = 0; j < classCount; j++) {
+				int cell = feature * classCount + j;
+				model.mKernelOffsets[cell] = offset;
+				if (isKernelEstimator) {
+					KernelEstimator estimator = (KernelEstimator) estimators[feature][j];
+					int count = estimator.getNumKernels();
+					System.arraycopy(estimator.getMeans(), 0, model.mKernelMeans, offset, count);
+					System.arraycopy(estimator.getWeights(), 0, model.mKernelWeights, offset, count);
+					double weightSum = 0;
+					for (int i = offset; i < offset + count; i++) {
+						weightSum += model.mKernelWeights[i];
+					}
+					model.mWeightSums[cell] = weightSum;
+					model.mStdDevs[cell] = estimator.getStdDev();
+					model.mPrecisions[cell] = estimator.getPrecision();
+					offset += count;
+				} else {
+					NormalEstimator estimator = (NormalEstimator) estimators[feature][j];
+					model.mMeans[cell] = estimator.getMean();
+					model.mStdDevs[cell] = estimator.getStdDev();
+					model.mPrecisions[cell] = estimator.getPrecision();
+				}
+			}
+		}
+		model.mKernelOffsets[featureCount * classCount] = offset;
+
+		if (isKernelEstimator && gridResolution > 0) {
+			model.createGrid(gridResolution);
+		}
+		return model;
+	}
+
+	/**
+	 * Calculates the kernel density of every cell on its grid.
+	 */
+	private void createGrid(int resolution) {
+		int cellCount = mClassCount * mFeatureCount;
+		mGridStarts = new double[cellCount];
+		mGridSteps = new double[cellCount];
+		mGridOffsets = new int[cellCount + 1];
+
+		int gridTotal = 0;
+		for (int cell = 0; cell < cellCount; cell++) {
+			mGridOffsets[cell] = gridTotal;
+			int start = mKernelOffsets[cell];
+			int end = mKernelOffsets[cell + 1];
+			if (start == end) {
+				// no kernels, the probability is calculated directly
+				continue;
+			}
+			double margin = KERNEL_CUTOFF * mStdDevs[cell] + mPrecisions[cell] / 2;
+			double low = mKernelMeans[start] - margin;
+			double range = mKernelMeans[end - 1] + margin - low;
+			double step = mStdDevs[cell] / resolution;
+			int points = (int) Math.ceil(range / step) + 1;
+			if (points > MAX_GRID_POINTS) {
+				points = MAX_GRID_POINTS;
+				step = range / (points - 1);
+			}
+			mGridStarts[cell] = low;
+			mGridSteps[cell] = step;
+			gridTotal += points;
+		}
+		mGridOffsets[cellCount] = gridTotal;
+		mGridLogDensities = new double[gridTotal];
+
+		double[] bins = new double[MAX_GRID_POINTS];
+		for (int cell = 0; cell < cellCount; cell++) {
+			int gridOffset = mGridOffsets[cell];
+			int points = mGridOffsets[cell + 1] - gridOffset;
+			if (points == 0) {
+				continue;
+			}
+			double low = mGridStarts[cell];
+			double step = mGridSteps[cell];
+			double precision = mPrecisions[cell];
+			double stdDev = mStdDevs[cell];
+
+			// linear binning of the kernel weights
+			for (int i = 0; i < points; i++) {
+				bins[i] = 0.0;
+			}
+			for (int i = mKernelOffsets[cell]; i < mKernelOffsets[cell + 1]; i++) {
+				double position = (mKernelMeans[i] - low) / step;
+				int index = Math.min((int) position, points - 2);
+				double fraction = position - index;
+				bins[index] += mKernelWeights[i] * (1.0 - fraction);
+				bins[index + 1] += mKernelWeights[i] * fraction;
+			}
+
+			// the kernel at the distances of the grid points
+			int taps = Math.min(points - 1, (int) Math.ceil((KERNEL_CUTOFF * stdDev + precision / 2) / step));
+			double[] kernel = new double[taps + 1];
+			for (int t = 0; t <= taps; t++) {
+				double delta = t * step;
+				kernel[t] = Statistics.normalProbability((delta + (precision / 2)) / stdDev)
+						- Statistics.normalProbability((delta - (precision / 2)) / stdDev);
+			}
+
+			double weightSum = mWeightSums[cell];
+			for (int k = 0; k < points; k++) {
+				double density = 0.0;
+				int from = Math.max(0, k - taps);
+				int to = Math.min(points - 1, k + taps);
+				for (int i = from; i <= to; i++) {
+					density += bins[i] * kernel[Math.abs(i - k)];
+				}
+				mGridLogDensities[gridOffset + k] = Math.log(Math.max(density / weightSum, Double.MIN_VALUE));
+			}
+		}
+	}
+
+	/**
+	 * Calculates the normalized class distribution of a feature vector,
+	 * missing features (NaN) are ignored.
+	 *
+	 * @param features at least the features of the model
+	 * @param distribution array for the probability of every class
+	 * @return index of the most probable class (the first one if equal) or -1 if an estimator returned NaN
+	 */
+	public int distributionForFeatures(double[] features, double[] distribution) {
+		int classCount = mClassCount;
+		for (int j = 0; j < classCount; j++) {
+			distribution[j] = mClassProbabilities[j];
+		}
+
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			double value = features[feature];
+			if (Double.isNaN(value)) {
+				continue;
+			}
+			double weight = mFeatureWeights[feature];
+			double max = 0;
+			int cell = feature * classCount;
+			for (int j = 0; j < classCount; j++, cell++) {
+				double probability = isKernelEstimator ? kernelProbability(cell, value) : normalProbability(cell,
+						value);
+				if (weight != 1.0) {
+					probability = Math.pow(probability, weight);
+				}
+				distribution[j] *= Math.max(MIN_PROBABILITY, probability);
+				if (distribution[j] > max) {
+					max = distribution[j];
+				}
+				if (Double.isNaN(distribution[j])) {
+					return -1;
+				}
+			}
+			// danger of probability underflow
+			if (max > 0 && max < MIN_PROBABILITY) {
+				for (int j = 0; j < classCount; j++) {
+					distribution[j] *= UNDERFLOW_SCALE;
+				}
+			}
+		}
+
+		double sum = 0;
+		for (int j = 0; j < classCount; j++) {
+			sum += distribution[j];
+		}
+		if (!(sum > 0)) {
+			return -1;
+		}
+		int maxIndex = 0;
+		for (int j = 0; j < classCount; j++) {
+			distribution[j] /= sum;
+			if (distribution[j] > distribution[maxIndex]) {
+				maxIndex = j;
+			}
+		}
+		return maxIndex;
+	}
+
+	/**
+	 * @see NormalEstimator#getProbability(double)
+	 */
+	private double normalProbability(int cell, double value) {
+		double precision = mPrecisions[cell];
+		double stdDev = mStdDevs[cell];
+		double rounded = Math.rint(value / precision) * precision;
+		double zLower = (rounded - mMeans[cell] - (precision / 2)) / stdDev;
+		double zUpper = (rounded - mMeans[cell] + (precision / 2)) / stdDev;
+		return Statistics.normalProbability(zUpper) - Statistics.normalProbability(zLower);
+	}
+
+	/**
+	 * Sums up the kernels from the nearest one outwards until the rest can
+	 * not change the sum by more than the maximum error.
+	 *
+	 * @see KernelEstimator#getProbability(double)
+	 */
+	private double kernelProbability(int cell, double value) {
+		if (mGridLogDensities != null) {
+			int gridOffset = mGridOffsets[cell];
+			int points = mGridOffsets[cell + 1] - gridOffset;
+			double position = (value - mGridStarts[cell]) / mGridSteps[cell];
+			if (position >= 0 && position <= points - 1) {
+				int index = Math.min((int) position, points - 2);
+				double fraction = position - index;
+				double lower = mGridLogDensities[gridOffset + index];
+				double upper = mGridLogDensities[gridOffset + index + 1];
+				return Math.exp(lower + fraction * (upper - lower));
+			}
+		}
+
+		double precision = mPrecisions[cell];
+		double stdDev = mStdDevs[cell];
+		int start = mKernelOffsets[cell];
+		int end = mKernelOffsets[cell + 1];
+		if (start == end) {
+			double zLower = (value - (precision / 2)) / stdDev;
+			double zUpper = (value + (precision / 2)) / stdDev;
+			return Statistics.normalProbability(zUpper) - Statistics.normalProbability(zLower);
+		}
+
+		double[] means = mKernelMeans;
+		double[] weights = mKernelWeights;
+		double weightSum = mWeightSums[cell];
+		double sum = 0;
+		double partialWeightSum = 0;
+		int nearest = findNearestKernel(start, end, value);
+		for (int i = nearest; i < end; i++) {
+			double delta = means[i] - value;
+			double probability = Statistics.normalProbability((delta + (precision / 2)) / stdDev)
+					- Statistics.normalProbability((delta - (precision / 2)) / stdDev);
+			sum += probability * weights[i];
+			partialWeightSum += weights[i];
+			if (probability * (weightSum - partialWeightSum) < sum * MAX_ERROR) {
+				break;
+			}
+		}
+		for (int i = nearest - 1; i >= start; i--) {
+			double delta = means[i] - value;
+			double probability = Statistics.normalProbability((delta + (precision / 2)) / stdDev)
+					- Statistics.normalProbability((delta - (precision / 2)) / stdDev);
+			sum += probability * weights[i];
+			partialWeightSum += weights[i];
+			if (probability * (weightSum - partialWeightSum) < sum * MAX_ERROR) {
+				break;
+			}
+		}
+		return sum / weightSum;
+	}
+
+	/**
+	 * @return index of the kernel with the value or of the first greater kernel
+	 */
+	private int findNearestKernel(int start, int end, double value) {
+		int low = start;
+		int high = end;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			double mean = mKernelMeans[middle];
+			if (mean == value) {
+				return middle;
+			}
+			if (mean > value) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+
+	public int getClassCount() {
+		return mClassCount;
+	}
+
+	public int getFeatureCount() {
+		return mFeatureCount;
+	}
+
+	public boolean isKernelEstimator() {
+		return isKernelEstimator;
+	}
+
+	/**
+	 * @return number of kernels of all kernel estimators
+	 */
+	public int getKernelCount() {
+		return mKernelMeans.length;
+	}
+
+	/**
+	 * @return number of grid points of all kernel estimators, 0 if the kernels are summed up
+	 */
+	public int getGridPointCount() {
+		return (mGridLogDensities == null) ? 0 : mGridLogDensities.length;
+	}
+
+	/**
+	 * @return size of the model arrays in bytes
+	 */
+	public long getModelSize() {
+		long size = 8L * (mClassProbabilities.length + mFeatureWeights.length + mMeans.length + mStdDevs.length
+				+ mPrecisions.length + mWeightSums.length + mKernelMeans.length + mKernelWeights.length);
+		size += 4L * mKernelOffsets.length;
+		if (mGridLogDensities != null) {
+			size += 8L * (mGridStarts.length + mGridSteps.length + mGridLogDensities.length) + 4L * mGridOffsets.length;
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,442 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.recognition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Binary decision tree backend. Every node splits at the threshold of one
+ * feature with the largest information gain (weighted with the fraction of
+ * known values like C4.5), until the maximum depth, pure nodes or the minimum
+ * number of instances per leaf. The leaves have the Laplace estimate of the
+ * class distribution of their instances. Missing values go to the child with
+ * more instances.
+ *
+ * The nodes are stored in flat arrays, a classification follows one branch
+ * per level. The rows of every feature are sorted once, the node splits
+ * partition the sorted rows, so a level costs one pass over the rows of
+ * every feature. The feature values are read from the training data, but the
+ * sorted rows are kept in the heap while the tree is built (one int per
+ * feature value).
+ *
+ * Options: -D maximum depth, -M minimum instances per leaf.
+ */
+public class DecisionTreeBackend extends ClassifierBackend {
+
+	public static final int DEFAULT_MAX_DEPTH = 12;
+	public static final int DEFAULT_MIN_LEAF_SIZE = 2;
+
+	private static final long serialVersionUID = 1L;
+
+	/** minimum information gain of a split */
+	private static final double MIN_GAIN = 1e-10;
+
+	private int mMaxDepth = DEFAULT_MAX_DEPTH;
+	private int mMinLeafSize = DEFAULT_MIN_LEAF_SIZE;
+
+	/** per node: split feature (-1 for leaves), threshold, children (values <= threshold go left) */
+	private int mNodeCount = 0;
+	private int[] mSplitFeatures = new int[0];
+	private double[] mThresholds = new double[0];
+	private int[] mLeftChildren = new int[0];
+	private int[] mRightChildren = new int[0];
+	private boolean[] mIsMissingLeft = new boolean[0];
+	/** per node: most probable class and class distribution (class count values) */
+	private int[] mNodeClasses = new int[0];
+	private double[] mDistributions = new double[0];
+
+	/** training state: rows of the node ranges sorted by every feature */
+	private transient TrainingData mData;
+	private transient int[] mClasses;
+	private transient int[][] mSortedRows;
+	private transient int[] mRowBuffer;
+	private transient boolean[] mIsLeftRow;
+	private transient double[] mLeftCounts;
+	private transient double[] mTotalCounts;
+
+	@Override
+	public void setOptions(String[] options) throws Exception {
+		String maxDepth = Utils.getOption('D', options);
+		mMaxDepth = (maxDepth.length() > 0) ? Integer.parseInt(maxDepth) : DEFAULT_MAX_DEPTH;
+		String minLeafSize = Utils.getOption('M', options);
+		mMinLeafSize = (minLeafSize.length() > 0) ? Math.max(1, Integer.parseInt(minLeafSize)) : DEFAULT_MIN_LEAF_SIZE;
+	}
+
+	@Override
+	public String[] getOptions() {
+		return new String[] { "-D", String.valueOf(mMaxDepth), "-M", String.valueOf(mMinLeafSize) };
+	}
+
+	@Override
+	protected void buildModel(Instances header, TrainingData data) throws Exception {
+		int rowCount = data.getRowCount();
+		// the sorted rows hold one int per feature value
+		getArraySize(rowCount, mFeatureCount);
+		mData = data;
+		mClasses = new int[rowCount];
+		for (int row = 0; row < rowCount; row++) {
+			mClasses[row] = data.getClassIndex(row);
+		}
+		mRowBuffer = new int[rowCount];
+		mIsLeftRow = new boolean[rowCount];
+		mLeftCounts = new double[mClassCount];
+		mTotalCounts = new double[mClassCount];
+		mSortedRows = new int[mFeatureCount][];
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			mSortedRows[feature] = sortRows(feature, rowCount);
+		}
+
+		mNodeCount = 0;
+		int capacity = 64;
+		mSplitFeatures = new int[capacity];
+		mThresholds = new double[capacity];
+		mLeftChildren = new int[capacity];
+		mRightChildren = new int[capacity];
+		mIsMissingLeft = new boolean[capacity];
+		mNodeClasses = new int[capacity];
+		mDistributions = new double[capacity * mClassCount];
+		try {
+			buildNode(0, rowCount, 0);
+		} finally {
+			mData = null;
+			mClasses = null;
+			mSortedRows = null;
+			mRowBuffer = null;
+			mIsLeftRow = null;
+		}
+		trimNodes();
+	}
+
+	/**
+	 * Creates the node of the rows in the range of the sorted rows and its
+	 * children.
+	 *
+	 * @return index of the node
+	 */
+	private int buildNode(int start, int end, int depth) {
+		int node = addNode();
+		int rowCount = end - start;
+
+		// class distribution of the node
+		int[] rows = (mFeatureCount > 0) ? mSortedRows[0] : null;
+		double[] counts = new double[mClassCount];
+		for (int i = start; i < end; i++) {
+			counts[mClasses[(rows != null) ? rows[i] : i]]++;
+		}
+		int nodeClass = 0;
+		int distributionOffset = node * mClassCount;
+		for (int j = 0; j < mClassCount; j++) {
+			mDistributions[distributionOffset + j] = (counts[j] + 1.0) / (rowCount + mClassCount);
+			if (counts[j] > counts[nodeClass]) {
+				nodeClass = j;
+			}
+		}
+		mNodeClasses[node] = nodeClass;
+		mSplitFeatures[node] = -1;
+
+		if (depth >= mMaxDepth || rowCount < 2 * mMinLeafSize || counts[nodeClass] == rowCount || rows == null) {
+			return node;
+		}
+
+		// best split of all features
+		int bestFeature = -1;
+		double bestThreshold = 0.0;
+		double bestGain = MIN_GAIN;
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			double[] split = findSplit(feature, start, end);
+			if (split != null && split[0] > bestGain) {
+				bestGain = split[0];
+				bestThreshold = split[1];
+				bestFeature = feature;
+			}
+		}
+		if (bestFeature < 0) {
+			return node;
+		}
+
+		// rows of the children, missing values to the larger child
+		int leftCount = 0;
+		int missingCount = 0;
+		for (int i = start; i < end; i++) {
+			int row = rows[i];
+			double value = mData.getValue(row, bestFeature);
+			if (value <= bestThreshold) {
+				leftCount++;
+			} else if (Double.isNaN(value)) {
+				missingCount++;
+			}
+		}
+		boolean isMissingLeft = 2 * leftCount >= rowCount - missingCount;
+		leftCount = 0;
+		for (int i = start; i < end; i++) {
+			int row = rows[i];
+			double value = mData.getValue(row, bestFeature);
+			boolean isLeft = (value <= bestThreshold) || (Double.isNaN(value) && isMissingLeft);
+			mIsLeftRow[row] = isLeft;
+			if (isLeft) {
+				leftCount++;
+			}
+		}
+		if (leftCount == 0 || leftCount == rowCount) {
+			return node;
+		}
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			partition(mSortedRows[feature], start, end);
+		}
+
+		mSplitFeatures[node] = bestFeature;
+		mThresholds[node] = bestThreshold;
+		mIsMissingLeft[node] = isMissingLeft;
+		int leftChild = buildNode(start, start + leftCount, depth + 1);
+		int rightChild = buildNode(start + leftCount, end, depth + 1);
+		mLeftChildren[node] = leftChild;
+		mRightChildren[node] = rightChild;
+		return node;
+	}
+
+	/**
+	 * @return the weighted information gain and the threshold of the best split of the feature, null if there is none
+	 */
+	private double[] findSplit(int feature, int start, int end) {
+		int[] rows = mSortedRows[feature];
+		Arrays.fill(mTotalCounts, 0.0);
+		// missing values are sorted to the end
+		int knownEnd = start;
+		while (knownEnd < end && !Double.isNaN(mData.getValue(rows[knownEnd], feature))) {
+			mTotalCounts[mClasses[rows[knownEnd]]]++;
+			knownEnd++;
+		}
+		int knownCount = knownEnd - start;
+		if (knownCount < 2 * mMinLeafSize) {
+			return null;
+		}
+
+		double totalEntropy = entropy(mTotalCounts, knownCount);
+		Arrays.fill(mLeftCounts, 0.0);
+		double bestEntropy = Double.MAX_VALUE;
+		double bestThreshold = 0.0;
+		for (int i = start; i < knownEnd - 1; i++) {
+			mLeftCounts[mClasses[rows[i]]]++;
+			int leftCount = i - start + 1;
+			int rightCount = knownCount - leftCount;
+			if (leftCount < mMinLeafSize || rightCount < mMinLeafSize) {
+				continue;
+			}
+			double value = mData.getValue(rows[i], feature);
+			double nextValue = mData.getValue(rows[i + 1], feature);
+			if (value == nextValue) {
+				continue;
+			}
+			double splitEntropy = leftCount * entropy(mLeftCounts, leftCount) + rightCount
+					* rightEntropy(rightCount);
+			if (splitEntropy < bestEntropy) {
+				bestEntropy = splitEntropy;
+				bestThreshold = (value + nextValue) / 2.0;
+				// the threshold must be smaller than the next value
+				if (bestThreshold >= nextValue) {
+					bestThreshold = value;
+				}
+			}
+		}
+		if (bestEntropy == Double.MAX_VALUE) {
+			return null;
+		}
+		double gain = (totalEntropy - bestEntropy / knownCount) * knownCount / (end - start);
+		return new double[] { gain, bestThreshold };
+	}
+
+	private double rightEntropy(int rightCount) {
+		double entropy = 0.0;
+		for (int j = 0; j < mClassCount; j++) {
+			double count = mTotalCounts[j] - mLeftCounts[j];
+			if (count > 0) {
+				double p = count / rightCount;
+				entropy -= p * Math.log(p);
+			}
+		}
+		return entropy;
+	}
+
+	private double entropy(double[] counts, int total) {
+		double entropy = 0.0;
+		for (int j = 0; j < mClassCount; j++) {
+			if (counts[j] > 0) {
+				double p = counts[j] / total;
+				entropy -= p * Math.log(p);
+			}
+		}
+		return entropy;
+	}
+
+	/**
+	 * Moves the left rows of the range before the right rows, the order of
+	 * the rows is kept.
+	 */
+	private void partition(int[] rows, int start, int end) {
+		int left = start;
+		int right = 0;
+		for (int i = start; i < end; i++) {
+			int row = rows[i];
+			if (mIsLeftRow[row]) {
+				rows[left++] = row;
+			} else {
+				mRowBuffer[right++] = row;
+			}
+		}
+		System.arraycopy(mRowBuffer, 0, rows, left, right);
+	}
+
+	/**
+	 * @return the rows sorted by the value of the feature, missing values last
+	 */
+	private int[] sortRows(int feature, int rowCount) {
+		final double[] column = new double[rowCount];
+		Integer[] boxedRows = new Integer[rowCount];
+		for (int row = 0; row < rowCount; row++) {
+			column[row] = mData.getValue(row, feature);
+			boxedRows[row] = row;
+		}
+		Arrays.sort(boxedRows, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer row1, Integer row2) {
+				return Double.compare(column[row1], column[row2]);
+			}
+		});
+		int[] rows = new int[rowCount];
+		for (int row = 0; row < rowCount; row++) {
+			rows[row] = boxedRows[row];
+		}
+		return rows;
+	}
+
+	private int addNode() {
+		if (mNodeCount == mSplitFeatures.length) {
+			int capacity = 2 * mNodeCount;
+			mSplitFeatures = Arrays.copyOf(mSplitFeatures, capacity);
+			mThresholds = Arrays.copyOf(mThresholds, capacity);
+			mLeftChildren = Arrays.copyOf(mLeftChildren, capacity);
+			mRightChildren = Arrays.copyOf(mRightChildren, capacity);
+			mIsMissingLeft = Arrays.copyOf(mIsMissingLeft, capacity);
+			mNodeClasses = Arrays.copyOf(mNodeClasses, capacity);
+			mDistributions = Arrays.copyOf(mDistributions, capacity * mClassCount);
+		}
+		return mNodeCount++;
+	}
+
+	private void trimNodes() {
+		mSplitFeatures = Arrays.copyOf(mSplitFeatures, mNodeCount);
+		mThresholds = Arrays.copyOf(mThresholds, mNodeCount);
+		mLeftChildren = Arrays.copyOf(mLeftChildren, mNodeCount);
+		mRightChildren = Arrays.copyOf(mRightChildren, mNodeCount);
+		mIsMissingLeft = Arrays.copyOf(mIsMissingLeft, mNodeCount);
+		mNodeClasses = Arrays.copyOf(mNodeClasses, mNodeCount);
+		mDistributions = Arrays.copyOf(mDistributions, mNodeCount * mClassCount);
+	}
+
+	@Override
+	protected int distributionForFeatures(double[] features, double[] distribution) {
+		if (mNodeCount == 0) {
+			return -1;
+		}
+		int node = 0;
+		int feature = mSplitFeatures[0];
+		while (feature >= 0) {
+			double value = features[feature];
+			if (value <= mThresholds[node]) {
+				node = mLeftChildren[node];
+			} else if (value > mThresholds[node]) {
+				node = mRightChildren[node];
+			} else {
+				node = mIsMissingLeft[node] ? mLeftChildren[node] : mRightChildren[node];
+			}
+			feature = mSplitFeatures[node];
+		}
+		System.arraycopy(mDistributions, node * mClassCount, distribution, 0, mClassCount);
+		return mNodeClasses[node];
+	}
+
+	@Override
+	public String getName() {
+		return DECISION_TREE;
+	}
+
+	@Override
+	protected void writeModel(ModelFile file) {
+		file.putInt(mNodeCount);
+		file.putInts(mSplitFeatures);
+		file.putDoubles(mThresholds);
+		file.putInts(mLeftChildren);
+		file.putInts(mRightChildren);
+		file.putBooleans(mIsMissingLeft);
+		file.putInts(mNodeClasses);
+		file.putDoubles(mDistributions);
+	}
+
+	@Override
+	protected void readModel(ByteBuffer buffer) throws IOException {
+		int nodeCount = buffer.getInt();
+		if (nodeCount < 0 || nodeCount > buffer.remaining() / 4) {
+			throw new IOException("Invalid node count " + nodeCount + ".");
+		}
+		int[] splitFeatures = ModelFile.getInts(buffer, nodeCount);
+		double[] thresholds = ModelFile.getDoubles(buffer, nodeCount);
+		int[] leftChildren = ModelFile.getInts(buffer, nodeCount);
+		int[] rightChildren = ModelFile.getInts(buffer, nodeCount);
+		boolean[] isMissingLeft = ModelFile.getBooleans(buffer);
+		int[] nodeClasses = ModelFile.getInts(buffer, nodeCount);
+		double[] distributions = ModelFile.getDoubles(buffer, nodeCount * mClassCount);
+		if (isMissingLeft == null || isMissingLeft.length != nodeCount) {
+			throw new IOException("Invalid model: " + nodeCount + " values expected.");
+		}
+		// the children follow their node, so every classification ends in a leaf
+		for (int node = 0; node < nodeCount; node++) {
+			if (splitFeatures[node] >= mFeatureCount || nodeClasses[node] < 0 || nodeClasses[node] >= mClassCount
+					|| (splitFeatures[node] >= 0 && (leftChildren[node] <= node || leftChildren[node] >= nodeCount
+							|| rightChildren[node] <= node || rightChildren[node] >= nodeCount))) {
+				throw new IOException("Invalid node " + node + ".");
+			}
+		}
+
+		mNodeCount = nodeCount;
+		mSplitFeatures = splitFeatures;
+		mThresholds = thresholds;
+		mLeftChildren = leftChildren;
+		mRightChildren = rightChildren;
+		mIsMissingLeft = isMissingLeft;
+		mNodeClasses = nodeClasses;
+		mDistributions = distributions;
+	}
+
+	@Override
+	public long getModelSize() {
+		return 4L * (mSplitFeatures.length + mLeftChildren.length + mRightChildren.length + mNodeClasses.length) + 8L
+				* (mThresholds.length + mDistributions.length) + mIsMissingLeft.length;
+	}
+
+	/**
+	 * @return number of nodes of the tree
+	 */
+	public int getNodeCount() {
+		return mNodeCount;
+	}
+
+}
@@ -0,0 +1,404 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.recognition;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append-only store of feature vectors and their class (context label) in a
+ * memory mapped file. The recorded data does not have to fit in the heap and
+ * it can be read without parsing, e.g. to train and evaluate a classifier
+ * directly from the file.
+ * 
+ * The rows are stored in blocks of a fixed number of rows. Within a block
+ * every feature is a column of doubles, followed by the class indexes of the
+ * rows, so a feature of all rows is read block by block (see
+ * {@link #getColumn(int, int)}) and a row from the same offset in every column.
+ * 
+ * File format (little endian):
+ * 
+ * <pre>
+ * header:  int MAGIC, short VERSION, short 0, int feature count, int rows per block,
+ *          long row count, int header size, int class value count, strings of the class values,
+ *          int feature name count, strings of the feature names (string: int length, UTF-8 bytes),
+ *          padding up to a multiple of the page size
+ * blocks:  double[rows per block] per feature, int[rows per block] class indexes (-1 for unknown)
+ * </pre>
+ * 
+ * Blocks are mapped when they are created or the store is opened, the row
+ * count in the header is updated with every appended row.
+ */
+public class FeatureStore {
+
+	private static final int MAGIC = 0x52545346; // "FSTR" in little endian
+	private static final short VERSION = 1;
+	private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	private static final int ROW_COUNT_POSITION = 16;
+	private static final int STRINGS_POSITION = 28;
+	private static final int PAGE_SIZE = 4096;
+
+	public static final int DEFAULT_ROWS_PER_BLOCK = 1024;
+
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final MappedByteBuffer mHeader;
+
+	private final List<String> mFeatureNames;
+	private final List<String> mClassValues;
+	private final int mFeatureCount;
+	private final int mRowsPerBlock;
+	private final long mDataOffset;
+	private final long mBlockSize;
+
+	private final List<MappedByteBuffer> mBlocks = new ArrayList<MappedByteBuffer>();
+	private int mRowCount;
+
+	private FeatureStore(RandomAccessFile file, MappedByteBuffer header, List<String> featureNames,
+			List<String> classValues, int rowsPerBlock, long dataOffset, int rowCount) {
+		mFile = file;
+		mChannel = file.getChannel();
+		mHeader = header;
+		mFeatureNames = Collections.unmodifiableList(new ArrayList<String>(featureNames));
+		mClassValues = Collections.unmodifiableList(new ArrayList<String>(classValues));
+		mFeatureCount = featureNames.size();
+		mRowsPerBlock = rowsPerBlock;
+		mDataOffset = dataOffset;
+		mBlockSize = (long) rowsPerBlock * (8 * mFeatureCount + 4);
+		mRowCount = rowCount;
+	}
+
+	/**
+	 * Creates a new empty store, an existing file is overwritten.
+	 * 
+	 * @param file
+	 * @param featureNames
+	 * @param classValues
+	 * @param rowsPerBlock
+	 * @return the store, open for appending and reading
+	 * @throws IOException
+	 */
+	public static FeatureStore create(File file, List<String> featureNames, List<String> classValues,
+			int rowsPerBlock) throws IOException {
+		if (rowsPerBlock < 1) {
+			throw new RuntimeException("FeatureStore needs at least one row per block");
+		}
+		ByteBuffer header = ByteBuffer.allocate(headerSize(featureNames, classValues)).order(BYTE_ORDER);
+		header.putInt(MAGIC);
+		header.putShort(VERSION);
+		header.putShort((short) 0);
+		header.putInt(featureNames.size());
+		header.putInt(rowsPerBlock);
+		header.putLong(0);
+		header.putInt(header.capacity());
+		putStrings(header, classValues);
+		putStrings(header, featureNames);
+		header.clear();
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.setLength(0);
+			FileChannel channel = randomAccessFile.getChannel();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			MappedByteBuffer mappedHeader = channel.map(FileChannel.MapMode.READ_WRITE, 0, header.capacity());
+			mappedHeader.order(BYTE_ORDER);
+			return new FeatureStore(randomAccessFile, mappedHeader, featureNames, classValues, rowsPerBlock,
+					header.capacity(), 0);
+		} catch (IOException e) {
+			randomAccessFile.close();
+			throw e;
+		}
+	}
+
+	public static FeatureStore create(File file, List<String> featureNames, List<String> classValues)
+			throws IOException {
+		return create(file, featureNames, classValues, DEFAULT_ROWS_PER_BLOCK);
+	}
+
+	/**
+	 * Opens an existing store, new rows are appended.
+	 * 
+	 * @param file
+	 * @return the store
+	 * @throws IOException if the file is not a feature store
+	 */
+	public static FeatureStore open(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			ByteBuffer start = ByteBuffer.allocate(STRINGS_POSITION).order(BYTE_ORDER);
+			while (start.hasRemaining() && channel.read(start) >= 0) {
+			}
+			start.flip();
+			if (start.remaining() < STRINGS_POSITION || start.getInt() != MAGIC) {
+				throw new IOException("Not a feature store: " + file.getPath());
+			}
+			short version = start.getShort();
+			if (version != VERSION) {
+				throw new IOException("Unsupported feature store version " + version + ".");
+			}
+			start.getShort();
+			int featureCount = start.getInt();
+			int rowsPerBlock = start.getInt();
+			long rowCount = start.getLong();
+			int headerSize = start.getInt();
+			if (headerSize < STRINGS_POSITION || headerSize > channel.size() || rowsPerBlock < 1) {
+				throw new IOException("Invalid feature store header: " + file.getPath());
+			}
+
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize);
+			header.order(BYTE_ORDER);
+			header.position(STRINGS_POSITION);
+			List<String> classValues = getStrings(header);
+			List<String> featureNames = getStrings(header);
+			if (featureNames.size() != featureCount) {
+				throw new IOException("Invalid feature store header: " + file.getPath());
+			}
+
+			FeatureStore store = new FeatureStore(randomAccessFile, header, featureNames, classValues, rowsPerBlock,
+					headerSize, (int) rowCount);
+			int blockCount = (int) ((rowCount + rowsPerBlock - 1) / rowsPerBlock);
+			for (int block = 0; block < blockCount; block++) {
+				store.mapBlock(block);
+			}
+			return store;
+		} catch (IOException e) {
+			randomAccessFile.close();
+			throw e;
+		}
+	}
+
+	private static int headerSize(List<String> featureNames, List<String> classValues) throws IOException {
+		int size = STRINGS_POSITION + stringsSize(classValues) + stringsSize(featureNames);
+		// the blocks start at a page boundary
+		return (size + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+	}
+
+	private static int stringsSize(List<String> strings) throws IOException {
+		int size = 4;
+		for (String string : strings) {
+			size += 4 + string.getBytes("UTF-8").length;
+		}
+		return size;
+	}
+
+	private static void putStrings(ByteBuffer buffer, List<String> strings) throws IOException {
+		buffer.putInt(strings.size());
+		for (String string : strings) {
+			byte[] bytes = string.getBytes("UTF-8");
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+	}
+
+	private static List<String> getStrings(ByteBuffer buffer) throws IOException {
+		int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining() / 4) {
+			throw new IOException("Invalid string count " + count + ".");
+		}
+		List<String> strings = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			int length = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()) {
+				throw new IOException("Invalid string length " + length + ".");
+			}
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			strings.add(new String(bytes, "UTF-8"));
+		}
+		return strings;
+	}
+
+	private MappedByteBuffer mapBlock(int block) throws IOException {
+		MappedByteBuffer buffer = mChannel.map(FileChannel.MapMode.READ_WRITE, mDataOffset + block * mBlockSize,
+				mBlockSize);
+		buffer.order(BYTE_ORDER);
+		mBlocks.add(buffer);
+		return buffer;
+	}
+
+	/**
+	 * Appends one row.
+	 * 
+	 * @param features the feature vector, one value per feature
+	 * @param classIndex index of the class value or -1 if unknown
+	 * @throws IOException if the file could not be extended
+	 */
+	public void append(double[] features, int classIndex) throws IOException {
+		if (features.length != mFeatureCount) {
+			throw new RuntimeException("Number of feature values " + features.length
+					+ " differs from the number of features " + mFeatureCount + ".");
+		}
+		int block = mRowCount / mRowsPerBlock;
+		int row = mRowCount % mRowsPerBlock;
+		MappedByteBuffer buffer = (block < mBlocks.size()) ? mBlocks.get(block) : mapBlock(block);
+
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			buffer.putDouble((feature * mRowsPerBlock + row) * 8, features[feature]);
+		}
+		buffer.putInt(mFeatureCount * mRowsPerBlock * 8 + row * 4, classIndex);
+
+		mRowCount++;
+		mHeader.putLong(ROW_COUNT_POSITION, mRowCount);
+	}
+
+	/**
+	 * Appends one row.
+	 * 
+	 * @param features
+	 * @param classValue the class value, rows of unknown class values are stored as missing class
+	 * @throws IOException
+	 */
+	public void append(double[] features, String classValue) throws IOException {
+		append(features, mClassValues.indexOf(classValue));
+	}
+
+	/**
+	 * Copies the features of one row.
+	 * 
+	 * @param row index of the row
+	 * @param destination array with at least one element per feature
+	 */
+	public void getRow(int row, double[] destination) {
+		checkRow(row);
+		MappedByteBuffer buffer = mBlocks.get(row / mRowsPerBlock);
+		int rowInBlock = row % mRowsPerBlock;
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			destination[feature] = buffer.getDouble((feature * mRowsPerBlock + rowInBlock) * 8);
+		}
+	}
+
+	/**
+	 * @param row index of the row
+	 * @param feature index of the feature
+	 * @return the value of the feature in the row
+	 */
+	public double getValue(int row, int feature) {
+		checkRow(row);
+		return mBlocks.get(row / mRowsPerBlock).getDouble((feature * mRowsPerBlock + row % mRowsPerBlock) * 8);
+	}
+
+	/**
+	 * @param row index of the row
+	 * @return index of the class value or -1 if unknown
+	 */
+	public int getClassIndex(int row) {
+		checkRow(row);
+		return mBlocks.get(row / mRowsPerBlock).getInt(mFeatureCount * mRowsPerBlock * 8 + (row % mRowsPerBlock) * 4);
+	}
+
+	/**
+	 * Returns the values of one feature in one block without copying them.
+	 * 
+	 * @param feature index of the feature
+	 * @param block index of the block
+	 * @return read only view of the rows of the block ({@link #getBlockRowCount(int)} values)
+	 */
+	public DoubleBuffer getColumn(int feature, int block) {
+		ByteBuffer buffer = mBlocks.get(block).duplicate().order(BYTE_ORDER);
+		int position = feature * mRowsPerBlock * 8;
+		buffer.limit(position + getBlockRowCount(block) * 8);
+		buffer.position(position);
+		return buffer.slice().order(BYTE_ORDER).asDoubleBuffer().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the class indexes of one block without copying them.
+	 * 
+	 * @param block index of the block
+	 * @return read only view of the rows of the block ({@link #getBlockRowCount(int)} values)
+	 */
+	public IntBuffer getClassIndexes(int block) {
+		ByteBuffer buffer = mBlocks.get(block).duplicate().order(BYTE_ORDER);
+		int position = mFeatureCount * mRowsPerBlock * 8;
+		buffer.limit(position + getBlockRowCount(block) * 4);
+		buffer.position(position);
+		return buffer.slice().order(BYTE_ORDER).asIntBuffer().asReadOnlyBuffer();
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= mRowCount) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + mRowCount);
+		}
+	}
+
+	/**
+	 * Discards all rows, the file keeps its size.
+	 */
+	public void clear() {
+		mRowCount = 0;
+		mHeader.putLong(ROW_COUNT_POSITION, 0);
+	}
+
+	/**
+	 * Writes the mapped blocks to the storage.
+	 */
+	public void flush() {
+		for (MappedByteBuffer block : mBlocks) {
+			block.force();
+		}
+		mHeader.force();
+	}
+
+	public void close() throws IOException {
+		flush();
+		mBlocks.clear();
+		mChannel.close();
+		mFile.close();
+	}
+
+	public int getRowCount() {
+		return mRowCount;
+	}
+
+	public int getBlockCount() {
+		return (mRowCount + mRowsPerBlock - 1) / mRowsPerBlock;
+	}
+
+	/**
+	 * @param block index of the block
+	 * @return number of rows in the block
+	 */
+	public int getBlockRowCount(int block) {
+		return Math.max(0, Math.min(mRowsPerBlock, mRowCount - block * mRowsPerBlock));
+	}
+
+	public int getFeatureCount() {
+		return mFeatureCount;
+	}
+
+	public List<String> getFeatureNames() {
+		return mFeatureNames;
+	}
+
+	public List<String> getClassValues() {
+		return mClassValues;
+	}
+
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.recognition;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import weka.classifiers.bayes.NaiveBayes;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.estimators.DiscreteEstimator;
+import weka.estimators.Estimator;
+import weka.estimators.KernelEstimator;
+import weka.estimators.NormalEstimator;
+
+/**
+ * Naive Bayes that can be trained directly from a {@link FeatureStore}
+ * without creating the WEKA instances of the training data.
+ * 
+ * The model is the same as {@link NaiveBayes#buildClassifier(Instances)}
+ * creates: the precision of the estimators of every feature is the mean
+ * difference between its sorted distinct values (rows without class are
+ * ignored), which is calculated one column at a time, then every row is added
+ * with {@link #updateClassifier(weka.core.Instance)} through one reused
+ * instance. Supervised discretization needs all instances, in this case the
+ * instances are created and the classifier is built as usual.
+ * 
+ * For online training (see {@link OnlineNaiveBayesTrainer}) the estimators
+ * are created with given precisions and the feature vectors are added one at
+ * a time.
+ */
+public class FeatureStoreNaiveBayes extends NaiveBayes {
+
+	private static final long serialVersionUID = 1L;
+
+	/** reused instance of the online training */
+	private transient DenseInstance mUpdateInstance = null;
+	private transient double[] mUpdateValues = null;
+
+	/**
+	 * Builds the classifier from all rows of the store.
+	 * 
+	 * @param store the training data
+	 * @param header data set with the attributes of the store (features and nominal class as last attribute)
+	 * @throws Exception
+	 */
+	public void buildClassifier(FeatureStore store, Instances header) throws Exception {
+		header = new Instances(header, 0);
+		header.setClassIndex(header.numAttributes() - 1);
+		if (header.numAttributes() != store.getFeatureCount() + 1) {
+			throw new Exception("Attributes of the data set differ from the features of the store.");
+		}
+
+		if (getUseSupervisedDiscretization()) {
+			buildClassifier(createInstances(store, header));
+			return;
+		}
+
+		double[] precisions = new double[store.getFeatureCount()];
+		double[] column = new double[store.getRowCount()];
+		for (int feature = 0; feature < store.getFeatureCount(); feature++) {
+			precisions[feature] = calculatePrecision(store, feature, column);
+		}
+		initializeClassifier(header, precisions);
+
+		for (int row = 0; row < store.getRowCount(); row++) {
+			int classIndex = store.getClassIndex(row);
+			if (classIndex >= 0) {
+				// the instance uses the array, no copy
+				store.getRow(row, mUpdateValues);
+				mUpdateValues[mUpdateValues.length - 1] = classIndex;
+				updateClassifier(mUpdateInstance);
+			}
+		}
+	}
+
+	/**
+	 * Creates empty estimators, any trained model is discarded. Supervised
+	 * discretization is not supported.
+	 * 
+	 * @param header data set with the features and the nominal class as last attribute
+	 * @param precisions precision of the estimators of every feature
+	 */
+	public void initializeClassifier(Instances header, double[] precisions) {
+		header = new Instances(header, 0);
+		header.setClassIndex(header.numAttributes() - 1);
+		int featureCount = header.numAttributes() - 1;
+		if (precisions.length != featureCount) {
+			throw new RuntimeException("FeatureStoreNaiveBayes needs one precision per feature");
+		}
+
+		m_NumClasses = header.numClasses();
+		m_Instances = header;
+		m_Distributions = new Estimator[featureCount][m_NumClasses];
+		m_ClassDistribution = new DiscreteEstimator(m_NumClasses, true);
+		for (int feature = 0; feature < featureCount; feature++) {
+			for (int j = 0; j < m_NumClasses; j++) {
+				if (getUseKernelEstimator()) {
+					m_Distributions[feature][j] = new KernelEstimator(precisions[feature]);
+				} else {
+					m_Distributions[feature][j] = new NormalEstimator(precisions[feature]);
+				}
+			}
+		}
+		mUpdateValues = new double[header.numAttributes()];
+		mUpdateInstance = new DenseInstance(1.0, mUpdateValues);
+		mUpdateInstance.setDataset(header);
+	}
+
+	/**
+	 * @param header
+	 * @return true if the classifier is trained with the features and classes of the data set and can be updated
+	 */
+	public boolean isUpdateable(Instances header) {
+		return m_Distributions != null && !getUseSupervisedDiscretization()
+				&& m_Distributions.length == header.numAttributes() - 1 && m_NumClasses == header.numClasses();
+	}
+
+	/**
+	 * @return data set with the attributes of the training data, null if the classifier is not trained
+	 */
+	Instances getHeader() {
+		return m_Instances;
+	}
+
+	/**
+	 * Adds one feature vector to the estimators of its class.
+	 * 
+	 * @param features
+	 * @param classIndex
+	 * @throws Exception
+	 */
+	public void updateClassifier(double[] features, int classIndex) throws Exception {
+		if (mUpdateInstance == null) {
+			mUpdateValues = new double[m_Instances.numAttributes()];
+			mUpdateInstance = new DenseInstance(1.0, mUpdateValues);
+			mUpdateInstance.setDataset(m_Instances);
+		}
+		// the instance uses the array, no copy
+		System.arraycopy(features, 0, mUpdateValues, 0, mUpdateValues.length - 1);
+		mUpdateValues[mUpdateValues.length - 1] = classIndex;
+		updateClassifier(mUpdateInstance);
+	}
+
+	/**
+	 * Mean difference between the sorted distinct values of a feature like
+	 * {@link NaiveBayes}, missing values are ignored.
+	 * 
+	 * @param column scratch array with one element per row
+	 * @return the precision or the default precision if there are less than two distinct values
+	 */
+	private static double calculatePrecision(FeatureStore store, int feature, double[] column) {
+		int length = 0;
+		for (int block = 0; block < store.getBlockCount(); block++) {
+			DoubleBuffer values = store.getColumn(feature, block);
+			IntBuffer classIndexes = store.getClassIndexes(block);
+			for (int i = 0; i < values.limit(); i++) {
+				double value = values.get(i);
+				if (classIndexes.get(i) >= 0 && !Double.isNaN(value)) {
+					column[length++] = value;
+				}
+			}
+		}
+		return calculatePrecision(column, length);
+	}
+
+	/**
+	 * Mean difference between the sorted distinct values.
+	 * 
+	 * @param column the values (without missing values), the array is sorted
+	 * @param length number of values in the array
+	 * @return the precision or the default precision if there are less than two distinct values
+	 */
+	static double calculatePrecision(double[] column, int length) {
+		Arrays.sort(column, 0, length);
+
+		double precision = DEFAULT_NUM_PRECISION;
+		if (length > 0) {
+			double lastValue = column[0];
+			double deltaSum = 0;
+			int distinct = 0;
+			for (int i = 1; i < length; i++) {
+				double value = column[i];
+				if (value != lastValue) {
+					deltaSum += value - lastValue;
+					lastValue = value;
+					distinct++;
+				}
+			}
+			if (distinct > 0) {
+				precision = deltaSum / distinct;
+			}
+		}
+		return precision;
+	}
+
+	/**
+	 * Copies the trained estimators into a model that classifies feature
+	 * vectors without WEKA instances.
+	 * 
+	 * @param gridResolution grid points per standard deviation of the kernel estimators, 0 to sum up the kernels
+	 * @return the model or null if the classifier is not trained or uses supervised discretization
+	 */
+	public CompiledNaiveBayes compile(int gridResolution) {
+		if (m_Distributions == null || getUseSupervisedDiscretization()) {
+			return null;
+		}
+		return CompiledNaiveBayes.compile(m_ClassDistribution, m_Distributions, m_Instances, gridResolution);
+	}
+
+	/**
+	 * Creates the WEKA instances of all rows with a class.
+	 * 
+	 * @param store
+	 * @param header
+	 * @return the instances
+	 */
+	public static Instances createInstances(FeatureStore store, Instances header) {
+		Instances instances = new Instances(header, store.getRowCount());
+		for (int row = 0; row < store.getRowCount(); row++) {
+			int classIndex = store.getClassIndex(row);
+			if (classIndex >= 0) {
+				double[] values = new double[header.numAttributes()];
+				store.getRow(row, values);
+				values[values.length - 1] = classIndex;
+				instances.add(new DenseInstance(1.0, values));
+			}
+		}
+		return instances;
+	}
+
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.recognition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Multinomial logistic regression backend: one linear function of the
+ * standardized features per class and the softmax of the functions as class
+ * distribution. The weights are trained with stochastic gradient descent on
+ * the log likelihood with a ridge penalty, the rows are shuffled for every
+ * iteration (with a fixed seed, so the model is reproducible). Missing values
+ * are replaced by the mean of the feature.
+ *
+ * A classification costs one multiplication per feature and class. The rows
+ * are read from the training data and standardized when they are used, only
+ * the order of the rows (one int per row) is kept in the heap.
+ *
+ * Options: -I iterations over the training data, -R ridge, -L learning rate.
+ */
+public class LogisticBackend extends ClassifierBackend {
+
+	public static final int DEFAULT_ITERATIONS = 50;
+	public static final double DEFAULT_RIDGE = 1e-4;
+	public static final double DEFAULT_LEARNING_RATE = 0.05;
+
+	private static final long serialVersionUID = 1L;
+
+	private int mIterations = DEFAULT_ITERATIONS;
+	private double mRidge = DEFAULT_RIDGE;
+	private double mLearningRate = DEFAULT_LEARNING_RATE;
+
+	/** per feature: mean and inverse standard deviation */
+	private double[] mMeans = new double[0];
+	private double[] mScales = new double[0];
+	/** per class: weight of every feature and the bias (feature count + 1 values) */
+	private double[] mWeights = new double[0];
+
+	/** standardized features of the classification */
+	private transient double[] mFeatures = null;
+
+	@Override
+	public void setOptions(String[] options) throws Exception {
+		String iterations = Utils.getOption('I', options);
+		mIterations = (iterations.length() > 0) ? Integer.parseInt(iterations) : DEFAULT_ITERATIONS;
+		String ridge = Utils.getOption('R', options);
+		mRidge = (ridge.length() > 0) ? Double.parseDouble(ridge) : DEFAULT_RIDGE;
+		String learningRate = Utils.getOption('L', options);
+		mLearningRate = (learningRate.length() > 0) ? Double.parseDouble(learningRate) : DEFAULT_LEARNING_RATE;
+	}
+
+	@Override
+	public String[] getOptions() {
+		return new String[] { "-I", String.valueOf(mIterations), "-R", String.valueOf(mRidge), "-L",
+				String.valueOf(mLearningRate) };
+	}
+
+	@Override
+	protected void buildModel(Instances header, TrainingData data) throws Exception {
+		int stride = mFeatureCount + 1;
+		int rowCount = data.getRowCount();
+		mMeans = calculateMeans(data, mFeatureCount);
+		mScales = calculateScales(data, mFeatureCount, mMeans);
+		mWeights = new double[mClassCount * stride];
+		mFeatures = null;
+
+		double[] values = new double[mFeatureCount];
+		// standardized row with a constant 1 for the bias
+		double[] row = new double[stride];
+
+		int[] order = new int[rowCount];
+		for (int i = 0; i < rowCount; i++) {
+			order[i] = i;
+		}
+		Random random = new Random(1);
+		double[] probabilities = new double[mClassCount];
+		for (int iteration = 0; iteration < mIterations; iteration++) {
+			shuffle(order, random);
+			double learningRate = mLearningRate / Math.sqrt(1.0 + iteration);
+			double decay = 1.0 - learningRate * mRidge;
+			for (int i = 0; i < rowCount; i++) {
+				data.getRow(order[i], values);
+				standardize(values, 0, row, 0);
+				int classIndex = data.getClassIndex(order[i]);
+				softmax(row, 0, probabilities);
+				for (int j = 0; j < mClassCount; j++) {
+					double gradient = probabilities[j] - ((classIndex == j) ? 1.0 : 0.0);
+					int weightOffset = j * stride;
+					for (int k = 0; k < stride; k++) {
+						mWeights[weightOffset + k] = decay * mWeights[weightOffset + k] - learningRate * gradient
+								* row[k];
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	protected int distributionForFeatures(double[] features, double[] distribution) {
+		int stride = mFeatureCount + 1;
+		if (mFeatures == null || mFeatures.length != stride) {
+			mFeatures = new double[stride];
+		}
+		standardize(features, 0, mFeatures, 0);
+		softmax(mFeatures, 0, distribution);
+		return maxIndex(distribution, mClassCount);
+	}
+
+	/**
+	 * Standardizes the features, missing values are 0 (the mean), the value
+	 * after the features is 1 for the bias.
+	 */
+	private void standardize(double[] features, int offset, double[] destination, int destinationOffset) {
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			double value = features[offset + feature];
+			destination[destinationOffset + feature] = Double.isNaN(value) ? 0.0 : (value - mMeans[feature])
+					* mScales[feature];
+		}
+		destination[destinationOffset + mFeatureCount] = 1.0;
+	}
+
+	/**
+	 * Calculates the class probabilities of the standardized features.
+	 */
+	private void softmax(double[] features, int offset, double[] probabilities) {
+		int stride = mFeatureCount + 1;
+		double maxScore = Double.NEGATIVE_INFINITY;
+		for (int j = 0; j < mClassCount; j++) {
+			double score = 0.0;
+			int weightOffset = j * stride;
+			for (int k = 0; k < stride; k++) {
+				score += mWeights[weightOffset + k] * features[offset + k];
+			}
+			probabilities[j] = score;
+			if (score > maxScore) {
+				maxScore = score;
+			}
+		}
+		double sum = 0.0;
+		for (int j = 0; j < mClassCount; j++) {
+			probabilities[j] = Math.exp(probabilities[j] - maxScore);
+			sum += probabilities[j];
+		}
+		for (int j = 0; j < mClassCount; j++) {
+			probabilities[j] /= sum;
+		}
+	}
+
+	private static void shuffle(int[] values, Random random) {
+		for (int i = values.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return LOGISTIC;
+	}
+
+	@Override
+	protected void writeModel(ModelFile file) {
+		file.putDoubles(mMeans);
+		file.putDoubles(mScales);
+		file.putDoubles(mWeights);
+	}
+
+	@Override
+	protected void readModel(ByteBuffer buffer) throws IOException {
+		mMeans = ModelFile.getDoubles(buffer, mFeatureCount);
+		mScales = ModelFile.getDoubles(buffer, mFeatureCount);
+		mWeights = ModelFile.getDoubles(buffer, mClassCount * (mFeatureCount + 1));
+		mFeatures = null;
+	}
+
+	@Override
+	public long getModelSize() {
+		return 8L * (mMeans.length + mScales.length + mWeights.length);
+	}
+
+}
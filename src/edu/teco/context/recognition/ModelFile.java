@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.recognition;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instances;
+import edu.teco.context.configuration.ConfigurationMetaData;
+import edu.teco.context.configuration.FrameworkConfiguration;
+
+/**
+ * Binary file of a trained {@link ClassifierBackend} and the
+ * {@link FrameworkConfiguration} it was trained with. The framework can
+ * classify right after the file is read, without the training data and
+ * without training. The file is read from a memory mapping, the model arrays
+ * are copied with bulk reads, so reading takes milliseconds for every amount
+ * of training data.
+ *
+ * File format (little endian):
+ *
+ * <pre>
+ * header:  int MAGIC, short VERSION, short 0, string configuration name, string classifier name,
+ *          strings of the classifier options, strings of the configuration meta data
+ *          (see {@link ConfigurationMetaData#createMetaData(FrameworkConfiguration)}), string relation name,
+ *          strings of the feature names, strings of the class values
+ * model:   written by the backend, see {@link ClassifierBackend#writeModel(ModelFile)}
+ * trailer: int MAGIC
+ *
+ * string:  int length, UTF-8 bytes
+ * strings: int count, strings
+ * array:   int length (-1 for null), values (booleans: one byte per value)
+ * </pre>
+ *
+ * The file is written to a temporary file which is renamed at the end, an
+ * existing model file is only replaced by a complete one.
+ */
+public final class ModelFile {
+
+	public static final String EXTENSION = ".model";
+
+	private static final int MAGIC = 0x4c444f4d; // "MODL" in little endian
+	private static final short VERSION = 1;
+	private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	private ByteBuffer mBuffer;
+
+	private ModelFile(int capacity) {
+		mBuffer = ByteBuffer.allocate(capacity).order(BYTE_ORDER);
+	}
+
+	/**
+	 * Writes the trained backend and the configuration into the file.
+	 *
+	 * @param file the model file, an existing file is replaced
+	 * @param backend the trained backend
+	 * @param configuration the configuration of the training data
+	 * @throws IOException if the backend is not trained or can not be saved
+	 */
+	public static void write(File file, ClassifierBackend backend, FrameworkConfiguration configuration)
+			throws IOException {
+		Instances header = backend.getHeader();
+		if (header == null) {
+			throw new IOException("Classifier is not trained.");
+		}
+		long modelSize = Math.max(0, backend.getModelSize());
+		ModelFile modelFile = new ModelFile(4096 + (int) Math.min(modelSize, 1 << 30));
+
+		modelFile.putInt(MAGIC);
+		modelFile.putShort(VERSION);
+		modelFile.putShort((short) 0);
+		modelFile.putString(configuration.getConfigurationName());
+		modelFile.putString(backend.getName());
+		modelFile.putStrings(Arrays.asList(backend.getOptions()));
+		modelFile.putStrings(ConfigurationMetaData.createMetaData(configuration));
+		modelFile.putString(header.relationName());
+		List<String> featureNames = new ArrayList<String>();
+		for (int i = 0; i < header.numAttributes() - 1; i++) {
+			featureNames.add(header.attribute(i).name());
+		}
+		modelFile.putStrings(featureNames);
+		List<String> classValues = new ArrayList<String>();
+		for (int j = 0; j < header.numClasses(); j++) {
+			classValues.add(header.classAttribute().value(j));
+		}
+		modelFile.putStrings(classValues);
+		backend.writeModel(modelFile);
+		modelFile.putInt(MAGIC);
+
+		File temporaryFile = new File(file.getPath() + ".tmp");
+		FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+		try {
+			ByteBuffer buffer = modelFile.mBuffer;
+			buffer.flip();
+			FileChannel channel = outputStream.getChannel();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			outputStream.getFD().sync();
+		} finally {
+			outputStream.close();
+		}
+		if (!temporaryFile.renameTo(file)) {
+			temporaryFile.delete();
+			throw new IOException("Could not write model file: " + file.getPath());
+		}
+	}
+
+	/**
+	 * Reads a model file. The configuration of the file is read into the
+	 * configuration (like the meta data of an ARFF file) including the
+	 * configuration name and the classifier.
+	 *
+	 * @param file the model file
+	 * @param configuration configuration that receives the values of the file
+	 * @return the trained backend
+	 * @throws IOException if the file is not a valid model file
+	 */
+	public static ClassifierBackend read(File file, FrameworkConfiguration configuration) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// the mapping stays valid
+			randomAccessFile.close();
+		}
+		buffer.order(BYTE_ORDER);
+
+		if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+			throw new IOException("Not a model file: " + file.getPath());
+		}
+		short version = buffer.getShort();
+		if (version != VERSION) {
+			throw new IOException("Unsupported model file version " + version + ".");
+		}
+		buffer.getShort();
+		if (buffer.getInt(buffer.limit() - 4) != MAGIC) {
+			throw new IOException("Incomplete model file: " + file.getPath());
+		}
+
+		try {
+			String configurationName = getString(buffer);
+			String classifierName = getString(buffer);
+			List<String> options = getStrings(buffer);
+			String[] classifierOptions = options.toArray(new String[options.size()]);
+			Classifier classifier = ClassifierBackend.forName(classifierName, classifierOptions);
+			if (!(classifier instanceof ClassifierBackend)) {
+				throw new IOException("Unknown classifier " + classifierName + ".");
+			}
+			ClassifierBackend backend = (ClassifierBackend) classifier;
+
+			List<String> metaData = getStrings(buffer);
+			String relationName = getString(buffer);
+			ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+			for (String featureName : getStrings(buffer)) {
+				attributes.add(new Attribute(featureName));
+			}
+			attributes.add(new Attribute("Class", new ArrayList<String>(getStrings(buffer))));
+			Instances header = new Instances(relationName, attributes, 0);
+			header.setClassIndex(header.numAttributes() - 1);
+
+			backend.load(header, buffer);
+			if (buffer.remaining() != 4) {
+				throw new IOException("Invalid model file: " + file.getPath());
+			}
+
+			// the configuration is only changed by a valid file
+			for (String line : metaData) {
+				if (!ConfigurationMetaData.readMetaDataLine(line, configuration)) {
+					break;
+				}
+			}
+			configuration.setConfigurationName(configurationName);
+			configuration.setClassifier(classifierName, classifierOptions);
+			return backend;
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			// invalid lengths, options or configuration values
+			IOException exception = new IOException("Invalid model file: " + file.getPath());
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+
+	// ******************************************************************** //
+	// Writing
+	// ******************************************************************** //
+
+	private void ensureCapacity(int bytes) {
+		if (mBuffer.remaining() < bytes) {
+			long capacity = Math.max(2L * mBuffer.capacity(), (long) mBuffer.position() + bytes);
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, capacity)).order(BYTE_ORDER);
+			mBuffer.flip();
+			buffer.put(mBuffer);
+			mBuffer = buffer;
+		}
+	}
+
+	private void putShort(short value) {
+		ensureCapacity(2);
+		mBuffer.putShort(value);
+	}
+
+	public void putInt(int value) {
+		ensureCapacity(4);
+		mBuffer.putInt(value);
+	}
+
+	public void putDouble(double value) {
+		ensureCapacity(8);
+		mBuffer.putDouble(value);
+	}
+
+	public void putString(String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		putInt(bytes.length);
+		ensureCapacity(bytes.length);
+		mBuffer.put(bytes);
+	}
+
+	public void putStrings(List<String> values) throws IOException {
+		putInt(values.size());
+		for (String value : values) {
+			putString(value);
+		}
+	}
+
+	/**
+	 * @param values the array, may be null
+	 */
+	public void putInts(int[] values) {
+		if (values == null) {
+			putInt(-1);
+			return;
+		}
+		putInt(values.length);
+		ensureCapacity(4 * values.length);
+		mBuffer.asIntBuffer().put(values);
+		mBuffer.position(mBuffer.position() + 4 * values.length);
+	}
+
+	/**
+	 * @param values the array, may be null
+	 */
+	public void putDoubles(double[] values) {
+		if (values == null) {
+			putInt(-1);
+			return;
+		}
+		putInt(values.length);
+		ensureCapacity(8 * values.length);
+		mBuffer.asDoubleBuffer().put(values);
+		mBuffer.position(mBuffer.position() + 8 * values.length);
+	}
+
+	/**
+	 * @param values the array, may be null
+	 */
+	public void putBooleans(boolean[] values) {
+		if (values == null) {
+			putInt(-1);
+			return;
+		}
+		putInt(values.length);
+		ensureCapacity(values.length);
+		for (boolean value : values) {
+			mBuffer.put(value ? (byte) 1 : (byte) 0);
+		}
+	}
+
+	// ******************************************************************** //
+	// Reading
+	// ******************************************************************** //
+
+	private static int getLength(ByteBuffer buffer, int valueSize) throws IOException {
+		int length = buffer.getInt();
+		if (length < -1 || length > buffer.remaining() / valueSize) {
+			throw new IOException("Invalid array length " + length + ".");
+		}
+		return length;
+	}
+
+	public static String getString(ByteBuffer buffer) throws IOException {
+		int length = getLength(buffer, 1);
+		if (length < 0) {
+			throw new IOException("Invalid string length " + length + ".");
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	public static List<String> getStrings(ByteBuffer buffer) throws IOException {
+		int count = getLength(buffer, 4);
+		if (count < 0) {
+			throw new IOException("Invalid string count " + count + ".");
+		}
+		List<String> values = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			values.add(getString(buffer));
+		}
+		return values;
+	}
+
+	/**
+	 * @return the array, null if a null array was written
+	 */
+	public static int[] getInts(ByteBuffer buffer) throws IOException {
+		int length = getLength(buffer, 4);
+		if (length < 0) {
+			return null;
+		}
+		int[] values = new int[length];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + 4 * length);
+		return values;
+	}
+
+	/**
+	 * @return the array, null if a null array was written
+	 */
+	public static double[] getDoubles(ByteBuffer buffer) throws IOException {
+		int length = getLength(buffer, 8);
+		if (length < 0) {
+			return null;
+		}
+		double[] values = new double[length];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + 8 * length);
+		return values;
+	}
+
+	/**
+	 * @return the array, null if a null array was written
+	 */
+	public static boolean[] getBooleans(ByteBuffer buffer) throws IOException {
+		int length = getLength(buffer, 1);
+		if (length < 0) {
+			return null;
+		}
+		boolean[] values = new boolean[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = buffer.get() != 0;
+		}
+		return values;
+	}
+
+	/**
+	 * Reads an array with the expected length.
+	 */
+	public static double[] getDoubles(ByteBuffer buffer, int length) throws IOException {
+		double[] values = getDoubles(buffer);
+		if (values == null || values.length != length) {
+			throw new IOException("Invalid model: " + length + " values expected.");
+		}
+		return values;
+	}
+
+	/**
+	 * Reads an array with the expected length.
+	 */
+	public static int[] getInts(ByteBuffer buffer, int length) throws IOException {
+		int[] values = getInts(buffer);
+		if (values == null || values.length != length) {
+			throw new IOException("Invalid model: " + length + " values expected.");
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.recognition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Utils;
+import edu.teco.context.configuration.FrameworkConfiguration;
+
+/**
+ * Naive Bayes backend: a {@link FeatureStoreNaiveBayes} that is compiled
+ * into a {@link CompiledNaiveBayes} after the training. With supervised
+ * discretization the model can not be compiled and the feature vectors are
+ * classified by WEKA. Only the compiled model is saved in a
+ * {@link ModelFile}, a loaded classifier can not be trained further.
+ *
+ * Options: -K kernel estimator, -D supervised discretization, -G grid points
+ * per standard deviation of the kernels (default: the grid resolution of the
+ * FrameworkConfiguration when the classifier is trained).
+ */
+public class NaiveBayesBackend extends ClassifierBackend {
+
+	private static final long serialVersionUID = 1L;
+
+	private final FeatureStoreNaiveBayes mNaiveBayes = new FeatureStoreNaiveBayes();
+	/** grid resolution of the compiled model, -1 for the one of the configuration */
+	private int mGridResolution = -1;
+	private CompiledNaiveBayes mCompiledModel = null;
+
+	/** reused instance if the model is not compiled */
+	private transient DenseInstance mInstance = null;
+	private transient double[] mInstanceValues = null;
+
+	@Override
+	public void setOptions(String[] options) throws Exception {
+		setUseKernelEstimator(Utils.getFlag('K', options));
+		mNaiveBayes.setUseSupervisedDiscretization(Utils.getFlag('D', options));
+		String gridResolution = Utils.getOption('G', options);
+		mGridResolution = (gridResolution.length() > 0) ? Integer.parseInt(gridResolution) : -1;
+	}
+
+	@Override
+	public String[] getOptions() {
+		List<String> options = new ArrayList<String>();
+		if (mNaiveBayes.getUseKernelEstimator()) {
+			options.add("-K");
+		}
+		if (mNaiveBayes.getUseSupervisedDiscretization()) {
+			options.add("-D");
+		}
+		if (mGridResolution >= 0) {
+			options.add("-G");
+			options.add(String.valueOf(mGridResolution));
+		}
+		return options.toArray(new String[options.size()]);
+	}
+
+	public void setUseKernelEstimator(boolean isKernelEstimator) {
+		mNaiveBayes.setUseKernelEstimator(isKernelEstimator);
+	}
+
+	/**
+	 * @param gridResolution grid points per standard deviation of the kernels, 0 to sum up the kernels, -1 for the configuration
+	 */
+	public void setGridResolution(int gridResolution) {
+		mGridResolution = gridResolution;
+	}
+
+	/**
+	 * @return the WEKA classifier, e.g. to train it online
+	 */
+	public FeatureStoreNaiveBayes getNaiveBayes() {
+		return mNaiveBayes;
+	}
+
+	/**
+	 * Builds the naive Bayes like WEKA.
+	 */
+	@Override
+	public void buildClassifier(Instances data) throws Exception {
+		mCompiledModel = null;
+		mNaiveBayes.buildClassifier(data);
+		compile();
+	}
+
+	/**
+	 * Builds the naive Bayes without creating WEKA instances (see
+	 * {@link FeatureStoreNaiveBayes#buildClassifier(FeatureStore, Instances)}).
+	 */
+	@Override
+	public void buildClassifier(FeatureStore store, Instances header) throws Exception {
+		mCompiledModel = null;
+		mNaiveBayes.buildClassifier(store, header);
+		compile();
+	}
+
+	@Override
+	protected void buildModel(Instances header, TrainingData data) throws Exception {
+		int rowCount = data.getRowCount();
+		double[] precisions = new double[mFeatureCount];
+		double[] column = new double[rowCount];
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			int length = 0;
+			for (int row = 0; row < rowCount; row++) {
+				double value = data.getValue(row, feature);
+				if (!Double.isNaN(value)) {
+					column[length++] = value;
+				}
+			}
+			precisions[feature] = FeatureStoreNaiveBayes.calculatePrecision(column, length);
+		}
+		mNaiveBayes.initializeClassifier(header, precisions);
+		double[] features = new double[mFeatureCount];
+		for (int row = 0; row < rowCount; row++) {
+			data.getRow(row, features);
+			mNaiveBayes.updateClassifier(features, data.getClassIndex(row));
+		}
+		compile();
+	}
+
+	/**
+	 * Compiles the trained naive Bayes, e.g. after it was trained online.
+	 */
+	public void compile() {
+		Instances header = mNaiveBayes.getHeader();
+		if (header == null) {
+			return;
+		}
+		int gridResolution = mGridResolution;
+		if (gridResolution < 0) {
+			gridResolution = FrameworkConfiguration.getInstance().getKernelGridResolution();
+		}
+		mCompiledModel = mNaiveBayes.compile(gridResolution);
+		mInstance = null;
+		setTrained(header);
+	}
+
+	/**
+	 * @return the compiled model, null if the feature vectors are classified by WEKA
+	 */
+	public CompiledNaiveBayes getCompiledModel() {
+		return mCompiledModel;
+	}
+
+	@Override
+	protected int distributionForFeatures(double[] features, double[] distribution) {
+		if (mCompiledModel != null) {
+			return mCompiledModel.distributionForFeatures(features, distribution);
+		}
+
+		if (mInstance == null) {
+			mInstanceValues = new double[mFeatureCount + 1];
+			mInstance = new DenseInstance(1.0, mInstanceValues);
+			mInstance.setDataset(mNaiveBayes.getHeader());
+		}
+		// the instance uses the array, no copy
+		System.arraycopy(features, 0, mInstanceValues, 0, mFeatureCount);
+		mInstanceValues[mFeatureCount] = Double.NaN;
+		try {
+			double[] wekaDistribution = mNaiveBayes.distributionForInstance(mInstance);
+			System.arraycopy(wekaDistribution, 0, distribution, 0, mClassCount);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return -1;
+		}
+		return maxIndex(distribution, mClassCount);
+	}
+
+	@Override
+	public String getName() {
+		return NAIVE_BAYES;
+	}
+
+	@Override
+	protected void writeModel(ModelFile file) throws IOException {
+		if (mCompiledModel == null) {
+			throw new IOException("Naive Bayes with supervised discretization can not be saved.");
+		}
+		mCompiledModel.write(file);
+	}
+
+	@Override
+	protected void readModel(ByteBuffer buffer) throws IOException {
+		CompiledNaiveBayes model = CompiledNaiveBayes.read(buffer);
+		if (model.getFeatureCount() != mFeatureCount || model.getClassCount() != mClassCount) {
+			throw new IOException("Invalid model: the attributes differ from the compiled model.");
+		}
+		mCompiledModel = model;
+		mInstance = null;
+	}
+
+	@Override
+	public long getModelSize() {
+		return (mCompiledModel != null) ? mCompiledModel.getModelSize() : -1;
+	}
+
+}
@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.recognition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * k nearest neighbors backend. The standardized training rows are stored in a
+ * KD-tree: every node splits its rows at the median of the feature with the
+ * largest spread, the leaves have at most {@link #LEAF_SIZE} rows. A
+ * classification descends to the leaf of the feature vector and visits only
+ * the nodes that can be nearer than the k nearest rows found so far. The
+ * class distribution is the fraction of the k neighbors of every class.
+ * Missing values are replaced by the mean of the feature.
+ *
+ * The model contains all standardized training rows, so the training data
+ * has to fit into the heap (twice while the tree is built).
+ *
+ * Options: -K number of neighbors.
+ */
+public class NearestNeighborBackend extends ClassifierBackend {
+
+	public static final int DEFAULT_NEIGHBORS = 5;
+	/** maximum number of rows of a leaf */
+	public static final int LEAF_SIZE = 8;
+
+	private static final long serialVersionUID = 1L;
+
+	private int mNeighborCount = DEFAULT_NEIGHBORS;
+
+	/** per feature: mean and inverse standard deviation */
+	private double[] mMeans = new double[0];
+	private double[] mScales = new double[0];
+	/** standardized rows in the order of the leaves and their classes */
+	private double[] mPoints = new double[0];
+	private int[] mPointClasses = new int[0];
+
+	/** per node: split feature (-1 for leaves), split value, children, range of the rows */
+	private int mNodeCount = 0;
+	private int[] mSplitFeatures = new int[0];
+	private double[] mSplitValues = new double[0];
+	private int[] mLeftChildren = new int[0];
+	private int[] mRightChildren = new int[0];
+	private int[] mStarts = new int[0];
+	private int[] mEnds = new int[0];
+
+	/** classification state: the standardized features and the nearest rows sorted by distance */
+	private transient double[] mQuery = null;
+	private transient double[] mNeighborDistances = null;
+	private transient int[] mNeighborRows = null;
+	private transient int mFoundCount = 0;
+
+	@Override
+	public void setOptions(String[] options) throws Exception {
+		String neighborCount = Utils.getOption('K', options);
+		mNeighborCount = (neighborCount.length() > 0) ? Math.max(1, Integer.parseInt(neighborCount))
+				: DEFAULT_NEIGHBORS;
+	}
+
+	@Override
+	public String[] getOptions() {
+		return new String[] { "-K", String.valueOf(mNeighborCount) };
+	}
+
+	@Override
+	protected void buildModel(Instances header, TrainingData data) throws Exception {
+		int rowCount = data.getRowCount();
+		int size = getArraySize(rowCount, mFeatureCount);
+		mMeans = calculateMeans(data, mFeatureCount);
+		mScales = calculateScales(data, mFeatureCount, mMeans);
+		double[] points = new double[size];
+		double[] values = new double[mFeatureCount];
+		for (int row = 0; row < rowCount; row++) {
+			data.getRow(row, values);
+			standardize(values, 0, points, row * mFeatureCount);
+		}
+
+		mNodeCount = 0;
+		int capacity = Math.max(1, 2 * rowCount / LEAF_SIZE + 1);
+		mSplitFeatures = new int[capacity];
+		mSplitValues = new double[capacity];
+		mLeftChildren = new int[capacity];
+		mRightChildren = new int[capacity];
+		mStarts = new int[capacity];
+		mEnds = new int[capacity];
+
+		int[] rows = new int[rowCount];
+		for (int row = 0; row < rowCount; row++) {
+			rows[row] = row;
+		}
+		buildNode(points, rows, 0, rowCount);
+		mSplitFeatures = Arrays.copyOf(mSplitFeatures, mNodeCount);
+		mSplitValues = Arrays.copyOf(mSplitValues, mNodeCount);
+		mLeftChildren = Arrays.copyOf(mLeftChildren, mNodeCount);
+		mRightChildren = Arrays.copyOf(mRightChildren, mNodeCount);
+		mStarts = Arrays.copyOf(mStarts, mNodeCount);
+		mEnds = Arrays.copyOf(mEnds, mNodeCount);
+
+		// rows in the order of the tree, the rows of a leaf are next to each other
+		mPoints = new double[size];
+		mPointClasses = new int[rowCount];
+		for (int i = 0; i < rowCount; i++) {
+			System.arraycopy(points, rows[i] * mFeatureCount, mPoints, i * mFeatureCount, mFeatureCount);
+			mPointClasses[i] = data.getClassIndex(rows[i]);
+		}
+		mQuery = null;
+	}
+
+	/**
+	 * Creates the node of the rows in the range and its children.
+	 *
+	 * @return index of the node
+	 */
+	private int buildNode(double[] points, int[] rows, int start, int end) {
+		int node = addNode();
+		mStarts[node] = start;
+		mEnds[node] = end;
+		mSplitFeatures[node] = -1;
+		if (end - start <= LEAF_SIZE || mFeatureCount == 0) {
+			return node;
+		}
+
+		// feature with the largest spread
+		int splitFeature = 0;
+		double maxSpread = -1.0;
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for (int i = start; i < end; i++) {
+				double value = points[rows[i] * mFeatureCount + feature];
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			if (max - min > maxSpread) {
+				maxSpread = max - min;
+				splitFeature = feature;
+			}
+		}
+		if (maxSpread <= 0.0) {
+			// all rows are equal
+			return node;
+		}
+
+		int middle = (start + end) >>> 1;
+		select(points, rows, start, end - 1, middle, splitFeature);
+		mSplitFeatures[node] = splitFeature;
+		mSplitValues[node] = points[rows[middle] * mFeatureCount + splitFeature];
+		int leftChild = buildNode(points, rows, start, middle);
+		int rightChild = buildNode(points, rows, middle, end);
+		mLeftChildren[node] = leftChild;
+		mRightChildren[node] = rightChild;
+		return node;
+	}
+
+	/**
+	 * Moves the row with the k-th smallest value of the feature to position
+	 * k, smaller values before and larger values after it (quickselect).
+	 */
+	private void select(double[] points, int[] rows, int low, int high, int k, int feature) {
+		while (high > low) {
+			double pivot = points[rows[(low + high) >>> 1] * mFeatureCount + feature];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (points[rows[i] * mFeatureCount + feature] < pivot) {
+					i++;
+				}
+				while (points[rows[j] * mFeatureCount + feature] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int row = rows[i];
+					rows[i] = rows[j];
+					rows[j] = row;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				high = j;
+			} else if (k >= i) {
+				low = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private int addNode() {
+		if (mNodeCount == mSplitFeatures.length) {
+			int capacity = 2 * mNodeCount;
+			mSplitFeatures = Arrays.copyOf(mSplitFeatures, capacity);
+			mSplitValues = Arrays.copyOf(mSplitValues, capacity);
+			mLeftChildren = Arrays.copyOf(mLeftChildren, capacity);
+			mRightChildren = Arrays.copyOf(mRightChildren, capacity);
+			mStarts = Arrays.copyOf(mStarts, capacity);
+			mEnds = Arrays.copyOf(mEnds, capacity);
+		}
+		return mNodeCount++;
+	}
+
+	@Override
+	protected int distributionForFeatures(double[] features, double[] distribution) {
+		if (mPointClasses.length == 0) {
+			return -1;
+		}
+		if (mQuery == null || mQuery.length != mFeatureCount || mNeighborRows.length != mNeighborCount) {
+			mQuery = new double[mFeatureCount];
+			mNeighborDistances = new double[mNeighborCount];
+			mNeighborRows = new int[mNeighborCount];
+		}
+		standardize(features, 0, mQuery, 0);
+		mFoundCount = 0;
+		search(0);
+
+		Arrays.fill(distribution, 0, mClassCount, 0.0);
+		for (int i = 0; i < mFoundCount; i++) {
+			distribution[mPointClasses[mNeighborRows[i]]] += 1.0 / mFoundCount;
+		}
+		// ties go to the class of the nearest row
+		int classIndex = mPointClasses[mNeighborRows[0]];
+		for (int j = 0; j < mClassCount; j++) {
+			if (distribution[j] > distribution[classIndex]) {
+				classIndex = j;
+			}
+		}
+		return classIndex;
+	}
+
+	private void search(int node) {
+		int splitFeature = mSplitFeatures[node];
+		if (splitFeature < 0) {
+			for (int row = mStarts[node]; row < mEnds[node]; row++) {
+				addNeighbor(row);
+			}
+			return;
+		}
+		double delta = mQuery[splitFeature] - mSplitValues[node];
+		int nearChild = (delta < 0.0) ? mLeftChildren[node] : mRightChildren[node];
+		int farChild = (delta < 0.0) ? mRightChildren[node] : mLeftChildren[node];
+		search(nearChild);
+		if (mFoundCount < mNeighborCount || delta * delta < mNeighborDistances[mFoundCount - 1]) {
+			search(farChild);
+		}
+	}
+
+	/**
+	 * Inserts the row into the nearest rows if it is nearer than the farthest
+	 * of them.
+	 */
+	private void addNeighbor(int row) {
+		boolean isFull = mFoundCount == mNeighborCount;
+		double maxDistance = isFull ? mNeighborDistances[mFoundCount - 1] : Double.MAX_VALUE;
+		double distance = 0.0;
+		int offset = row * mFeatureCount;
+		for (int feature = 0; feature < mFeatureCount && distance < maxDistance; feature++) {
+			double delta = mQuery[feature] - mPoints[offset + feature];
+			distance += delta * delta;
+		}
+		if (distance >= maxDistance) {
+			return;
+		}
+		int i = isFull ? mFoundCount - 1 : mFoundCount++;
+		while (i > 0 && mNeighborDistances[i - 1] > distance) {
+			mNeighborDistances[i] = mNeighborDistances[i - 1];
+			mNeighborRows[i] = mNeighborRows[i - 1];
+			i--;
+		}
+		mNeighborDistances[i] = distance;
+		mNeighborRows[i] = row;
+	}
+
+	/**
+	 * Standardizes the features, missing values are 0 (the mean).
+	 */
+	private void standardize(double[] features, int offset, double[] destination, int destinationOffset) {
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			double value = features[offset + feature];
+			destination[destinationOffset + feature] = Double.isNaN(value) ? 0.0 : (value - mMeans[feature])
+					* mScales[feature];
+		}
+	}
+
+	@Override
+	public String getName() {
+		return NEAREST_NEIGHBOR;
+	}
+
+	@Override
+	protected void writeModel(ModelFile file) {
+		file.putDoubles(mMeans);
+		file.putDoubles(mScales);
+		file.putInts(mPointClasses);
+		file.putDoubles(mPoints);
+		file.putInt(mNodeCount);
+		file.putInts(mSplitFeatures);
+		file.putDoubles(mSplitValues);
+		file.putInts(mLeftChildren);
+		file.putInts(mRightChildren);
+		file.putInts(mStarts);
+		file.putInts(mEnds);
+	}
+
+	@Override
+	protected void readModel(ByteBuffer buffer) throws IOException {
+		double[] means = ModelFile.getDoubles(buffer, mFeatureCount);
+		double[] scales = ModelFile.getDoubles(buffer, mFeatureCount);
+		int[] pointClasses = ModelFile.getInts(buffer);
+		if (pointClasses == null) {
+			throw new IOException("Invalid model: no rows.");
+		}
+		int rowCount = pointClasses.length;
+		double[] points = ModelFile.getDoubles(buffer, rowCount * mFeatureCount);
+		int nodeCount = buffer.getInt();
+		if (nodeCount < 0 || nodeCount > buffer.remaining() / 4 || (rowCount > 0 && nodeCount == 0)) {
+			throw new IOException("Invalid node count " + nodeCount + ".");
+		}
+		int[] splitFeatures = ModelFile.getInts(buffer, nodeCount);
+		double[] splitValues = ModelFile.getDoubles(buffer, nodeCount);
+		int[] leftChildren = ModelFile.getInts(buffer, nodeCount);
+		int[] rightChildren = ModelFile.getInts(buffer, nodeCount);
+		int[] starts = ModelFile.getInts(buffer, nodeCount);
+		int[] ends = ModelFile.getInts(buffer, nodeCount);
+		for (int row = 0; row < rowCount; row++) {
+			if (pointClasses[row] < 0 || pointClasses[row] >= mClassCount) {
+				throw new IOException("Invalid class of row " + row + ".");
+			}
+		}
+		// the children follow their node, so every search ends in the leaves
+		for (int node = 0; node < nodeCount; node++) {
+			if (splitFeatures[node] >= mFeatureCount || starts[node] < 0 || ends[node] > rowCount
+					|| (splitFeatures[node] >= 0 && (leftChildren[node] <= node || leftChildren[node] >= nodeCount
+							|| rightChildren[node] <= node || rightChildren[node] >= nodeCount))) {
+				throw new IOException("Invalid node " + node + ".");
+			}
+		}
+
+		mMeans = means;
+		mScales = scales;
+		mPointClasses = pointClasses;
+		mPoints = points;
+		mNodeCount = nodeCount;
+		mSplitFeatures = splitFeatures;
+		mSplitValues = splitValues;
+		mLeftChildren = leftChildren;
+		mRightChildren = rightChildren;
+		mStarts = starts;
+		mEnds = ends;
+		mQuery = null;
+	}
+
+	@Override
+	public long getModelSize() {
+		return 8L * (mMeans.length + mScales.length + mPoints.length + mSplitValues.length) + 4L
+				* (mPointClasses.length + mSplitFeatures.length + mLeftChildren.length + mRightChildren.length
+						+ mStarts.length + mEnds.length);
+	}
+
+	public int getNeighborCount() {
+		return mNeighborCount;
+	}
+
+}
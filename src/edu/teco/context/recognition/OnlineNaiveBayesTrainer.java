@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright 2013 Karlsruhe Institute of Technology. This Work has been partially supported by the EIT ICT Labs funded research project Towards a Mobile Cloud (activity CLD 12206).
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.teco.context.recognition;
+
+import weka.core.Instances;
+
+/**
+ * Trains a {@link FeatureStoreNaiveBayes} while the training data is recorded.
+ * Every feature vector is added to the estimators as soon as it is
+ * calculated, so the model is ready when the recording stops and training
+ * with more data costs only the new feature vectors.
+ *
+ * The estimators need the precision of every feature before the first
+ * vector is added. WEKA calculates it from all training data, here the
+ * first feature vectors are buffered until there are enough to calculate the
+ * precisions (like {@link FeatureStoreNaiveBayes#buildClassifier(FeatureStore, Instances)}),
+ * then the buffered vectors and all following ones are added to the model.
+ * If the classifier is already trained with the same features and classes,
+ * the new vectors are added to the existing model.
+ */
+public class OnlineNaiveBayesTrainer {
+
+	/** number of feature vectors to calculate the precisions */
+	public static final int DEFAULT_PRECISION_COUNT = 100;
+
+	private final FeatureStoreNaiveBayes mClassifier;
+	private final Instances mHeader;
+	private final int mFeatureCount;
+	private final int mPrecisionCount;
+
+	/** buffered feature vectors until the estimators are created */
+	private final double[] mPendingValues;
+	private final int[] mPendingClasses;
+	private int mPendingCount = 0;
+
+	private boolean isInitialized;
+	private long mInstanceCount = 0;
+
+	/**
+	 * @param classifier the classifier to train, a trained classifier with the same features and classes is updated
+	 * @param header data set with the features and the nominal class as last attribute
+	 * @param precisionCount number of feature vectors to calculate the precisions
+	 */
+	public OnlineNaiveBayesTrainer(FeatureStoreNaiveBayes classifier, Instances header, int precisionCount) {
+		if (classifier.getUseSupervisedDiscretization()) {
+			throw new RuntimeException("Online training does not support supervised discretization");
+		}
+		mClassifier = classifier;
+		mHeader = new Instances(header, 0);
+		mHeader.setClassIndex(mHeader.numAttributes() - 1);
+		mFeatureCount = mHeader.numAttributes() - 1;
+		mPrecisionCount = Math.max(2, precisionCount);
+		mPendingValues = new double[mPrecisionCount * mFeatureCount];
+		mPendingClasses = new int[mPrecisionCount];
+		isInitialized = classifier.isUpdateable(mHeader);
+	}
+
+	/**
+	 * Adds one feature vector of the training data.
+	 *
+	 * @param features
+	 * @param classIndex index of the class value, vectors without class (negative index) are ignored
+	 * @throws Exception
+	 */
+	public void addInstance(double[] features, int classIndex) throws Exception {
+		if (classIndex < 0) {
+			return;
+		}
+		if (isInitialized) {
+			mClassifier.updateClassifier(features, classIndex);
+		} else {
+			System.arraycopy(features, 0, mPendingValues, mPendingCount * mFeatureCount, mFeatureCount);
+			mPendingClasses[mPendingCount++] = classIndex;
+			if (mPendingCount == mPrecisionCount) {
+				initialize();
+			}
+		}
+		mInstanceCount++;
+	}
+
+	/**
+	 * Creates the model from the buffered feature vectors if there are not yet
+	 * enough to calculate the precisions.
+	 *
+	 * @return true if the classifier is trained
+	 * @throws Exception
+	 */
+	public boolean finish() throws Exception {
+		if (!isInitialized && mPendingCount > 0) {
+			initialize();
+		}
+		return isInitialized;
+	}
+
+	/**
+	 * Discards the model, the next feature vectors start a new one.
+	 */
+	public void reset() {
+		isInitialized = false;
+		mPendingCount = 0;
+		mInstanceCount = 0;
+	}
+
+	public boolean isInitialized() {
+		return isInitialized;
+	}
+
+	/**
+	 * @return number of feature vectors added since the trainer was created or reset
+	 */
+	public long getInstanceCount() {
+		return mInstanceCount;
+	}
+
+	private void initialize() throws Exception {
+		double[] precisions = new double[mFeatureCount];
+		double[] column = new double[mPendingCount];
+		for (int feature = 0; feature < mFeatureCount; feature++) {
+			int length = 0;
+			for (int i = 0; i < mPendingCount; i++) {
+				double value = mPendingValues[i * mFeatureCount + feature];
+				if (!Double.isNaN(value)) {
+					column[length++] = value;
+				}
+			}
+			precisions[feature] = FeatureStoreNaiveBayes.calculatePrecision(column, length);
+		}
+		mClassifier.initializeClassifier(mHeader, precisions);
+
+		double[] features = new double[mFeatureCount];
+		for (int i = 0; i < mPendingCount; i++) {
+			System.arraycopy(mPendingValues, i * mFeatureCount, features, 0, mFeatureCount);
+			mClassifier.updateClassifier(features, mPendingClasses[i]);
+		}
+		mPendingCount = 0;
+		isInitialized = true;
+	}
+
+}
@@ -17,16 +17,15 @@ package edu.teco.context.recognition;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
-import java.util.Map.Entry;
 
+import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
-import weka.classifiers.bayes.NaiveBayes;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
@@ -34,11 +33,13 @@ import weka.core.Instances;
 import weka.core.converters.ArffLoader;
 import android.os.Environment;
 import android.util.Log;
+import edu.teco.context.configuration.ConfigurationMetaData;
 import edu.teco.context.configuration.FrameworkConfiguration;
 import edu.teco.context.configuration.FrameworkContext;
 import edu.teco.context.configuration.FrameworkKeys.IMetaDataTags;
+import edu.teco.context.log.ArffFeatureReader;
+import edu.teco.context.log.ArffFeatureWriter;
 import edu.teco.context.log.DataLogger;
-import edu.teco.context.probe.sensors.StaticSensorHandlerFactory;
 
 // Example how to create a WEKA dataset in java https://svn.scms.waikato.ac.nz/svn/weka/trunk/wekaexamples/src/main/java/wekaexamples/core/CreateInstances.java
 // http://weka.wikispaces.com/Programmatic+Use
@@ -47,6 +48,8 @@ public class WekaManager implements IMetaDataTags {
 
 	/** Tag string for debug logs */
 	private static final String TAG = "WekaManager";
+	
+	private static final String FEATURE_STORE_EXTENSION = ".features";
 
 	/** Singleton because only one WekaManager should be used. */
 	private static WekaManager singletonInstance = null;
@@ -60,8 +63,8 @@ public class WekaManager implements IMetaDataTags {
 	
 	private String mPreviousCalculatedClassName = null;
 
-	/** the classifier used internally */
-	public NaiveBayes classifier = null;
+	/** the classifier used internally, a ClassifierBackend or any WEKA classifier */
+	public Classifier classifier = null;
 
 	private List<IWekaListener> mListeners;
 	
@@ -73,15 +76,38 @@ public class WekaManager implements IMetaDataTags {
 	/** The file for directly logging the training data. */
 	private File mArffFile = null;
 	
-	/** BufferedWriter for ARFF file writing.*/
-	private BufferedWriter mWriter = null;
+	/** Writer for the training data that is logged directly to the ARFF file. */
+	private ArffFeatureWriter mArffWriter = null;
+	
+	/** feature values padded or cut to the number of attributes */
+	private double[] mFeatureValues = new double[0];
+	
+	/**
+	 * Memory mapped training and evaluation data if the data is logged directly
+	 * to files, the classifier is trained and evaluated from them.
+	 */
+	private FeatureStore mTrainingStore = null;
+	private FeatureStore mEvaluationStore = null;
+	private boolean isTrainedFromStore = false;
+	/** file of the training store of a loaded ARFF file, deleted when the store is closed */
+	private File mTemporaryStoreFile = null;
+	
+	/** class distribution of the live feature vectors classified by a ClassifierBackend */
+	private double[] mClassDistribution = new double[0];
+	
+	/**
+	 * Trains the classifier with the training data as it is added if online
+	 * training is configured (created with the first training data).
+	 */
+	private OnlineNaiveBayesTrainer mOnlineTrainer = null;
 
 	private WekaManager() {
 		super();
 
-		// set a Classifier (Naives Bayes)
-		classifier = new NaiveBayes();
-		classifier.setUseKernelEstimator(true);
+		// set a Classifier (Naives Bayes), can be trained from the feature store
+		NaiveBayesBackend naiveBayes = new NaiveBayesBackend();
+		naiveBayes.setUseKernelEstimator(true);
+		classifier = naiveBayes;
 		
 		atts = new ArrayList<Attribute>();
 		attsTesting = new ArrayList<Attribute>();
@@ -141,6 +167,7 @@ public class WekaManager implements IMetaDataTags {
 		// create instances object
 		trainingData = new Instances(name + "_TrainingData", atts, 0);
 		testingData = new Instances(name + "_TestingData", atts, 0);
+		mOnlineTrainer = null;
 		
 		if (isLogDirectlyToFile) {
 			if (!FrameworkContext.getInstance().isConfigurationAlreadySaved()) {
@@ -153,6 +180,89 @@ public class WekaManager implements IMetaDataTags {
 
 		if (FrameworkContext.INFO) Log.i(TAG, "Loading from path: " + file.getPath());
 
+		ArffFeatureReader reader = null;
+		try {
+			reader = new ArffFeatureReader(new FileReader(file));
+			reader.readHeader(null);
+			configureWithArffReader(reader, file);
+		} catch (IOException e) {
+			// e.g. other attribute types than numeric features and a nominal class
+			if (FrameworkContext.WARN) Log.w(TAG, "Fast ARFF reader failed, loading with WEKA: " + e.getMessage());
+			configureWithArffLoader(file);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Trains the classifier with the instances of an ARFF file in a single
+	 * pass. The instances are streamed into a temporary feature store next to
+	 * the ARFF file and the classifier is trained from the store, the instances
+	 * are not loaded into WEKA instances.
+	 * 
+	 * The temporary store stays the training store (e.g. for the class priors
+	 * of the evaluation) and is deleted when it is closed, i.e. when the next
+	 * ARFF file is loaded, the recording of training data starts or the
+	 * manager is reset. A WEKA classifier is trained from instances, for it the
+	 * store is deleted right after they are created. The feature store that
+	 * was recorded with an ARFF file is neither read nor overwritten.
+	 * 
+	 * @param reader reader of the ARFF file, the header must already be read
+	 * @param file the ARFF file
+	 * @throws IOException if the instances can not be read
+	 */
+	public void configureWithArffReader(ArffFeatureReader reader, File file) throws IOException {
+		
+		long startTime = System.currentTimeMillis();
+
+		ArrayList<Attribute> fileAttributes = new ArrayList<Attribute>();
+		for (String featureName : reader.getFeatureNames()) {
+			fileAttributes.add(new Attribute(featureName));
+		}
+		fileAttributes.add(new Attribute("Class", new ArrayList<String>(reader.getClassValues())));
+		trainingData = new Instances(reader.getRelationName(), fileAttributes, 0);
+		mOnlineTrainer = null;
+		
+		closeTrainingStore();
+		mTemporaryStoreFile = File.createTempFile("Temp_" + file.getName().replace(".arff", "") + "_",
+				FEATURE_STORE_EXTENSION, file.getParentFile());
+		mTemporaryStoreFile.deleteOnExit();
+		mTrainingStore = FeatureStore.create(mTemporaryStoreFile, reader.getFeatureNames(), reader.getClassValues());
+		
+		// instances without class are ignored by the classifier
+		int missingClassCount = 0;
+		try {
+			while (reader.next()) {
+				if (reader.getClassIndex() < 0) {
+					missingClassCount++;
+				} else {
+					mTrainingStore.append(reader.getValues(), reader.getClassIndex());
+				}
+			}
+		} catch (IOException e) {
+			closeTrainingStore();
+			throw e;
+		}
+		
+		if (FrameworkContext.INFO) Log.i(TAG, "Read " + reader.getInstanceCount() + " instances (" + missingClassCount
+				+ " without class) of ARFF file " + file.getPath() + " in " + (System.currentTimeMillis() - startTime) + " ms.");
+		
+		if (classifier instanceof ClassifierBackend) {
+			buildClassifierFromStore();
+		} else {
+			trainingData = FeatureStoreNaiveBayes.createInstances(mTrainingStore, trainingData);
+			closeTrainingStore();
+			buildClassifier();
+		}
+	}
+	
+	private void configureWithArffLoader(File file) {
 		try {
 			ArffLoader loader = new ArffLoader();
 			loader.setSource(file);
@@ -170,68 +280,35 @@ public class WekaManager implements IMetaDataTags {
 		
 		// write down configuration in machine readable format
 		metaData.clear();
-		addMetaData(CONFIG_BEGIN);
-		addMetaData(SAMPLE_WINDOW_BEGIN + String.valueOf(configuration.getSampleWindow()) + SAMPLE_WINDOW_END);
-		addMetaData(OVERLAP_BEGIN + String.valueOf(configuration.getOverlap()) + OVERLAP_END);
-		for (Entry<String, String[]> entry : configuration.getSensorFeaturesSet()) {
-			String probeKey = entry.getKey();
-			String[] featureKeys = entry.getValue();
-			StringBuilder sb = new StringBuilder().append(PROBE_BEGIN).append(probeKey).append(PROBE_END);
-			for (String featureKey : featureKeys) {
-				sb.append(FEATURE_BEGIN).append(featureKey).append(FEATURE_END);
-			}
-			addMetaData(sb.toString());
-		}
-		
-		StringBuilder sb = new StringBuilder();
-		for (String contextLabel : configuration.getContextLabels()) {
-			sb.append(CONTEXT_LABEL_BEGIN).append(contextLabel).append(CONTEXT_LABEL_END);
-		}
-		addMetaData(sb.toString());
-		
-		addMetaData(CONFIG_END);
-		
-		
-		addMetaData("Sample Window in seconds: " + String.valueOf(configuration.getSampleWindow()));
-		addMetaData("Relative overlap: " + String.valueOf(configuration.getOverlap()));
+		metaData.addAll(ConfigurationMetaData.createMetaData(configuration));
 
 		// create a WekaManager configuration � list of features (numeric) and
 		// class values (nominal)
-		List<String> features = new ArrayList<String>();
-
-		for (Entry<String, String[]> entry : configuration.getSensorFeaturesSet()) {
-
-			String sensorKey = entry.getKey();
-			String[] sensorValueKeys = StaticSensorHandlerFactory.getSensorValueKeys(sensorKey);
+		List<String> features = ConfigurationMetaData.createFeatureNames(configuration);
 
-			addMetaData("Sensor: " + sensorKey + " with values: " + Arrays.toString(sensorValueKeys));
-
-			String[] featureKeys = entry.getValue();
-
-			for (String featureKey : featureKeys) {
-				for (String sensorValueKey : sensorValueKeys) {
-					features.add(sensorKey + "_" + featureKey + "_" + sensorValueKey);
-				}
-			}
-		}
-
-		// TODO: GPS as feature
+		setClassifier(configuration.getClassifierName(), configuration.getClassifierOptions());
 		configureArff(configuration.getConfigurationName(), features, configuration.getContextLabels());
 	}
 
 	/**
-	 * sets the classifier to use
+	 * sets the classifier to use, any trained model is discarded
 	 * 
 	 * @param name
-	 *            the classname of the classifier
+	 *            the name of a ClassifierBackend or the classname of a WEKA
+	 *            classifier, null for the naive Bayes
 	 * @param options
-	 *            the options for the classifier
+	 *            the options for the classifier, may be null
 	 */
 	public void setClassifier(String name, String[] options) {
-		// classifier = AbstractClassifier.forName(name, options);
-
-		// set a Classifier (Naives Bayes)
-		classifier = new NaiveBayes();
+		try {
+			classifier = ClassifierBackend.forName(name, options);
+		} catch (Exception e) {
+			e.printStackTrace();
+			if (FrameworkContext.ERROR) Log.e(TAG, "Classifier " + name + " could not be created, the naive Bayes is used.");
+			classifier = new NaiveBayesBackend();
+		}
+		mOnlineTrainer = null;
+		if (FrameworkContext.INFO) Log.i(TAG, "Classifier: " + classifier.getClass().getName());
 	}
 
 	public void addMetaData(String metaDataArgument) {
@@ -244,6 +321,9 @@ public class WekaManager implements IMetaDataTags {
 
 	public void addTrainingData(double[] featureValues, String className) {
 		isTrainingDataReceived = true;
+		if (FrameworkConfiguration.getInstance().isOnlineTraining()) {
+			trainOnline(featureValues, className);
+		}
 		fillData(featureValues, className, trainingData);
 	}
 
@@ -252,6 +332,15 @@ public class WekaManager implements IMetaDataTags {
 	}
 
 	private void fillData(double[] featureValues, String className, Instances data) {
+		
+		if (isLogDirectlyToFile) {
+			if (data == trainingData) {
+				logArffData(featureValues, className);
+			} else {
+				logEvaluationData(featureValues, className);
+			}
+			return;
+		}
 
 		double[] vals = new double[data.numAttributes()];
 
@@ -267,12 +356,32 @@ public class WekaManager implements IMetaDataTags {
 
 		DenseInstance instance = new DenseInstance(1.0, vals);
 		
-		if (isLogDirectlyToFile) {
-			instance.setDataset(data);
-			logArffData(instance.toString());
-		} else {
-			// add
-			data.add(instance);
+		// add
+		data.add(instance);
+	}
+	
+	/**
+	 * Adds the feature vector to the classifier, the compiled classifier is
+	 * updated by {@link #trainClassifier(boolean)}.
+	 */
+	private void trainOnline(double[] featureValues, String className) {
+		if (mOnlineTrainer == null) {
+			if (!(classifier instanceof NaiveBayesBackend)) {
+				return;
+			}
+			FeatureStoreNaiveBayes naiveBayes = ((NaiveBayesBackend) classifier).getNaiveBayes();
+			if (naiveBayes.getUseSupervisedDiscretization()) {
+				return;
+			}
+			int precisionCount = FrameworkConfiguration.getInstance().getOnlineTrainingPrecisionCount();
+			mOnlineTrainer = new OnlineNaiveBayesTrainer(naiveBayes, trainingData, precisionCount);
+			if (FrameworkContext.INFO) Log.i(TAG, "Online training " + (mOnlineTrainer.isInitialized() ? "updates the trained classifier." : "creates a new classifier."));
+		}
+		try {
+			mOnlineTrainer.addInstance(fitFeatureValues(featureValues, trainingData.numAttributes() - 1),
+					attClassVals.indexOf(className));
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
 	}
 	
@@ -282,22 +391,67 @@ public class WekaManager implements IMetaDataTags {
 
 	public void trainClassifier(boolean storeArffFile) {
 		
+		// the online trained classifier is not rebuilt from all training data
+		boolean isOnlineTrained = mOnlineTrainer != null && mOnlineTrainer.getInstanceCount() > 0;
+		
 		if (isLogDirectlyToFile) {
-			try {
-				mWriter.flush();
-				mWriter.close();
+			closeArffWriter();
+			if (isOnlineTrained) {
+				finishOnlineTraining();
+			} else if (mTrainingStore != null && classifier instanceof ClassifierBackend) {
+				buildClassifierFromStore();
+			} else {
 				configureWithArffFile(mArffFile);
-			} catch (IOException e) {
-				e.printStackTrace();
 			}
 		} else {
 			if (storeArffFile) storeArffFile(trainingData);
 //			if (FrameworkContext.INFO) Log.i("WekaData", "Training data:\n" + trainingData.toString());
-			buildClassifier();
+			if (isOnlineTrained) {
+				finishOnlineTraining();
+			} else {
+				buildClassifier();
+			}
+		}
+	}
+	
+	/**
+	 * Completes the online trained classifier (if there were too few instances
+	 * for the precisions) and compiles it.
+	 */
+	private void finishOnlineTraining() {
+		try {
+			if (mOnlineTrainer.finish()) {
+				isTrainedFromStore = isLogDirectlyToFile && mTrainingStore != null;
+				((NaiveBayesBackend) classifier).compile();
+				if (FrameworkContext.INFO) Log.i(TAG, "Classifier trained online with " + mOnlineTrainer.getInstanceCount() + " instances.");
+				logClassifier();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Trains the classifier directly from the memory mapped training data, the
+	 * training data is not loaded into the heap.
+	 */
+	private void buildClassifierFromStore() {
+		// set class attribute (last attribute)
+		trainingData.setClassIndex(trainingData.numAttributes() - 1);
+		try {
+			mTrainingStore.flush();
+			((ClassifierBackend) classifier).buildClassifier(mTrainingStore, trainingData);
+			isTrainedFromStore = true;
+			
+			if (FrameworkContext.INFO) Log.i(TAG, "Classifier trained with " + mTrainingStore.getRowCount() + " instances of the feature store.");
+			logClassifier();
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
 	}
 	
 	private void buildClassifier() {
+		isTrainedFromStore = false;
 		// set class attribute (last attribute)
 		trainingData.setClassIndex(trainingData.numAttributes() - 1);
 		try {
@@ -306,23 +460,133 @@ public class WekaManager implements IMetaDataTags {
 			
 			// if too large String Log will not show everything
 //			if (FrameworkContext.INFO) Log.i(TAG, "Classifier description: " + classifier.toString());
-			if (FrameworkContext.INFO) Log.i(TAG, "Classifier Global Info: " + classifier.globalInfo());
+			logClassifier();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Saves the trained classifier and the configuration in a model file, see
+	 * {@link ModelFile}.
+	 * 
+	 * @param file the model file, an existing file is replaced
+	 * @param configuration the configuration of the training data
+	 * @return true if the file was written
+	 */
+	public boolean saveClassifier(File file, FrameworkConfiguration configuration) {
+		if (!(classifier instanceof ClassifierBackend) || !((ClassifierBackend) classifier).isTrained()) {
+			if (FrameworkContext.WARN) Log.w(TAG, "Only a trained ClassifierBackend can be saved.");
+			return false;
+		}
+		try {
+			long startTime = System.currentTimeMillis();
+			if (file.getParentFile() != null) {
+				file.getParentFile().mkdirs();
+			}
+			ModelFile.write(file, (ClassifierBackend) classifier, configuration);
+			if (FrameworkContext.INFO) Log.i(TAG, "Classifier saved in " + (System.currentTimeMillis() - startTime) + " ms: " + file.getPath());
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (FrameworkContext.ERROR) Log.e(TAG, "Classifier could not be saved: " + e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Uses a classifier that was read from a model file instead of training
+	 * one. The manager has to be configured with the configuration of the
+	 * model file before.
+	 * 
+	 * @param backend the trained classifier
+	 * @return false if the features or classes of the classifier differ from the configuration
+	 */
+	public boolean setTrainedClassifier(ClassifierBackend backend) {
+		Instances header = backend.getHeader();
+		boolean isMatching = header != null && header.numAttributes() == trainingData.numAttributes();
+		for (int i = 0; isMatching && i < header.numAttributes() - 1; i++) {
+			isMatching = header.attribute(i).name().equals(trainingData.attribute(i).name());
+		}
+		Attribute classAttribute = isMatching ? trainingData.attribute(trainingData.numAttributes() - 1) : null;
+		isMatching = isMatching && header.numClasses() == classAttribute.numValues();
+		for (int j = 0; isMatching && j < header.numClasses(); j++) {
+			isMatching = header.classAttribute().value(j).equals(classAttribute.value(j));
+		}
+		if (!isMatching) {
+			if (FrameworkContext.ERROR) Log.e(TAG, "Features or classes of the classifier differ from the configuration.");
+			return false;
+		}
+		
+		trainingData.setClassIndex(trainingData.numAttributes() - 1);
+		classifier = backend;
+		mOnlineTrainer = null;
+		isTrainedFromStore = false;
+		if (FrameworkContext.INFO) Log.i(TAG, "Classifier loaded.");
+		logClassifier();
+		return true;
+	}
+
+	private void logClassifier() {
+		if (!FrameworkContext.INFO) {
+			return;
+		}
+		if (classifier instanceof ClassifierBackend) {
+			Log.i(TAG, "Classifier " + classifier.getClass().getSimpleName() + " trained, model size: "
+					+ ((ClassifierBackend) classifier).getModelSize() + " bytes.");
+		} else {
+			Log.i(TAG, "Classifier " + classifier.getClass().getName() + " trained, instances are classified with WEKA.");
+		}
+		if (classifier instanceof NaiveBayesBackend) {
+			CompiledNaiveBayes model = ((NaiveBayesBackend) classifier).getCompiledModel();
+			if (model != null) {
+				Log.i(TAG, "Classifier compiled with " + model.getKernelCount() + " kernels and "
+						+ model.getGridPointCount() + " grid points.");
+			} else {
+				Log.i(TAG, "Classifier could not be compiled, instances are classified with WEKA.");
+			}
+		}
+	}
+	
+	/**
+	 * @return mean time of the classifications of the ClassifierBackend since the training in nanoseconds, 0 for other classifiers
+	 */
+	public double getClassificationLatency() {
+		return (classifier instanceof ClassifierBackend) ? ((ClassifierBackend) classifier).getLatency() : 0.0;
+	}
+	
+	/**
+	 * @return size of the model of the ClassifierBackend in bytes, -1 for other classifiers
+	 */
+	public long getClassifierModelSize() {
+		return (classifier instanceof ClassifierBackend) ? ((ClassifierBackend) classifier).getModelSize() : -1;
+	}
+
 	public void testClassification() {
 		// set class attribute (last attribute)
 		testingData.setClassIndex(testingData.numAttributes() - 1);
+		
+		boolean isEvaluationStore = mEvaluationStore != null && mEvaluationStore.getRowCount() > 0;
 
-		if (FrameworkContext.INFO) Log.i("WekaData", "Testing data:\n" + testingData.toString());
+		if (isEvaluationStore) {
+			if (FrameworkContext.INFO) Log.i("WekaData", "Testing data: " + mEvaluationStore.getRowCount() + " instances of the feature store.");
+		} else {
+			if (FrameworkContext.INFO) Log.i("WekaData", "Testing data:\n" + testingData.toString());
+		}
 
 		// Test the model
 		Evaluation eTest;
 		try {
 			eTest = new Evaluation(trainingData);
-			eTest.evaluateModel(classifier, testingData);
+			if (isTrainedFromStore) {
+				// class priors of the training data that is not in the data set
+				updatePriors(eTest, mTrainingStore);
+			}
+			if (isEvaluationStore) {
+				evaluateModel(eTest, mEvaluationStore);
+			} else {
+				eTest.evaluateModel(classifier, testingData);
+			}
 
 			if (FrameworkContext.INFO) Log.i("WekaData", "\nClass detail:\n\n" + eTest.toClassDetailsString());
 
@@ -336,6 +600,10 @@ public class WekaManager implements IMetaDataTags {
 			// print class details
 			if (FrameworkContext.INFO) Log.i("WekaData", "----- Class Detail -----\n" + eTest.toClassDetailsString());
 			
+			if (FrameworkContext.INFO && classifier instanceof ClassifierBackend) Log.i("WekaData", "----- Classifier -----\n"
+					+ String.format("%.1f us per classification, model size: %d bytes", getClassificationLatency() / 1000.0,
+							getClassifierModelSize()));
+			
 			notifyTestCalculated(strSummary);
 
 		} catch (Exception e) {
@@ -345,6 +613,11 @@ public class WekaManager implements IMetaDataTags {
 	}
 
 	public void classifyInstance(double[] featureValues) {
+		
+		if (classifier instanceof ClassifierBackend && ((ClassifierBackend) classifier).isTrained()) {
+			classifyFeatures((ClassifierBackend) classifier, featureValues);
+			return;
+		}
 
 		/*
 		 * // Create empty instance with three attribute values Instance inst =
@@ -400,6 +673,86 @@ public class WekaManager implements IMetaDataTags {
 		}
 	}
 	
+	/**
+	 * Classifies a feature vector with the classifier backend. The class
+	 * distribution is calculated once into a reused array, only the event
+	 * gets a copy because the listeners may keep it.
+	 */
+	private void classifyFeatures(ClassifierBackend backend, double[] featureValues) {
+		if (mClassDistribution.length != backend.getClassCount()) {
+			mClassDistribution = new double[backend.getClassCount()];
+		}
+		int classIndex = backend.classify(fitFeatureValues(featureValues, backend.getFeatureCount()),
+				mClassDistribution);
+		if (classIndex < 0) {
+			if (FrameworkContext.WARN) Log.w(TAG, "Feature vector could not be classified.");
+			return;
+		}
+
+		String className = trainingData.classAttribute().value(classIndex);
+		double classProbability = mClassDistribution[classIndex];
+
+		if (FrameworkContext.INFO) {
+			StringBuilder logString = new StringBuilder();
+			logString.append("----- Classification Result -----\nClass Value = ").append(classIndex)
+					.append("\nClass Distribution = {");
+			for (double value : mClassDistribution) {
+				logString.append(value).append(";");
+			}
+			logString.deleteCharAt(logString.length() - 1);
+			logString.append("}\nClass Name = ").append(className);
+			Log.i("WekaData", logString.toString());
+		}
+
+		WekaEvent wekaEvent = new WekaEvent(this, className, classProbability, mPreviousCalculatedClassName,
+				mClassDistribution.clone());
+
+		notifyClassCalculated(wekaEvent);
+
+		if (mPreviousCalculatedClassName != null) {
+			if (mPreviousCalculatedClassName.equals(className)) {
+				notifyClassChanged(wekaEvent);
+			}
+		}
+		mPreviousCalculatedClassName = className;
+	}
+	
+	/**
+	 * Updates the class priors of the evaluation with all rows of the store.
+	 */
+	private void updatePriors(Evaluation evaluation, FeatureStore store) throws Exception {
+		double[] values = new double[testingData.numAttributes()];
+		DenseInstance instance = new DenseInstance(1.0, values);
+		instance.setDataset(testingData);
+		for (int row = 0; row < store.getRowCount(); row++) {
+			store.getRow(row, values);
+			values[values.length - 1] = store.getClassIndex(row);
+			if (values[values.length - 1] < 0) {
+				values[values.length - 1] = Double.NaN;
+			}
+			evaluation.updatePriors(instance);
+		}
+	}
+	
+	/**
+	 * Evaluates the classifier with all rows of the store, the same as
+	 * Evaluation.evaluateModel() with the instances of the store.
+	 */
+	private void evaluateModel(Evaluation evaluation, FeatureStore store) throws Exception {
+		double[] values = new double[testingData.numAttributes()];
+		DenseInstance instance = new DenseInstance(1.0, values);
+		instance.setDataset(testingData);
+		for (int row = 0; row < store.getRowCount(); row++) {
+			// the instance uses the array, no copy
+			store.getRow(row, values);
+			values[values.length - 1] = store.getClassIndex(row);
+			if (values[values.length - 1] < 0) {
+				values[values.length - 1] = Double.NaN;
+			}
+			evaluation.evaluateModelOnceAndRecordPrediction(classifier, instance);
+		}
+	}
+	
 	public void removeAllData() {
 		if (trainingData != null) {
 			trainingData.clear();
@@ -408,9 +761,20 @@ public class WekaManager implements IMetaDataTags {
 		if (testingData != null) {
 			testingData.clear();
 		}
+		if (mTrainingStore != null) {
+			mTrainingStore.clear();
+		}
+		if (mEvaluationStore != null) {
+			mEvaluationStore.clear();
+		}
+		if (mOnlineTrainer != null) {
+			mOnlineTrainer.reset();
+		}
 	}
 	
 	public void reset() {
+		closeArffWriter();
+		closeFeatureStores();
 		removeAllData();
 		singletonInstance = new WekaManager();
 	}
@@ -434,15 +798,23 @@ public class WekaManager implements IMetaDataTags {
 				mArffFile = new File(arffDir, arffFileName);
 				
 				if (isLogDirectlyToFile) {
-					mWriter = new BufferedWriter(new FileWriter(mArffFile, true), 8192);
+					closeArffWriter();
+					FrameworkConfiguration configuration = FrameworkConfiguration.getInstance();
+					mArffWriter = new ArffFeatureWriter(new BufferedWriter(new FileWriter(mArffFile, true), 8192));
+					mArffWriter.setFlushPolicy(configuration.getArffFlushInstances(), configuration.getArffFlushInterval());
 					
-					// add the metadata comments
-					for (String metaDataLine : metaData) {
-						mWriter.write("% " + metaDataLine);
-						mWriter.newLine();
+					// same header as the WEKA data set with the metadata comments
+					List<String> featureNames = new ArrayList<String>();
+					for (int i = 0; i < dataSet.numAttributes() - 1; i++) {
+						featureNames.add(dataSet.attribute(i).name());
 					}
-					mWriter.write(dataSet.toString());
-					mWriter.flush();
+					mArffWriter.writeHeader(metaData, dataSet.relationName(), featureNames, attClassVals);
+					mArffWriter.flush();
+					
+					// the same training data for training without parsing the ARFF file
+					closeFeatureStores();
+					mTrainingStore = FeatureStore.create(new File(arffDir, arffFileName.replace(".arff", FEATURE_STORE_EXTENSION)),
+							featureNames, attClassVals);
 					
 				} else {
 					BufferedWriter writer = new BufferedWriter(new FileWriter(mArffFile));
@@ -464,18 +836,128 @@ public class WekaManager implements IMetaDataTags {
 		}
 	}
 	
-	private void logArffData(String data) {
-		if (mWriter != null) {
+	private void logArffData(double[] featureValues, String className) {
+		if (mArffWriter != null) {
+			featureValues = fitFeatureValues(featureValues, mArffWriter.getFeatureCount());
 			try {
-				mWriter.write(data);
-				mWriter.newLine();
-				mWriter.flush();
+				if (!mArffWriter.writeFeatures(featureValues, className)) {
+					if (FrameworkContext.WARN) Log.w(TAG, "Unknown class value " + className + " was not logged.");
+				}
+				if (mTrainingStore != null) {
+					mTrainingStore.append(featureValues, className);
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 	}
 	
+	private void logEvaluationData(double[] featureValues, String className) {
+		try {
+			if (mEvaluationStore == null) {
+				if (!DataLogger.isExternalStorageAvailable()) {
+					return;
+				}
+				List<String> featureNames = new ArrayList<String>();
+				for (int i = 0; i < testingData.numAttributes() - 1; i++) {
+					featureNames.add(testingData.attribute(i).name());
+				}
+				File arffDir = new File(Environment.getExternalStorageDirectory() + FrameworkConfiguration.getInstance().getArffDirectory());
+				arffDir.mkdirs();
+				mEvaluationStore = FeatureStore.create(new File(arffDir, "Evaluation_" + new Date().getTime() + FEATURE_STORE_EXTENSION),
+						featureNames, attClassVals);
+			}
+			mEvaluationStore.append(fitFeatureValues(featureValues, mEvaluationStore.getFeatureCount()), className);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * @return the feature values or the values padded or cut to the feature count in a reused array
+	 */
+	private double[] fitFeatureValues(double[] featureValues, int featureCount) {
+		if (featureValues.length == featureCount) {
+			return featureValues;
+		}
+		if (FrameworkContext.WARN) Log.w(TAG, "Number of feature values and weka instance values differs.");
+		if (mFeatureValues.length != featureCount) {
+			mFeatureValues = new double[featureCount];
+		}
+		int length = Math.min(featureValues.length, featureCount);
+		System.arraycopy(featureValues, 0, mFeatureValues, 0, length);
+		for (int i = length; i < featureCount; i++) {
+			mFeatureValues[i] = 0.0;
+		}
+		return mFeatureValues;
+	}
+	
+	/**
+	 * Writes the training data that was logged directly to the ARFF file to
+	 * the storage, e.g. when the recording is stopped.
+	 */
+	public void flushArffData() {
+		if (mArffWriter != null) {
+			try {
+				mArffWriter.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (mTrainingStore != null) {
+			mTrainingStore.flush();
+		}
+		if (mEvaluationStore != null) {
+			mEvaluationStore.flush();
+		}
+	}
+	
+	private void closeFeatureStores() {
+		closeTrainingStore();
+		try {
+			if (mEvaluationStore != null) {
+				mEvaluationStore.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		mEvaluationStore = null;
+		isTrainedFromStore = false;
+	}
+	
+	/**
+	 * Closes the training store, the temporary store of a loaded ARFF file is
+	 * deleted.
+	 */
+	private void closeTrainingStore() {
+		try {
+			if (mTrainingStore != null) {
+				mTrainingStore.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		mTrainingStore = null;
+		isTrainedFromStore = false;
+		if (mTemporaryStoreFile != null) {
+			if (!mTemporaryStoreFile.delete()) {
+				if (FrameworkContext.WARN) Log.w(TAG, "Temporary feature store could not be deleted: " + mTemporaryStoreFile.getPath());
+			}
+			mTemporaryStoreFile = null;
+		}
+	}
+	
+	private void closeArffWriter() {
+		if (mArffWriter != null) {
+			try {
+				mArffWriter.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			mArffWriter = null;
+		}
+	}
+	
 	// ******************************************************************** //
     // sanity check methods
     // ******************************************************************** //
@@ -491,6 +973,9 @@ public class WekaManager implements IMetaDataTags {
 	}
 	
 	public boolean isTestingDataAvailable() {
+		if (mEvaluationStore != null && mEvaluationStore.getRowCount() > 0) {
+			return true;
+		}
 		if (testingData == null || testingData.isEmpty()) {
 			return false;
 		}